@@ -112,7 +112,7 @@ public abstract class GenericActivity<RequiredViewOps,
                             RequiredViewOps view)
             throws InstantiationException, IllegalAccessException {
         // Create the PresenterType object.
-        mPresenterInstance = opsType.newInstance();
+        mPresenterInstance = Factories.newInstance(opsType);
 
         // Put the PresenterInstance into the RetainedFragmentManager under
         // the simple name.
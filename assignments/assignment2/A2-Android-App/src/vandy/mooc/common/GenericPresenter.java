@@ -55,7 +55,7 @@ public class GenericPresenter<RequiredPresenterOps,
                             RequiredPresenterOps presenter)
             throws InstantiationException, IllegalAccessException {
         // Create the ModelType object.
-        mOpsInstance = opsType.newInstance();
+        mOpsInstance = Factories.newInstance(opsType);
 
         // Perform the first initialization.
         mOpsInstance.onCreate(presenter);
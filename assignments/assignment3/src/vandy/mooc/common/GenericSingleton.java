@@ -1,7 +1,6 @@
 package vandy.mooc.common;
 
-import java.util.HashMap;
-import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
 import android.util.Log;
 
@@ -11,6 +10,11 @@ import android.util.Log;
  * since Java Generic don't support proper singletons (a la the
  * "Gang-of-Four" book).  More information about this approach appears
  * at http://neutrofoton.com/generic-singleton-pattern-in-java.
+ *
+ * Looking up an existing instance doesn't take any locks, so the
+ * many threads that call instance() on every cache access don't
+ * serialize on a global monitor.  The lock is only taken to create
+ * an instance.
  */
 public class GenericSingleton {
     /**
@@ -24,26 +28,33 @@ public class GenericSingleton {
      */
     private static final GenericSingleton sInstance =
         new GenericSingleton();
-	
+
     /**
-     * This HashMap ensures only one object of type Class<T> is
-     * created.
+     * This ConcurrentHashMap ensures only one object of type Class<T>
+     * is created.
      */
     @SuppressWarnings("rawtypes")
-    private Map<Class, Object> mMap =
-        new HashMap<>();
-	
+    private final ConcurrentHashMap<Class, Object> mMap =
+        new ConcurrentHashMap<>();
+
     /**
      * Return the one and only instance of Class<T>, which is created
      * on-demand if it doesn't exist.
      */
     @SuppressWarnings("unchecked")
-    public static <T> T instance(Class<T> classOf) { 
-        // Ensure thread-safety.
+    public static <T> T instance(Class<T> classOf) {
+        // Try to get the one and only instance of Class<T> that's
+        // stored in the map without locking, which is the common
+        // case.
+        T t = (T) sInstance.mMap.get(classOf);
+        if (t != null)
+            return t;
+
+        // Serialize the creation of instances so a Class<T> whose
+        // constructor starts threads or opens files is never created
+        // more than once.
         synchronized(sInstance) {
-            // Try to get the one and only instance of Class<T> that's
-            // stored in the map.
-            T t = (T) sInstance.mMap.get(classOf);          
+            t = (T) sInstance.mMap.get(classOf);
 
             // Check to see if this is the first time a request for an
             // instance of Class<T> has been occurred.
@@ -51,51 +62,84 @@ public class GenericSingleton {
                 try {
                     // If this is the first time in then create a new
                     // instance of Class<T>.
-                    t = classOf.newInstance();
+                    t = Factories.newInstance(classOf);
                 } catch (Exception e) {
                     Log.d(TAG,
                           "GenericSingleton.instance() "
                           + e);
-                    t = null;
+                    return null;
                 }
+
                 // Store the new instance of Class<T> in the map so
                 // it'll be available next time instance() is called.
                 sInstance.mMap.put(classOf, t);
             }
+
             // Return the one and only instance of Class<T>.
             return t;
         }
-    } 
+    }
 
     /**
-     * If @a classOf is in the singleton map then set it to null so
-     * it's cleaned up properly by the garbage collector.
+     * Return the one and only instance of Class<T> after incrementing
+     * its reference count.  If the instance has been closed by a
+     * concurrent call to release() it's replaced by a new instance,
+     * so this method never returns a closed instance.
+     */
+    public static <T extends RefCounted> T acquire(Class<T> classOf) {
+        for (;;) {
+            T t = instance(classOf);
+            if (t == null
+                || t.tryIncrementRefCount())
+                return t;
+
+            // The instance was closed, so remove it unless another
+            // thread has already replaced it and then try again.
+            sInstance.mMap.remove(classOf, t);
+        }
+    }
+
+    /**
+     * Decrement the reference count of the one and only instance of
+     * Class<T> and remove it from the singleton map if the count
+     * drops to 0 and the instance is closed.  The instance is only
+     * removed if it's still the one in the map.  An instance that
+     * lingers stays in the map, so it can be reacquired, and is
+     * replaced by acquire() once it's closed.
+     *
+     * @return The new reference count, or 0 if there's no instance.
+     */
+    public static <T extends RefCounted> int release(Class<T> classOf) {
+        Object t = sInstance.mMap.get(classOf);
+        if (t == null)
+            return 0;
+
+        RefCounted refCounted = (RefCounted) t;
+        int count = refCounted.decrementRefCount();
+        if (refCounted.isClosed())
+            sInstance.mMap.remove(classOf, t);
+        return count;
+    }
+
+    /**
+     * If @a classOf is in the singleton map then remove it so it's
+     * cleaned up properly by the garbage collector.
      *
      * @return True if @a classOf is found/removed, else false.
      */
     public static <T> boolean remove(Class<T> classOf) {
-        synchronized(sInstance) {
-            // Try to get the one and only instance of Class<T> that's
-            // stored in the map and if it's found, set it to null so
-            // it will be garbage collected.
-            if (sInstance.mMap.get(classOf) != null) {
-                sInstance.mMap.put(classOf, 
-                                   null);
-                return true;
-            } else
-                return false;
-        }
+        return sInstance.mMap.remove(classOf) != null;
     }
 
     /**
      * Disallow instantiation.
      */
     private GenericSingleton() {}
-	
+
     /**
      * Disallow cloning.
      */
     public Object clone() throws CloneNotSupportedException {
         throw new CloneNotSupportedException();
-    } 
+    }
 }
@@ -4,11 +4,13 @@ import java.util.List;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 
+import vandy.mooc.common.RequestTracker;
 import vandy.mooc.model.aidl.WeatherData;
 import vandy.mooc.model.aidl.WeatherRequest;
 import vandy.mooc.model.aidl.WeatherResults;
 import android.content.Context;
 import android.content.Intent;
+import android.os.Binder;
 import android.os.IBinder;
 import android.os.Looper;
 import android.util.Log;
@@ -24,7 +26,9 @@ import android.util.Log;
  * location as a string.  After the lookup finishes successfully, this
  * Service sends the Weather results back to the client by invoking
  * sendResults() on the WeatherResults object.  An unsuccessful lookup
- * will invoke sendError() on the WeatherResults object.
+ * will invoke sendError() on the WeatherResults object.  The client
+ * can cancel a request it no longer needs, and each request can have
+ * a deadline after which it's cancelled.
  * 
  * AIDL is an example of the Broker Pattern, in which all interprocess
  * communication details are hidden behind the AIDL interfaces.
@@ -39,6 +43,12 @@ public class WeatherServiceAsync
      */
     private ExecutorService mExecutorService;
 
+    /**
+     * Keeps track of the requests that haven't finished, so they can
+     * be cancelled by their clients or when their deadlines pass.
+     */
+    private RequestTracker mRequestTracker;
+
     /**
      * Factory method that makes an explicit intent used to start the
      * WeatherServiceAsync when passed to bindService().
@@ -61,6 +71,9 @@ public class WeatherServiceAsync
 
         // Create an ExecutorService that manages a pool of threads.
         mExecutorService = Executors.newCachedThreadPool();
+
+        // Create a RequestTracker that cancels requests.
+        mRequestTracker = new RequestTracker();
     }
 
     /**
@@ -71,6 +84,9 @@ public class WeatherServiceAsync
     public void onDestroy() {
         // Immediately shutdown the ExecutorService.
         mExecutorService.shutdownNow(); 
+        Log.d(TAG,
+              "shut down "
+              + mRequestTracker);
 
         // Call up to the super onCreate() method to perform its
         // destruction operations.
@@ -87,6 +103,18 @@ public class WeatherServiceAsync
         return mWeatherRequestImpl;
     }
 
+    /**
+     * Return the key used to track the request with @a requestId from
+     * the calling client.  Request ids are only unique per client, so
+     * the key includes the client's process id, which means this
+     * method must be called on the Binder thread.
+     */
+    private static String makeKey(long requestId) {
+        return Binder.getCallingPid()
+            + ":"
+            + requestId;
+    }
+
     /**
      * The concrete implementation of the AIDL Interface
      * WeatherRequest, which extends the Stub class that implements
@@ -103,12 +131,32 @@ public class WeatherServiceAsync
              * Implement the AIDL WeatherRequest getCurrentWeather()
              * method, which forwards to getWeatherResults() to obtain
              * the results and then sends these results back to the
-             * client via the callback.
+             * client via the callback.  The work should be done by a
+             * RequestTracker.Request that's registered with
+             * mRequestTracker under makeKey(requestId), and which
+             * checks isCancelled() before invoking the callback.
              */
             @Override
-            public void getCurrentWeather(final String location,
+            public void getCurrentWeather(long requestId,
+                                          long timeoutMillis,
+                                          final String location,
                                           final WeatherResults callback) {
                 // TODO -- you fill in here.
             }
+
+            /**
+             * Implement the AIDL WeatherRequest cancel() method,
+             * which cancels the calling client's request with @a
+             * requestId if it hasn't finished.
+             */
+            @Override
+            public void cancel(long requestId) {
+                if (mRequestTracker.cancel(makeKey(requestId)))
+                    Log.d(TAG,
+                          "cancelled request "
+                          + requestId
+                          + " "
+                          + mRequestTracker);
+            }
         };
 }
@@ -1,15 +1,18 @@
 package vandy.mooc.model.services;
 
-import java.io.BufferedInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.net.HttpURLConnection;
 import java.net.URI;
 import java.net.URL;
 import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.TimeUnit;
 
+import vandy.mooc.common.DecayingBloomFilter;
 import vandy.mooc.common.ExecutorServiceTimeoutCache;
 import vandy.mooc.common.GenericSingleton;
+import vandy.mooc.common.HttpTransport;
 import vandy.mooc.common.LifecycleLoggingService;
 import vandy.mooc.model.aidl.WeatherData;
 import vandy.mooc.model.aidl.WeatherDataJsonParser;
@@ -42,6 +45,76 @@ public class WeatherServiceBase
      */
     private int DEFAULT_CACHE_TIMEOUT = 10;
 
+    /**
+     * Maximum number of WeatherData objects held by the
+     * WeatherCache.  Once this limit is reached the least popular
+     * locations are evicted, which prevents a burst of distinct city
+     * names from growing the cache without bound.
+     */
+    private static final long MAX_CACHE_WEIGHT = 1000;
+
+    /**
+     * Percentage of DEFAULT_CACHE_TIMEOUT after which cached results
+     * are refreshed in the background, so callers asking for popular
+     * locations don't wait for the web service when their entries
+     * expire.
+     */
+    private static final int REFRESH_AHEAD_PERCENT = 80;
+
+    /**
+     * Number of milliseconds the WeatherCache lingers after the last
+     * Service using it is destroyed.  If a Service is created again
+     * within this time, e.g., because a client rebinds after a
+     * configuration change, the cache and its entries are reused
+     * rather than rebuilt.
+     */
+    private static final long CACHE_LINGER_TIME = 30 * 1000;
+
+    /**
+     * Number of seconds after which a location that the Weather
+     * Service couldn't find may be queried again.  Until then lookups
+     * of the location, e.g., a repeated typo, are answered without a
+     * round trip to the Weather Service.
+     */
+    private static final int NEGATIVE_CACHE_TIMEOUT = 60;
+
+    /**
+     * Number of unknown locations expected per
+     * NEGATIVE_CACHE_TIMEOUT, which determines the size of the
+     * UnknownLocations filter.
+     */
+    private static final int MAX_UNKNOWN_LOCATIONS = 1000;
+
+    /**
+     * Number of milliseconds to wait for a connection to the Weather
+     * Service and for each read of its response.
+     */
+    private static final int CONNECT_TIMEOUT = 10 * 1000;
+    private static final int READ_TIMEOUT = 15 * 1000;
+
+    /**
+     * Sends the queries to the Weather Service.  It's shared by all
+     * the threads in the process, so their queries reuse the same
+     * persistent connections rather than opening a new connection
+     * per location.
+     */
+    private static final HttpTransport sHttpTransport =
+        new HttpTransport(CONNECT_TIMEOUT,
+                          READ_TIMEOUT);
+
+    /**
+     * Parses the Json results returned by the Weather Service.
+     */
+    private static final HttpTransport.ResponseHandler<List<WeatherData>>
+        sJsonHandler =
+        new HttpTransport.ResponseHandler<List<WeatherData>>() {
+            @Override
+            public List<WeatherData> handleResponse(InputStream in)
+                throws IOException {
+                return new WeatherDataJsonParser().parseJsonStream(in);
+            }
+        };
+
     /**
      * Define a class that will cache the WeatherData since it doesn't
      * change rapidly.  This class is passed to the
@@ -49,7 +122,62 @@ public class WeatherServiceBase
      * instance of the WeatherCache.
      */
     public static class WeatherCache 
-           extends ExecutorServiceTimeoutCache<String, List<WeatherData>> {}
+           extends ExecutorServiceTimeoutCache<String, List<WeatherData>> {
+        /**
+         * Constructor bounds the cache by the total number of
+         * WeatherData objects it holds.
+         */
+        public WeatherCache() {
+            super(MAX_CACHE_WEIGHT);
+        }
+
+        /**
+         * The weight of an entry is its number of WeatherData
+         * objects.
+         */
+        @Override
+        protected int weigh(String location,
+                            List<WeatherData> weatherData) {
+            return weatherData.size();
+        }
+
+        /**
+         * Refresh entries ahead of their expiration.
+         */
+        @Override
+        protected int refreshAheadPercent() {
+            return REFRESH_AHEAD_PERCENT;
+        }
+
+        /**
+         * Linger after the last Service using the cache is destroyed.
+         */
+        @Override
+        protected long lingerTime() {
+            return CACHE_LINGER_TIME;
+        }
+    }
+
+    /**
+     * Define a class that remembers the locations the Weather Service
+     * recently couldn't find.  This class is passed to the
+     * GenericSingleton.instance() method to retrieve the one and only
+     * instance of the UnknownLocations.  Since it's a Bloom filter it
+     * can occasionally report a known location as unknown, which only
+     * lasts until the location is forgotten.
+     */
+    public static class UnknownLocations
+           extends DecayingBloomFilter<String> {
+        /**
+         * Constructor sizes the filter and sets the time after which
+         * locations are forgotten.
+         */
+        public UnknownLocations() {
+            super(MAX_UNKNOWN_LOCATIONS,
+                  NEGATIVE_CACHE_TIMEOUT,
+                  TimeUnit.SECONDS);
+        }
+    }
 
     /**
      * Hook method called when the Service is created.
@@ -94,6 +222,19 @@ public class WeatherServiceBase
      * back from the Weather Service.
      */
     private List<WeatherData> getResultsFromWeatherService(String location) {
+        UnknownLocations unknownLocations =
+            GenericSingleton.instance(UnknownLocations.class);
+
+        // Don't query the Weather Service for a location it recently
+        // couldn't find.
+        if (unknownLocations.mightContain(location)) {
+            Log.d(TAG,
+                  "Skipping the Weather Service for unknown location \""
+                  + location
+                  + "\"");
+            return null;
+        }
+
         // Create a List that will return the WeatherData obtained
         // from the Weather Service web service.
         List<WeatherData> returnList = null;
@@ -111,25 +252,25 @@ public class WeatherServiceBase
                                     url.getRef());
             url = uri.toURL();
 
-            // Opens a connection to the Weather Service.
-            HttpURLConnection urlConnection =
-                (HttpURLConnection) url.openConnection();
-
-            // Sends the GET request and returns a stream containing
-            // the Json results.
-            try (InputStream in =
-                 new BufferedInputStream(urlConnection.getInputStream())) {
-                    // Create the parser.
-                 final WeatherDataJsonParser parser =
-                     new WeatherDataJsonParser();
-            
-                // Parse the Json results and create List of
-                // WeatherData objects.
-                returnList = parser.parseJsonStream(in);
-            } finally {
-                urlConnection.disconnect();
-            }
+            // Send the GET request over a pooled connection and parse
+            // the Json results to create a List of WeatherData
+            // objects.
+            returnList = sHttpTransport.get(url,
+                                            sJsonHandler);
+        } catch (HttpTransport.HttpException e) {
+            // Remember that the Weather Service couldn't find this
+            // location.
+            if (e.getResponseCode() == HttpURLConnection.HTTP_NOT_FOUND)
+                unknownLocations.put(location);
+            e.printStackTrace();
+            return null;
         } catch (Exception e) {
+            // If the request was cancelled don't cache anything or
+            // remember the location as unknown.
+            if (Thread.currentThread().isInterrupted())
+                throw new CancellationException("lookup of "
+                                                + location
+                                                + " was cancelled");
             e.printStackTrace();
             return null;
         }
@@ -142,11 +283,21 @@ public class WeatherServiceBase
             // Return the List of WeatherData.
             return returnList;
         } else {
-            Log.d(TAG, 
-                  returnList.get(0).getMessage()
-                  + " \""
-                  + location
-                  + "\"");
+            if (returnList != null
+                && returnList.size() > 0) {
+                Log.d(TAG, 
+                      returnList.get(0).getMessage()
+                      + " \""
+                      + location
+                      + "\"");
+
+                // Remember that the Weather Service couldn't find
+                // this location, i.e., "Error: Not found city".
+                // Other errors, e.g., failures to reach the Weather
+                // Service, aren't remembered.
+                if (returnList.get(0).getCod() == HttpURLConnection.HTTP_NOT_FOUND)
+                    unknownLocations.put(location);
+            }
 
             return null;
         }
@@ -0,0 +1,192 @@
+package edu.vandy.model.aidl;
+
+import android.os.Parcel;
+import android.support.test.runner.AndroidJUnit4;
+import android.util.Log;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Compares the cost of marshaling the expansions of an acronym as a
+ * List<AcronymExpansion>, which is how the AIDL interfaces originally
+ * returned them, with the columnar AcronymExpansionBatch.  It runs on
+ * a device since only a real Parcel gives meaningful sizes and times,
+ * and logs the Parcel size and the average marshal and de-marshal
+ * times of both forms for 10, 100 and 1000 expansions.
+ */
+@RunWith(AndroidJUnit4.class)
+public class AcronymExpansionBatchBenchmark {
+    /**
+     * Logging tag.
+     */
+    private static final String TAG = "AcronymExpansionBatchBenchmark";
+
+    /**
+     * Numbers of expansions that are measured.
+     */
+    private static final int[] SIZES = { 10, 100, 1000 };
+
+    /**
+     * Number of untimed iterations that warm up the runtime.
+     */
+    private static final int WARMUP_ITERATIONS = 200;
+
+    /**
+     * Number of timed iterations.
+     */
+    private static final int ITERATIONS = 1000;
+
+    /**
+     * Expansions whose long forms are all distinct.
+     */
+    @Test
+    public void distinctLongForms() {
+        for (int size : SIZES)
+            measure(makeExpansions(size,
+                                   size),
+                    "distinct");
+    }
+
+    /**
+     * Expansions in which each long form appears four times, which
+     * is where the dictionary encoding helps most.
+     */
+    @Test
+    public void repeatedLongForms() {
+        for (int size : SIZES)
+            measure(makeExpansions(size,
+                                   Math.max(size / 4, 1)),
+                    "repeated");
+    }
+
+    /**
+     * Return @a size expansions with @a distinct different long
+     * forms.
+     */
+    private static List<AcronymExpansion> makeExpansions(int size,
+                                                         int distinct) {
+        List<AcronymExpansion> expansions = new ArrayList<>(size);
+        for (int i = 0; i < size; ++i)
+            expansions.add(new AcronymExpansion("Long Form Number "
+                                                + (i % distinct),
+                                                size - i,
+                                                1950 + i % 60));
+        return expansions;
+    }
+
+    /**
+     * Check that @a expansions survive marshaling in both forms and
+     * log how big and how fast each form is.
+     */
+    private static void measure(List<AcronymExpansion> expansions,
+                                String label) {
+        // Both forms must de-marshal to the same expansions.
+        Parcel parcel = Parcel.obtain();
+        parcel.writeTypedList(expansions);
+        int listSize = parcel.dataSize();
+        parcel.setDataPosition(0);
+        assertSame(expansions,
+                   parcel.createTypedArrayList(AcronymExpansion.CREATOR));
+        parcel.recycle();
+
+        parcel = Parcel.obtain();
+        new AcronymExpansionBatch(expansions).writeToParcel(parcel,
+                                                            0);
+        int batchSize = parcel.dataSize();
+        parcel.setDataPosition(0);
+        assertSame(expansions,
+                   AcronymExpansionBatch.CREATOR.createFromParcel(parcel).toList());
+        parcel.recycle();
+
+        // The batch is never bigger, since it drops the per-element
+        // headers and stores each long form once.
+        Assert.assertTrue(batchSize <= listSize);
+
+        for (int i = 0; i < WARMUP_ITERATIONS; ++i) {
+            marshalList(expansions);
+            marshalBatch(expansions);
+        }
+
+        long listTime = 0;
+        long batchTime = 0;
+        for (int i = 0; i < ITERATIONS; ++i) {
+            long start = System.nanoTime();
+            marshalList(expansions);
+            long middle = System.nanoTime();
+            marshalBatch(expansions);
+            long end = System.nanoTime();
+            listTime += middle - start;
+            batchTime += end - middle;
+        }
+
+        Log.i(TAG,
+              label
+              + " n="
+              + expansions.size()
+              + " list: "
+              + listSize
+              + " bytes, "
+              + listTime / ITERATIONS / 1000.0
+              + " us; batch: "
+              + batchSize
+              + " bytes, "
+              + batchTime / ITERATIONS / 1000.0
+              + " us; size reduction "
+              + (100 - batchSize * 100 / listSize)
+              + "%");
+    }
+
+    /**
+     * Marshal and de-marshal @a expansions as a List, the way AIDL
+     * does for a List<AcronymExpansion> parameter.
+     */
+    private static List<AcronymExpansion> marshalList(List<AcronymExpansion> expansions) {
+        Parcel parcel = Parcel.obtain();
+        try {
+            parcel.writeTypedList(expansions);
+            parcel.setDataPosition(0);
+            return parcel.createTypedArrayList(AcronymExpansion.CREATOR);
+        } finally {
+            parcel.recycle();
+        }
+    }
+
+    /**
+     * Build, marshal and de-marshal an AcronymExpansionBatch of
+     * @a expansions, and convert it back to a List, which includes
+     * all the work the Acronym Services and their clients do.
+     */
+    private static List<AcronymExpansion> marshalBatch(List<AcronymExpansion> expansions) {
+        Parcel parcel = Parcel.obtain();
+        try {
+            new AcronymExpansionBatch(expansions).writeToParcel(parcel,
+                                                                0);
+            parcel.setDataPosition(0);
+            return AcronymExpansionBatch.CREATOR.createFromParcel(parcel).toList();
+        } finally {
+            parcel.recycle();
+        }
+    }
+
+    /**
+     * Assert that @a actual holds the same expansions as @a expected.
+     */
+    private static void assertSame(List<AcronymExpansion> expected,
+                                   List<AcronymExpansion> actual) {
+        Assert.assertEquals(expected.size(),
+                            actual.size());
+        for (int i = 0; i < expected.size(); ++i) {
+            Assert.assertEquals(expected.get(i).getLf(),
+                                actual.get(i).getLf());
+            Assert.assertEquals(expected.get(i).getFreq(),
+                                actual.get(i).getFreq());
+            Assert.assertEquals(expected.get(i).getSince(),
+                                actual.get(i).getSince());
+        }
+    }
+}
@@ -0,0 +1,278 @@
+package edu.vandy.common;
+
+import java.util.Arrays;
+
+import android.os.Parcel;
+import android.os.Parcelable;
+
+/**
+ * An immutable snapshot of the statistics of a TimeoutCache, which
+ * is returned by TimeoutCache.getStats().  It implements Parcelable
+ * so a Service can return it to its clients via AIDL.
+ *
+ * The load times and value sizes are kept in histograms whose
+ * buckets grow by powers of two, i.e., bucket 0 counts the values
+ * that are 0 and bucket i counts the values in the range [2^(i - 1),
+ * 2^i).  The last bucket also counts all larger values.
+ */
+public class CacheStats
+       implements Parcelable {
+    /**
+     * Number of buckets in each histogram.
+     */
+    public static final int BUCKETS = 32;
+
+    /**
+     * The counters.
+     */
+    private final long mHitCount;
+    private final long mMissCount;
+    private final long mExpirationCount;
+    private final long mOverwriteCount;
+    private final long mEvictionCount;
+    private final long mLoadCount;
+    private final long mTotalLoadTime;
+
+    /**
+     * Histogram of load times in microseconds.
+     */
+    private final long[] mLoadTimes;
+
+    /**
+     * Histogram of the sizes of the values put into the cache.
+     */
+    private final long[] mValueSizes;
+
+    /**
+     * Constructor initializes the fields.
+     */
+    public CacheStats(long hitCount,
+                      long missCount,
+                      long expirationCount,
+                      long overwriteCount,
+                      long evictionCount,
+                      long loadCount,
+                      long totalLoadTime,
+                      long[] loadTimes,
+                      long[] valueSizes) {
+        mHitCount = hitCount;
+        mMissCount = missCount;
+        mExpirationCount = expirationCount;
+        mOverwriteCount = overwriteCount;
+        mEvictionCount = evictionCount;
+        mLoadCount = loadCount;
+        mTotalLoadTime = totalLoadTime;
+        mLoadTimes = loadTimes;
+        mValueSizes = valueSizes;
+    }
+
+    /**
+     * Private constructor used by the CREATOR.
+     */
+    private CacheStats(Parcel in) {
+        this(in.readLong(),
+             in.readLong(),
+             in.readLong(),
+             in.readLong(),
+             in.readLong(),
+             in.readLong(),
+             in.readLong(),
+             in.createLongArray(),
+             in.createLongArray());
+    }
+
+    /**
+     * Return the number of lookups that found a value.
+     */
+    public long getHitCount() {
+        return mHitCount;
+    }
+
+    /**
+     * Return the number of lookups that didn't find a value.
+     */
+    public long getMissCount() {
+        return mMissCount;
+    }
+
+    /**
+     * Return the ratio of lookups that found a value, which is 1.0 if
+     * there haven't been any lookups.
+     */
+    public double getHitRate() {
+        long requestCount = mHitCount + mMissCount;
+        return requestCount == 0
+            ? 1.0
+            : (double) mHitCount / requestCount;
+    }
+
+    /**
+     * Return the number of entries removed because they expired.
+     */
+    public long getExpirationCount() {
+        return mExpirationCount;
+    }
+
+    /**
+     * Return the number of put() calls that replaced an entry.
+     */
+    public long getOverwriteCount() {
+        return mOverwriteCount;
+    }
+
+    /**
+     * Return the number of entries evicted to make room for others.
+     */
+    public long getEvictionCount() {
+        return mEvictionCount;
+    }
+
+    /**
+     * Return the number of loads performed by getOrLoad().
+     */
+    public long getLoadCount() {
+        return mLoadCount;
+    }
+
+    /**
+     * Return the average time of a load in nanoseconds.
+     */
+    public long getAverageLoadTime() {
+        return mLoadCount == 0
+            ? 0
+            : mTotalLoadTime / mLoadCount;
+    }
+
+    /**
+     * Return a copy of the histogram of load times in microseconds.
+     */
+    public long[] getLoadTimeHistogram() {
+        return mLoadTimes.clone();
+    }
+
+    /**
+     * Return a copy of the histogram of value sizes.
+     */
+    public long[] getValueSizeHistogram() {
+        return mValueSizes.clone();
+    }
+
+    /**
+     * Return an upper bound of the @a percentile (between 0 and 100)
+     * of the load times in microseconds.
+     */
+    public long getLoadTimePercentile(double percentile) {
+        return percentileOf(mLoadTimes,
+                            percentile);
+    }
+
+    /**
+     * Return an upper bound of the @a percentile (between 0 and 100)
+     * of the value sizes.
+     */
+    public long getValueSizePercentile(double percentile) {
+        return percentileOf(mValueSizes,
+                            percentile);
+    }
+
+    /**
+     * Return the bucket of a histogram that counts @a value.
+     */
+    static int bucketOf(long value) {
+        return value <= 0
+            ? 0
+            : Math.min(64 - Long.numberOfLeadingZeros(value),
+                       BUCKETS - 1);
+    }
+
+    /**
+     * Return the exclusive upper bound of the values in the @a
+     * percentile of @a histogram.
+     */
+    private static long percentileOf(long[] histogram,
+                                     double percentile) {
+        long total = 0;
+        for (long count : histogram)
+            total += count;
+
+        long rank = (long) Math.ceil(total * percentile / 100);
+        long count = 0;
+        for (int bucket = 0; bucket < histogram.length; ++bucket) {
+            count += histogram[bucket];
+            if (count >= rank && count > 0)
+                return 1L << bucket;
+        }
+        return 0;
+    }
+
+    /**
+     * The toString() custom implementation.
+     */
+    @Override
+    public String toString() {
+        return "CacheStats [hits="
+            + mHitCount
+            + ", misses="
+            + mMissCount
+            + ", expirations="
+            + mExpirationCount
+            + ", overwrites="
+            + mOverwriteCount
+            + ", evictions="
+            + mEvictionCount
+            + ", loads="
+            + mLoadCount
+            + ", averageLoadTime="
+            + getAverageLoadTime()
+            + "ns, loadTimes="
+            + Arrays.toString(mLoadTimes)
+            + ", valueSizes="
+            + Arrays.toString(mValueSizes)
+            + "]";
+    }
+
+    /*
+     * Parcelable related methods.
+     */
+
+    /**
+     * A bitmask indicating the set of special object types
+     * marshaled by the Parcelable.
+     */
+    @Override
+    public int describeContents() {
+        return 0;
+    }
+
+    /**
+     * Marshal this CacheStats to the target Parcel.
+     */
+    @Override
+    public void writeToParcel(Parcel dest,
+                              int flags) {
+        dest.writeLong(mHitCount);
+        dest.writeLong(mMissCount);
+        dest.writeLong(mExpirationCount);
+        dest.writeLong(mOverwriteCount);
+        dest.writeLong(mEvictionCount);
+        dest.writeLong(mLoadCount);
+        dest.writeLong(mTotalLoadTime);
+        dest.writeLongArray(mLoadTimes);
+        dest.writeLongArray(mValueSizes);
+    }
+
+    /**
+     * public Parcelable.Creator for CacheStats, which generates
+     * instances of CacheStats from a Parcel.
+     */
+    public static final Parcelable.Creator<CacheStats> CREATOR =
+        new Parcelable.Creator<CacheStats>() {
+            public CacheStats createFromParcel(Parcel in) {
+                return new CacheStats(in);
+            }
+
+            public CacheStats[] newArray(int size) {
+                return new CacheStats[size];
+            }
+        };
+}
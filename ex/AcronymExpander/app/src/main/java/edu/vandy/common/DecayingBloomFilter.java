@@ -0,0 +1,195 @@
+package edu.vandy.common;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A Bloom filter whose keys are forgotten after a time-to-live
+ * elapses, which is useful as a compact negative cache, e.g., of
+ * lookups that are known to have no results.  The filter keeps two
+ * generations of bits.  Keys are added to the current generation and
+ * found in either one.  Every half time-to-live the previous
+ * generation is discarded and the current one takes its place, so a
+ * key is remembered for between one half and one whole time-to-live
+ * after it was last added.
+ *
+ * Like any Bloom filter it can report false positives, but never
+ * false negatives.  Reads and writes don't block each other since the
+ * bits are updated atomically.
+ */
+public class DecayingBloomFilter<K> {
+    /**
+     * Default probability of a false positive.
+     */
+    protected static final double DEFAULT_FALSE_POSITIVE_RATE = 0.001;
+
+    /**
+     * Number of bits in each generation, which is a power of two.
+     */
+    private final int mBits;
+
+    /**
+     * Number of hash functions applied to each key.
+     */
+    private final int mHashes;
+
+    /**
+     * Time (in nanoseconds) after which the generations rotate.
+     */
+    private final long mRotationNanos;
+
+    /**
+     * The current and previous generations of bits, which are
+     * replaced together when the generations rotate.
+     */
+    private volatile AtomicLongArray[] mGenerations;
+
+    /**
+     * Time (in nanoseconds) of the last rotation.
+     */
+    private volatile long mRotationTime;
+
+    /**
+     * Constructor initializes the filter so it holds up to @a
+     * expectedKeys keys per half @a timeToLive with the default false
+     * positive rate.
+     */
+    public DecayingBloomFilter(int expectedKeys,
+                               long timeToLive,
+                               TimeUnit unit) {
+        this(expectedKeys,
+             DEFAULT_FALSE_POSITIVE_RATE,
+             timeToLive,
+             unit);
+    }
+
+    /**
+     * Constructor initializes the filter so it holds up to @a
+     * expectedKeys keys per half @a timeToLive with the given @a
+     * falsePositiveRate.
+     */
+    public DecayingBloomFilter(int expectedKeys,
+                               double falsePositiveRate,
+                               long timeToLive,
+                               TimeUnit unit) {
+        // Compute the optimal number of bits and round it up to a
+        // power of two so a hash can be mapped onto a bit with a mask.
+        double optimalBits = -expectedKeys * Math.log(falsePositiveRate)
+            / (Math.log(2) * Math.log(2));
+        int bits = 64;
+        while (bits < optimalBits)
+            bits <<= 1;
+
+        mBits = bits;
+        mHashes = Math.max(1,
+                           (int) Math.round(optimalBits / expectedKeys
+                                            * Math.log(2)));
+        mRotationNanos = unit.toNanos(timeToLive) / 2;
+        mGenerations = new AtomicLongArray[] {
+            new AtomicLongArray(bits / 64),
+            new AtomicLongArray(bits / 64)
+        };
+        mRotationTime = System.nanoTime();
+    }
+
+    /**
+     * Add @a key to the filter.
+     */
+    public void put(K key) {
+        AtomicLongArray current = generations()[0];
+        long hash = hash(key);
+
+        for (int i = 0; i < mHashes; ++i) {
+            int bit = bitOf(hash, i);
+            long mask = 1L << bit;
+            int index = bit >>> 6;
+
+            // Set the bit atomically without losing concurrent
+            // updates of the other bits in the same word.
+            long word;
+            while (((word = current.get(index)) & mask) == 0
+                   && !current.compareAndSet(index, word, word | mask))
+                continue;
+        }
+    }
+
+    /**
+     * Return true if @a key might have been added within its
+     * time-to-live, or false if it definitely hasn't.
+     */
+    public boolean mightContain(K key) {
+        AtomicLongArray[] generations = generations();
+        long hash = hash(key);
+
+        return contains(generations[0], hash)
+            || contains(generations[1], hash);
+    }
+
+    /**
+     * Return true if all the bits of @a hash are set in @a
+     * generation.
+     */
+    private boolean contains(AtomicLongArray generation,
+                             long hash) {
+        for (int i = 0; i < mHashes; ++i) {
+            int bit = bitOf(hash, i);
+            if ((generation.get(bit >>> 6) & (1L << bit)) == 0)
+                return false;
+        }
+        return true;
+    }
+
+    /**
+     * Return the current and previous generations, rotating them
+     * first if they're due.
+     */
+    private AtomicLongArray[] generations() {
+        long now = System.nanoTime();
+        if (now - mRotationTime >= mRotationNanos)
+            synchronized (this) {
+                // Recheck while holding the lock since another
+                // thread may have rotated the generations meanwhile.
+                long elapsed = now - mRotationTime;
+                if (elapsed >= mRotationNanos) {
+                    AtomicLongArray current =
+                        new AtomicLongArray(mBits / 64);
+
+                    // If a whole time-to-live has passed then the
+                    // current generation has expired, too.
+                    AtomicLongArray previous =
+                        elapsed >= 2 * mRotationNanos
+                        ? new AtomicLongArray(mBits / 64)
+                        : mGenerations[0];
+
+                    mGenerations =
+                        new AtomicLongArray[] { current, previous };
+                    mRotationTime = now;
+                }
+            }
+        return mGenerations;
+    }
+
+    /**
+     * Return the @a i'th bit of the key whose hash is @a hash, which
+     * is computed from two halves of the hash via double hashing.
+     */
+    private int bitOf(long hash,
+                      int i) {
+        int h1 = (int) hash;
+        int h2 = (int) (hash >>> 32);
+        return (h1 + i * h2) & (mBits - 1);
+    }
+
+    /**
+     * Return a well-mixed 64 bit hash of @a key.
+     */
+    private static long hash(Object key) {
+        long h = key.hashCode() * 0x9e3779b97f4a7c15L;
+        h ^= h >>> 32;
+        h *= 0xbf58476d1ce4e5b9L;
+        h ^= h >>> 29;
+
+        // Make the upper half odd so the bits of a key never repeat.
+        return h | (1L << 32);
+    }
+}
@@ -1,15 +1,33 @@
 package edu.vandy.common;
 
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
 import java.util.concurrent.Executors;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * Timeout cache that uses thread-safe concurrent HashMap to cache
- * data and uses a ScheduledExecutorService to execute a Runnable
- * after a designated timeout to remove expired cache entries.
+ * data and uses a ScheduledExecutorService to periodically advance a
+ * hashed timing wheel that removes expired cache entries.  Each cache
+ * entry is linked directly into a wheel bucket, so scheduling and
+ * canceling an expiration are O(1) operations that don't allocate a
+ * Runnable or a ScheduledFuture per put().  The wheel only ticks
+ * while entries are linked into it, so an empty cache doesn't wake up
+ * its thread.  The cache can optionally
+ * be bounded by a maximum total weight, in which case a
+ * WindowTinyLfuPolicy decides which entries to evict.  It can also
+ * optionally refresh entries loaded via getOrLoad() ahead of their
+ * expiration, i.e., once an entry is older than a "soft" timeout it's
+ * still returned while a single background reload replaces it.
  */
 public class ExecutorServiceTimeoutCache<K, V>
     extends RefCounted
@@ -19,7 +37,36 @@ public class ExecutorServiceTimeoutCache<K, V>
      */
     protected final String TAG =
         getClass().getSimpleName();
- 
+
+    /**
+     * Default duration of one tick of the timing wheel in
+     * milliseconds.
+     */
+    protected static final long DEFAULT_TICK_DURATION = 100;
+
+    /**
+     * Default number of buckets in the timing wheel.
+     */
+    protected static final int DEFAULT_WHEEL_SIZE = 512;
+
+    /**
+     * Maximum weight that indicates the cache is only bounded by the
+     * timeouts of its entries.
+     */
+    protected static final long UNBOUNDED = -1;
+
+    /**
+     * Value returned by refreshAheadPercent() to indicate entries are
+     * never refreshed ahead of their expiration.
+     */
+    protected static final int REFRESH_AHEAD_DISABLED = 0;
+
+    /**
+     * Maximum number of threads used to refresh entries ahead of
+     * their expiration.
+     */
+    private static final int MAX_REFRESH_THREADS = 2;
+
     /**
      * A thread-safe HashMap that supports full concurrency of
      * retrievals and high expected concurrency for updates.  It store
@@ -29,54 +76,321 @@ public class ExecutorServiceTimeoutCache<K, V>
         new ConcurrentHashMap<>();
 
     /**
-     * Executor service that will execute Runnable after certain
-     * timeouts to remove expired CacheValues.
+     * Loads that are currently in progress, which getOrLoad() uses to
+     * ensure only one load runs per key at a time.
      */
-    private ScheduledExecutorService mScheduledExecutorService = 
+    private final ConcurrentHashMap<K, FutureTask<V>> mLoads =
+        new ConcurrentHashMap<>();
+
+    /**
+     * Executor service whose one thread periodically advances the
+     * timing wheel to remove expired CacheValues.
+     */
+    private ScheduledExecutorService mScheduledExecutorService =
         Executors.newScheduledThreadPool(1);
 
+    /**
+     * Advances the timing wheel, and pauses it once it's empty.
+     */
+    private final Runnable mTickRunnable;
+
+    /**
+     * Result of scheduling mTickRunnable periodically, which is used
+     * to pause the timing wheel when it's empty and to stop it when
+     * the cache is closed, or null while the wheel is paused.  It's
+     * only changed while mTickLock is held.
+     */
+    private volatile ScheduledFuture<?> mTickFuture;
+
+    /**
+     * Lock that serializes starting, pausing, and stopping the
+     * timing wheel.
+     */
+    private final Object mTickLock = new Object();
+
+    /**
+     * Number of CacheValues linked into the timing wheel.
+     */
+    private final AtomicInteger mLinkedCount = new AtomicInteger();
+
+    /**
+     * The buckets of the hashed timing wheel.  A CacheValues expiring
+     * at tick t is linked into bucket (t & mMask).
+     */
+    private final Bucket[] mWheel;
+
+    /**
+     * Mask used to map an absolute tick onto a bucket in mWheel.
+     */
+    private final int mMask;
+
+    /**
+     * Duration of one tick in nanoseconds.
+     */
+    private final long mTickNanos;
+
+    /**
+     * Time (in nanoseconds) when the timing wheel was started.
+     */
+    private final long mStartTime;
+
+    /**
+     * The last tick that has been processed by the timing wheel.  It
+     * is only updated by the ticker thread while it holds the lock of
+     * the corresponding bucket.
+     */
+    private volatile long mProcessedTick = -1;
+
+    /**
+     * Policy that decides which entries to evict when the cache is
+     * bounded, or null if the cache is unbounded.
+     */
+    private final WindowTinyLfuPolicy<K> mPolicy;
+
+    /**
+     * Accumulates the statistics of the cache.
+     */
+    private final StatsCounter mStats = new StatsCounter();
+
+    /**
+     * Executor that reloads entries in the background when they pass
+     * their soft timeout, which is created on demand.
+     */
+    private ThreadPoolExecutor mRefreshExecutor;
+
     /**
      * Datatype that represents the contents of the cache.  It
-     * contains the value of the cache entity and a future that
-     * executes a runnable after certain time period elapses to remove
-     * expired CacheValue objects.
+     * contains the value of the cache entity and the links that
+     * thread it into its timing wheel bucket, which will remove the
+     * expired CacheValue object once its deadline elapses.
      */
     class CacheValues {
+        /**
+         * Key of the cache, which is needed to remove the entry from
+         * the map when it expires.
+         */
+        final K mKey;
+
         /**
          * Value of the cache.
          */
         final public V mValue;
 
         /**
-         * Result of an asynchronous computation.  It references a
-         * runnable that has been scheduled to execute after certain
-         * time period elapses.
+         * Time (in nanoseconds) after which the entry should be
+         * refreshed ahead of its expiration.
+         */
+        long mRefreshTime;
+
+        /**
+         * True once a refresh of this entry has been started, which
+         * ensures each entry is only refreshed once, even if the
+         * reload fails.
+         */
+        volatile boolean mRefreshStarted;
+
+        /**
+         * Absolute tick of the timing wheel after which this entry
+         * expires.
+         */
+        long mDeadlineTick;
+
+        /**
+         * Bucket this entry is linked into, or null if it isn't
+         * (currently) scheduled for expiration.
+         */
+        Bucket mBucket;
+
+        /**
+         * Links to the neighboring entries in mBucket.
          */
-        public ScheduledFuture<?> mFuture = null;
+        CacheValues mPrev;
+        CacheValues mNext;
 
         /**
          * Constructor for CacheValue.
-         * 
+         *
+         * @param key     The key for the cache entry
          * @param value   The cache entry
          */
-        public CacheValues(V value) {
+        public CacheValues(K key,
+                           V value) {
+            mKey = key;
             mValue = value;
         }
+    }
+
+    /**
+     * A slot in the timing wheel, which holds a doubly-linked list of
+     * CacheValues.  Each Bucket is its own lock, which spreads
+     * contention across the wheel.
+     */
+    class Bucket {
+        /**
+         * Head of the list of CacheValues in this bucket.
+         */
+        CacheValues mHead;
 
         /**
-         * Setter for the ScheduledFuture.
-         * 
-         * @param future  A ScheduledFuture that can be used to cancel a Runnable.
+         * Link @a cacheValues into this bucket.  Must be called with
+         * the bucket's lock held.
          */
-        public void setFuture(ScheduledFuture<?> future) {
-            mFuture = future;
+        void add(CacheValues cacheValues) {
+            mLinkedCount.incrementAndGet();
+            cacheValues.mBucket = this;
+            cacheValues.mPrev = null;
+            cacheValues.mNext = mHead;
+            if (mHead != null)
+                mHead.mPrev = cacheValues;
+            mHead = cacheValues;
         }
+
+        /**
+         * Unlink @a cacheValues from this bucket.  Must be called
+         * with the bucket's lock held.
+         */
+        void unlink(CacheValues cacheValues) {
+            if (cacheValues.mPrev != null)
+                cacheValues.mPrev.mNext = cacheValues.mNext;
+            else
+                mHead = cacheValues.mNext;
+            if (cacheValues.mNext != null)
+                cacheValues.mNext.mPrev = cacheValues.mPrev;
+            cacheValues.mBucket = null;
+            cacheValues.mPrev = null;
+            cacheValues.mNext = null;
+            mLinkedCount.decrementAndGet();
+        }
+    }
+
+    /**
+     * Default constructor that's needed by the GenericSingleton
+     * framework.
+     */
+    public ExecutorServiceTimeoutCache() {
+        this(UNBOUNDED);
+    }
+
+    /**
+     * Constructor that allows subclasses to bound the total weight of
+     * the entries in the cache.  The weight of each entry is computed
+     * by the weigh() hook method.
+     *
+     * @param maximumWeight The maximum total weight of the entries,
+     *                      or UNBOUNDED
+     */
+    protected ExecutorServiceTimeoutCache(long maximumWeight) {
+        this(DEFAULT_TICK_DURATION,
+             TimeUnit.MILLISECONDS,
+             DEFAULT_WHEEL_SIZE,
+             maximumWeight);
+    }
+
+    /**
+     * Constructor that allows subclasses to tune the resolution and
+     * size of the timing wheel.
+     *
+     * @param tickDuration  The duration of one tick of the wheel
+     * @param unit          The time unit of @a tickDuration
+     * @param wheelSize     The number of buckets in the wheel, which
+     *                      is rounded up to a power of two
+     * @param maximumWeight The maximum total weight of the entries,
+     *                      or UNBOUNDED
+     */
+    protected ExecutorServiceTimeoutCache(long tickDuration,
+                                          TimeUnit unit,
+                                          int wheelSize,
+                                          long maximumWeight) {
+        // Round the wheel size up to a power of two so a tick can be
+        // mapped onto a bucket with a mask rather than a division.
+        int size = 1;
+        while (size < wheelSize)
+            size <<= 1;
+
+        mWheel = newWheel(size);
+        mMask = size - 1;
+        mTickNanos = unit.toNanos(tickDuration);
+        mStartTime = System.nanoTime();
+        mPolicy = maximumWeight == UNBOUNDED
+            ? null
+            : new WindowTinyLfuPolicy<K>(maximumWeight);
+
+        // Runnable that when executed advances the timing wheel and
+        // removes all the CacheValues whose timeouts have expired.
+        // The wheel is started by the first schedule() call.
+        mTickRunnable = new Runnable() {
+                @Override
+                public void run() {
+                    expireTicks();
+                    if (mLinkedCount.get() == 0)
+                        pauseTicker();
+                }
+            };
+    }
+
+    /**
+     * Start advancing the timing wheel if it's paused.
+     */
+    private void startTicker() {
+        synchronized (mTickLock) {
+            if (mTickFuture == null
+                && !mScheduledExecutorService.isShutdown())
+                // Use the single thread of the
+                // ScheduledExecutorService as the ticker for the
+                // timing wheel.
+                mTickFuture =
+                    mScheduledExecutorService.scheduleAtFixedRate(mTickRunnable,
+                                                                  mTickNanos,
+                                                                  mTickNanos,
+                                                                  TimeUnit.NANOSECONDS);
+        }
+    }
+
+    /**
+     * Return true if the timing wheel is being advanced, i.e., it
+     * isn't paused or stopped.
+     */
+    boolean isTicking() {
+        return mTickFuture != null;
+    }
+
+    /**
+     * Stop advancing the timing wheel, which is empty, until
+     * schedule() links another CacheValues into it.  Called by the
+     * ticker thread.
+     */
+    private void pauseTicker() {
+        synchronized (mTickLock) {
+            // Clear mTickFuture before rechecking the count.
+            // schedule() increments the count before checking
+            // mTickFuture, so either the ticker sees the new
+            // CacheValues here and keeps running, or schedule() sees
+            // the paused ticker and restarts it.
+            ScheduledFuture<?> tickFuture = mTickFuture;
+            mTickFuture = null;
+            if (mLinkedCount.get() == 0)
+                tickFuture.cancel(false);
+            else
+                mTickFuture = tickFuture;
+        }
+    }
+
+    /**
+     * Allocate the buckets of the timing wheel.
+     */
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    private Bucket[] newWheel(int size) {
+        Bucket[] wheel =
+            (Bucket[]) new ExecutorServiceTimeoutCache.Bucket[size];
+        for (int i = 0; i < size; ++i)
+            wheel[i] = new Bucket();
+        return wheel;
     }
 
     /**
      * Put the @a value into the cache at the designated @a key with a
      * certain timeout after which the CacheValue will expire.
-     * 
+     *
      * @param key        The key for the cache entry
      * @param value      The value of the cache entry
      * @param timeout    The timeout period in seconds
@@ -85,106 +399,567 @@ public class ExecutorServiceTimeoutCache<K, V>
     public void put(final K key,
                     V value,
                     int timeout) {
-        // Create this object here so it can be referenced in the
-        // cleanupCacheRunnable below.
-        final CacheValues cacheValues = new CacheValues(value);
+        insert(key,
+               value,
+               timeout,
+               false);
+    }
 
-        // Runnable that when executed will remove a CacheValues when
-        // its timeout expires.
-        final Runnable cleanupCacheRunnable = new Runnable() {
-                @Override
-                public void run() {
-                    // Only remove key if it is currently associated
-                    // with cacheValues.  This avoid race conditions
-                    // that would otherwise occur since an mFuture to
-                    // a previous CacheValues isn't canceled until
-                    // after the new CacheValues is added to the map.
-                    mResults.remove(key, 
-                                    cacheValues);
-                }
-            };
+    /**
+     * Put the @a value into the cache at the designated @a key with a
+     * certain timeout, unless the cache already holds a value for the
+     * key.  Unlike checking containsKey() before calling put(), a
+     * value put concurrently is never overwritten, and unlike get()
+     * the check isn't counted as a hit or miss.
+     *
+     * @param key        The key for the cache entry
+     * @param value      The value of the cache entry
+     * @param timeout    The timeout period in seconds
+     * @return true if the value was put into the cache, else false.
+     */
+    protected boolean putIfAbsent(final K key,
+                                  V value,
+                                  int timeout) {
+        return insert(key,
+                      value,
+                      timeout,
+                      true);
+    }
+
+    /**
+     * Put the @a value into the cache at the designated @a key with a
+     * certain timeout, replacing any value that's already there
+     * unless @a onlyIfAbsent is true.
+     *
+     * @return true if the value was put into the cache, else false.
+     */
+    private boolean insert(final K key,
+                           V value,
+                           int timeout,
+                           boolean onlyIfAbsent) {
+        final CacheValues cacheValues = new CacheValues(key,
+                                                        value);
+        long timeoutNanos = TimeUnit.SECONDS.toNanos(timeout);
+
+        // Compute the "soft" timeout after which getOrLoad() starts
+        // refreshing this entry in the background.
+        int refreshAheadPercent = refreshAheadPercent();
+        if (refreshAheadPercent != REFRESH_AHEAD_DISABLED)
+            cacheValues.mRefreshTime = System.nanoTime()
+                + timeoutNanos / 100 * refreshAheadPercent;
 
         // Put a new CacheValues object into the ConcurrentHashMap
         // associated with the key and return the previous
         // CacheValues.
-        CacheValues prevCacheValues =
-            mResults.put(key,
-                         cacheValues);
+        CacheValues prevCacheValues;
+        if (onlyIfAbsent) {
+            prevCacheValues = mResults.putIfAbsent(key,
+                                                   cacheValues);
+            if (prevCacheValues != null)
+                return false;
+        } else
+            prevCacheValues = mResults.put(key,
+                                           cacheValues);
 
         // If there was a previous CacheValues associated with this
-        // key then cancel the future immediately.  Note that there is
-        // no race condition between the ScheduledExecutorService
-        // running the cleanupCacheRunnable and canceling the future
-        // here since the ConcurrentHashMap.remove() call won't
-        // actually remove the key unless the value is equal to the
-        // original cacheValues reference.
-        if (prevCacheValues != null)
-            prevCacheValues.mFuture.cancel(true);
-        
-        // Create a ScheduledFuture for the new cacheValues object that
-        // will execute the cleanupCacheRunnable after the designated
-        // timeout.
-        ScheduledFuture<?> future =
-            mScheduledExecutorService.schedule(cleanupCacheRunnable,
-                                               timeout,
-                                               TimeUnit.SECONDS);
-
-        // Now that we have a future, attach it to the cacheValues object
-        // that has already been safely added to the cache. The reason we
-        // do not set the future before adding the cacheValues object to the
-        // cache is because it is possible (but unlikely) for the future 
-        // to trigger in the small time window between when it is started
-        // and returned from the ScheduledExecutorService and when the 
-        // put() call is made to add it to the cache.
-        cacheValues.setFuture(future);
+        // key then unlink it from the timing wheel immediately.  Note
+        // that there is no race condition between the ticker thread
+        // expiring the previous CacheValues and canceling it here
+        // since the ConcurrentHashMap.remove() call won't actually
+        // remove the key unless the value is equal to the original
+        // cacheValues reference.
+        if (prevCacheValues != null) {
+            cancel(prevCacheValues);
+            mStats.recordOverwrite();
+        }
+
+        int weight = weigh(key, value);
+        mStats.recordValueSize(weight);
+
+        // Link the new cacheValues object into the timing wheel so it
+        // will be removed after the designated timeout.  This is done
+        // after the cacheValues has been added to the map since an
+        // entry that expired before it was in the map would otherwise
+        // never be removed.
+        boolean scheduled = schedule(cacheValues,
+                                     timeoutNanos);
+
+        // If the cache is bounded then evict the entries the policy
+        // chose to make room for the new value, which may include the
+        // new value itself if it's not popular enough to be admitted.
+        // An entry that expired on arrival isn't recorded at all,
+        // since it's already been removed from the policy.
+        if (mPolicy != null
+            && scheduled)
+            for (K evictedKey : mPolicy.recordWrite(key,
+                                                    weight)) {
+                CacheValues evicted = mResults.remove(evictedKey);
+                if (evicted != null) {
+                    cancel(evicted);
+                    mStats.recordEvictions(1);
+                }
+            }
+        return true;
     }
 
     /**
      * Gets the @a value from the cache at the designated @a key.
-     * 
+     *
      * @param key     The key for the cache entry
      * @return value  The value associated with the key, Which may be
      *                null if there's no key in the cache
      */
     @Override
     public final V get(K key) {
-        CacheValues cacheValues = mResults.get(key);
+        CacheValues cacheValues = lookup(key);
         return cacheValues != null ? cacheValues.mValue : null;
     }
 
+    /**
+     * Return true if the cache holds a value for @a key.  Unlike get()
+     * this doesn't count as a hit or miss and doesn't affect which
+     * entries are evicted, so callers can decide how to look up a
+     * batch of keys before actually looking them up.
+     */
+    public final boolean containsKey(K key) {
+        return mResults.containsKey(key);
+    }
+
+    /**
+     * Return the CacheValues associated with @a key, or null if
+     * there's no key in the cache.
+     */
+    private CacheValues lookup(K key) {
+        CacheValues cacheValues = mResults.get(key);
+
+        if (cacheValues == null)
+            mStats.recordMiss();
+        else {
+            mStats.recordHit();
+
+            // Let the eviction policy know the entry is still in use.
+            if (mPolicy != null)
+                mPolicy.recordAccess(key);
+        }
+        return cacheValues;
+    }
+
+    /**
+     * Gets the @a value from the cache at the designated @a key,
+     * using the @a loader to obtain and cache it if it's not present.
+     * Concurrent callers for the same key attach to the one in-flight
+     * load rather than each running the loader.  If the loader gives
+     * up by throwing a CancellationException, e.g., because the
+     * caller running it was cancelled, the other callers retry rather
+     * than sharing its failure.
+     *
+     * @param key        The key for the cache entry
+     * @param loader     Obtains the value if it's not in the cache
+     * @param timeout    The timeout period in seconds
+     * @return value     The value associated with the key, which may
+     *                   be null if the loader returned null
+     */
+    @Override
+    public V getOrLoad(final K key,
+                       final Loader<K, V> loader,
+                       final int timeout) {
+        // Try the cache first since this is the common case.
+        CacheValues cacheValues = lookup(key);
+        if (cacheValues != null) {
+            // If the entry has passed its soft timeout then start
+            // reloading it in the background, but still return the
+            // cached value without waiting.
+            if (cacheValues.mRefreshTime != 0
+                && !cacheValues.mRefreshStarted
+                && System.nanoTime() - cacheValues.mRefreshTime >= 0)
+                refreshAhead(cacheValues,
+                             loader,
+                             timeout);
+            return cacheValues.mValue;
+        }
+
+        // Task that loads the value and puts it into the cache.
+        FutureTask<V> load =
+            new FutureTask<>(new Callable<V>() {
+                    @Override
+                    public V call() {
+                        // Recheck the cache since a load for this
+                        // key may have completed in the meantime.
+                        // This doesn't count as another lookup.
+                        CacheValues cacheValues = mResults.get(key);
+                        if (cacheValues != null)
+                            return cacheValues.mValue;
+
+                        V value = load(key, loader);
+                        if (value != null)
+                            put(key,
+                                value,
+                                loadedTimeout(key,
+                                              value,
+                                              timeout));
+                        return value;
+                    }
+                });
+
+        // Only the first caller registers its task, so all other
+        // callers wait for the same in-flight load.
+        FutureTask<V> inFlight = mLoads.putIfAbsent(key, load);
+        if (inFlight == null) {
+            inFlight = load;
+            try {
+                load.run();
+            } finally {
+                // The value is in the cache before the load is
+                // unregistered, so later callers either find it in
+                // the cache or attach to this load.
+                mLoads.remove(key, load);
+            }
+        }
+
+        try {
+            return inFlight.get();
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+
+            // Retry a load that was abandoned on behalf of another
+            // caller.
+            if (cause instanceof CancellationException
+                && inFlight != load
+                && !Thread.currentThread().isInterrupted())
+                return getOrLoad(key,
+                                 loader,
+                                 timeout);
+
+            // Propagate the loader's failure to every caller.
+            if (cause instanceof RuntimeException)
+                throw (RuntimeException) cause;
+            else if (cause instanceof Error)
+                throw (Error) cause;
+            else
+                throw new RuntimeException(cause);
+        } catch (InterruptedException e) {
+            // Restore the interrupt status and give up waiting.
+            Thread.currentThread().interrupt();
+            return null;
+        }
+    }
+
+    /**
+     * Reload the entry in @a cacheValues in the background and replace
+     * it if the reload succeeds.  If the reload fails the entry is
+     * left alone, so it's still returned until its timeout expires.
+     */
+    private void refreshAhead(CacheValues cacheValues,
+                              final Loader<K, V> loader,
+                              final int timeout) {
+        cacheValues.mRefreshStarted = true;
+        final K key = cacheValues.mKey;
+
+        // Task that reloads the value and puts it into the cache.
+        final FutureTask<V> refresh =
+            new FutureTask<>(new Callable<V>() {
+                    @Override
+                    public V call() {
+                        V value = load(key, loader);
+                        if (value != null)
+                            put(key,
+                                value,
+                                loadedTimeout(key,
+                                              value,
+                                              timeout));
+                        return value;
+                    }
+                });
+
+        // Register the refresh as the in-flight load for the key so
+        // that only one reload runs, and callers that miss the cache
+        // while it's running wait for it rather than starting their
+        // own load.
+        if (mLoads.putIfAbsent(key, refresh) == null)
+            getRefreshExecutor().execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        try {
+                            refresh.run();
+                        } finally {
+                            mLoads.remove(key, refresh);
+                        }
+                    }
+                });
+    }
+
+    /**
+     * Use @a loader to obtain the value of @a key, recording how long
+     * the load takes.
+     */
+    private V load(K key,
+                   Loader<K, V> loader) {
+        long startTime = System.nanoTime();
+        try {
+            return loader.load(key);
+        } finally {
+            mStats.recordLoad(System.nanoTime() - startTime);
+        }
+    }
+
+    /**
+     * Return the executor used to refresh entries, creating it the
+     * first time it's needed.
+     */
+    private synchronized ThreadPoolExecutor getRefreshExecutor() {
+        if (mRefreshExecutor == null) {
+            mRefreshExecutor =
+                new ThreadPoolExecutor(MAX_REFRESH_THREADS,
+                                       MAX_REFRESH_THREADS,
+                                       30,
+                                       TimeUnit.SECONDS,
+                                       new LinkedBlockingQueue<Runnable>());
+            // Don't keep idle threads around between refreshes.
+            mRefreshExecutor.allowCoreThreadTimeOut(true);
+        }
+        return mRefreshExecutor;
+    }
+
     /**
      * Removes the value associated with the designated @a key.
-     * 
+     *
      * @param key     The key for the cache entry
      * @param expirationTime (ignored)
      */
     @Override
     public void remove(K key,
                        long expirationTime) {
-        mResults.remove(key);
+        CacheValues cacheValues = mResults.remove(key);
+        if (cacheValues != null) {
+            cancel(cacheValues);
+            if (mPolicy != null)
+                mPolicy.recordRemoval(key);
+        }
     }
 
     /**
      * Return the current number of entries in the cache.
-     * 
+     *
      * @return size
      */
     @Override
     public final int size() {
         return mResults.size();
     }
-    
+
+    /**
+     * Return a snapshot of the statistics of the cache.
+     *
+     * @return stats
+     */
+    @Override
+    public CacheStats getStats() {
+        return mStats.snapshot();
+    }
+
+    /**
+     * Return the number of entries evicted to keep the cache within
+     * its maximum weight, which is always 0 for an unbounded cache.
+     */
+    public long getEvictionCount() {
+        return mPolicy != null ? mPolicy.getEvictionCount() : 0;
+    }
+
+    /**
+     * Return the total weight of the entries in the cache, which is
+     * simply the number of entries for an unbounded cache.
+     */
+    public long getWeightedSize() {
+        return mPolicy != null ? mPolicy.getWeightedSize() : size();
+    }
+
+    /**
+     * Hook method that returns the weight of a cache entry, which
+     * subclasses can override to bound the cache by something other
+     * than the number of entries, e.g., the number of elements in a
+     * List value.
+     *
+     * @param key     The key for the cache entry
+     * @param value   The value of the cache entry
+     * @return weight The weight of the entry, which must be >= 0
+     */
+    protected int weigh(K key,
+                        V value) {
+        return 1;
+    }
+
+    /**
+     * Hook method that returns the percentage of an entry's timeout
+     * after which getOrLoad() refreshes it in the background.  For
+     * example, 80 means an entry put with a 10 second timeout is
+     * reloaded by the first getOrLoad() call after 8 seconds, while
+     * the cached value is still returned.  Subclasses can override
+     * this method to enable refresh-ahead.
+     *
+     * @return A percentage between 1 and 99, or REFRESH_AHEAD_DISABLED
+     */
+    protected int refreshAheadPercent() {
+        return REFRESH_AHEAD_DISABLED;
+    }
+
+    /**
+     * Hook method that returns the timeout in seconds of the @a value
+     * that getOrLoad() loaded for @a key, which by default is the @a
+     * timeout passed to getOrLoad().  Subclasses whose loader obtains
+     * values from another cache can override this method so that an
+     * entry doesn't outlive the one it was copied from.
+     *
+     * @param key        The key for the cache entry
+     * @param value      The value that was loaded
+     * @param timeout    The timeout passed to getOrLoad()
+     * @return timeout   The timeout period in seconds
+     */
+    protected int loadedTimeout(K key,
+                                V value,
+                                int timeout) {
+        return timeout;
+    }
+
     /**
      * Shutdown the ScheduledExecutorService.
      */
     @Override
     protected void close() {
-        // Cancel all remaining futures.
-        for (CacheValues cvs : mResults.values())
-            if (cvs.mFuture != null)
-                cvs.mFuture.cancel(true);
+        synchronized (mTickLock) {
+            // Stop advancing the timing wheel.
+            if (mTickFuture != null)
+                mTickFuture.cancel(true);
+            mTickFuture = null;
 
-        // Shutdown the ScheduledExecutorService immediately.
-        mScheduledExecutorService.shutdownNow();
+            // Shutdown the ScheduledExecutorService immediately.
+            mScheduledExecutorService.shutdownNow();
+        }
+
+        // Stop any refreshes that are in progress.
+        synchronized (this) {
+            if (mRefreshExecutor != null)
+                mRefreshExecutor.shutdownNow();
+        }
+
+        // Unlink all remaining CacheValues from the timing wheel so
+        // they can be garbage collected.
+        for (Bucket bucket : mWheel)
+            synchronized (bucket) {
+                while (bucket.mHead != null)
+                    bucket.unlink(bucket.mHead);
+            }
+    }
+
+    /**
+     * Link @a cacheValues into the bucket of the timing wheel that
+     * corresponds to a deadline @a timeoutNanos from now.
+     *
+     * @return false if the deadline has already passed, in which case
+     *         @a cacheValues is removed from the cache right away.
+     */
+    private boolean schedule(CacheValues cacheValues,
+                             long timeoutNanos) {
+        // Round the deadline up to the next tick so an entry never
+        // expires early.
+        long deadlineTick =
+            (System.nanoTime() - mStartTime + timeoutNanos + mTickNanos - 1)
+            / mTickNanos;
+
+        Bucket bucket = mWheel[(int) (deadlineTick & mMask)];
+        boolean linked = false;
+
+        synchronized (bucket) {
+            // The ticker updates mProcessedTick while holding this
+            // lock, so if it has already passed the deadline the
+            // entry has expired and is removed right away rather than
+            // waiting for another revolution of the wheel.
+            if (deadlineTick > mProcessedTick) {
+                cacheValues.mDeadlineTick = deadlineTick;
+                bucket.add(cacheValues);
+                linked = true;
+            }
+        }
+
+        if (linked) {
+            // Restart the timing wheel if it was paused because it
+            // was empty.
+            if (mTickFuture == null)
+                startTicker();
+            return true;
+        }
+
+        // Remove the entry the same way the ticker does, including
+        // any weight the policy holds for a value it replaced.
+        if (mResults.remove(cacheValues.mKey,
+                            cacheValues)) {
+            mStats.recordExpiration();
+            if (mPolicy != null)
+                mPolicy.recordRemoval(cacheValues.mKey);
+        }
+        return false;
+    }
+
+    /**
+     * Unlink @a cacheValues from the timing wheel if it's still
+     * scheduled.
+     */
+    private void cancel(CacheValues cacheValues) {
+        Bucket bucket = cacheValues.mBucket;
+        if (bucket != null)
+            synchronized (bucket) {
+                // Recheck while holding the lock since the ticker
+                // thread may have expired the entry concurrently.
+                if (cacheValues.mBucket == bucket)
+                    bucket.unlink(cacheValues);
+            }
+    }
+
+    /**
+     * Process all the ticks that have elapsed since the last time the
+     * ticker thread ran, removing the CacheValues whose deadlines have
+     * passed.  This method is only called by the ticker thread.
+     */
+    private void expireTicks() {
+        long currentTick =
+            (System.nanoTime() - mStartTime) / mTickNanos;
+
+        // After the wheel was paused, only process the last
+        // revolution's worth of ticks, which visits every bucket once
+        // with the latest tick that maps onto it.
+        for (long tick = Math.max(mProcessedTick + 1,
+                                  currentTick - mMask);
+             tick <= currentTick;
+             ++tick) {
+            Bucket bucket = mWheel[(int) (tick & mMask)];
+
+            synchronized (bucket) {
+                CacheValues cacheValues = bucket.mHead;
+                while (cacheValues != null) {
+                    CacheValues next = cacheValues.mNext;
+
+                    // Entries whose deadline is a later revolution of
+                    // the wheel stay in the bucket.
+                    if (cacheValues.mDeadlineTick <= tick) {
+                        bucket.unlink(cacheValues);
+
+                        // Only remove key if it is currently
+                        // associated with cacheValues.  This avoids
+                        // race conditions that would otherwise occur
+                        // since a previous CacheValues isn't unlinked
+                        // until after the new CacheValues is added to
+                        // the map.
+                        if (mResults.remove(cacheValues.mKey,
+                                            cacheValues)) {
+                            mStats.recordExpiration();
+                            if (mPolicy != null)
+                                mPolicy.recordRemoval(cacheValues.mKey);
+                        }
+                    }
+                    cacheValues = next;
+                }
+
+                mProcessedTick = tick;
+            }
+        }
     }
 }
@@ -0,0 +1,157 @@
+package edu.vandy.common;
+
+/**
+ * A probabilistic count-min sketch that estimates how often a key
+ * has been accessed recently.  Each key maps onto four 4-bit
+ * counters, so the popularity of a large number of keys can be
+ * tracked in a small, fixed amount of memory.  The counters are
+ * periodically halved so that the estimate favors recent accesses
+ * over old ones.  This class is not thread-safe, so callers must
+ * provide their own synchronization.
+ */
+public class FrequencySketch<K> {
+    /**
+     * Seeds used to derive four independent hash functions.
+     */
+    private static final long[] SEED = {
+        0xc3a5c85c97cb3127L,
+        0xb492b66fbe98f273L,
+        0x9ae16a3b2f90404fL,
+        0xcbf29ce484222325L
+    };
+
+    /**
+     * Mask used to halve all sixteen counters in a long at once.
+     */
+    private static final long RESET_MASK = 0x7777777777777777L;
+
+    /**
+     * Mask used to count the counters that are odd before halving.
+     */
+    private static final long ONE_MASK = 0x1111111111111111L;
+
+    /**
+     * Largest table size, which bounds the memory used by the sketch.
+     */
+    private static final int MAXIMUM_TABLE_SIZE = 1 << 20;
+
+    /**
+     * The table of 4-bit counters, sixteen per long.
+     */
+    private final long[] mTable;
+
+    /**
+     * Mask used to map a hash onto an index in mTable.
+     */
+    private final int mTableMask;
+
+    /**
+     * Number of increments after which the counters are halved.
+     */
+    private final int mSampleSize;
+
+    /**
+     * Number of increments since the counters were last halved.
+     */
+    private int mSize;
+
+    /**
+     * Constructor initializes the sketch so it can track roughly
+     * @a maximumSize keys accurately.
+     */
+    public FrequencySketch(long maximumSize) {
+        int tableSize = 16;
+        while (tableSize < maximumSize
+               && tableSize < MAXIMUM_TABLE_SIZE)
+            tableSize <<= 1;
+
+        mTable = new long[tableSize];
+        mTableMask = tableSize - 1;
+        mSampleSize = 10 * tableSize;
+    }
+
+    /**
+     * Return the estimated number of recent accesses of @a key, which
+     * is between 0 and 15.
+     */
+    public int frequency(K key) {
+        int hash = spread(key.hashCode());
+        int start = (hash & 3) << 2;
+        int frequency = Integer.MAX_VALUE;
+
+        for (int i = 0; i < 4; ++i) {
+            int index = indexOf(hash, i);
+            int count =
+                (int) ((mTable[index] >>> ((start + i) << 2)) & 0xfL);
+            frequency = Math.min(frequency, count);
+        }
+        return frequency;
+    }
+
+    /**
+     * Record an access of @a key, halving all the counters if the
+     * sample size has been reached.
+     */
+    public void increment(K key) {
+        int hash = spread(key.hashCode());
+        int start = (hash & 3) << 2;
+        boolean added = false;
+
+        for (int i = 0; i < 4; ++i)
+            added |= incrementAt(indexOf(hash, i),
+                                 start + i);
+
+        if (added && ++mSize == mSampleSize)
+            reset();
+    }
+
+    /**
+     * Increment the @a j'th 4-bit counter of mTable[@a i] unless it
+     * has already saturated.
+     *
+     * @return True if the counter was incremented, else false.
+     */
+    private boolean incrementAt(int i,
+                                int j) {
+        int offset = j << 2;
+        long mask = 0xfL << offset;
+        if ((mTable[i] & mask) != mask) {
+            mTable[i] += 1L << offset;
+            return true;
+        } else
+            return false;
+    }
+
+    /**
+     * Halve every counter so that old accesses gradually stop
+     * counting towards a key's frequency.
+     */
+    private void reset() {
+        int count = 0;
+        for (int i = 0; i < mTable.length; ++i) {
+            count += Long.bitCount(mTable[i] & ONE_MASK);
+            mTable[i] = (mTable[i] >>> 1) & RESET_MASK;
+        }
+        mSize = (mSize >>> 1) - (count >>> 2);
+    }
+
+    /**
+     * Return the index in mTable of the @a i'th hash of @a item.
+     */
+    private int indexOf(int item,
+                        int i) {
+        long hash = (item + SEED[i]) * SEED[i];
+        hash += hash >>> 32;
+        return ((int) hash) & mTableMask;
+    }
+
+    /**
+     * Apply a supplemental hash function to @a x to defend against
+     * poor quality hash codes.
+     */
+    private static int spread(int x) {
+        x = ((x >>> 16) ^ x) * 0x45d9f3b;
+        x = ((x >>> 16) ^ x) * 0x45d9f3b;
+        return (x >>> 16) ^ x;
+    }
+}
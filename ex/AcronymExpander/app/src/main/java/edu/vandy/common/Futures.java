@@ -0,0 +1,115 @@
+package edu.vandy.common;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.function.Supplier;
+
+/**
+ * Helper methods for CompletableFutures that Java 8 lacks, e.g.,
+ * completing a future when a timeout passes, and running a supplier
+ * on a BoundedExecutor that may reject it.
+ */
+public final class Futures {
+    /**
+     * Ensure this class is only used as a utility.
+     */
+    private Futures() {
+        throw new AssertionError();
+    }
+
+    /**
+     * Return a future that's completed with the value of @a supplier,
+     * which runs on @a executor.  If the executor rejects the supplier
+     * the future is completed with the RejectedExecutionException,
+     * rather than it being thrown at the caller.
+     */
+    public static <T> CompletableFuture<T> supplyAsync(Supplier<T> supplier,
+                                                       Executor executor) {
+        try {
+            return CompletableFuture.supplyAsync(supplier,
+                                                 executor);
+        } catch (RejectedExecutionException e) {
+            return failed(e);
+        }
+    }
+
+    /**
+     * Return a future that's already completed with @a throwable.
+     */
+    public static <T> CompletableFuture<T> failed(Throwable throwable) {
+        final CompletableFuture<T> future = new CompletableFuture<>();
+        future.completeExceptionally(throwable);
+        return future;
+    }
+
+    /**
+     * Complete @a future with a TimeoutException if it hasn't been
+     * completed after @a timeout @a unit.  The work behind the
+     * future isn't interrupted, but its value is ignored.
+     *
+     * @return The @a future, so calls can be chained.
+     */
+    public static <T> CompletableFuture<T> withTimeout(final CompletableFuture<T> future,
+                                                       final long timeout,
+                                                       final TimeUnit unit) {
+        if (future.isDone())
+            return future;
+
+        final ScheduledFuture<?> deadline =
+            Timer.sExecutor.schedule(() ->
+                                     future.completeExceptionally
+                                         (new TimeoutException("no result after "
+                                                               + timeout
+                                                               + " "
+                                                               + unit)),
+                                     timeout,
+                                     unit);
+
+        // Don't keep the deadline around once the future is done.
+        future.whenComplete((value, throwable) -> deadline.cancel(false));
+        return future;
+    }
+
+    /**
+     * Return the cause of a @a throwable passed to a completion
+     * stage, which wraps the exception of an earlier stage in a
+     * CompletionException.
+     */
+    public static Throwable unwrap(Throwable throwable) {
+        while (throwable instanceof CompletionException
+               && throwable.getCause() != null)
+            throwable = throwable.getCause();
+        return throwable;
+    }
+
+    /**
+     * Holds the thread that completes futures when their timeouts
+     * pass, which is only created once a timeout is used.
+     */
+    private static class Timer {
+        static final ScheduledThreadPoolExecutor sExecutor =
+            new ScheduledThreadPoolExecutor(1, new ThreadFactory() {
+                    @Override
+                    public Thread newThread(Runnable runnable) {
+                        Thread thread = new Thread(runnable,
+                                                   "Futures timeout");
+                        // Don't keep the process alive just to time
+                        // out futures.
+                        thread.setDaemon(true);
+                        return thread;
+                    }
+                });
+
+        static {
+            // Don't keep the deadlines of completed futures around.
+            sExecutor.setRemoveOnCancelPolicy(true);
+        }
+    }
+}
@@ -55,7 +55,7 @@ public class GenericModel<RequiredModelOps,
                             RequiredModelOps presenter)
             throws InstantiationException, IllegalAccessException {
         // Create the OpsType object.
-        mOpsInstance = opsType.newInstance();
+        mOpsInstance = Factories.newInstance(opsType);
 
         // Perform the first initialization.
         mOpsInstance.onCreate(presenter);
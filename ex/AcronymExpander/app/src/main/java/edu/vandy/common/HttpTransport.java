@@ -0,0 +1,338 @@
+package edu.vandy.common;
+
+import java.io.ByteArrayInputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * Performs HTTP GET requests over persistent connections.  Each
+ * response is read completely into a buffer that's reused by the
+ * calling thread and the connection's stream is closed rather than
+ * disconnected, which returns the connection to the per-host
+ * keep-alive pool maintained by HttpURLConnection.  Compressed
+ * responses are requested via "Accept-Encoding: gzip" and are
+ * decompressed transparently.  A single HttpTransport can be shared
+ * by all the threads in a process.
+ *
+ * A handler that can use the body as it arrives, e.g., to pass parsed
+ * results along before the download completes, can instead be given
+ * the live body via getStreaming().  Whatever it leaves unread is
+ * drained afterwards, so the connection is still reused.
+ *
+ * A request whose thread is interrupted, e.g., because its client
+ * cancelled it, stops between reads of the response and skips the
+ * handler, throwing an InterruptedIOException.
+ */
+public class HttpTransport {
+    /**
+     * Default connect timeout in milliseconds.
+     */
+    public static final int DEFAULT_CONNECT_TIMEOUT = 10 * 1000;
+
+    /**
+     * Default read timeout in milliseconds.
+     */
+    public static final int DEFAULT_READ_TIMEOUT = 15 * 1000;
+
+    /**
+     * Initial size of each thread's read buffer.
+     */
+    private static final int INITIAL_BUFFER_SIZE = 8 * 1024;
+
+    /**
+     * Largest read buffer a thread keeps between requests, so one
+     * large response doesn't pin a large buffer forever.
+     */
+    private static final int MAX_RETAINED_BUFFER_SIZE = 256 * 1024;
+
+    /**
+     * Define a hook interface that converts the body of a response
+     * into a result.
+     */
+    public interface ResponseHandler<T> {
+        /**
+         * Return the result contained in the @a body of a response.
+         */
+        T handleResponse(InputStream body) throws IOException;
+    }
+
+    /**
+     * Thrown when the server responds with an HTTP error status.
+     */
+    public static class HttpException extends IOException {
+        private static final long serialVersionUID = 1L;
+
+        /**
+         * The HTTP status code of the response.
+         */
+        private final int mResponseCode;
+
+        /**
+         * Constructor initializes the fields.
+         */
+        public HttpException(URL url,
+                             int responseCode) {
+            super("HTTP "
+                  + responseCode
+                  + " for "
+                  + url);
+            mResponseCode = responseCode;
+        }
+
+        /**
+         * Return the HTTP status code of the response.
+         */
+        public int getResponseCode() {
+            return mResponseCode;
+        }
+    }
+
+    /**
+     * Connect timeout in milliseconds.
+     */
+    private final int mConnectTimeout;
+
+    /**
+     * Read timeout in milliseconds.
+     */
+    private final int mReadTimeout;
+
+    /**
+     * Each thread's reusable read buffer.
+     */
+    private final ThreadLocal<byte[]> mBuffers =
+        new ThreadLocal<byte[]>() {
+            @Override
+            protected byte[] initialValue() {
+                return new byte[INITIAL_BUFFER_SIZE];
+            }
+        };
+
+    /**
+     * Constructor that uses the default timeouts.
+     */
+    public HttpTransport() {
+        this(DEFAULT_CONNECT_TIMEOUT,
+             DEFAULT_READ_TIMEOUT);
+    }
+
+    /**
+     * Constructor initializes the timeouts.
+     *
+     * @param connectTimeout Connect timeout in milliseconds
+     * @param readTimeout    Read timeout in milliseconds
+     */
+    public HttpTransport(int connectTimeout,
+                         int readTimeout) {
+        mConnectTimeout = connectTimeout;
+        mReadTimeout = readTimeout;
+    }
+
+    /**
+     * Send a GET request to @a url and pass the body of the response
+     * to the @a handler.
+     *
+     * @return The result returned by the @a handler
+     * @throws HttpException if the response has an error status
+     * @throws InterruptedIOException if the calling thread is
+     *         interrupted
+     * @throws IOException if the request fails or times out
+     */
+    public <T> T get(URL url,
+                     ResponseHandler<T> handler)
+        throws IOException {
+        checkInterrupted(url);
+        HttpURLConnection connection = connect(url);
+
+        int responseCode = connection.getResponseCode();
+        boolean failed =
+            responseCode >= HttpURLConnection.HTTP_BAD_REQUEST;
+
+        // Read the body of the response even if it's an error since
+        // the connection can only be reused once it's consumed.
+        InputStream in = body(connection,
+                              failed);
+
+        byte[] buffer = mBuffers.get();
+        int length = 0;
+        if (in != null) {
+            try {
+                for (int count;
+                     (count = in.read(buffer,
+                                      length,
+                                      buffer.length - length)) != -1;
+                     ) {
+                    checkInterrupted(url);
+                    length += count;
+                    if (length == buffer.length) {
+                        byte[] larger = new byte[buffer.length * 2];
+                        System.arraycopy(buffer, 0, larger, 0, length);
+                        buffer = larger;
+                    }
+                }
+            } finally {
+                // Closing the stream rather than disconnecting
+                // returns the connection to the keep-alive pool.
+                in.close();
+            }
+        }
+
+        if (buffer.length <= MAX_RETAINED_BUFFER_SIZE)
+            mBuffers.set(buffer);
+
+        if (failed)
+            throw new HttpException(url,
+                                    responseCode);
+
+        // Don't bother handling a response that nobody wants.
+        checkInterrupted(url);
+
+        return handler.handleResponse(new ByteArrayInputStream(buffer,
+                                                               0,
+                                                               length));
+    }
+
+    /**
+     * Send a GET request to @a url and pass the body of the response
+     * to the @a handler while it's still being received, rather than
+     * once it's been read completely.  The body is decompressed, stops
+     * with an InterruptedIOException if the calling thread is
+     * interrupted, and ignores close(), since whatever the @a handler
+     * leaves unread is drained afterwards so the connection can be
+     * reused.
+     *
+     * @return The result returned by the @a handler
+     * @throws HttpException if the response has an error status
+     * @throws InterruptedIOException if the calling thread is
+     *         interrupted
+     * @throws IOException if the request fails or times out
+     */
+    public <T> T getStreaming(final URL url,
+                              ResponseHandler<T> handler)
+        throws IOException {
+        checkInterrupted(url);
+        HttpURLConnection connection = connect(url);
+
+        int responseCode = connection.getResponseCode();
+        if (responseCode >= HttpURLConnection.HTTP_BAD_REQUEST) {
+            // Consume the error body so the connection can be reused.
+            InputStream in = body(connection,
+                                  true);
+            if (in != null) {
+                try {
+                    drain(url,
+                          in);
+                } finally {
+                    in.close();
+                }
+            }
+            throw new HttpException(url,
+                                    responseCode);
+        }
+
+        InputStream in = body(connection,
+                              false);
+        try {
+            T result = handler.handleResponse(new FilterInputStream(in) {
+                    @Override
+                    public int read() throws IOException {
+                        checkInterrupted(url);
+                        return super.read();
+                    }
+
+                    @Override
+                    public int read(byte[] buffer,
+                                    int offset,
+                                    int length)
+                        throws IOException {
+                        checkInterrupted(url);
+                        return super.read(buffer,
+                                          offset,
+                                          length);
+                    }
+
+                    @Override
+                    public void close() {
+                        // The stream is drained and closed below.
+                    }
+                });
+
+            // Consume whatever the handler didn't read, so the
+            // connection is returned to the keep-alive pool.
+            drain(url,
+                  in);
+            return result;
+        } finally {
+            in.close();
+        }
+    }
+
+    /**
+     * Return a connection for a GET request to @a url that hasn't been
+     * sent yet.
+     */
+    private HttpURLConnection connect(URL url)
+        throws IOException {
+        HttpURLConnection connection =
+            (HttpURLConnection) url.openConnection();
+        connection.setConnectTimeout(mConnectTimeout);
+        connection.setReadTimeout(mReadTimeout);
+        connection.setRequestProperty("Accept-Encoding",
+                                      "gzip");
+        return connection;
+    }
+
+    /**
+     * Return the decompressed body of the response to the @a
+     * connection, which is its error stream if it @a failed, or null
+     * if there's no body.
+     */
+    private static InputStream body(HttpURLConnection connection,
+                                    boolean failed)
+        throws IOException {
+        InputStream in = failed
+            ? connection.getErrorStream()
+            : connection.getInputStream();
+        if (in != null
+            && "gzip".equalsIgnoreCase(connection.getContentEncoding())) {
+            try {
+                in = new GZIPInputStream(in);
+            } catch (IOException e) {
+                // The gzip header is malformed.
+                in.close();
+                throw e;
+            }
+        }
+        return in;
+    }
+
+    /**
+     * Read and discard the rest of @a in, using the calling thread's
+     * read buffer.
+     */
+    private void drain(URL url,
+                       InputStream in)
+        throws IOException {
+        byte[] buffer = mBuffers.get();
+        while (in.read(buffer) != -1)
+            checkInterrupted(url);
+    }
+
+    /**
+     * Throw an InterruptedIOException if the calling thread has been
+     * interrupted.  The interrupt status is left set, so the caller
+     * can tell the request was abandoned rather than failed.
+     */
+    private static void checkInterrupted(URL url)
+        throws InterruptedIOException {
+        if (Thread.currentThread().isInterrupted())
+            throw new InterruptedIOException("request for "
+                                             + url
+                                             + " was interrupted");
+    }
+}
@@ -0,0 +1,252 @@
+package edu.vandy.common;
+
+import android.content.ComponentName;
+import android.content.Context;
+import android.content.Intent;
+import android.os.Handler;
+import android.os.IBinder;
+import android.os.IInterface;
+import android.os.Looper;
+import android.util.Log;
+
+/**
+ * A GenericServiceConnection that binds to its Bound Service the
+ * first time it's used, rather than up front, and unbinds once it
+ * hasn't been used for a quiet period.  A Service that's rarely or
+ * never used therefore doesn't keep its process, threads, and caches
+ * around.  Calls made before the Service is connected are queued and
+ * run when it connects.
+ */
+public class LazyServiceConnection<AIDLInterface extends IInterface>
+       extends GenericServiceConnection<AIDLInterface> {
+    /**
+     * Debugging tag used by the Android logger.
+     */
+    protected final static String TAG =
+        LazyServiceConnection.class.getSimpleName();
+
+    /**
+     * Default number of milliseconds the connection stays bound after
+     * it was last used.
+     */
+    public static final long DEFAULT_IDLE_TIMEOUT = 60 * 1000;
+
+    /**
+     * The Context used to bind to the Service, which should be the
+     * Application context so it outlives runtime configuration
+     * changes.
+     */
+    private final Context mContext;
+
+    /**
+     * The Intent that identifies the Service.
+     */
+    private final Intent mIntent;
+
+    /**
+     * Runs the idle unbind in the UI thread.
+     */
+    private final Handler mHandler =
+        new Handler(Looper.getMainLooper());
+
+    /**
+     * Unbinds from the Service if it hasn't been used for
+     * mIdleTimeout.
+     */
+    private final Runnable mIdleUnbind = new Runnable() {
+            @Override
+            public void run() {
+                unbindIfIdle();
+            }
+        };
+
+    /**
+     * Number of milliseconds the connection stays bound after it was
+     * last used.  Guarded by "this", as are the fields below.
+     */
+    private long mIdleTimeout = DEFAULT_IDLE_TIMEOUT;
+
+    /**
+     * The System.nanoTime() of the last bind, which is used to log
+     * how long the Service takes to connect.
+     */
+    private long mBindTime;
+
+    /**
+     * Number of calls that are using the AIDL interface or waiting
+     * for it in acquire(), which keep the connection from being
+     * unbound.
+     */
+    private int mUsers;
+
+    /**
+     * Constructor initializes the fields.
+     *
+     * @param aidl    The AIDL Interface class object
+     * @param context The Context used to bind to the Service
+     * @param intent  The Intent that identifies the Service
+     */
+    public LazyServiceConnection(Class<AIDLInterface> aidl,
+                                 Context context,
+                                 Intent intent) {
+        super(aidl);
+        mContext = context;
+        mIntent = intent;
+    }
+
+    /**
+     * Set the number of milliseconds the connection stays bound after
+     * it was last used.
+     */
+    public synchronized void setIdleTimeout(long idleTimeout) {
+        mIdleTimeout = idleTimeout;
+    }
+
+    /**
+     * Run @a call on the AIDL interface, binding to the Service first
+     * if needed.  The call runs in the caller's thread if the Service
+     * is connected, otherwise it's queued and runs in the UI thread
+     * once the Service connects, so it should be a one-way call.
+     *
+     * @return false if the Service couldn't be bound, in which case
+     *         the call is dropped, else true.
+     */
+    public boolean bindAndExecute(Call<AIDLInterface> call) {
+        synchronized (this) {
+            if (!bind())
+                return false;
+            ++mUsers;
+        }
+
+        try {
+            execute(call);
+        } finally {
+            release();
+        }
+        return true;
+    }
+
+    /**
+     * Return the AIDL interface, binding to the Service first and
+     * waiting up to @a timeout milliseconds for it to connect if
+     * needed.  Must not be called in the UI thread, which is where
+     * the Service connects.  A call to acquire() that returns an
+     * interface must be followed by a call to release() once the
+     * interface is no longer used.
+     *
+     * @return The AIDL interface, or null if the Service couldn't be
+     *         bound, didn't connect in time, or the caller was
+     *         interrupted.
+     */
+    public AIDLInterface acquire(long timeout) {
+        synchronized (this) {
+            if (!bind())
+                return null;
+
+            // Keep the connection from being unbound while waiting.
+            ++mUsers;
+        }
+
+        final AIDLInterface aidl = awaitInterface(timeout);
+        if (aidl == null)
+            release();
+        return aidl;
+    }
+
+    /**
+     * Stop using the AIDL interface returned by acquire().  Once the
+     * connection isn't used it's unbound after the idle timeout.
+     */
+    public synchronized void release() {
+        if (--mUsers == 0)
+            scheduleIdleUnbind();
+    }
+
+    /**
+     * Unbind from the Service, e.g., when its client is destroyed.
+     * Calls still waiting for the Service to connect are dropped.
+     */
+    @Override
+    public synchronized void unbind() {
+        mHandler.removeCallbacks(mIdleUnbind);
+        if (isBound())
+            Log.d(TAG,
+                  "calling unbindService() for "
+                  + mIntent);
+        super.unbind();
+    }
+
+    /**
+     * Hook method called back by the Android Service framework after
+     * the connection is established, which runs the calls that were
+     * waiting for it.
+     */
+    @Override
+    public void onServiceConnected(ComponentName name,
+                                   IBinder service) {
+        synchronized (this) {
+            Log.d(TAG,
+                  "connected to "
+                  + name
+                  + " "
+                  + (System.nanoTime() - mBindTime) / 1000000
+                  + " ms after binding");
+        }
+
+        super.onServiceConnected(name,
+                                 service);
+
+        // The calls that were waiting have run.
+        synchronized (this) {
+            if (mUsers == 0)
+                scheduleIdleUnbind();
+        }
+    }
+
+    /**
+     * Bind to the Service if the connection isn't bound, and keep it
+     * from being unbound for being idle.  Must be called with "this"
+     * locked.
+     *
+     * @return true if the connection is bound.
+     */
+    private boolean bind() {
+        mHandler.removeCallbacks(mIdleUnbind);
+        if (isBound())
+            return true;
+
+        Log.d(TAG,
+              "calling bindService() for "
+              + mIntent);
+        mBindTime = System.nanoTime();
+        return bind(mContext,
+                    mIntent);
+    }
+
+    /**
+     * Unbind from the Service after the idle timeout, unless it's
+     * used before then.  Must be called with "this" locked.
+     */
+    private void scheduleIdleUnbind() {
+        if (isBound()
+            && !hasPendingCalls()) {
+            mHandler.removeCallbacks(mIdleUnbind);
+            mHandler.postDelayed(mIdleUnbind,
+                                 mIdleTimeout);
+        }
+    }
+
+    /**
+     * Unbind from the Service if it hasn't been used since the idle
+     * unbind was scheduled.
+     */
+    private synchronized void unbindIfIdle() {
+        if (mUsers == 0
+            && !hasPendingCalls()) {
+            Log.d(TAG,
+                  "unbinding idle connection to "
+                  + mIntent);
+            unbind();
+        }
+    }
+}
@@ -0,0 +1,450 @@
+package edu.vandy.common;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import android.util.Log;
+
+/**
+ * An ExecutorServiceTimeoutCache that also appends its entries to a
+ * log file, so unexpired entries survive the cache being closed when
+ * the last client unbinds and even the death of the process.  Each
+ * record in the log stores the serialized key and value together
+ * with the absolute (wall-clock) time at which the entry expires.
+ *
+ * The in-memory cache starts out empty and open() restores the
+ * unexpired entries from the log in the background, so creating the
+ * cache never waits for the disk.  The log is compacted on open() and
+ * whenever it contains COMPACTION_FACTOR times more records than live
+ * entries.  All file I/O runs on a single background thread, which
+ * also means that put() and remove() never wait for the disk.
+ * Subclasses serialize keys and values by overriding the writeKey(),
+ * readKey(), writeValue() and readValue() hook methods.
+ */
+public abstract class PersistentTimeoutCache<K, V>
+       extends ExecutorServiceTimeoutCache<K, V> {
+    /**
+     * Types of the records in the log.
+     */
+    private static final byte PUT = 1;
+    private static final byte REMOVE = 2;
+
+    /**
+     * The log isn't compacted until it contains at least this many
+     * records.
+     */
+    private static final int MIN_COMPACTION_RECORDS = 256;
+
+    /**
+     * The log is compacted once it contains this many times more
+     * records than live entries.
+     */
+    private static final int COMPACTION_FACTOR = 2;
+
+    /**
+     * Number of milliseconds close() waits for pending writes.
+     */
+    private static final long CLOSE_TIMEOUT = 500;
+
+    /**
+     * Executor whose one thread performs all the file I/O.
+     */
+    private final ExecutorService mDiskExecutor =
+        Executors.newSingleThreadExecutor();
+
+    /**
+     * The log file, or null if open() hasn't been called.
+     */
+    private volatile File mFile;
+
+    /**
+     * Result of restoring the entries from the log.
+     */
+    private Future<?> mWarmStart;
+
+    /**
+     * Stream that appends records to the log.  It and the counts
+     * below are only accessed by the thread of mDiskExecutor.
+     */
+    private DataOutputStream mLog;
+
+    /**
+     * Number of records in the log.
+     */
+    private int mRecordCount;
+
+    /**
+     * Number of live entries in the log after it was last compacted.
+     */
+    private int mLiveCount;
+
+    /**
+     * Default constructor for an unbounded cache.
+     */
+    protected PersistentTimeoutCache() {
+    }
+
+    /**
+     * Constructor that bounds the total weight of the entries in the
+     * in-memory cache.
+     *
+     * @param maximumWeight The maximum total weight of the entries,
+     *                      or UNBOUNDED
+     */
+    protected PersistentTimeoutCache(long maximumWeight) {
+        super(maximumWeight);
+    }
+
+    /**
+     * Open the log @a file, restore its unexpired entries into the
+     * cache, and compact it.  This method returns immediately since
+     * the work is done in the background.  Calling it again has no
+     * effect.
+     *
+     * @return A Future that's done once the entries are restored
+     */
+    public synchronized Future<?> open(final File file) {
+        if (mFile == null) {
+            mFile = file;
+            mWarmStart = mDiskExecutor.submit(new Runnable() {
+                    @Override
+                    public void run() {
+                        warmStart();
+                    }
+                });
+        }
+        return mWarmStart;
+    }
+
+    /**
+     * Put the @a value into the cache at the designated @a key with a
+     * certain timeout after which the CacheValue will expire, and
+     * append it to the log.
+     *
+     * @param key        The key for the cache entry
+     * @param value      The value of the cache entry
+     * @param timeout    The timeout period in seconds
+     */
+    @Override
+    public void put(final K key,
+                    final V value,
+                    int timeout) {
+        super.put(key, value, timeout);
+
+        final long expirationTime = System.currentTimeMillis()
+            + TimeUnit.SECONDS.toMillis(timeout);
+
+        append(new Runnable() {
+                @Override
+                public void run() {
+                    appendRecord(PUT, key, value, expirationTime);
+                }
+            });
+    }
+
+    /**
+     * Removes the value associated with the designated @a key from
+     * the cache and the log.
+     *
+     * @param key     The key for the cache entry
+     * @param expirationTime (ignored)
+     */
+    @Override
+    public void remove(final K key,
+                       long expirationTime) {
+        super.remove(key, expirationTime);
+
+        append(new Runnable() {
+                @Override
+                public void run() {
+                    appendRecord(REMOVE, key, null, 0);
+                }
+            });
+    }
+
+    /**
+     * Hook method that serializes @a key to @a out.
+     */
+    protected abstract void writeKey(DataOutputStream out,
+                                     K key)
+        throws IOException;
+
+    /**
+     * Hook method that deserializes a key written by writeKey() from
+     * @a in.
+     */
+    protected abstract K readKey(DataInputStream in)
+        throws IOException;
+
+    /**
+     * Hook method that serializes @a value to @a out.
+     */
+    protected abstract void writeValue(DataOutputStream out,
+                                       V value)
+        throws IOException;
+
+    /**
+     * Hook method that deserializes a value written by writeValue()
+     * from @a in.
+     */
+    protected abstract V readValue(DataInputStream in)
+        throws IOException;
+
+    /**
+     * Shutdown the cache after the pending records have been written
+     * to the log.
+     */
+    @Override
+    protected void close() {
+        super.close();
+
+        try {
+            mDiskExecutor.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        closeLog();
+                    }
+                });
+        } catch (RejectedExecutionException e) {
+            // The cache was already closed.
+        }
+        mDiskExecutor.shutdown();
+
+        // Wait briefly so that a new cache that opens the same file
+        // sees the records written by this one.
+        try {
+            mDiskExecutor.awaitTermination(CLOSE_TIMEOUT,
+                                           TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Run @a write on the disk thread if the log has been opened.
+     */
+    private void append(Runnable write) {
+        if (mFile != null)
+            try {
+                mDiskExecutor.execute(write);
+            } catch (RejectedExecutionException e) {
+                // The cache has been closed, so there's no log to
+                // append to.
+            }
+    }
+
+    /**
+     * Restore the unexpired entries in the log into the cache and
+     * compact the log.  Runs on the disk thread.
+     */
+    private void warmStart() {
+        try {
+            Map<K, byte[]> records = replay();
+            long now = System.currentTimeMillis();
+            int restored = 0;
+
+            for (Map.Entry<K, byte[]> entry : records.entrySet()) {
+                DataInputStream in = payload(entry.getValue());
+                long remaining = in.readLong() - now;
+                readKey(in);
+
+                // Don't overwrite an entry that was put after the
+                // cache was created, since it's more recent.
+                if (remaining >= TimeUnit.SECONDS.toMillis(1)
+                    && putIfAbsent(entry.getKey(),
+                                   readValue(in),
+                                   (int) TimeUnit.MILLISECONDS.toSeconds(remaining)))
+                    ++restored;
+            }
+
+            Log.d(TAG,
+                  "restored "
+                  + restored
+                  + " entries from "
+                  + mFile);
+
+            compact(records);
+        } catch (IOException e) {
+            // Start over with an empty log if the old one can't be
+            // read, e.g., because the format of the values changed.
+            Log.e(TAG,
+                  "unable to restore entries from "
+                  + mFile
+                  + " "
+                  + e);
+            mFile.delete();
+            compact(new LinkedHashMap<K, byte[]>());
+        }
+    }
+
+    /**
+     * Serialize a record and append it to the log, compacting the log
+     * if it has grown too large.  Runs on the disk thread.
+     */
+    private void appendRecord(byte type,
+                              K key,
+                              V value,
+                              long expirationTime) {
+        if (mLog == null)
+            return;
+
+        try {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            DataOutputStream out = new DataOutputStream(bytes);
+            out.writeByte(type);
+            out.writeLong(expirationTime);
+            writeKey(out, key);
+            if (type == PUT)
+                writeValue(out, value);
+            out.flush();
+
+            // Write the length first so a record that's cut short by
+            // the death of the process can be recognized and
+            // ignored.
+            mLog.writeInt(bytes.size());
+            bytes.writeTo(mLog);
+            mLog.flush();
+            ++mRecordCount;
+        } catch (IOException e) {
+            e.printStackTrace();
+            return;
+        }
+
+        if (mRecordCount >= COMPACTION_FACTOR
+                            * Math.max(mLiveCount,
+                                       MIN_COMPACTION_RECORDS))
+            try {
+                compact(replay());
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+    }
+
+    /**
+     * Read the log and return the last PUT record of each key that
+     * hasn't been removed since, in the order the keys were first
+     * put.  Runs on the disk thread.
+     */
+    private Map<K, byte[]> replay() throws IOException {
+        Map<K, byte[]> records = new LinkedHashMap<>();
+        mRecordCount = 0;
+
+        try (DataInputStream in =
+             new DataInputStream(new BufferedInputStream
+                                 (new FileInputStream(mFile)))) {
+            for (;;) {
+                byte[] record;
+                try {
+                    int length = in.readInt();
+                    if (length <= 0
+                        || length > mFile.length())
+                        // The length itself was only partially
+                        // written.
+                        break;
+                    record = new byte[length];
+                    in.readFully(record);
+                } catch (EOFException e) {
+                    // Either the end of the log or a record that was
+                    // only partially written.
+                    break;
+                }
+                ++mRecordCount;
+
+                DataInputStream payload = payload(record);
+                payload.readLong();
+                K key = readKey(payload);
+
+                if (record[0] == PUT)
+                    records.put(key, record);
+                else
+                    records.remove(key);
+            }
+        } catch (FileNotFoundException e) {
+            // There's no log yet.
+        }
+        return records;
+    }
+
+    /**
+     * Return a stream positioned at the expiration time of @a record.
+     */
+    private DataInputStream payload(byte[] record) throws IOException {
+        DataInputStream in =
+            new DataInputStream(new ByteArrayInputStream(record));
+        in.readByte();
+        return in;
+    }
+
+    /**
+     * Rewrite the log so it only contains the unexpired @a records and
+     * reopen it for appending.  Runs on the disk thread.
+     */
+    private void compact(Map<K, byte[]> records) {
+        closeLog();
+
+        File compacted = new File(mFile.getPath() + ".tmp");
+        long now = System.currentTimeMillis();
+        int live = 0;
+
+        try (DataOutputStream out =
+             new DataOutputStream(new BufferedOutputStream
+                                  (new FileOutputStream(compacted)))) {
+            for (byte[] record : records.values())
+                if (payload(record).readLong() > now) {
+                    out.writeInt(record.length);
+                    out.write(record);
+                    ++live;
+                }
+        } catch (IOException e) {
+            e.printStackTrace();
+            compacted.delete();
+        }
+
+        // Replace the log with the compacted copy, which is atomic so
+        // the log is intact even if the process dies meanwhile.
+        if (compacted.exists()
+            && compacted.renameTo(mFile)) {
+            mRecordCount = live;
+            mLiveCount = live;
+        }
+
+        try {
+            mLog = new DataOutputStream
+                (new BufferedOutputStream(new FileOutputStream(mFile,
+                                                               true)));
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * Close the log if it's open.  Runs on the disk thread.
+     */
+    private void closeLog() {
+        if (mLog != null) {
+            try {
+                mLog.close();
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+            mLog = null;
+        }
+    }
+}
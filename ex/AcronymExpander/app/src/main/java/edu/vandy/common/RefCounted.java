@@ -1,11 +1,26 @@
 package edu.vandy.common;
 
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * A simple reference counter that can be used to close down objects
  * when they are no longer needed, e.g., to control the lifecycle of
- * singletones.
+ * singletones.  Once the count drops to 0 and the object is closed
+ * its count can't be incremented again, which lets the
+ * GenericSingleton replace a closed object atomically rather than
+ * handing it out to a new user.
+ *
+ * Subclasses can override the lingerTime() hook method to defer
+ * closing the object after the count drops to 0.  If the count is
+ * incremented again within the linger time the object is reused,
+ * which avoids tearing down and rebuilding expensive objects, e.g.,
+ * caches, when their users come and go in quick succession.
  */
 public abstract class RefCounted {
     /**
@@ -13,41 +28,175 @@ public abstract class RefCounted {
      */
     protected final String TAG =
         getClass().getSimpleName();
- 
+
+    /**
+     * Value returned by lingerTime() to indicate the object is closed
+     * as soon as the count drops to 0.
+     */
+    protected static final long NO_LINGER = 0;
+
+    /**
+     * Value of the reference count once the object is closed.
+     */
+    private static final int CLOSED = -1;
+
     /**
      * Ensure atomic increments and decrements of the reference count.
      */
     protected final AtomicInteger mRefcount =
         new AtomicInteger();
 
+    /**
+     * Incremented each time the count drops to 0, which ensures a
+     * deferred close only happens if the count hasn't risen and
+     * dropped to 0 again since it was scheduled.
+     */
+    private final AtomicInteger mIdleGeneration =
+        new AtomicInteger();
+
+    /**
+     * The deferred close, if any.
+     */
+    private volatile ScheduledFuture<?> mPendingClose;
+
+    /**
+     * Number of times the count was incremented again within the
+     * linger time, i.e., how often a close and rebuild was avoided.
+     */
+    private final AtomicLong mRevivalCount =
+        new AtomicLong();
+
     /**
      * Return the current reference count.
      */
     public int getRefcount() {
-        return mRefcount.get();
+        return Math.max(mRefcount.get(), 0);
+    }
+
+    /**
+     * Return true if the object has been closed.
+     */
+    public boolean isClosed() {
+        return mRefcount.get() == CLOSED;
+    }
+
+    /**
+     * Return the number of times the object was reused within its
+     * linger time rather than being closed.
+     */
+    public long getRevivalCount() {
+        return mRevivalCount.get();
     }
 
     /**
      * Atomically increment the reference count by one.
+     *
+     * @throws IllegalStateException if the object has been closed
      */
     public final RefCounted incrementRefCount() {
-        mRefcount.incrementAndGet();
+        if (!tryIncrementRefCount())
+            throw new IllegalStateException(TAG
+                                            + " has been closed");
         return this;
     }
 
     /**
-     * Atomically decrement the reference count by one and calls the 
-     * close() hook method on the object so it can clean itself up.
+     * Atomically increment the reference count by one unless the
+     * object has been closed.
+     *
+     * @return True if the count was incremented, else false.
+     */
+    public final boolean tryIncrementRefCount() {
+        for (;;) {
+            int count = mRefcount.get();
+            if (count == CLOSED)
+                return false;
+            else if (mRefcount.compareAndSet(count, count + 1)) {
+                // If the object was lingering then it's been revived,
+                // so its deferred close is no longer needed.
+                if (count == 0
+                    && mIdleGeneration.get() > 0) {
+                    mRevivalCount.incrementAndGet();
+                    ScheduledFuture<?> pendingClose = mPendingClose;
+                    if (pendingClose != null)
+                        pendingClose.cancel(false);
+                }
+                return true;
+            }
+        }
+    }
+
+    /**
+     * Atomically decrement the reference count by one and calls the
+     * close() hook method on the object so it can clean itself up
+     * when the count drops to 0, either immediately or after the
+     * lingerTime() has passed.
      */
     public int decrementRefCount() {
         int count = mRefcount.decrementAndGet();
-        if (count == 0)
-            close();
+        if (count == 0) {
+            final int generation = mIdleGeneration.incrementAndGet();
+            long lingerTime = lingerTime();
+
+            if (lingerTime == NO_LINGER)
+                closeIfIdle(generation);
+            else
+                mPendingClose =
+                    Timer.sExecutor.schedule(new Runnable() {
+                            @Override
+                            public void run() {
+                                closeIfIdle(generation);
+                            }
+                        },
+                        lingerTime,
+                        TimeUnit.MILLISECONDS);
+        }
         return count;
     }
-    
+
+    /**
+     * Hook method that returns the number of milliseconds to wait
+     * after the count drops to 0 before the object is closed.
+     * Subclasses can override this method to linger, e.g., so a
+     * cache survives its users briefly unbinding.
+     *
+     * @return The linger time in milliseconds, or NO_LINGER
+     */
+    protected long lingerTime() {
+        return NO_LINGER;
+    }
+
     /**
      * Hook method that closes the object being reference counted.
      */
     protected abstract void close();
+
+    /**
+     * Close the object if the count is still 0 and hasn't risen and
+     * dropped to 0 again since @a generation.
+     */
+    private void closeIfIdle(int generation) {
+        if (mIdleGeneration.get() == generation
+            && mRefcount.compareAndSet(0, CLOSED))
+            close();
+    }
+
+    /**
+     * Holds the thread that performs deferred closes, which is only
+     * created once an object lingers.
+     */
+    private static class Timer {
+        static final ScheduledExecutorService sExecutor =
+            Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+                    @Override
+                    public Thread newThread(Runnable runnable) {
+                        Thread thread = new Thread(runnable,
+                                                   "RefCounted linger");
+                        // Don't keep the process alive just to close
+                        // objects.
+                        thread.setDaemon(true);
+                        return thread;
+                    }
+                });
+    }
 }
@@ -0,0 +1,311 @@
+package edu.vandy.common;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Keeps track of the requests a Service is working on, so they can
+ * be cancelled by their clients or when their deadlines pass.  A
+ * cancelled request that hasn't started is skipped entirely, while
+ * one that's running has its thread interrupted, which stops blocking
+ * operations that honor interrupts, e.g., HttpTransport.get().  The
+ * tracker counts both cases, which shows how much work that nobody
+ * would have used was avoided.
+ */
+public class RequestTracker {
+    /**
+     * Value passed to track() for a request that has no deadline.
+     */
+    public static final long NO_TIMEOUT = 0;
+
+    /**
+     * The requests that haven't finished, keyed by their client's
+     * request ids.
+     */
+    private final ConcurrentHashMap<String, Request> mRequests =
+        new ConcurrentHashMap<>();
+
+    /**
+     * Number of requests cancelled before they started.
+     */
+    private final AtomicLong mSkippedCount =
+        new AtomicLong();
+
+    /**
+     * Number of requests cancelled while they were running.
+     */
+    private final AtomicLong mInterruptedCount =
+        new AtomicLong();
+
+    /**
+     * Number of the cancelled requests whose deadline passed, rather
+     * than being cancelled by their clients.
+     */
+    private final AtomicLong mExpiredCount =
+        new AtomicLong();
+
+    /**
+     * A request that can be cancelled.  Subclasses implement the
+     * process() hook method to do the work.
+     */
+    public abstract static class Request
+           implements Runnable {
+        /**
+         * The tracker and key the request is registered with.
+         */
+        private RequestTracker mTracker;
+        private String mKey;
+
+        /**
+         * Cancels the request when its deadline passes.  Guarded by
+         * "this".
+         */
+        private ScheduledFuture<?> mDeadline;
+
+        /**
+         * The thread running the request, if it's running.  Guarded
+         * by "this" so a cancel can't interrupt the thread after it
+         * has moved on to other work.
+         */
+        private Thread mThread;
+
+        /**
+         * True once the request has finished or been discarded.
+         */
+        private boolean mDone;
+
+        /**
+         * True once the request has been cancelled.
+         */
+        private volatile boolean mCancelled;
+
+        /**
+         * Run the request unless it has been cancelled.
+         */
+        @Override
+        public final void run() {
+            synchronized (this) {
+                if (mCancelled) {
+                    finish();
+                    return;
+                }
+                mThread = Thread.currentThread();
+            }
+
+            try {
+                process();
+            } finally {
+                synchronized (this) {
+                    mThread = null;
+                }
+                // Clear an interrupt caused by a cancel, which is
+                // no longer needed.
+                Thread.interrupted();
+                finish();
+            }
+        }
+
+        /**
+         * Hook method that does the work of the request.  It should
+         * check isCancelled() before sending results to its client.
+         */
+        protected abstract void process();
+
+        /**
+         * Return true if the request has been cancelled.
+         */
+        public final boolean isCancelled() {
+            return mCancelled;
+        }
+
+        /**
+         * Stop tracking a request that won't be run, e.g., because it
+         * was rejected, without counting it as cancelled.
+         */
+        public final void discard() {
+            finish();
+        }
+
+        /**
+         * Cancel the request, interrupting its thread if it's
+         * running.
+         *
+         * @return True if the request was cancelled, or false if it
+         * already finished or was cancelled
+         */
+        private boolean cancel(boolean expired) {
+            synchronized (this) {
+                if (mDone || mCancelled)
+                    return false;
+                mCancelled = true;
+
+                // Count the cancel before the interrupt, which may
+                // wake a thread that looks at the counts.
+                if (expired)
+                    mTracker.mExpiredCount.incrementAndGet();
+                if (mThread == null)
+                    mTracker.mSkippedCount.incrementAndGet();
+                else {
+                    mTracker.mInterruptedCount.incrementAndGet();
+                    mThread.interrupt();
+                }
+            }
+            return true;
+        }
+
+        /**
+         * Stop tracking the request.
+         */
+        private void finish() {
+            ScheduledFuture<?> deadline;
+            synchronized (this) {
+                mDone = true;
+                deadline = mDeadline;
+            }
+
+            if (mTracker != null)
+                mTracker.mRequests.remove(mKey,
+                                          this);
+            if (deadline != null)
+                deadline.cancel(false);
+        }
+    }
+
+    /**
+     * Start tracking @a request under @a key, which must be unique
+     * among the requests being tracked, and cancel it if it hasn't
+     * finished within @a timeoutMillis.
+     *
+     * @param key           Identifies the request, e.g., the client's
+     *                      process and request id
+     * @param request       The request, which must not have run yet
+     * @param timeoutMillis Deadline of the request in milliseconds,
+     *                      or NO_TIMEOUT
+     * @return The @a request
+     */
+    public <R extends Request> R track(String key,
+                                       R request,
+                                       long timeoutMillis) {
+        final Request tracked = request;
+        tracked.mTracker = this;
+        tracked.mKey = key;
+
+        // A request with the same key is replaced, so it can no
+        // longer be cancelled.
+        mRequests.put(key,
+                      tracked);
+
+        if (timeoutMillis != NO_TIMEOUT) {
+            final Request expiring = tracked;
+            ScheduledFuture<?> deadline =
+                Timer.sExecutor.schedule(new Runnable() {
+                        @Override
+                        public void run() {
+                            if (mRequests.remove(expiring.mKey,
+                                                 expiring))
+                                expiring.cancel(true);
+                        }
+                    },
+                    Math.max(timeoutMillis, 0),
+                    TimeUnit.MILLISECONDS);
+
+            // The request may have finished before its deadline was
+            // recorded.
+            boolean done;
+            synchronized (tracked) {
+                tracked.mDeadline = deadline;
+                done = tracked.mDone;
+            }
+            if (done)
+                deadline.cancel(false);
+        }
+        return request;
+    }
+
+    /**
+     * Cancel the request tracked under @a key.
+     *
+     * @return True if the request was cancelled, or false if there's
+     * no such request or it already finished
+     */
+    public boolean cancel(String key) {
+        Request request = mRequests.remove(key);
+        return request != null
+            && request.cancel(false);
+    }
+
+    /**
+     * Return the number of requests that haven't finished.
+     */
+    public int size() {
+        return mRequests.size();
+    }
+
+    /**
+     * Return the number of requests that were cancelled before they
+     * started, i.e., whose work was avoided entirely.
+     */
+    public long getSkippedCount() {
+        return mSkippedCount.get();
+    }
+
+    /**
+     * Return the number of requests that were cancelled while they
+     * were running, i.e., whose remaining work was avoided.
+     */
+    public long getInterruptedCount() {
+        return mInterruptedCount.get();
+    }
+
+    /**
+     * Return the number of requests that were cancelled because their
+     * deadline passed.
+     */
+    public long getExpiredCount() {
+        return mExpiredCount.get();
+    }
+
+    /**
+     * Return a summary of the tracker's counts.
+     */
+    @Override
+    public String toString() {
+        return "RequestTracker [inFlight="
+            + size()
+            + ", skipped="
+            + getSkippedCount()
+            + ", interrupted="
+            + getInterruptedCount()
+            + ", expired="
+            + getExpiredCount()
+            + "]";
+    }
+
+    /**
+     * Holds the thread that cancels requests when their deadlines
+     * pass, which is only created once a request has a deadline.
+     */
+    private static class Timer {
+        static final ScheduledThreadPoolExecutor sExecutor =
+            new ScheduledThreadPoolExecutor(1, new ThreadFactory() {
+                    @Override
+                    public Thread newThread(Runnable runnable) {
+                        Thread thread = new Thread(runnable,
+                                                   "RequestTracker deadline");
+                        // Don't keep the process alive just to cancel
+                        // requests.
+                        thread.setDaemon(true);
+                        return thread;
+                    }
+                });
+
+        static {
+            // Don't keep the deadlines of finished requests around.
+            sExecutor.setRemoveOnCancelPolicy(true);
+        }
+    }
+}
@@ -0,0 +1,116 @@
+package edu.vandy.common;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Accumulates the statistics of a TimeoutCache.  Every record method
+ * is a single atomic update that never blocks, so caches can call
+ * them on their fast paths.  The snapshot() method returns the
+ * current values as an immutable CacheStats object.
+ */
+public class StatsCounter {
+    /**
+     * Counters for the various cache events.
+     */
+    private final AtomicLong mHitCount = new AtomicLong();
+    private final AtomicLong mMissCount = new AtomicLong();
+    private final AtomicLong mExpirationCount = new AtomicLong();
+    private final AtomicLong mOverwriteCount = new AtomicLong();
+    private final AtomicLong mEvictionCount = new AtomicLong();
+    private final AtomicLong mLoadCount = new AtomicLong();
+    private final AtomicLong mTotalLoadTime = new AtomicLong();
+
+    /**
+     * Histogram of load times in microseconds.
+     */
+    private final AtomicLongArray mLoadTimes =
+        new AtomicLongArray(CacheStats.BUCKETS);
+
+    /**
+     * Histogram of the sizes of the values put into the cache.
+     */
+    private final AtomicLongArray mValueSizes =
+        new AtomicLongArray(CacheStats.BUCKETS);
+
+    /**
+     * Record that a lookup found a value in the cache.
+     */
+    public void recordHit() {
+        mHitCount.incrementAndGet();
+    }
+
+    /**
+     * Record that a lookup didn't find a value in the cache.
+     */
+    public void recordMiss() {
+        mMissCount.incrementAndGet();
+    }
+
+    /**
+     * Record that an entry was removed because it expired.
+     */
+    public void recordExpiration() {
+        mExpirationCount.incrementAndGet();
+    }
+
+    /**
+     * Record that a put() replaced an existing entry.
+     */
+    public void recordOverwrite() {
+        mOverwriteCount.incrementAndGet();
+    }
+
+    /**
+     * Record that @a count entries were evicted to make room for
+     * other entries.
+     */
+    public void recordEvictions(int count) {
+        mEvictionCount.addAndGet(count);
+    }
+
+    /**
+     * Record that a load took @a loadTime nanoseconds.
+     */
+    public void recordLoad(long loadTime) {
+        mLoadCount.incrementAndGet();
+        mTotalLoadTime.addAndGet(loadTime);
+        mLoadTimes.incrementAndGet
+            (CacheStats.bucketOf(TimeUnit.NANOSECONDS.toMicros(loadTime)));
+    }
+
+    /**
+     * Record that a value of size @a size was put into the cache.
+     */
+    public void recordValueSize(long size) {
+        mValueSizes.incrementAndGet(CacheStats.bucketOf(size));
+    }
+
+    /**
+     * Return a snapshot of the statistics recorded so far.  The
+     * counters are read one at a time, so the snapshot isn't atomic
+     * with respect to concurrent updates.
+     */
+    public CacheStats snapshot() {
+        return new CacheStats(mHitCount.get(),
+                              mMissCount.get(),
+                              mExpirationCount.get(),
+                              mOverwriteCount.get(),
+                              mEvictionCount.get(),
+                              mLoadCount.get(),
+                              mTotalLoadTime.get(),
+                              toArray(mLoadTimes),
+                              toArray(mValueSizes));
+    }
+
+    /**
+     * Copy the contents of @a histogram into an array.
+     */
+    private static long[] toArray(AtomicLongArray histogram) {
+        long[] array = new long[histogram.length()];
+        for (int i = 0; i < array.length; ++i)
+            array[i] = histogram.get(i);
+        return array;
+    }
+}
@@ -22,6 +22,21 @@ public interface TimeoutCache<K, V> {
      */
     void put(K key, V obj, int timeout);
 
+    /**
+     * Gets the @a value from the cache at the designated @a key.  If
+     * there's no value then the @a loader is used to obtain it and the
+     * value is put into the cache with the designated @a timeout.
+     * Only one load runs per key at a time, i.e., concurrent callers
+     * for the same key wait for the in-flight load and share its
+     * result.
+     *
+     * @param key
+     * @param loader
+     * @param timeout in seconds
+     * @return value, which is null if the loader returned null
+     */
+    V getOrLoad(K key, Loader<K, V> loader, int timeout);
+
     /**
      * Removes the value associated with a key.
      * 
@@ -37,4 +52,25 @@ public interface TimeoutCache<K, V> {
      * @return size
      */
     int size();
+
+    /**
+     * Get a snapshot of the hit, miss, expiration, overwrite and
+     * eviction counts of the cache, as well as histograms of its load
+     * times and value sizes.
+     *
+     * @return stats
+     */
+    CacheStats getStats();
+
+    /**
+     * Define a hook interface used by getOrLoad() to obtain a value
+     * that isn't in the cache.
+     */
+    interface Loader<K, V> {
+        /**
+         * Return the value associated with @a key, or null if there
+         * is no such value.
+         */
+        V load(K key);
+    }
 }
@@ -0,0 +1,306 @@
+package edu.vandy.common;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * A size- and weight-bounded eviction policy that implements the
+ * Window TinyLFU (W-TinyLFU) algorithm.  New keys enter a small LRU
+ * admission window.  Keys evicted from the window must then compete
+ * with the least recently used key of the main segmented LRU, and
+ * only the one that a FrequencySketch estimates to be more popular
+ * is retained.  This design keeps frequently used keys resident even
+ * when a burst of distinct keys passes through the cache.
+ *
+ * The policy only tracks keys and weights.  It tells the cache which
+ * keys to evict, and the cache is responsible for removing them.
+ */
+public class WindowTinyLfuPolicy<K> {
+    /**
+     * Percentage of the maximum weight used by the admission window.
+     */
+    private static final int WINDOW_PERCENT = 1;
+
+    /**
+     * Percentage of the main segment used by the protected segment.
+     */
+    private static final int PROTECTED_PERCENT = 80;
+
+    /**
+     * Lock that serializes all updates to the policy.
+     */
+    private final ReentrantLock mLock = new ReentrantLock();
+
+    /**
+     * Estimates the popularity of the keys.
+     */
+    private final FrequencySketch<K> mSketch;
+
+    /**
+     * LRU queues (in access order) that map each key to its weight.
+     */
+    private final LinkedHashMap<K, Integer> mWindow =
+        new LinkedHashMap<>(16, 0.75f, true);
+    private final LinkedHashMap<K, Integer> mProbation =
+        new LinkedHashMap<>(16, 0.75f, true);
+    private final LinkedHashMap<K, Integer> mProtected =
+        new LinkedHashMap<>(16, 0.75f, true);
+
+    /**
+     * The maximum weights of the whole policy and of its segments.
+     */
+    private final long mMaximumWeight;
+    private final long mWindowMaximum;
+    private final long mMainMaximum;
+    private final long mProtectedMaximum;
+
+    /**
+     * The current weights of the segments.
+     */
+    private long mWindowWeight;
+    private long mProbationWeight;
+    private long mProtectedWeight;
+
+    /**
+     * Number of keys that have been evicted by the policy.
+     */
+    private volatile long mEvictionCount;
+
+    /**
+     * Constructor initializes the policy so the total weight of the
+     * keys it retains never exceeds @a maximumWeight.
+     */
+    public WindowTinyLfuPolicy(long maximumWeight) {
+        mMaximumWeight = maximumWeight;
+        mWindowMaximum =
+            Math.max(1, maximumWeight * WINDOW_PERCENT / 100);
+        mMainMaximum = maximumWeight - mWindowMaximum;
+        mProtectedMaximum = mMainMaximum * PROTECTED_PERCENT / 100;
+        mSketch = new FrequencySketch<>(maximumWeight);
+    }
+
+    /**
+     * Record a read of @a key.  Reads are recorded on a best-effort
+     * basis, i.e., the read is dropped if another thread holds the
+     * lock, so readers never block on the policy.
+     */
+    public void recordAccess(K key) {
+        if (mLock.tryLock()) {
+            try {
+                mSketch.increment(key);
+                onAccess(key);
+            } finally {
+                mLock.unlock();
+            }
+        }
+    }
+
+    /**
+     * Record that @a key has been inserted or updated with a value of
+     * the given @a weight.
+     *
+     * @return The keys that the cache must evict to stay within the
+     *         maximum weight, which may include @a key itself.
+     */
+    public List<K> recordWrite(K key,
+                               int weight) {
+        List<K> evicted = new ArrayList<>();
+
+        mLock.lock();
+        try {
+            mSketch.increment(key);
+
+            if (mWindow.containsKey(key))
+                mWindowWeight += weight - mWindow.put(key, weight);
+            else if (mProbation.containsKey(key))
+                mProbationWeight += weight - mProbation.put(key, weight);
+            else if (mProtected.containsKey(key))
+                mProtectedWeight += weight - mProtected.put(key, weight);
+            else {
+                // New keys always enter the admission window.
+                mWindow.put(key, weight);
+                mWindowWeight += weight;
+            }
+
+            onAccess(key);
+            evictFromWindow(evicted);
+            evictFromMain(evicted);
+        } finally {
+            mLock.unlock();
+        }
+        return evicted;
+    }
+
+    /**
+     * Record that @a key has been removed from the cache for a reason
+     * other than eviction, e.g., because it expired.
+     */
+    public void recordRemoval(K key) {
+        mLock.lock();
+        try {
+            Integer weight;
+            if ((weight = mWindow.remove(key)) != null)
+                mWindowWeight -= weight;
+            else if ((weight = mProbation.remove(key)) != null)
+                mProbationWeight -= weight;
+            else if ((weight = mProtected.remove(key)) != null)
+                mProtectedWeight -= weight;
+        } finally {
+            mLock.unlock();
+        }
+    }
+
+    /**
+     * Return the number of keys evicted by the policy.
+     */
+    public long getEvictionCount() {
+        return mEvictionCount;
+    }
+
+    /**
+     * Return the total weight of the keys retained by the policy.
+     */
+    public long getWeightedSize() {
+        mLock.lock();
+        try {
+            return mWindowWeight + mProbationWeight + mProtectedWeight;
+        } finally {
+            mLock.unlock();
+        }
+    }
+
+    /**
+     * Return the maximum weight of the keys retained by the policy.
+     */
+    public long getMaximumWeight() {
+        return mMaximumWeight;
+    }
+
+    /**
+     * Update the recency of @a key, promoting it from the probation
+     * segment to the protected segment if it is accessed again.  Must
+     * be called with the lock held.
+     */
+    private void onAccess(K key) {
+        Integer weight;
+        if (mWindow.get(key) != null
+            || mProtected.get(key) != null)
+            // The get() calls moved the key to the MRU position.
+            return;
+        else if ((weight = mProbation.remove(key)) != null) {
+            mProbationWeight -= weight;
+            mProtected.put(key, weight);
+            mProtectedWeight += weight;
+
+            // Demote the LRU keys of the protected segment back to
+            // the probation segment if it has grown too large.
+            while (mProtectedWeight > mProtectedMaximum
+                   && mProtected.size() > 1) {
+                K demoted = firstKey(mProtected);
+                int demotedWeight = mProtected.remove(demoted);
+                mProtectedWeight -= demotedWeight;
+                mProbation.put(demoted, demotedWeight);
+                mProbationWeight += demotedWeight;
+            }
+        }
+    }
+
+    /**
+     * Move keys from the admission window to the main segment while
+     * the window is too large.  A candidate leaving the window is only
+     * admitted if it is estimated to be more popular than the victims
+     * it would displace.  Must be called with the lock held.
+     */
+    private void evictFromWindow(List<K> evicted) {
+        while (mWindowWeight > mWindowMaximum) {
+            K candidate = firstKey(mWindow);
+            int weight = mWindow.remove(candidate);
+            mWindowWeight -= weight;
+
+            if (weight > mMainMaximum) {
+                // The candidate can never fit in the main segment.
+                evict(candidate, evicted);
+                continue;
+            }
+
+            // Evict victims from the main segment until the candidate
+            // fits, unless the candidate loses to one of them.
+            boolean admit = true;
+            while (admit
+                   && mainWeight() + weight > mMainMaximum) {
+                K victim = mainVictim();
+                if (mSketch.frequency(candidate)
+                    > mSketch.frequency(victim))
+                    removeFromMain(victim, evicted);
+                else
+                    admit = false;
+            }
+
+            if (admit) {
+                mProbation.put(candidate, weight);
+                mProbationWeight += weight;
+            } else
+                evict(candidate, evicted);
+        }
+    }
+
+    /**
+     * Evict keys from the main segment while it's too large, which can
+     * happen if the weight of a resident key grows.  Must be called
+     * with the lock held.
+     */
+    private void evictFromMain(List<K> evicted) {
+        while (mainWeight() > mMainMaximum)
+            removeFromMain(mainVictim(),
+                           evicted);
+    }
+
+    /**
+     * Return the total weight of the main segment.
+     */
+    private long mainWeight() {
+        return mProbationWeight + mProtectedWeight;
+    }
+
+    /**
+     * Return the key the main segment would evict next, i.e., the LRU
+     * key of the probation segment or, if that's empty, of the
+     * protected segment.
+     */
+    private K mainVictim() {
+        return mProbation.isEmpty()
+            ? firstKey(mProtected)
+            : firstKey(mProbation);
+    }
+
+    /**
+     * Remove @a key from the main segment and evict it.
+     */
+    private void removeFromMain(K key,
+                                List<K> evicted) {
+        Integer weight;
+        if ((weight = mProbation.remove(key)) != null)
+            mProbationWeight -= weight;
+        else if ((weight = mProtected.remove(key)) != null)
+            mProtectedWeight -= weight;
+        evict(key, evicted);
+    }
+
+    /**
+     * Add @a key to the list of @a evicted keys.
+     */
+    private void evict(K key,
+                       List<K> evicted) {
+        evicted.add(key);
+        mEvictionCount++;
+    }
+
+    /**
+     * Return the least recently used key in @a queue.
+     */
+    private static <K> K firstKey(LinkedHashMap<K, Integer> queue) {
+        return queue.keySet().iterator().next();
+    }
+}
@@ -1,16 +1,31 @@
 package edu.vandy.model;
 
+import java.io.IOException;
 import java.lang.ref.WeakReference;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 
 import edu.vandy.MVP;
-import edu.vandy.common.GenericServiceConnection;
+import edu.vandy.common.BoundedExecutor;
+import edu.vandy.common.Factories;
+import edu.vandy.common.Futures;
+import edu.vandy.common.LazyServiceConnection;
 import edu.vandy.model.aidl.AcronymCall;
 import edu.vandy.model.aidl.AcronymExpansion;
+import edu.vandy.model.aidl.AcronymExpansionBatch;
+import edu.vandy.model.aidl.AcronymExpansionBuffer;
 import edu.vandy.model.aidl.AcronymRequest;
 import edu.vandy.model.aidl.AcronymResults;
+import edu.vandy.model.aidl.ExpandedAcronym;
+import edu.vandy.model.services.AcronymServiceAsync;
 import edu.vandy.model.services.AcronymServiceSync;
-import android.content.Context;
+import android.os.DeadObjectException;
 import android.os.RemoteException;
 import android.util.Log;
 
@@ -35,23 +50,82 @@ public class AcronymModel
      */
     private WeakReference<MVP.RequiredPresenterOps> mAcronymPresenter;
 
+    static {
+        // Convert the IBinders of the Services without reflection
+        // each time they're (re)connected.
+        Factories.registerAsInterface(AcronymCall.class,
+                                      AcronymCall.Stub::asInterface);
+        Factories.registerAsInterface(AcronymRequest.class,
+                                      AcronymRequest.Stub::asInterface);
+    }
+
+    /**
+     * This LazyServiceConnection is used to receive results after
+     * binding to the AcronymServiceSync Service using bindService(),
+     * which happens the first time a synchronous call is made.
+     */
+    private LazyServiceConnection<AcronymCall> mServiceConnectionSync;
+
+    /**
+     * This LazyServiceConnection is used to receive results after
+     * binding to the AcronymServiceAsync Service using bindService(),
+     * which happens the first time an asynchronous call is made.
+     */
+    private LazyServiceConnection<AcronymRequest> mServiceConnectionAsync;
+
+    /**
+     * Number of milliseconds a synchronous call waits for the
+     * AcronymServiceSync to connect.
+     */
+    private static final long CONNECT_TIMEOUT = 10 * 1000;
+
+    /**
+     * Number of times a synchronous call is made if the
+     * AcronymServiceSync dies before answering it.  Lookups can be
+     * repeated safely, so the call is made again once the Service is
+     * reconnected rather than failing.
+     */
+    private static final int SYNC_CALL_ATTEMPTS = 2;
+
+    /**
+     * Generates the ids of the asynchronous requests.
+     */
+    private final AtomicLong mNextRequestId =
+        new AtomicLong();
+
     /**
-     * This GenericServiceConnection is used to receive results after
-     * binding to the AcronymServiceSync Service using bindService().
+     * The asynchronous requests that are outstanding, keyed by their
+     * ids, which can be cancelled.  A request is removed when its
+     * last results arrive, when it's cancelled, or once its
+     * REQUEST_TIMEOUT has passed, since the AcronymServiceAsync
+     * cancels it then.
      */
-    private GenericServiceConnection<AcronymCall> mServiceConnectionSync;
+    private final Map<Long, AsyncResultsImpl> mRequests =
+        new ConcurrentHashMap<>();
 
     /**
-     * This GenericServiceConnection is used to receive results after
-     * binding to the AcronymServiceAsync Service using bindService().
+     * Maximum number of synchronous calls made by expand() at once,
+     * which keeps a burst of lookups from tying up all the Binder
+     * threads of the AcronymServiceSync.
      */
-    private GenericServiceConnection<AcronymRequest> mServiceConnectionAsync;
+    private static final int MAX_EXPANSIONS = 4;
+
+    /**
+     * Maximum number of calls to expand() that wait for a thread.
+     */
+    private static final int EXPANSION_QUEUE_CAPACITY = 32;
+
+    /**
+     * Makes the synchronous calls of expand() in the background.
+     */
+    private BoundedExecutor mExpandExecutor;
 
     /**
      * Hook method called when a new instance of AcronymModel is
      * created.  One time initialization code goes here, e.g., storing
-     * a WeakReference to the Presenter and initializing the sync and
-     * async Services.
+     * a WeakReference to the Presenter and initializing the
+     * connections to the sync and async Services, which are bound
+     * when they're first used.
      * 
      * @param presenter
      *            A reference to the Presenter layer.
@@ -62,14 +136,28 @@ public class AcronymModel
         mAcronymPresenter =
             new WeakReference<>(presenter);
 
-        // Initialize the GenericServiceConnection objects.
+        // Initialize the LazyServiceConnection objects, which bind
+        // via the Application context so the bindings survive
+        // runtime configuration changes.
         mServiceConnectionSync = 
-            new GenericServiceConnection<>(AcronymCall.class);
+            new LazyServiceConnection<>(AcronymCall.class,
+                                        presenter.getApplicationContext(),
+                                        AcronymServiceSync.makeIntent
+                                            (presenter.getActivityContext()));
         mServiceConnectionAsync =
-            new GenericServiceConnection<>(AcronymRequest.class);
-            
-        // Bind to the sync and async Services.
-        bindServices();
+            new LazyServiceConnection<>(AcronymRequest.class,
+                                        presenter.getApplicationContext(),
+                                        AcronymServiceAsync.makeIntent
+                                            (presenter.getActivityContext()));
+        setIdleTimeout(LazyServiceConnection.DEFAULT_IDLE_TIMEOUT);
+
+        // Create the threads used by expand(), which reject calls
+        // rather than queueing them without bound.
+        mExpandExecutor =
+            new BoundedExecutor(TAG,
+                                MAX_EXPANSIONS,
+                                EXPANSION_QUEUE_CAPACITY,
+                                new ThreadPoolExecutor.AbortPolicy());
     }
 
     /**
@@ -83,41 +171,34 @@ public class AcronymModel
         if (isChangingConfigurations)
             Log.d(TAG,
                   "just a configuration change - unbindService() not called");
-        else
+        else {
+            // Cancel the outstanding requests, whose results are no
+            // longer wanted.
+            for (long requestId : mRequests.keySet())
+                cancelRequest(requestId);
+
+            // Stop the calls of expand(), whose results are no
+            // longer wanted either.
+            mExpandExecutor.shutdownNow();
+
             // Unbind from the Services only if onDestroy() is not
             // triggered by a runtime configuration change.
             unbindServices();
+        }
     }
 
     /**
-     * Initiate the protocol for binding the Services.
+     * Set the number of milliseconds the connections to the Services
+     * stay bound after they were last used.  It's no less than
+     * REQUEST_TIMEOUT, so the AcronymServiceAsync isn't unbound while
+     * it's working on a request.
      */
-    private void bindServices() {
-        Log.d(TAG,
-              "calling bindService()");
-
-        // Launch the Acronym Bound Services if they aren't already
-        // running via a call to bindService(), which binds this
-        // activity to the AcronymService* if they aren't already
-        // bound.
-        if (mServiceConnectionSync.getInterface() == null) 
-            mAcronymPresenter.get()
-                             .getApplicationContext()
-                             .bindService
-                (AcronymServiceSync.makeIntent
-                     (mAcronymPresenter.get()
-                                       .getActivityContext()),
-                 mServiceConnectionSync,
-                 Context.BIND_AUTO_CREATE);
-
-        if (mServiceConnectionAsync.getInterface() == null) 
-            mAcronymPresenter.get()
-                             .getApplicationContext()
-                             .bindService
-                (edu.vandy.model.services.AcronymServiceAsync.makeIntent
-                     (mAcronymPresenter.get().getActivityContext()),
-                 mServiceConnectionAsync,
-                 Context.BIND_AUTO_CREATE);
+    @Override
+    public void setIdleTimeout(long idleTimeout) {
+        idleTimeout = Math.max(idleTimeout,
+                               REQUEST_TIMEOUT);
+        mServiceConnectionSync.setIdleTimeout(idleTimeout);
+        mServiceConnectionAsync.setIdleTimeout(idleTimeout);
     }
 
     /**
@@ -127,19 +208,9 @@ public class AcronymModel
         Log.d(TAG,
               "calling unbindService()");
 
-        // Unbind the Async Service if it is connected.
-        if (mServiceConnectionAsync.getInterface() != null)
-            mAcronymPresenter.get()
-                .getApplicationContext()
-                .unbindService
-                (mServiceConnectionAsync);
-
-        // Unbind the Sync Service if it is connected.
-        if (mServiceConnectionSync.getInterface() != null)
-            mAcronymPresenter.get()
-                .getApplicationContext()
-                .unbindService
-                (mServiceConnectionSync);
+        // Unbind the Services if they're bound.
+        mServiceConnectionAsync.unbind();
+        mServiceConnectionSync.unbind();
     }
 
     /**
@@ -150,49 +221,257 @@ public class AcronymModel
     @Override
     public List<AcronymExpansion> getAcronymExpansions(String acronym) {
         try {
-            final AcronymCall acronymCall = 
-                mServiceConnectionSync.getInterface();
-
-            if (acronymCall != null) 
-                // Invoke a two-way AIDL call, which blocks the
-                // caller.
-                return acronymCall.expandAcronym(acronym);
-            else 
-                Log.d(TAG, "mAcronymCall was null.");
-        } catch (RemoteException e) {
+            return expandAcronym(acronym);
+        } catch (RemoteException | IOException e) {
             e.printStackTrace();
         }
         return null;
     }
 
+    /**
+     * Use a two-way synchronous AIDL call to expand the @a acronym
+     * parameter in one of the threads of mExpandExecutor.  The
+     * future is completed with a TimeoutException if the call takes
+     * longer than REQUEST_TIMEOUT, which callers can compose with a
+     * fallback, e.g., via exceptionally().
+     */
+    @Override
+    public CompletableFuture<List<AcronymExpansion>> expand(final String acronym) {
+        final CompletableFuture<List<AcronymExpansion>> future =
+            Futures.supplyAsync(() -> {
+                    try {
+                        return expandAcronym(acronym);
+                    } catch (RemoteException | IOException e) {
+                        throw new CompletionException(e);
+                    }
+                },
+                mExpandExecutor);
+        return Futures.withTimeout(future,
+                                   REQUEST_TIMEOUT,
+                                   TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Invoke the two-way AIDL call that expands @a acronym, which
+     * blocks the caller.
+     *
+     * @return The expansions, or null if there aren't any.
+     */
+    private List<AcronymExpansion> expandAcronym(String acronym)
+        throws RemoteException, IOException {
+        for (int attempt = 1;
+             ;
+             ++attempt) {
+            // Bind to the AcronymServiceSync if needed, and wait for
+            // it to be connected.
+            final AcronymCall acronymCall = 
+                mServiceConnectionSync.acquire(CONNECT_TIMEOUT);
+            if (acronymCall == null)
+                throw new RemoteException("unable to connect to AcronymServiceSync");
+
+            try {
+                // The expansions are returned encoded, and in shared
+                // memory if there are many of them, so they're
+                // decoded as they're accessed.
+                final AcronymExpansionBuffer buffer =
+                    acronymCall.expandAcronymBuffer(acronym);
+                return buffer == null
+                    ? null
+                    : buffer.getExpansions();
+            } catch (DeadObjectException e) {
+                // Make the call again once the Service is back.
+                mServiceConnectionSync.invalidate(acronymCall);
+                if (attempt == SYNC_CALL_ATTEMPTS)
+                    throw e;
+            } finally {
+                mServiceConnectionSync.release();
+            }
+        }
+    }
+
     /**
      * Use a two-way asynchronous AIDL call to expand the @a acronym
      * parameter.  Need not be called in a background thread since the
      * caller isn't blocked.
+     *
+     * @return The id of the request, or NO_REQUEST
      */
-    public void getAcronymExpansions(String acronym,
+    @Override
+    public long getAcronymExpansions(String acronym,
                                      AcronymResults results) {
+        // Track the request, so it can be cancelled.
+        final AsyncResultsImpl callback =
+            trackRequest(results);
+
+        // Invoke a one-way AIDL call that doesn't block the caller.
+        // Results are returned via the sendPartialResultBatch() or
+        // sendError() methods of the AsyncResultsImpl callback
+        // object, which runs in a Thread from the Thread pool managed
+        // by the Binder framework.
+        return sendRequest(callback,
+                           acronymRequest ->
+                           acronymRequest.expandAcronymBatch(callback.mRequestId,
+                                                             REQUEST_TIMEOUT,
+                                                             acronym,
+                                                             callback));
+    }
+
+    /**
+     * Use a two-way synchronous AIDL call to expand the batch of @a
+     * acronyms in a single transaction.  Must be called in a
+     * background thread (e.g., via AsyncTask).
+     */
+    @Override
+    public List<ExpandedAcronym> getExpandedAcronyms(List<String> acronyms) {
+        for (int attempt = 1;
+             attempt <= SYNC_CALL_ATTEMPTS;
+             ++attempt) {
+            // Bind to the AcronymServiceSync if needed, and wait for
+            // it to be connected.
+            final AcronymCall acronymCall = 
+                mServiceConnectionSync.acquire(CONNECT_TIMEOUT);
+            if (acronymCall == null) {
+                Log.d(TAG, "unable to connect to AcronymServiceSync");
+                break;
+            }
+
+            try {
+                // Invoke a two-way AIDL call, which blocks the
+                // caller.
+                return acronymCall.expandAcronyms(acronyms);
+            } catch (DeadObjectException e) {
+                // Make the call again once the Service is back.
+                mServiceConnectionSync.invalidate(acronymCall);
+                e.printStackTrace();
+            } catch (RemoteException
+                     | IllegalStateException e) {
+                // The call failed, or the Service abandoned the
+                // batch.
+                e.printStackTrace();
+                break;
+            } finally {
+                mServiceConnectionSync.release();
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Use a one-way asynchronous AIDL call to expand the batch of @a
+     * acronyms.  Need not be called in a background thread since the
+     * caller isn't blocked.
+     *
+     * @return The id of the request, or NO_REQUEST
+     */
+    @Override
+    public long getExpandedAcronyms(List<String> acronyms,
+                                    AcronymResults results) {
+        // Track the request, so it can be cancelled.
+        final AsyncResultsImpl callback =
+            trackRequest(results);
+
+        // Invoke a one-way AIDL call that doesn't block the caller.
+        // Results are returned in chunks via the
+        // sendExpandedAcronyms() method of the AsyncResultsImpl
+        // callback object.
+        return sendRequest(callback,
+                           acronymRequest ->
+                           acronymRequest.expandAcronyms(callback.mRequestId,
+                                                         REQUEST_TIMEOUT,
+                                                         acronyms,
+                                                         callback));
+    }
+
+    /**
+     * Make the one-way AIDL call @a request, whose results are
+     * passed to @a callback, once the AcronymServiceAsync is
+     * connected, binding to it first if needed.  The request isn't
+     * sent if it's cancelled before then, and its callback is sent
+     * an error if it can't be sent.
+     *
+     * @return The id of the request, or NO_REQUEST
+     */
+    private long sendRequest(final AsyncResultsImpl callback,
+                             final LazyServiceConnection.Call<AcronymRequest> request) {
+        final boolean bound =
+            mServiceConnectionAsync.bindAndExecute(acronymRequest -> {
+                    if (callback.mCancelled)
+                        return;
+                    try {
+                        request.call(acronymRequest);
+                    } catch (DeadObjectException e) {
+                        // Let the connection send the request again
+                        // once the Service is reconnected.
+                        throw e;
+                    } catch (RemoteException e) {
+                        Log.e(TAG,
+                              "RemoteException:" 
+                              + e.getMessage());
+                        callback.sendError("unable to send the request");
+                    }
+                });
+        if (bound)
+            return callback.mRequestId;
+
+        // The request wasn't sent, so it isn't outstanding.
+        Log.d(TAG,
+              "unable to bind to AcronymServiceAsync");
+        mRequests.remove(callback.mRequestId);
+        return NO_REQUEST;
+    }
+
+    /**
+     * Return the callback object of a new asynchronous request, which
+     * passes its results to @a results, after adding it to the
+     * outstanding requests.
+     */
+    private AsyncResultsImpl trackRequest(AcronymResults results) {
+        // Forget the requests the AcronymServiceAsync has cancelled
+        // since their REQUEST_TIMEOUT passed, e.g., batches, which
+        // have no last chunk of results.
+        final long now = System.nanoTime();
+        for (AsyncResultsImpl request : mRequests.values())
+            if (now - request.mDeadline >= 0)
+                mRequests.remove(request.mRequestId);
+
+        final AsyncResultsImpl callback =
+            new AsyncResultsImpl(mNextRequestId.incrementAndGet(),
+                                 now + TimeUnit.MILLISECONDS.toNanos(REQUEST_TIMEOUT),
+                                 results,
+                                 mRequests);
+        mRequests.put(callback.mRequestId,
+                      callback);
+        return callback;
+    }
+
+    /**
+     * Use a one-way asynchronous AIDL call to cancel the request with
+     * @a requestId, which stops the AcronymServiceAsync from doing
+     * work whose results are no longer needed.  Results of the
+     * request that are already on their way are dropped.
+     */
+    @Override
+    public void cancelRequest(long requestId) {
+        // Drop the results of the request.
+        final AsyncResultsImpl request =
+            mRequests.remove(requestId);
+        if (request != null)
+            request.mCancelled = true;
+
         // Get a reference to the AcronymRequest interface.
         final AcronymRequest acronymRequest = 
             mServiceConnectionAsync.getInterface();
 
-        if (acronymRequest != null) {
+        if (acronymRequest != null
+            && requestId != NO_REQUEST) {
             try {
-                // Invoke a one-way AIDL call that doesn't block the
-                // caller.  Results are returned via the sendResults()
-                // or sendError() methods of the AsyncResultsImpl
-                // callback object, which runs in a Thread from the
-                // Thread pool managed by the Binder framework.
-                acronymRequest.expandAcronym(acronym,
-                                             new AsyncResultsImpl(results));
+                acronymRequest.cancel(requestId);
             } catch (RemoteException e) {
                 Log.e(TAG,
                       "RemoteException:" 
                       + e.getMessage());
             }
-        } else 
-            Log.d(TAG,
-                  "acronymRequest was null.");
+        }
     }
 
     /**
@@ -200,20 +479,65 @@ public class AcronymModel
      * will be passed to the Acronym Web service using the
      * AcronymRequest.expandAcronym() method.  Instances of this class
      * play the role of Invoker in the Broker Pattern since it
-     * dispatches the upcall to sendResults().
+     * dispatches the upcall to sendResults().  There's one instance
+     * per request, which drops the results once the request is
+     * cancelled and stops tracking the request once its last results
+     * arrive.
      */
     private static class AsyncResultsImpl
             extends AcronymResults.Stub {
+        /**
+         * The id of the request.
+         */
+        final long mRequestId;
+
+        /**
+         * The System.nanoTime() after which the AcronymServiceAsync
+         * cancels the request.
+         */
+        final long mDeadline;
+
+        /**
+         * True once the request has been cancelled.
+         */
+        volatile boolean mCancelled;
+
         /**
          * A WeakReference to the AcronymResults object.
          */
         private WeakReference<AcronymResults> mAcronymResults;
 
         /**
-         * Constructor initializes the field.
+         * The outstanding requests, which include this one until it's
+         * finished.
          */
-        public AsyncResultsImpl(AcronymResults acronymResults) {
+        private final Map<Long, AsyncResultsImpl> mRequests;
+
+        /**
+         * Constructor initializes the fields.
+         */
+        public AsyncResultsImpl(long requestId,
+                                long deadline,
+                                AcronymResults acronymResults,
+                                Map<Long, AsyncResultsImpl> requests) {
+            mRequestId = requestId;
+            mDeadline = deadline;
             mAcronymResults = new WeakReference<>(acronymResults);
+            mRequests = requests;
+        }
+
+        /**
+         * Return the AcronymResults object the results are passed
+         * to, or null if they're dropped because the request was
+         * cancelled or nobody is waiting for them anymore.  If
+         * @a last is true the request is finished.
+         */
+        private AcronymResults getAcronymResults(boolean last) {
+            if (last)
+                mRequests.remove(mRequestId);
+            return mCancelled
+                ? null
+                : mAcronymResults.get();
         }
 
         /**
@@ -223,7 +547,58 @@ public class AcronymModel
         @Override
         public void sendResults(final List<AcronymExpansion> acronymExpansions)
             throws RemoteException {
-            mAcronymResults.get().sendResults(acronymExpansions);
+            final AcronymResults acronymResults =
+                getAcronymResults(true);
+            if (acronymResults != null)
+                acronymResults.sendResults(acronymExpansions);
+        }
+
+        /**
+         * This method is invoked by AcronymServiceAsync to trigger
+         * returning a chunk of the results back to
+         * AcronymExpansionActivity.
+         */
+        @Override
+        public void sendPartialResults(final List<AcronymExpansion> acronymExpansions,
+                                       boolean last)
+            throws RemoteException {
+            final AcronymResults acronymResults =
+                getAcronymResults(last);
+            if (acronymResults != null)
+                acronymResults.sendPartialResults(acronymExpansions,
+                                                  last);
+        }
+
+        /**
+         * This method is invoked by AcronymServiceAsync to trigger
+         * returning a chunk of the results in columnar form back to
+         * AcronymExpansionActivity.
+         */
+        @Override
+        public void sendPartialResultBatch(final AcronymExpansionBatch acronymExpansions,
+                                           boolean last)
+            throws RemoteException {
+            final AcronymResults acronymResults =
+                getAcronymResults(last);
+            if (acronymResults != null)
+                acronymResults.sendPartialResultBatch(acronymExpansions,
+                                                      last);
+        }
+
+        /**
+         * This method is invoked by AcronymServiceAsync to trigger
+         * returning a chunk of the results of a batch back to
+         * AcronymExpansionActivity.  Since there's no way to tell
+         * which chunk is the last one, the request is tracked until
+         * its REQUEST_TIMEOUT passes.
+         */
+        @Override
+        public void sendExpandedAcronyms(final List<ExpandedAcronym> expandedAcronyms)
+            throws RemoteException {
+            final AcronymResults acronymResults =
+                getAcronymResults(false);
+            if (acronymResults != null)
+                acronymResults.sendExpandedAcronyms(expandedAcronyms);
         }
 
         /**
@@ -233,7 +608,10 @@ public class AcronymModel
         @Override
         public void sendError(final String reason)
             throws RemoteException {
-            mAcronymResults.get().sendError(reason);
+            final AcronymResults acronymResults =
+                getAcronymResults(true);
+            if (acronymResults != null)
+                acronymResults.sendError(reason);
         }
     }
 }
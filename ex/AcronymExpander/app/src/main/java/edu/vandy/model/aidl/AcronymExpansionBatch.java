@@ -0,0 +1,204 @@
+package edu.vandy.model.aidl;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import android.os.Parcel;
+import android.os.Parcelable;
+
+/**
+ * This class holds a List of AcronymExpansion objects in columnar
+ * form, i.e., as one array per field, so it can be marshaled as a
+ * handful of packed arrays rather than as one Parcelable per
+ * expansion.  The long forms are dictionary encoded, so a long form
+ * that appears more than once is only marshaled once.  It's passed
+ * between the Acronym Services and their clients as an alternative to
+ * List<AcronymExpansion>, which is more expensive to marshal and
+ * de-marshal for long lists.
+ */
+public class AcronymExpansionBatch
+       implements Parcelable {
+    /**
+     * The distinct long forms, in the order they first appear.
+     */
+    private String[] lfDictionary;
+
+    /**
+     * The index in lfDictionary of the long form of each expansion,
+     * or null if each long form appears only once, in which case the
+     * indices are implicitly 0, 1, 2, ...
+     */
+    private int[] lfIndices;
+
+    /**
+     * The frequency of each expansion.
+     */
+    private int[] freqs;
+
+    /**
+     * The year each expansion was added.
+     */
+    private int[] sinces;
+
+    /**
+     * Constructor that initializes an AcronymExpansionBatch from a
+     * List of @a expansions.
+     */
+    public AcronymExpansionBatch(List<AcronymExpansion> expansions) {
+        int size = expansions.size();
+        Map<String, Integer> dictionary =
+            new HashMap<String, Integer>(size * 2);
+        List<String> lfs = new ArrayList<String>(size);
+        int[] indices = new int[size];
+        freqs = new int[size];
+        sinces = new int[size];
+
+        for (int i = 0; i < size; ++i) {
+            AcronymExpansion expansion = expansions.get(i);
+            // Each distinct long form is only stored once.
+            Integer index = dictionary.get(expansion.getLf());
+            if (index == null) {
+                index = lfs.size();
+                dictionary.put(expansion.getLf(),
+                               index);
+                lfs.add(expansion.getLf());
+            }
+            indices[i] = index;
+            freqs[i] = expansion.getFreq();
+            sinces[i] = expansion.getSince();
+        }
+
+        lfDictionary = lfs.toArray(new String[lfs.size()]);
+
+        // The indices are only needed if some long form repeats.
+        lfIndices = lfDictionary.length == size
+            ? null
+            : indices;
+    }
+
+    /**
+     * Private constructor provided for the CREATOR interface, which
+     * is used to de-marshal an AcronymExpansionBatch from the Parcel
+     * of data.
+     */
+    private AcronymExpansionBatch(Parcel in) {
+        lfDictionary = in.createStringArray();
+        lfIndices = in.createIntArray();
+        freqs = in.createIntArray();
+        sinces = in.createIntArray();
+    }
+
+    /**
+     * Return the number of expansions in the batch.
+     */
+    public int size() {
+        return freqs.length;
+    }
+
+    /**
+     * Return the long form of the expansion at @a index.
+     */
+    public String getLf(int index) {
+        return lfDictionary[getLfIndex(index)];
+    }
+
+    /**
+     * Return the index in the dictionary of distinct long forms of
+     * the long form of the expansion at @a index.
+     */
+    int getLfIndex(int index) {
+        return lfIndices == null
+            ? index
+            : lfIndices[index];
+    }
+
+    /**
+     * Return the dictionary of distinct long forms.
+     */
+    String[] getLfDictionary() {
+        return lfDictionary;
+    }
+
+    /**
+     * Return the frequency of the expansion at @a index.
+     */
+    public int getFreq(int index) {
+        return freqs[index];
+    }
+
+    /**
+     * Return the year the expansion at @a index was added.
+     */
+    public int getSince(int index) {
+        return sinces[index];
+    }
+
+    /**
+     * Return the expansions as a List of AcronymExpansion objects.
+     */
+    public ArrayList<AcronymExpansion> toList() {
+        int size = size();
+        ArrayList<AcronymExpansion> expansions =
+            new ArrayList<AcronymExpansion>(size);
+        for (int i = 0; i < size; ++i)
+            expansions.add(new AcronymExpansion(getLf(i),
+                                                freqs[i],
+                                                sinces[i]));
+        return expansions;
+    }
+
+    /**
+     * The toString() custom implementation.
+     */
+    @Override
+    public String toString() {
+        return "AcronymExpansionBatch [size="
+            + size()
+            + ", distinctLfs="
+            + lfDictionary.length
+            + "]";
+    }
+
+    /*
+     * Parcelable related methods.
+     */
+
+    /**
+     * A bitmask indicating the set of special object types marshaled
+     * by the Parcelable.
+     */
+    @Override
+    public int describeContents() {
+        return 0;
+    }
+
+    /**
+     * Marshal this AcronymExpansionBatch to the target Parcel as one
+     * array per column.
+     */
+    @Override
+    public void writeToParcel(Parcel dest,
+                              int flags) {
+        dest.writeStringArray(lfDictionary);
+        dest.writeIntArray(lfIndices);
+        dest.writeIntArray(freqs);
+        dest.writeIntArray(sinces);
+    }
+
+    /**
+     * public Parcelable.Creator for AcronymExpansionBatch, which
+     * generates instances of AcronymExpansionBatch from a Parcel.
+     */
+    public static final Parcelable.Creator<AcronymExpansionBatch> CREATOR =
+        new Parcelable.Creator<AcronymExpansionBatch>() {
+        public AcronymExpansionBatch createFromParcel(Parcel in) {
+            return new AcronymExpansionBatch(in);
+        }
+
+        public AcronymExpansionBatch[] newArray(int size) {
+            return new AcronymExpansionBatch[size];
+        }
+    };
+}
@@ -0,0 +1,322 @@
+package edu.vandy.model.aidl;
+
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.AbstractList;
+import java.util.List;
+
+import android.os.Parcel;
+import android.os.ParcelFileDescriptor;
+import android.os.Parcelable;
+
+/**
+ * This class holds a List of AcronymExpansion objects encoded as a
+ * compact block of bytes, which is passed between the Acronym
+ * Services and their clients either inline in the Parcel or, for long
+ * lists, in a region of memory shared between the processes.  In the
+ * latter case only a file descriptor and a length are marshaled, so
+ * the expansions are never copied through the Binder, which avoids
+ * both the cost of the copy and TransactionTooLargeException.  The
+ * client maps the region read-only, and getExpansions() decodes each
+ * AcronymExpansion only when it's accessed.
+ *
+ * The bytes hold the columns of an AcronymExpansionBatch, i.e., the
+ * number of expansions, the number of distinct long forms, the offset
+ * of each distinct long form, the long form index, frequency and year
+ * of each expansion, and finally the long forms themselves, each as a
+ * length followed by its UTF-8 bytes.
+ */
+public class AcronymExpansionBuffer
+       implements Parcelable {
+    /**
+     * Character set of the encoded long forms.
+     */
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    /**
+     * Size of the header, which holds the number of expansions and
+     * the number of distinct long forms.
+     */
+    private static final int HEADER_SIZE = 8;
+
+    /**
+     * Values marshaled to indicate whether the bytes are inline or
+     * shared.
+     */
+    private static final int INLINE = 0;
+    private static final int SHARED = 1;
+
+    /**
+     * The encoded expansions if they're passed inline, else null.
+     */
+    private byte[] bytes;
+
+    /**
+     * The descriptor of the shared region holding the encoded
+     * expansions if they're passed in shared memory, else null.
+     */
+    private ParcelFileDescriptor sharedRegion;
+
+    /**
+     * The length of the encoded expansions.
+     */
+    private int length;
+
+    /**
+     * Constructor that initializes an AcronymExpansionBuffer whose
+     * encoded expansions are passed inline.
+     */
+    public AcronymExpansionBuffer(byte[] bytes) {
+        this.bytes = bytes;
+        this.length = bytes.length;
+    }
+
+    /**
+     * Constructor that initializes an AcronymExpansionBuffer whose
+     * @a length bytes of encoded expansions are passed in the shared
+     * region described by @a sharedRegion.
+     */
+    public AcronymExpansionBuffer(ParcelFileDescriptor sharedRegion,
+                                  int length) {
+        this.sharedRegion = sharedRegion;
+        this.length = length;
+    }
+
+    /**
+     * Private constructor provided for the CREATOR interface, which
+     * is used to de-marshal an AcronymExpansionBuffer from the Parcel
+     * of data.
+     */
+    private AcronymExpansionBuffer(Parcel in) {
+        if (in.readInt() == SHARED) {
+            length = in.readInt();
+            sharedRegion = ParcelFileDescriptor.CREATOR.createFromParcel(in);
+        } else {
+            bytes = in.createByteArray();
+            length = bytes.length;
+        }
+    }
+
+    /**
+     * Return the bytes that encode @a expansions.
+     */
+    public static byte[] encode(List<AcronymExpansion> expansions) {
+        AcronymExpansionBatch batch =
+            new AcronymExpansionBatch(expansions);
+        String[] lfDictionary = batch.getLfDictionary();
+        int size = batch.size();
+
+        // Encode the long forms first, since the offsets depend on
+        // their lengths.
+        byte[][] lfs = new byte[lfDictionary.length][];
+        int lfsOffset = HEADER_SIZE + 4 * lfDictionary.length + 12 * size;
+        int end = lfsOffset;
+        for (int i = 0; i < lfs.length; ++i) {
+            lfs[i] = lfDictionary[i].getBytes(UTF_8);
+            end += 4 + lfs[i].length;
+        }
+
+        ByteBuffer buffer = ByteBuffer.allocate(end);
+        buffer.putInt(size);
+        buffer.putInt(lfs.length);
+        for (int i = 0, offset = lfsOffset; i < lfs.length; ++i) {
+            buffer.putInt(offset);
+            offset += 4 + lfs[i].length;
+        }
+        for (int i = 0; i < size; ++i)
+            buffer.putInt(batch.getLfIndex(i));
+        for (int i = 0; i < size; ++i)
+            buffer.putInt(batch.getFreq(i));
+        for (int i = 0; i < size; ++i)
+            buffer.putInt(batch.getSince(i));
+        for (byte[] lf : lfs) {
+            buffer.putInt(lf.length);
+            buffer.put(lf);
+        }
+        return buffer.array();
+    }
+
+    /**
+     * Return true if the encoded expansions are passed in shared
+     * memory rather than inline.
+     */
+    public boolean isShared() {
+        return sharedRegion != null;
+    }
+
+    /**
+     * Return the length of the encoded expansions.
+     */
+    public int length() {
+        return length;
+    }
+
+    /**
+     * Return a read-only List that decodes each AcronymExpansion when
+     * it's accessed.  If the expansions were passed in shared memory
+     * the region is mapped and its descriptor is closed, so this
+     * method can only be called once.
+     */
+    public List<AcronymExpansion> getExpansions()
+        throws IOException {
+        if (sharedRegion == null)
+            return new ExpansionList(ByteBuffer.wrap(bytes));
+
+        // The mapping remains valid after the channel is closed.
+        try (FileChannel channel =
+             new FileInputStream(sharedRegion.getFileDescriptor()).getChannel()) {
+            return new ExpansionList(channel.map(FileChannel.MapMode.READ_ONLY,
+                                                 0,
+                                                 length));
+        } finally {
+            sharedRegion.close();
+            sharedRegion = null;
+        }
+    }
+
+    /**
+     * A read-only List that decodes the AcronymExpansion objects from
+     * a ByteBuffer as they're accessed.
+     */
+    private static class ExpansionList
+            extends AbstractList<AcronymExpansion> {
+        /**
+         * The encoded expansions.
+         */
+        private final ByteBuffer mBuffer;
+
+        /**
+         * The number of expansions.
+         */
+        private final int mSize;
+
+        /**
+         * The long forms that have been decoded so far, which are
+         * shared by the expansions with the same long form.
+         */
+        private final String[] mLfs;
+
+        /**
+         * Constructor initializes the fields.
+         */
+        ExpansionList(ByteBuffer buffer) {
+            mBuffer = buffer;
+            mSize = buffer.getInt(0);
+            mLfs = new String[buffer.getInt(4)];
+        }
+
+        /**
+         * Return the number of expansions.
+         */
+        @Override
+        public int size() {
+            return mSize;
+        }
+
+        /**
+         * Decode the AcronymExpansion at @a index.
+         */
+        @Override
+        public AcronymExpansion get(int index) {
+            if (index < 0 || index >= mSize)
+                throw new IndexOutOfBoundsException("index "
+                                                    + index
+                                                    + ", size "
+                                                    + mSize);
+
+            int column = HEADER_SIZE + 4 * mLfs.length;
+            return new AcronymExpansion(getLf(mBuffer.getInt(column
+                                                             + 4 * index)),
+                                        mBuffer.getInt(column
+                                                       + 4 * (mSize + index)),
+                                        mBuffer.getInt(column
+                                                       + 4 * (2 * mSize + index)));
+        }
+
+        /**
+         * Return the long form at @a lfIndex in the dictionary,
+         * decoding it the first time it's needed.
+         */
+        private synchronized String getLf(int lfIndex) {
+            if (mLfs[lfIndex] == null) {
+                int offset = mBuffer.getInt(HEADER_SIZE + 4 * lfIndex);
+                byte[] lf = new byte[mBuffer.getInt(offset)];
+
+                // Read from a duplicate, so mBuffer's position is
+                // never changed.
+                ByteBuffer duplicate = mBuffer.duplicate();
+                duplicate.position(offset + 4);
+                duplicate.get(lf);
+                mLfs[lfIndex] = new String(lf,
+                                           UTF_8);
+            }
+            return mLfs[lfIndex];
+        }
+    }
+
+    /**
+     * The toString() custom implementation.
+     */
+    @Override
+    public String toString() {
+        return "AcronymExpansionBuffer [length="
+            + length
+            + ", shared="
+            + isShared()
+            + "]";
+    }
+
+    /*
+     * Parcelable related methods.
+     */
+
+    /**
+     * A bitmask indicating the set of special object types marshaled
+     * by the Parcelable, which includes a file descriptor if the
+     * expansions are in shared memory.
+     */
+    @Override
+    public int describeContents() {
+        return isShared()
+            ? CONTENTS_FILE_DESCRIPTOR
+            : 0;
+    }
+
+    /**
+     * Marshal this AcronymExpansionBuffer to the target Parcel.  When
+     * it's returned from a Service method the shared region's
+     * descriptor is closed once it's marshaled, since the client then
+     * holds its own descriptor.
+     */
+    @Override
+    public void writeToParcel(Parcel dest,
+                              int flags) {
+        if (isShared()) {
+            dest.writeInt(SHARED);
+            dest.writeInt(length);
+            sharedRegion.writeToParcel(dest,
+                                       flags);
+        } else {
+            dest.writeInt(INLINE);
+            dest.writeByteArray(bytes);
+        }
+    }
+
+    /**
+     * public Parcelable.Creator for AcronymExpansionBuffer, which
+     * generates instances of AcronymExpansionBuffer from a Parcel.
+     */
+    public static final Parcelable.Creator<AcronymExpansionBuffer> CREATOR =
+        new Parcelable.Creator<AcronymExpansionBuffer>() {
+        public AcronymExpansionBuffer createFromParcel(Parcel in) {
+            return new AcronymExpansionBuffer(in);
+        }
+
+        public AcronymExpansionBuffer[] newArray(int size) {
+            return new AcronymExpansionBuffer[size];
+        }
+    };
+}
@@ -0,0 +1,463 @@
+package edu.vandy.model.services;
+
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.io.Reader;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import edu.vandy.model.aidl.AcronymExpansion;
+
+/**
+ * Read-only index of an offline dump of the Acronym Service's
+ * dictionary, which lets the Acronym Services expand the acronyms it
+ * contains without querying the Acronym Service and suggest short
+ * forms as the user types.  The index is built once from the dump by
+ * build() and stored in a file that open() maps into memory, so it
+ * costs no heap and only the pages that lookups touch are read.
+ *
+ * The file holds a record per short form, whose expansions are
+ * sorted by decreasing frequency, followed by a trie over the UTF-8
+ * bytes of the short forms.  Each trie node stores the short forms
+ * with the most expansions (by total frequency) under its prefix, so
+ * both lookup() and prefixSearch() take time proportional to the
+ * length of their argument, regardless of the size of the dictionary.
+ * An AcronymIndex can be used by multiple threads concurrently.
+ */
+public class AcronymIndex {
+    /**
+     * Maximum number of short forms returned by prefixSearch().
+     */
+    public static final int MAX_SUGGESTIONS = 16;
+
+    /**
+     * Identifies a file that has been built by this class.
+     */
+    private static final int MAGIC = 0x41435849;
+
+    /**
+     * Version of the file layout.
+     */
+    private static final int VERSION = 1;
+
+    /**
+     * Layout of the file header.
+     */
+    private static final int MAGIC_OFFSET = 0;
+    private static final int VERSION_OFFSET = 4;
+    private static final int SIZE_OFFSET = 8;
+    private static final int ROOT_OFFSET = 12;
+    private static final int HEADER_SIZE = 16;
+
+    /**
+     * Offset stored in a trie node whose prefix isn't a short form.
+     */
+    private static final int NO_RECORD = -1;
+
+    /**
+     * Encoding of the short forms and long forms.
+     */
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    /**
+     * The contents of the file.  Lookups work on duplicates of it,
+     * since the position of a ByteBuffer isn't thread-safe.
+     */
+    private final ByteBuffer mBuffer;
+
+    /**
+     * Constructor initializes the fields.
+     */
+    private AcronymIndex(ByteBuffer buffer) {
+        mBuffer = buffer;
+    }
+
+    /**
+     * Map the index stored in @a file into memory.
+     */
+    public static AcronymIndex open(File file)
+        throws IOException {
+        ByteBuffer buffer;
+        // The mapping stays valid after the file is closed.
+        try (RandomAccessFile in = new RandomAccessFile(file, "r")) {
+            FileChannel channel = in.getChannel();
+            buffer = channel.map(FileChannel.MapMode.READ_ONLY,
+                                 0,
+                                 channel.size());
+        }
+
+        if (buffer.capacity() < HEADER_SIZE
+            || buffer.getInt(MAGIC_OFFSET) != MAGIC
+            || buffer.getInt(VERSION_OFFSET) != VERSION)
+            throw new IOException(file
+                                  + " isn't an acronym index");
+        return new AcronymIndex(buffer);
+    }
+
+    /**
+     * Return the number of short forms in the index.
+     */
+    public int size() {
+        return mBuffer.getInt(SIZE_OFFSET);
+    }
+
+    /**
+     * Return the expansions of @a acronym, sorted by decreasing
+     * frequency, or null if the index doesn't contain it.
+     */
+    public List<AcronymExpansion> lookup(String acronym) {
+        ByteBuffer buffer = mBuffer.duplicate();
+        int node = findNode(buffer,
+                            acronym);
+        if (node == NO_RECORD)
+            return null;
+        int record = buffer.getInt(node);
+        if (record == NO_RECORD)
+            return null;
+
+        // Skip the short form and decode the expansions.
+        buffer.position(record);
+        buffer.position(record + 4 + buffer.getInt());
+        int size = buffer.getInt();
+        List<AcronymExpansion> expansions =
+            new ArrayList<>(size);
+        for (int i = 0; i < size; ++i)
+            expansions.add(new AcronymExpansion(readString(buffer),
+                                                buffer.getInt(),
+                                                buffer.getInt()));
+        return expansions;
+    }
+
+    /**
+     * Return up to @a limit short forms that start with @a prefix,
+     * with the most frequent first.  At most MAX_SUGGESTIONS short
+     * forms are returned, however large @a limit is.
+     */
+    public List<String> prefixSearch(String prefix,
+                                     int limit) {
+        ByteBuffer buffer = mBuffer.duplicate();
+        int node = findNode(buffer,
+                            prefix);
+        if (node == NO_RECORD)
+            return new ArrayList<>();
+
+        buffer.position(node + 4);
+        int size = Math.min(buffer.getInt(),
+                            limit);
+        List<String> shortForms = new ArrayList<>(Math.max(size, 0));
+        for (int i = 0; i < size; ++i) {
+            int record = buffer.getInt(node + 8 + 4 * i);
+            buffer.position(record);
+            shortForms.add(readString(buffer));
+        }
+        return shortForms;
+    }
+
+    /**
+     * Return the offset of the trie node for @a key in @a buffer, or
+     * NO_RECORD if no short form starts with @a key.
+     */
+    private static int findNode(ByteBuffer buffer,
+                                String key) {
+        int node = buffer.getInt(ROOT_OFFSET);
+        for (byte label : key.getBytes(UTF8)) {
+            // Skip the record and suggestions to get to the children.
+            int children = node + 8 + 4 * buffer.getInt(node + 4);
+            int count = buffer.getInt(children);
+            int labels = children + 4;
+
+            // The labels are sorted, so find the child by binary
+            // search.
+            int low = 0;
+            int high = count - 1;
+            node = NO_RECORD;
+            while (low <= high) {
+                int mid = (low + high) >>> 1;
+                int cmp = (buffer.get(labels + mid) & 0xff) - (label & 0xff);
+                if (cmp < 0)
+                    low = mid + 1;
+                else if (cmp > 0)
+                    high = mid - 1;
+                else {
+                    node = buffer.getInt(labels + count + 4 * mid);
+                    break;
+                }
+            }
+            if (node == NO_RECORD)
+                return NO_RECORD;
+        }
+        return node;
+    }
+
+    /**
+     * Read a string written by writeString() at the position of
+     * @a buffer.
+     */
+    private static String readString(ByteBuffer buffer) {
+        byte[] bytes = new byte[buffer.getInt()];
+        buffer.get(bytes);
+        return new String(bytes, UTF8);
+    }
+
+    /**
+     * Build an index in @a file from the @a dump of the Acronym
+     * Service's dictionary, which has a line per expansion holding
+     * its short form, long form, frequency and the year since it's
+     * been used, separated by tabs.  The lines can be in any order.
+     * The index is written to a temporary file that replaces
+     * @a file once it's complete, so a concurrent open() never sees
+     * a partial index.
+     */
+    public static void build(Reader dump,
+                             File file)
+        throws IOException {
+        // Group the expansions by their short form.
+        Map<String, List<AcronymExpansion>> dictionary =
+            readDump(dump);
+        List<String> shortForms =
+            new ArrayList<>(dictionary.keySet());
+        final Map<String, byte[]> keys =
+            new HashMap<>(shortForms.size() * 2);
+        for (String shortForm : shortForms)
+            keys.put(shortForm,
+                     shortForm.getBytes(UTF8));
+
+        // Sorting the short forms by their bytes lets the trie be
+        // built by appending to it.
+        Collections.sort(shortForms,
+                         (a, b) -> compareBytes(keys.get(a),
+                                                keys.get(b)));
+
+        File tmp = File.createTempFile(file.getName(),
+                                       null,
+                                       file.getParentFile());
+        try {
+            int rootOffset;
+            try (DataOutputStream out =
+                 new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmp)))) {
+                out.writeInt(MAGIC);
+                out.writeInt(VERSION);
+                out.writeInt(shortForms.size());
+                out.writeInt(0);
+
+                // Write the records and insert their short forms into
+                // the trie.
+                Node root = new Node();
+                for (String shortForm : shortForms) {
+                    List<AcronymExpansion> expansions =
+                        dictionary.get(shortForm);
+                    Collections.sort(expansions,
+                                     (a, b) -> Integer.compare(b.getFreq(),
+                                                               a.getFreq()));
+
+                    Node node = root;
+                    for (byte label : keys.get(shortForm))
+                        node = node.child(label);
+                    node.mRecord = out.size();
+                    for (AcronymExpansion expansion : expansions)
+                        node.mFreq += expansion.getFreq();
+
+                    writeString(out, keys.get(shortForm));
+                    out.writeInt(expansions.size());
+                    for (AcronymExpansion expansion : expansions) {
+                        writeString(out, expansion.getLf().getBytes(UTF8));
+                        out.writeInt(expansion.getFreq());
+                        out.writeInt(expansion.getSince());
+                    }
+                }
+
+                rootOffset = root.write(out);
+            }
+
+            // Patch the offset of the root into the header.
+            try (RandomAccessFile header = new RandomAccessFile(tmp, "rw")) {
+                header.seek(ROOT_OFFSET);
+                header.writeInt(rootOffset);
+            }
+            if (!tmp.renameTo(file))
+                throw new IOException("can't rename "
+                                      + tmp
+                                      + " to "
+                                      + file);
+        } finally {
+            tmp.delete();
+        }
+    }
+
+    /**
+     * Read the @a dump and return its expansions grouped by short
+     * form.
+     */
+    private static Map<String, List<AcronymExpansion>> readDump(Reader dump)
+        throws IOException {
+        Map<String, List<AcronymExpansion>> dictionary =
+            new HashMap<>();
+        BufferedReader reader = new BufferedReader(dump);
+        int lineNumber = 0;
+        for (String line; (line = reader.readLine()) != null; ) {
+            ++lineNumber;
+            if (line.isEmpty())
+                continue;
+
+            String[] fields = line.split("\t");
+            try {
+                if (fields.length != 4 || fields[0].isEmpty())
+                    throw new NumberFormatException();
+                List<AcronymExpansion> expansions =
+                    dictionary.get(fields[0]);
+                if (expansions == null) {
+                    expansions = new ArrayList<>();
+                    dictionary.put(fields[0],
+                                   expansions);
+                }
+                expansions.add(new AcronymExpansion(fields[1],
+                                                    Integer.parseInt(fields[2]),
+                                                    Integer.parseInt(fields[3])));
+            } catch (NumberFormatException e) {
+                throw new IOException("malformed line "
+                                      + lineNumber
+                                      + " in acronym dump: "
+                                      + line);
+            }
+        }
+        return dictionary;
+    }
+
+    /**
+     * Write the @a bytes of a string to @a out, preceded by their
+     * length.
+     */
+    private static void writeString(DataOutputStream out,
+                                    byte[] bytes)
+        throws IOException {
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    /**
+     * Compare @a a and @a b as unsigned bytes, which orders UTF-8
+     * strings the same way as their code points.
+     */
+    private static int compareBytes(byte[] a,
+                                     byte[] b) {
+        int length = Math.min(a.length, b.length);
+        for (int i = 0; i < length; ++i)
+            if (a[i] != b[i])
+                return (a[i] & 0xff) - (b[i] & 0xff);
+        return a.length - b.length;
+    }
+
+    /**
+     * A node of the trie while the index is being built.
+     */
+    private static class Node {
+        /**
+         * Offset of the record of the short form that ends at this
+         * node, or NO_RECORD.
+         */
+        int mRecord = NO_RECORD;
+
+        /**
+         * Total frequency of the expansions of the short form that
+         * ends at this node.
+         */
+        long mFreq;
+
+        /**
+         * Labels of the children, in increasing order.
+         */
+        byte[] mLabels = new byte[0];
+
+        /**
+         * The children, in the same order as their labels.
+         */
+        List<Node> mChildren = new ArrayList<>(1);
+
+        /**
+         * The short forms under this node with the highest total
+         * frequency, computed by write().
+         */
+        List<Node> mTop;
+
+        /**
+         * Return the child labeled @a label, adding it if it doesn't
+         * exist.  Since the short forms are inserted in order, it can
+         * only be the last child.
+         */
+        Node child(byte label) {
+            int count = mLabels.length;
+            if (count > 0 && mLabels[count - 1] == label)
+                return mChildren.get(count - 1);
+
+            mLabels = Arrays.copyOf(mLabels, count + 1);
+            mLabels[count] = label;
+            Node child = new Node();
+            mChildren.add(child);
+            return child;
+        }
+
+        /**
+         * Write this node and the nodes under it to @a out, children
+         * first so their offsets are known, and return the offset of
+         * this node.  A node is written as the offset of its record,
+         * the number and offsets of the records of its most frequent
+         * short forms, and the number, labels and offsets of its
+         * children.
+         */
+        int write(DataOutputStream out)
+            throws IOException {
+            int[] offsets = new int[mChildren.size()];
+            List<Node> candidates = new ArrayList<>();
+            if (mRecord != NO_RECORD)
+                candidates.add(this);
+            for (int i = 0; i < offsets.length; ++i) {
+                Node child = mChildren.get(i);
+                offsets[i] = child.write(out);
+                candidates.addAll(child.mTop);
+                // The suggestions of the child are no longer needed.
+                child.mTop = null;
+            }
+
+            // Keep the most frequent short forms.  Ties keep their
+            // order, i.e., the order of the short forms.
+            Collections.sort(candidates,
+                             BY_DECREASING_FREQ);
+            mTop = new ArrayList<>(candidates.subList(0,
+                                                      Math.min(candidates.size(),
+                                                               MAX_SUGGESTIONS)));
+
+            int offset = out.size();
+            out.writeInt(mRecord);
+            out.writeInt(mTop.size());
+            for (Node node : mTop)
+                out.writeInt(node.mRecord);
+            out.writeInt(offsets.length);
+            out.write(mLabels);
+            for (int childOffset : offsets)
+                out.writeInt(childOffset);
+
+            // The nodes are no longer needed once they're written.
+            mChildren = null;
+            return offset;
+        }
+
+        /**
+         * Orders the nodes by decreasing total frequency.
+         */
+        static final Comparator<Node> BY_DECREASING_FREQ =
+            (a, b) -> Long.compare(b.mFreq, a.mFreq);
+    }
+}
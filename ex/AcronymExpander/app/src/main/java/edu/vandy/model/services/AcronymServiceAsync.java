@@ -1,17 +1,24 @@
 package edu.vandy.model.services;
 
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
 import java.util.List;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
+import java.util.Set;
+import java.util.concurrent.Callable;
 
-import edu.vandy.common.Utils;
+import edu.vandy.common.BoundedExecutor;
+import edu.vandy.common.RequestTracker;
+import edu.vandy.model.aidl.AcronymDataJsonParser;
 import edu.vandy.model.aidl.AcronymExpansion;
+import edu.vandy.model.aidl.AcronymExpansionBatch;
 import edu.vandy.model.aidl.AcronymRequest;
 import edu.vandy.model.aidl.AcronymResults;
 import edu.vandy.model.services.AcronymServiceBase;
 
 import android.content.Context;
 import android.content.Intent;
+import android.os.Binder;
 import android.os.IBinder;
 import android.os.RemoteException;
 import android.util.Log;
@@ -25,7 +32,10 @@ import android.util.Log;
  * asking this Service to lookup the Acronym's meaning, passing in an
  * AcronymResults object and the Acronym string.  After the lookup is
  * finished, this Service sends the Acronym results back to the
- * AcronymModel by calling sendResults() on the AcronymResults object.
+ * AcronymModel in chunks by calling sendPartialResults() on the
+ * AcronymResults object.
+ * The AcronymModel can cancel a request it no longer needs, and each
+ * request can have a deadline after which it's cancelled.
  * 
  * AIDL is an example of the Broker Pattern, in which all interprocess
  * communication details are hidden behind the AIDL interfaces.
@@ -33,12 +43,53 @@ import android.util.Log;
 public class AcronymServiceAsync 
        extends AcronymServiceBase {
     /**
-     * Reference to the ExecutorService that manages a pool of
+     * Reference to the BoundedExecutor that manages a pool of
      * threads.  We need this feature since Android's Binder framework
      * executes oneway methods from a client in a single thread rather
-     * than a pool of thread.
+     * than a pool of thread.  All requests run in this pool, so the
+     * Binder threads never block on the Acronym Web service.
      */
-    private ExecutorService mExecutorService;
+    private BoundedExecutor mExecutorService;
+
+    /**
+     * Keeps track of the requests that haven't finished, so they can
+     * be cancelled by their clients or when their deadlines pass.
+     */
+    private RequestTracker mRequestTracker;
+
+    /**
+     * Maximum number of requests that are processed concurrently.
+     */
+    private static final int MAX_WORKER_THREADS = 8;
+
+    /**
+     * Maximum number of requests that wait for a worker thread.
+     * Requests beyond this are rejected with an OVERLOADED error
+     * rather than piling up behind slow queries.
+     */
+    private static final int MAX_QUEUED_REQUESTS = 32;
+
+    /**
+     * Error sent to clients whose requests are rejected because the
+     * Service is overloaded.
+     */
+    public static final String OVERLOADED = "overloaded";
+
+    /**
+     * Maximum number of ExpandedAcronym objects sent back to the
+     * client in each callback, which keeps each transaction well
+     * below the Binder's transaction size limit.
+     */
+    private static final int MAX_CHUNK_SIZE = 16;
+
+    /**
+     * Maximum number of AcronymExpansion objects sent back to the
+     * client in each sendPartialResults() callback, which lets the
+     * client display the first rows of a long list while the rest
+     * are parsed, and keeps each transaction well below the Binder's
+     * transaction size limit.
+     */
+    private static final int MAX_RESULTS_PER_CHUNK = 50;
 
     /**
      * Factory method that makes an Intent used to start the
@@ -71,8 +122,17 @@ public class AcronymServiceAsync
         // initialization operations.
         super.onCreate();
 
-        // Create an ExecutorService that manages a pool of threads.
-        mExecutorService = Executors.newCachedThreadPool();
+        // Create a BoundedExecutor that manages a pool of threads and
+        // rejects requests it has no room for.
+        mExecutorService =
+            new BoundedExecutor(TAG,
+                                MAX_WORKER_THREADS,
+                                MAX_QUEUED_REQUESTS,
+                                (request, executor) ->
+                                    ((Request) request).reject());
+
+        // Create a RequestTracker that cancels requests.
+        mRequestTracker = new RequestTracker();
     }
 
     /**
@@ -81,14 +141,273 @@ public class AcronymServiceAsync
      */
     @Override
     public void onDestroy() {
-        // Immediately shutdown the ExecutorService.
+        // Immediately shutdown the BoundedExecutor.
         mExecutorService.shutdownNow(); 
+        Log.d(TAG,
+              "shut down "
+              + mExecutorService
+              + " "
+              + mRequestTracker);
 
         // Call up to the super onCreate() method to perform its
         // destruction operations.
         super.onDestroy();
     }
 
+    /**
+     * Return the key used to track the request with @a requestId from
+     * the calling client.  Request ids are only unique per client, so
+     * the key includes the client's process id, which means this
+     * method must be called on the Binder thread.
+     */
+    private static String makeKey(long requestId) {
+        return Binder.getCallingPid()
+            + ":"
+            + requestId;
+    }
+
+    /**
+     * A request from a client that's run by the mExecutorService.
+     * Subclasses check isCancelled() before sending results back to
+     * the client.
+     */
+    private abstract class Request
+            extends RequestTracker.Request {
+        /**
+         * The callback used to send results back to the client.
+         */
+        final AcronymResults mCallback;
+
+        /**
+         * Constructor initializes the field.
+         */
+        Request(AcronymResults callback) {
+            mCallback = callback;
+        }
+
+        /**
+         * Called by the mExecutorService when it has no room for the
+         * request, which tells the client to try again later rather
+         * than leaving it waiting.
+         */
+        void reject() {
+            discard();
+            Log.d(TAG,
+                  "rejecting request "
+                  + mExecutorService);
+            try {
+                mCallback.sendError(OVERLOADED);
+            } catch (RemoteException e) {
+                Log.d(TAG,
+                      "reject() "
+                      + e);
+            }
+        }
+    }
+
+    /**
+     * Sends the expansions of an acronym back to a client in chunks
+     * of up to MAX_RESULTS_PER_CHUNK via sendPartialResults(), or via
+     * sendPartialResultBatch() if the client asked for
+     * AcronymExpansionBatch objects.  The chunks parsed while the
+     * Acronym Service is queried are sent right away, and finish()
+     * sends the rest in order of decreasing frequency.
+     */
+    private class PartialResults
+            implements AcronymDataJsonParser.ChunkListener {
+        /**
+         * The request whose results are sent.
+         */
+        private final Request mRequest;
+
+        /**
+         * True if the chunks are sent as AcronymExpansionBatch
+         * objects.
+         */
+        private final boolean mBatch;
+
+        /**
+         * The expansions sent by onChunk().
+         */
+        private final Set<AcronymExpansion> mParsed =
+            Collections.newSetFromMap(new IdentityHashMap<AcronymExpansion, Boolean>());
+
+        /**
+         * Constructor initializes the fields.
+         */
+        PartialResults(Request request,
+                       boolean batch) {
+            mRequest = request;
+            mBatch = batch;
+        }
+
+        /**
+         * Send a @a chunk parsed while the Acronym Service is
+         * queried.
+         */
+        @Override
+        public void onChunk(List<AcronymExpansion> chunk) {
+            if (send(chunk,
+                     false))
+                mParsed.addAll(chunk);
+        }
+
+        /**
+         * Send the @a expansions that haven't been sent yet, marking
+         * the final chunk as the last one.  The @a expansions are
+         * sorted after they're parsed, so the ones sent by onChunk()
+         * aren't necessarily a prefix of them.
+         */
+        void finish(List<AcronymExpansion> expansions) {
+            List<AcronymExpansion> rest = expansions;
+            if (!mParsed.isEmpty()) {
+                rest = new ArrayList<>(expansions.size() - mParsed.size());
+                for (AcronymExpansion expansion : expansions)
+                    if (!mParsed.contains(expansion))
+                        rest.add(expansion);
+            }
+
+            int start = 0;
+            for (boolean last = false;
+                 !last;
+                 ) {
+                int end = Math.min(start + MAX_RESULTS_PER_CHUNK,
+                                   rest.size());
+                last = end == rest.size();
+                if (!send(new ArrayList<>(rest.subList(start,
+                                                       end)),
+                          last))
+                    return;
+                start = end;
+            }
+        }
+
+        /**
+         * Send a @a chunk to the client.
+         *
+         * @return False if the chunk wasn't sent
+         */
+        private boolean send(List<AcronymExpansion> chunk,
+                             boolean last) {
+            // Don't send results nobody wants.
+            if (mRequest.isCancelled())
+                return false;
+
+            try {
+                if (mBatch)
+                    mRequest.mCallback.sendPartialResultBatch
+                        (new AcronymExpansionBatch(chunk),
+                         last);
+                else
+                    mRequest.mCallback.sendPartialResults(chunk,
+                                                          last);
+                return true;
+            } catch (RemoteException e) {
+                Log.d(TAG,
+                      "sendPartialResults() "
+                      + e);
+                return false;
+            }
+        }
+    }
+
+    /**
+     * Make a request that expands @a acronym and sends the results
+     * back to the client via @a callback, as AcronymExpansionBatch
+     * objects if @a batch is true.
+     */
+    private Request makeExpandRequest(final String acronym,
+                                      final AcronymResults callback,
+                                      final boolean batch) {
+        return new Request(callback) {
+            @Override
+            protected void process() {
+                // Sends the expansions back in chunks, starting while
+                // they're being parsed.
+                final PartialResults partialResults =
+                    new PartialResults(this,
+                                       batch);
+                try {
+                    // Call the Acronym Web service to get the list of
+                    // possible expansions of the designated location.
+                    final List<AcronymExpansion> acronymExpansions =
+                        getAcronymExpansions(acronym,
+                                             MAX_RESULTS_PER_CHUNK,
+                                             partialResults);
+
+                    // Don't send results nobody wants.
+                    if (isCancelled())
+                        return;
+
+                    if (acronymExpansions != null) {
+                        Log.d(TAG, ""
+                              + acronymExpansions.size()
+                              + " result(s) for Acronym: "
+                              + acronym);
+                        // Invoke one-way callbacks to send the rest of
+                        // the list of Acronym expansions back to the
+                        // client.
+                        partialResults.finish(acronymExpansions);
+                    } else {
+                        Log.d(TAG,
+                              "No expansion for \""
+                              + acronym
+                              + "\" found");
+
+                        // Invoke a one-way callback to send an error
+                        // message back to the client.
+                        callback.sendError("No expansion for \""
+                                           + acronym
+                                           + "\" found");
+                    }
+                } catch (Exception e) {
+                    Log.d(TAG,
+                          "getCurrentAcronym() "
+                          + e);
+                }
+            }
+        };
+    }
+
+    /**
+     * Make a request that runs a @a query for some of the expansions
+     * of @a acronym, e.g., the most frequent ones, and sends them back
+     * to the client via @a callback.
+     */
+    private Request makeQueryRequest(final String acronym,
+                                     final AcronymResults callback,
+                                     final Callable<List<AcronymExpansion>> query) {
+        return new Request(callback) {
+            @Override
+            protected void process() {
+                try {
+                    final List<AcronymExpansion> acronymExpansions =
+                        query.call();
+
+                    // Don't send results nobody wants.
+                    if (isCancelled())
+                        return;
+
+                    if (acronymExpansions != null)
+                        // Invoke one-way callbacks to send the
+                        // expansions back to the client.
+                        new PartialResults(this,
+                                           false).finish(acronymExpansions);
+                    else
+                        // Invoke a one-way callback to send an error
+                        // message back to the client.
+                        callback.sendError("No expansion for \""
+                                           + acronym
+                                           + "\" found");
+                } catch (Exception e) {
+                    Log.d(TAG,
+                          "makeQueryRequest() "
+                          + e);
+                }
+            }
+        };
+    }
+
     /**
      * The concrete implementation of the AIDL AcronymRequest
      * interface, which extends the Stub class that implements
@@ -108,57 +427,161 @@ public class AcronymServiceAsync
              * AcronymModel via a callback.
              */
             @Override
-            public void expandAcronym(final String acronym,
+            public void expandAcronym(long requestId,
+                                      long timeoutMillis,
+                                      final String acronym,
                                       final AcronymResults callback)
                 throws RemoteException {
-                final Runnable getCurrentAcronymRunnable = () -> {
-                    try {
-                        // Call the Acronym Web service to get the
-                        // list of possible expansions of the
-                        // designated location.
-                        final List<AcronymExpansion> acronymExpansions =
-                            getAcronymExpansions(acronym);
-
-                        if (acronymExpansions != null) {
-                            Log.d(TAG, ""
-                                  + acronymExpansions.size()
-                                  + " result(s) for Acronym: "
-                                  + acronym);
-                            // Invoke a one-way callback to send
-                            // list of Acronym expansions back to
-                            // the client.
-                            callback.sendResults(acronymExpansions);
-                        } else {
+                // The request runs in the pool rather than on the
+                // calling Binder thread, which may be the UI thread
+                // if this service has been configured to be
+                // collocated with an activity.
+                // Track the request so it can be cancelled, and run
+                // it in the pool.
+                mExecutorService.execute(mRequestTracker.track(makeKey(requestId),
+                                                               makeExpandRequest(acronym,
+                                                                                 callback,
+                                                                                 false),
+                                                               timeoutMillis));
+            }
+
+            /**
+             * Implement the AIDL AcronymRequest expandAcronymBatch()
+             * method, which is the same as expandAcronym(), but sends
+             * the results back as AcronymExpansionBatch objects.
+             */
+            @Override
+            public void expandAcronymBatch(long requestId,
+                                           long timeoutMillis,
+                                           final String acronym,
+                                           final AcronymResults callback)
+                throws RemoteException {
+                // The request runs in the pool rather than on the
+                // calling Binder thread.
+                mExecutorService.execute(mRequestTracker.track(makeKey(requestId),
+                                                               makeExpandRequest(acronym,
+                                                                                 callback,
+                                                                                 true),
+                                                               timeoutMillis));
+            }
+
+            /**
+             * Implement the AIDL AcronymRequest expandAcronymTopK()
+             * method, which sends the @a k most frequent expansions
+             * of @a acronym used since @a minSince back to the
+             * AcronymModel via callbacks.
+             */
+            @Override
+            public void expandAcronymTopK(long requestId,
+                                          long timeoutMillis,
+                                          final String acronym,
+                                          final int k,
+                                          final int minSince,
+                                          final AcronymResults callback)
+                throws RemoteException {
+                // The request runs in the pool rather than on the
+                // calling Binder thread.
+                Request request =
+                    makeQueryRequest(acronym,
+                                     callback,
+                                     () -> getTopExpansions(acronym,
+                                                            k,
+                                                            minSince));
+
+                // Track the request so it can be cancelled, and run
+                // it in the pool.
+                mExecutorService.execute(mRequestTracker.track(makeKey(requestId),
+                                                               request,
+                                                               timeoutMillis));
+            }
+
+            /**
+             * Implement the AIDL AcronymRequest expandAcronymPage()
+             * method, which sends a page of the expansions of
+             * @a acronym back to the AcronymModel via callbacks.
+             */
+            @Override
+            public void expandAcronymPage(long requestId,
+                                          long timeoutMillis,
+                                          final String acronym,
+                                          final int offset,
+                                          final int limit,
+                                          final AcronymResults callback)
+                throws RemoteException {
+                // The request runs in the pool rather than on the
+                // calling Binder thread.
+                Request request =
+                    makeQueryRequest(acronym,
+                                     callback,
+                                     () -> getExpansionPage(acronym,
+                                                            offset,
+                                                            limit));
+
+                // Track the request so it can be cancelled, and run
+                // it in the pool.
+                mExecutorService.execute(mRequestTracker.track(makeKey(requestId),
+                                                               request,
+                                                               timeoutMillis));
+            }
+
+            /**
+             * Implement the AIDL AcronymRequest expandAcronyms()
+             * method, which forwards to getAcronymExpansions() to
+             * obtain the results of the batch and sends them back to
+             * the AcronymModel in chunks via callbacks.
+             */
+            @Override
+            public void expandAcronyms(long requestId,
+                                       long timeoutMillis,
+                                       final List<String> acronyms,
+                                       final AcronymResults callback)
+                throws RemoteException {
+                // The request runs in the pool rather than on the
+                // calling Binder thread.
+                Request request = new Request(callback) {
+                    @Override
+                    protected void process() {
+                        try {
+                            // Expand the acronyms that are cached and
+                            // look up the rest concurrently, invoking
+                            // a one-way callback for each chunk of
+                            // results until the request is
+                            // cancelled.
+                            getAcronymExpansions(acronyms,
+                                                 MAX_CHUNK_SIZE,
+                                                 chunk -> {
+                                                     if (!isCancelled())
+                                                         callback.sendExpandedAcronyms(chunk);
+                                                 });
+                        } catch (Exception e) {
                             Log.d(TAG,
-                                  "No expansion for \""
-                                  + acronym
-                                  + "\" found");
-
-                            // Invoke a one-way callback to send
-                            // an error message back to the
-                            // client.
-                            callback.sendError("No expansion for \""
-                                               + acronym
-                                               + "\" found");
+                                  "expandAcronyms() "
+                                  + e);
                         }
-                    } catch (Exception e) {
-                        Log.d(TAG,
-                              "getCurrentAcronym() "
-                              + e);
                     }
                 };
 
-                // Determine if we're on the UI thread or not.
-                if (Utils.runningOnUiThread())
-                    // Execute getCurrentAcronymRunnable in a separate
-                    // thread if this service has been configured to
-                    // be collocated with an activity.
-                    mExecutorService.execute(getCurrentAcronymRunnable);
-                else 
-                    // Run the getCurrentAcronymRunnable in the pool
-                    // thread if this service has been configured to
-                    // run in its own process.
-                    getCurrentAcronymRunnable.run();
+                // Track the request so it can be cancelled, and run
+                // it in the pool.
+                mExecutorService.execute(mRequestTracker.track(makeKey(requestId),
+                                                               request,
+                                                               timeoutMillis));
+            }
+
+            /**
+             * Implement the AIDL AcronymRequest cancel() method,
+             * which cancels the calling client's request with @a
+             * requestId if it hasn't finished.
+             */
+            @Override
+            public void cancel(long requestId)
+                throws RemoteException {
+                if (mRequestTracker.cancel(makeKey(requestId)))
+                    Log.d(TAG,
+                          "cancelled request "
+                          + requestId
+                          + " "
+                          + mRequestTracker);
             }
 	};
 }
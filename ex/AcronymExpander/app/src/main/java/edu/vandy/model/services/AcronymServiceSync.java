@@ -1,13 +1,22 @@
 package edu.vandy.model.services;
 
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.CancellationException;
 
+import edu.vandy.common.CacheStats;
 import edu.vandy.model.aidl.AcronymCall;
 import edu.vandy.model.aidl.AcronymExpansion;
+import edu.vandy.model.aidl.AcronymExpansionBatch;
+import edu.vandy.model.aidl.AcronymExpansionBuffer;
+import edu.vandy.model.aidl.ExpandedAcronym;
 import android.content.Context;
 import android.content.Intent;
 import android.os.IBinder;
+import android.os.ParcelFileDescriptor;
 import android.os.RemoteException;
 import android.util.Log;
 
@@ -27,6 +36,15 @@ import android.util.Log;
  */
 public class AcronymServiceSync
        extends AcronymServiceBase {
+    /**
+     * Encoded expansions at least this many bytes long are returned
+     * by expandAcronymBuffer() in shared memory rather than inline in
+     * the Binder reply.  Below this size copying them through the
+     * Binder is cheaper than setting up the shared region, and well
+     * within the Binder's transaction size limit.
+     */
+    private static final int SHARED_MEMORY_THRESHOLD = 64 * 1024;
+
     /**
      * Factory method that makes an Intent used to start the
      * AcronymServiceSync when passed to bindService().
@@ -49,6 +67,45 @@ public class AcronymServiceSync
         return mAcronymCallImpl;
     }
 
+    /**
+     * Return an AcronymExpansionBuffer holding the encoded
+     * @a expansions, which are put in shared memory if they're at
+     * least SHARED_MEMORY_THRESHOLD bytes long.
+     */
+    private AcronymExpansionBuffer makeExpansionBuffer(List<AcronymExpansion> expansions) {
+        final byte[] bytes =
+            AcronymExpansionBuffer.encode(expansions);
+        if (bytes.length < SHARED_MEMORY_THRESHOLD)
+            return new AcronymExpansionBuffer(bytes);
+
+        File file = null;
+        try {
+            // Write the bytes to a file and open a read-only
+            // descriptor for the client to map.
+            file = File.createTempFile("expansions",
+                                       null,
+                                       getCacheDir());
+            try (FileOutputStream out = new FileOutputStream(file)) {
+                out.write(bytes);
+            }
+            return new AcronymExpansionBuffer
+                (ParcelFileDescriptor.open(file,
+                                           ParcelFileDescriptor.MODE_READ_ONLY),
+                 bytes.length);
+        } catch (IOException e) {
+            Log.d(TAG,
+                  "makeExpansionBuffer() "
+                  + e);
+            // Fall back to returning the bytes inline.
+            return new AcronymExpansionBuffer(bytes);
+        } finally {
+            // The region lives on until the descriptors of both the
+            // Service and the client are closed.
+            if (file != null)
+                file.delete();
+        }
+    }
+
     /**
      * The concrete implementation of the AIDL Interface AcronymCall,
      * which extends the Stub class that implements AcronymCall,
@@ -91,5 +148,123 @@ public class AcronymServiceSync
                     // expansions.
                     return new ArrayList<>();
             }
+
+            /**
+             * Implement the AIDL AcronymCall expandAcronymTopK()
+             * method, which returns the @a k most frequent expansions
+             * of @a acronym used since @a minSince.
+             */
+            @Override
+            public List<AcronymExpansion> expandAcronymTopK(String acronym,
+                                                            int k,
+                                                            int minSince)
+                throws RemoteException {
+                final List<AcronymExpansion> acronymExpansions =
+                    getTopExpansions(acronym,
+                                     k,
+                                     minSince);
+                return acronymExpansions != null
+                    ? acronymExpansions
+                    : new ArrayList<AcronymExpansion>();
+            }
+
+            /**
+             * Implement the AIDL AcronymCall expandAcronymPage()
+             * method, which returns a page of the expansions of
+             * @a acronym, so only that page is marshaled.
+             */
+            @Override
+            public List<AcronymExpansion> expandAcronymPage(String acronym,
+                                                            int offset,
+                                                            int limit)
+                throws RemoteException {
+                final List<AcronymExpansion> acronymExpansions =
+                    getExpansionPage(acronym,
+                                     offset,
+                                     limit);
+                return acronymExpansions != null
+                    ? acronymExpansions
+                    : new ArrayList<AcronymExpansion>();
+            }
+
+            /**
+             * Implement the AIDL AcronymCall expandAcronymBatch()
+             * method, which returns the results of expandAcronym() in
+             * columnar form.
+             */
+            @Override
+            public AcronymExpansionBatch expandAcronymBatch(String acronym)
+                throws RemoteException {
+                return new AcronymExpansionBatch(expandAcronym(acronym));
+            }
+
+            /**
+             * Implement the AIDL AcronymCall expandAcronymBuffer()
+             * method, which returns the results of expandAcronym()
+             * encoded in an AcronymExpansionBuffer.
+             */
+            @Override
+            public AcronymExpansionBuffer expandAcronymBuffer(String acronym)
+                throws RemoteException {
+                return makeExpansionBuffer(expandAcronym(acronym));
+            }
+
+            /**
+             * Implement the AIDL AcronymCall expandAcronyms() method,
+             * which forwards to getAcronymExpansions() to obtain the
+             * results of the whole batch and then returns them back
+             * to the caller in a single reply.
+             */
+            @Override
+            public List<ExpandedAcronym> expandAcronyms(List<String> acronyms)
+                throws RemoteException {
+                final List<ExpandedAcronym> expandedAcronyms =
+                    new ArrayList<>();
+
+                // Expand the acronyms that are cached and look up
+                // the rest concurrently.
+                try {
+                    getAcronymExpansions(acronyms,
+                                         SINGLE_CHUNK,
+                                         expandedAcronyms::addAll);
+                } catch (CancellationException e) {
+                    // Binder only passes a few exception types back
+                    // to the caller, so report the abandoned batch as
+                    // an IllegalStateException rather than returning
+                    // part of it.
+                    throw new IllegalStateException(e.getMessage());
+                }
+
+                Log.d(TAG, ""
+                      + expandedAcronyms.size()
+                      + " results for "
+                      + acronyms.size()
+                      + " acronyms");
+                return expandedAcronyms;
+            }
+
+            /**
+             * Implement the AIDL AcronymCall prefixSearch() method,
+             * which returns the acronyms starting with @a prefix from
+             * the offline index back to the caller.
+             */
+            @Override
+            public List<String> prefixSearch(String prefix,
+                                             int limit)
+                throws RemoteException {
+                return AcronymServiceSync.this.prefixSearch(prefix,
+                                                            limit);
+            }
+
+            /**
+             * Implement the AIDL AcronymCall getCacheStats() method,
+             * which returns a snapshot of the statistics of the
+             * AcronymCache back to the caller.
+             */
+            @Override
+            public CacheStats getCacheStats()
+                throws RemoteException {
+                return AcronymServiceSync.this.getCacheStats();
+            }
 	};
 }
@@ -4,6 +4,7 @@ import java.util.List;
 
 import edu.vandy.MVP;
 import edu.vandy.R;
+import edu.vandy.common.Factories;
 import edu.vandy.common.GenericActivity;
 import edu.vandy.common.Utils;
 import edu.vandy.model.aidl.AcronymExpansion;
@@ -34,6 +35,12 @@ public class AcronymExpansionActivity
      * Acronym entered by the user.
      */
     protected EditText mEditText;
+
+    static {
+        // Create the Presenter layer without reflection.
+        Factories.register(AcronymPresenter.class,
+                           AcronymPresenter::new);
+    }
 	
     /**
      * Hook method called when a new instance of Activity is created.
@@ -101,7 +108,7 @@ public class AcronymExpansionActivity
             if (getPresenter().expandAcronymAsync(acronym) == false)
                 // Show error message to user.
                 Utils.showToast(this,
-                                "Call already in progress");
+                                "Too many lookups in progress");
 
             // Return focus to edit box and select all text in it
             // after query.
@@ -134,7 +141,7 @@ public class AcronymExpansionActivity
             if (getPresenter().expandAcronymSync(acronym) == false)
                 // Show error message to user.
                 Utils.showToast(this,
-                                "Call already in progress");
+                                "Too many lookups in progress");
 
             // Return focus to edit box and select all text in it
             // after query.
@@ -153,6 +160,19 @@ public class AcronymExpansionActivity
     @Override
     public void displayResults(List<AcronymExpansion> results,
                                String errorMessage) {
+        displayResults(results,
+                       errorMessage,
+                       DisplayExpansionActivity.NO_LOOKUP);
+    }
+
+    /**
+     * Start a new Activity that displays the Acronym Expansions, to
+     * which later chunks of the results of the lookup with @a
+     * lookupId are appended.
+     */
+    private void displayResults(List<AcronymExpansion> results,
+                                String errorMessage,
+                                long lookupId) {
         if (results == null
             || results.size() == 0)
             // Make sure the toast is displayed in the UI thread.
@@ -166,7 +186,8 @@ public class AcronymExpansionActivity
             // Create an intent that will start an activity to display
             // the acronym expansions to the user.
             final Intent intent =
-                DisplayExpansionActivity.makeIntent(results);
+                DisplayExpansionActivity.makeIntent(results,
+                                                    lookupId);
 
             // Verify that the intent will resolve to an activity.
             if (intent.resolveActivity(getPackageManager()) != null)
@@ -179,4 +200,25 @@ public class AcronymExpansionActivity
                                 "No Activity found to display Acronym Expansions");
         }
     }
+
+    /**
+     * Display a chunk of the Acronym Expansions of the lookup with @a
+     * lookupId.  The first chunk starts the DisplayExpansionActivity
+     * and the others are appended to it.
+     */
+    @Override
+    public void displayPartialResults(long lookupId,
+                                      List<AcronymExpansion> results,
+                                      boolean first) {
+        if (first)
+            displayResults(results,
+                           null,
+                           lookupId);
+        else if (!results.isEmpty())
+            // Deliver the chunk to the DisplayExpansionActivity
+            // started by the first chunk, which drops it if another
+            // display has been started on top of it since.
+            startActivity(DisplayExpansionActivity.makeAppendIntent(results,
+                                                                    lookupId));
+    }
 }
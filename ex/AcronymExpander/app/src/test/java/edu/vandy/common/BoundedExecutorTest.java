@@ -0,0 +1,88 @@
+package edu.vandy.common;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.RejectedExecutionHandler;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Local unit tests for the BoundedExecutor.
+ */
+public class BoundedExecutorTest {
+    /**
+     * Maximum number of threads.
+     */
+    private static final int MAX_THREADS = 2;
+
+    /**
+     * Maximum number of queued requests.
+     */
+    private static final int QUEUE_CAPACITY = 3;
+
+    /**
+     * Requests beyond the threads and the queue are handed to the
+     * RejectedExecutionHandler without blocking the caller, and the
+     * queue depth is recorded.
+     */
+    @Test
+    public void rejectsWhenOverloaded() throws InterruptedException {
+        final List<Runnable> rejected = new ArrayList<>();
+        BoundedExecutor executor =
+            new BoundedExecutor("test",
+                                MAX_THREADS,
+                                QUEUE_CAPACITY,
+                                new RejectedExecutionHandler() {
+                                    @Override
+                                    public void rejectedExecution(Runnable runnable,
+                                                                  ThreadPoolExecutor executor) {
+                                        rejected.add(runnable);
+                                    }
+                                });
+
+        // Block the threads until the end of the test.
+        final CountDownLatch release = new CountDownLatch(1);
+        final CountDownLatch done =
+            new CountDownLatch(MAX_THREADS + QUEUE_CAPACITY);
+        Runnable request = new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        release.await();
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                    done.countDown();
+                }
+            };
+
+        int requests = MAX_THREADS + QUEUE_CAPACITY + 4;
+        for (int i = 0; i < requests; ++i)
+            executor.execute(request);
+
+        Assert.assertEquals(4, rejected.size());
+        Assert.assertEquals(4, executor.getRejectedCount());
+        Assert.assertEquals(QUEUE_CAPACITY, executor.getQueueDepth());
+        Assert.assertEquals(QUEUE_CAPACITY, executor.getPeakQueueDepth());
+
+        // Every accepted request runs once the threads are released.
+        release.countDown();
+        Assert.assertTrue(done.await(5, TimeUnit.SECONDS));
+        executor.shutdown();
+        Assert.assertTrue(executor.awaitTermination(5, TimeUnit.SECONDS));
+
+        Assert.assertEquals(0, executor.getQueueDepth());
+        Assert.assertEquals(QUEUE_CAPACITY, executor.getPeakQueueDepth());
+        Assert.assertEquals(MAX_THREADS + QUEUE_CAPACITY,
+                            executor.getCompletedTaskCount());
+
+        // Rejections caused by shutting down aren't overloads.
+        executor.execute(request);
+        Assert.assertEquals(5, rejected.size());
+        Assert.assertEquals(4, executor.getRejectedCount());
+    }
+}
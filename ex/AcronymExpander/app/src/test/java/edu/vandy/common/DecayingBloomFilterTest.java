@@ -0,0 +1,56 @@
+package edu.vandy.common;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Local unit tests for the DecayingBloomFilter.
+ */
+public class DecayingBloomFilterTest {
+    /**
+     * Number of keys added to the filters.
+     */
+    private static final int KEYS = 1000;
+
+    /**
+     * Keys that have been added are found and the false positive rate
+     * for other keys stays close to the configured rate.
+     */
+    @Test
+    public void addedKeysAreFound() {
+        DecayingBloomFilter<String> filter =
+            new DecayingBloomFilter<>(KEYS,
+                                      0.01,
+                                      1,
+                                      TimeUnit.HOURS);
+        for (int i = 0; i < KEYS; ++i)
+            filter.put("XYZ" + i);
+
+        int falsePositives = 0;
+        for (int i = 0; i < KEYS; ++i) {
+            Assert.assertTrue(filter.mightContain("XYZ" + i));
+            if (filter.mightContain("ABC" + i))
+                ++falsePositives;
+        }
+        Assert.assertTrue("too many false positives: " + falsePositives,
+                          falsePositives < KEYS / 20);
+    }
+
+    /**
+     * Keys are forgotten once their time-to-live elapses.
+     */
+    @Test
+    public void keysDecay() throws InterruptedException {
+        DecayingBloomFilter<String> filter =
+            new DecayingBloomFilter<>(KEYS,
+                                      200,
+                                      TimeUnit.MILLISECONDS);
+        filter.put("XYZZY");
+        Assert.assertTrue(filter.mightContain("XYZZY"));
+
+        Thread.sleep(250);
+        Assert.assertFalse(filter.mightContain("XYZZY"));
+    }
+}
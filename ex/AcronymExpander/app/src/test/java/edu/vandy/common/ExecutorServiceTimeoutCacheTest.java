@@ -0,0 +1,204 @@
+package edu.vandy.common;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Local unit tests for the ExecutorServiceTimeoutCache, which runs on
+ * the plain JVM since it has no dependencies on the Android framework.
+ */
+public class ExecutorServiceTimeoutCacheTest {
+    /**
+     * Number of concurrent callers used by the stress test.
+     */
+    private static final int CALLERS = 100;
+
+    /**
+     * Timeout for cache entries in seconds.
+     */
+    private static final int TIMEOUT = 10;
+
+    /**
+     * The cache under test.
+     */
+    private ExecutorServiceTimeoutCache<String, String> mCache;
+
+    @Before
+    public void setUp() {
+        mCache = new ExecutorServiceTimeoutCache<>();
+        mCache.incrementRefCount();
+    }
+
+    @After
+    public void tearDown() {
+        mCache.decrementRefCount();
+    }
+
+    /**
+     * Concurrent getOrLoad() calls for the same cold key must result
+     * in a single call to the loader, and every caller must receive
+     * the loaded value.
+     */
+    @Test
+    public void concurrentGetOrLoadRunsOneLoad() throws Exception {
+        final AtomicInteger loads = new AtomicInteger();
+        final CountDownLatch start = new CountDownLatch(1);
+
+        // Simulates a slow upstream call so all callers arrive while
+        // the load is still in flight.
+        final TimeoutCache.Loader<String, String> loader = key -> {
+            loads.incrementAndGet();
+            try {
+                Thread.sleep(200);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            return key + " expansion";
+        };
+
+        ExecutorService executor = Executors.newFixedThreadPool(CALLERS);
+        List<Future<String>> results = new ArrayList<>();
+
+        for (int i = 0; i < CALLERS; ++i)
+            results.add(executor.submit((Callable<String>) () -> {
+                        start.await();
+                        return mCache.getOrLoad("ACK",
+                                                loader,
+                                                TIMEOUT);
+                    }));
+
+        // Release all the callers at once.
+        start.countDown();
+
+        for (Future<String> result : results)
+            Assert.assertEquals("ACK expansion",
+                                result.get(5, TimeUnit.SECONDS));
+
+        executor.shutdownNow();
+
+        Assert.assertEquals(1, loads.get());
+        Assert.assertEquals("ACK expansion", mCache.get("ACK"));
+    }
+
+    /**
+     * A null result from the loader is returned to the caller, but
+     * isn't cached.
+     */
+    @Test
+    public void nullLoadIsNotCached() {
+        Assert.assertNull(mCache.getOrLoad("XYZZY",
+                                           key -> null,
+                                           TIMEOUT));
+        Assert.assertEquals(0, mCache.size());
+    }
+
+    /**
+     * Lookups, loads and overwrites are reflected in the stats.
+     */
+    @Test
+    public void statsAreRecorded() {
+        mCache.getOrLoad("ACK",
+                         key -> "acknowledgement",
+                         TIMEOUT);
+        mCache.get("ACK");
+        mCache.put("ACK", "acknowledge", TIMEOUT);
+
+        CacheStats stats = mCache.getStats();
+        Assert.assertEquals(1, stats.getHitCount());
+        Assert.assertEquals(1, stats.getMissCount());
+        Assert.assertEquals(0.5, stats.getHitRate(), 0.0);
+        Assert.assertEquals(1, stats.getOverwriteCount());
+        Assert.assertEquals(1, stats.getLoadCount());
+
+        // Both values have the default weight of 1.
+        Assert.assertEquals(2, stats.getValueSizeHistogram()[1]);
+        Assert.assertEquals(2, stats.getValueSizePercentile(100));
+    }
+
+    /**
+     * A subclass can shorten the timeout of the values getOrLoad()
+     * loads.
+     */
+    @Test
+    public void loadedTimeoutIsUsed() {
+        ExecutorServiceTimeoutCache<String, String> cache =
+            new ExecutorServiceTimeoutCache<String, String>() {
+                @Override
+                protected int loadedTimeout(String key,
+                                            String value,
+                                            int timeout) {
+                    return -1;
+                }
+            };
+        cache.incrementRefCount();
+        try {
+            Assert.assertEquals("acknowledgement",
+                                cache.getOrLoad("ACK",
+                                                key -> "acknowledgement",
+                                                TIMEOUT));
+            Assert.assertFalse(cache.containsKey("ACK"));
+        } finally {
+            cache.decrementRefCount();
+        }
+    }
+
+    /**
+     * The timing wheel pauses once its entries have expired, and
+     * restarts when another entry is put.
+     */
+    @Test
+    public void wheelPausesWhenEmpty() throws InterruptedException {
+        Assert.assertFalse(mCache.isTicking());
+
+        for (int round = 0; round < 2; ++round) {
+            mCache.put("ACK", "acknowledgement", 1);
+            Assert.assertTrue(mCache.isTicking());
+
+            long deadline = System.currentTimeMillis() + 5000;
+            while ((mCache.size() > 0 || mCache.isTicking())
+                   && System.currentTimeMillis() < deadline)
+                Thread.sleep(50);
+
+            Assert.assertEquals(0, mCache.size());
+            Assert.assertFalse(mCache.isTicking());
+        }
+    }
+
+    /**
+     * An entry whose deadline has already passed doesn't leave its
+     * weight behind in a bounded cache, which would otherwise evict
+     * live entries to make room for it.
+     */
+    @Test
+    public void expiredOnArrivalFreesItsWeight() {
+        ExecutorServiceTimeoutCache<String, String> cache =
+            new ExecutorServiceTimeoutCache<>(4);
+        cache.incrementRefCount();
+        try {
+            for (String key : new String[] { "ACK", "DNA", "RNA", "SQL" })
+                cache.put(key, key, TIMEOUT);
+
+            // Replace an entry with one that's expired already.
+            cache.put("ACK", "acknowledgement", -1);
+            Assert.assertFalse(cache.containsKey("ACK"));
+
+            cache.put("XML", "XML", TIMEOUT);
+            Assert.assertEquals(4, cache.size());
+            Assert.assertEquals(0, cache.getStats().getEvictionCount());
+        } finally {
+            cache.decrementRefCount();
+        }
+    }
+}
@@ -0,0 +1,124 @@
+package edu.vandy.common;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import android.os.IBinder;
+
+/**
+ * Local unit tests for the Factories registry.
+ */
+public class FactoriesTest {
+    /**
+     * A class with a private constructor, which is still found by
+     * the reflective factory.
+     */
+    static class Hidden {
+        static int sCreated;
+
+        private Hidden() {
+            ++sCreated;
+        }
+    }
+
+    /**
+     * A class that registers a factory.
+     */
+    static class Registered {
+        final String mHow;
+
+        Registered(String how) {
+            mHow = how;
+        }
+    }
+
+    /**
+     * A class whose constructor fails.
+     */
+    static class Failing {
+        Failing() {
+            throw new IllegalStateException("failed");
+        }
+    }
+
+    /**
+     * A class without a no-argument constructor.
+     */
+    static class NoDefault {
+        NoDefault(int i) {
+        }
+    }
+
+    /**
+     * Mimics the code generated by the AIDL compiler.
+     */
+    interface Aidl {
+        class Stub {
+            static int sConverted;
+
+            public static Aidl asInterface(IBinder binder) {
+                ++sConverted;
+                return new Aidl() {};
+            }
+        }
+    }
+
+    /**
+     * A registered factory is used in place of the constructor.
+     */
+    @Test
+    public void registeredFactory() throws Exception {
+        Factories.register(Registered.class,
+                           () -> new Registered("factory"));
+        Assert.assertEquals("factory",
+                            Factories.newInstance(Registered.class).mHow);
+    }
+
+    /**
+     * A class that doesn't register a factory is created via its
+     * no-argument constructor, even if it's private.
+     */
+    @Test
+    public void constructorFactory() throws Exception {
+        int created = Hidden.sCreated;
+        Assert.assertNotSame(Factories.newInstance(Hidden.class),
+                             Factories.newInstance(Hidden.class));
+        Assert.assertEquals(created + 2, Hidden.sCreated);
+    }
+
+    /**
+     * Failures are reported the way Class.newInstance() reports
+     * them.
+     */
+    @Test
+    public void failures() throws Exception {
+        try {
+            Factories.newInstance(Failing.class);
+            Assert.fail("expected the constructor to fail");
+        } catch (IllegalStateException e) {
+            Assert.assertEquals("failed", e.getMessage());
+        }
+
+        try {
+            Factories.newInstance(NoDefault.class);
+            Assert.fail("expected an InstantiationException");
+        } catch (InstantiationException e) {
+            // Expected.
+        }
+    }
+
+    /**
+     * The asInterface() method of a Stub is found and cached.
+     */
+    @Test
+    public void stubAsInterface() {
+        Factories.AsInterface<Aidl> asInterface =
+            Factories.asInterfaceOf(Aidl.class);
+        Assert.assertSame(asInterface,
+                          Factories.asInterfaceOf(Aidl.class));
+
+        int converted = Aidl.Stub.sConverted;
+        Assert.assertNotNull(asInterface.asInterface(null));
+        Assert.assertEquals(converted + 1, Aidl.Stub.sConverted);
+    }
+}
@@ -0,0 +1,99 @@
+package edu.vandy.common;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * Local unit tests for the Futures helper methods.
+ */
+public class FuturesTest {
+    /**
+     * A supplier the executor rejects completes the future
+     * exceptionally rather than throwing at the caller.
+     */
+    @Test
+    public void rejectionFailsTheFuture() throws InterruptedException {
+        BoundedExecutor executor =
+            new BoundedExecutor("test",
+                                1,
+                                1,
+                                new ThreadPoolExecutor.AbortPolicy());
+        final CountDownLatch release = new CountDownLatch(1);
+        try {
+            // Occupy the thread and the queue.
+            for (int i = 0; i < 2; ++i)
+                Futures.supplyAsync(() -> {
+                        try {
+                            release.await();
+                        } catch (InterruptedException e) {
+                            Thread.currentThread().interrupt();
+                        }
+                        return "done";
+                    },
+                    executor);
+
+            CompletableFuture<String> future =
+                Futures.supplyAsync(() -> "rejected",
+                                    executor);
+            Assert.assertTrue(future.isCompletedExceptionally());
+            try {
+                future.get();
+                Assert.fail("expected the future to fail");
+            } catch (ExecutionException e) {
+                Assert.assertTrue(e.getCause() instanceof RejectedExecutionException);
+            }
+        } finally {
+            release.countDown();
+            executor.shutdown();
+        }
+    }
+
+    /**
+     * A future that isn't completed in time fails with a
+     * TimeoutException, and one that is keeps its value.
+     */
+    @Test
+    public void timeout() throws Exception {
+        CompletableFuture<String> late =
+            Futures.withTimeout(new CompletableFuture<String>(),
+                                10,
+                                TimeUnit.MILLISECONDS);
+        try {
+            late.get(5, TimeUnit.SECONDS);
+            Assert.fail("expected the future to time out");
+        } catch (ExecutionException e) {
+            Assert.assertTrue(e.getCause() instanceof TimeoutException);
+        }
+
+        CompletableFuture<String> onTime =
+            Futures.withTimeout(new CompletableFuture<String>(),
+                                10,
+                                TimeUnit.SECONDS);
+        onTime.complete("HMM");
+        Assert.assertEquals("HMM", onTime.get());
+        Assert.assertFalse(onTime.completeExceptionally(new TimeoutException()));
+    }
+
+    /**
+     * The exception of an earlier stage is found behind the
+     * CompletionExceptions that wrap it.
+     */
+    @Test
+    public void unwrap() {
+        CompletableFuture<String> failed =
+            Futures.failed(new IllegalStateException("unbound"));
+        failed.thenApply(String::length)
+              .whenComplete((length, throwable) ->
+                            Assert.assertEquals("unbound",
+                                                Futures.unwrap(throwable).getMessage()));
+        Assert.assertNull(Futures.unwrap(null));
+    }
+}
@@ -0,0 +1,104 @@
+package edu.vandy.common;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Local unit tests for the GenericSingleton.
+ */
+public class GenericSingletonTest {
+    /**
+     * Number of concurrent callers.
+     */
+    private static final int CALLERS = 16;
+
+    /**
+     * Number of acquire()/release() pairs per caller.
+     */
+    private static final int ITERATIONS = 10000;
+
+    /**
+     * A RefCounted singleton that counts how often it's created.
+     */
+    public static class Counted extends RefCounted {
+        static final AtomicInteger sCreated = new AtomicInteger();
+
+        public Counted() {
+            sCreated.incrementAndGet();
+        }
+
+        @Override
+        protected void close() {
+        }
+    }
+
+    @After
+    public void tearDown() {
+        GenericSingleton.remove(Counted.class);
+    }
+
+    /**
+     * instance() returns the same object until it's removed.
+     */
+    @Test
+    public void instanceIsCreatedOnce() {
+        Counted counted = GenericSingleton.instance(Counted.class);
+        Assert.assertSame(counted,
+                          GenericSingleton.instance(Counted.class));
+
+        GenericSingleton.remove(Counted.class);
+        Assert.assertNotSame(counted,
+                             GenericSingleton.instance(Counted.class));
+    }
+
+    /**
+     * Concurrent acquire() and release() calls never hand out an
+     * instance that has been closed.
+     */
+    @Test
+    public void acquireNeverReturnsClosedInstance() throws Exception {
+        final CountDownLatch start = new CountDownLatch(1);
+        ExecutorService executor = Executors.newFixedThreadPool(CALLERS);
+        List<Future<Integer>> results = new ArrayList<>();
+
+        for (int i = 0; i < CALLERS; ++i)
+            results.add(executor.submit(new Callable<Integer>() {
+                    @Override
+                    public Integer call() throws Exception {
+                        start.await();
+                        int closed = 0;
+                        for (int j = 0; j < ITERATIONS; ++j) {
+                            Counted counted =
+                                GenericSingleton.acquire(Counted.class);
+                            if (counted.isClosed())
+                                ++closed;
+                            GenericSingleton.release(Counted.class);
+                        }
+                        return closed;
+                    }
+                }));
+
+        start.countDown();
+        for (Future<Integer> result : results)
+            Assert.assertEquals(0,
+                                (int) result.get(30, TimeUnit.SECONDS));
+        executor.shutdownNow();
+
+        // Every release() has been matched by an acquire().
+        Counted counted = GenericSingleton.acquire(Counted.class);
+        Assert.assertEquals(1, counted.getRefcount());
+        GenericSingleton.release(Counted.class);
+        Assert.assertTrue(counted.isClosed());
+    }
+}
@@ -0,0 +1,279 @@
+package edu.vandy.common;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.net.URL;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Local unit tests for the HttpTransport, which run against a stub
+ * HTTP server that counts the TCP connections it accepts.
+ */
+public class HttpTransportTest {
+    /**
+     * Body returned by the stub server.
+     */
+    private static final String BODY =
+        "[{\"sf\": \"ACK\", \"lfs\": [{\"lf\": \"acknowledgement\"}]}]";
+
+    /**
+     * Read timeout in milliseconds.
+     */
+    private static final int READ_TIMEOUT = 500;
+
+    /**
+     * A minimal HTTP/1.1 server that keeps connections alive.  The
+     * path "/missing" returns a 404 and "/slow" doesn't respond.
+     */
+    private static class StubServer extends Thread {
+        final ServerSocket mServerSocket;
+        final AtomicInteger mConnections = new AtomicInteger();
+        final AtomicInteger mGzipResponses = new AtomicInteger();
+
+        StubServer() throws IOException {
+            mServerSocket = new ServerSocket(0);
+            setDaemon(true);
+        }
+
+        URL url(String path) throws IOException {
+            return new URL("http://localhost:"
+                           + mServerSocket.getLocalPort()
+                           + path);
+        }
+
+        @Override
+        public void run() {
+            try {
+                for (;;) {
+                    final Socket socket = mServerSocket.accept();
+                    mConnections.incrementAndGet();
+                    Thread connection = new Thread() {
+                            @Override
+                            public void run() {
+                                serve(socket);
+                            }
+                        };
+                    connection.setDaemon(true);
+                    connection.start();
+                }
+            } catch (IOException e) {
+                // The server was closed.
+            }
+        }
+
+        void serve(Socket socket) {
+            try (Socket s = socket) {
+                BufferedReader reader =
+                    new BufferedReader(new InputStreamReader(s.getInputStream(),
+                                                             "UTF-8"));
+                OutputStream out = s.getOutputStream();
+                String requestLine;
+                while ((requestLine = reader.readLine()) != null) {
+                    boolean gzip = false;
+                    for (String header;
+                         (header = reader.readLine()) != null
+                             && !header.isEmpty();
+                         )
+                        if (header.toLowerCase().startsWith("accept-encoding:")
+                            && header.contains("gzip"))
+                            gzip = true;
+
+                    String path = requestLine.split(" ")[1];
+                    if (path.equals("/slow")) {
+                        Thread.sleep(READ_TIMEOUT * 4);
+                        return;
+                    }
+
+                    int status = path.equals("/missing") ? 404 : 200;
+                    byte[] body = BODY.getBytes("UTF-8");
+                    if (gzip) {
+                        ByteArrayOutputStream bytes =
+                            new ByteArrayOutputStream();
+                        try (GZIPOutputStream zip =
+                             new GZIPOutputStream(bytes)) {
+                            zip.write(body);
+                        }
+                        body = bytes.toByteArray();
+                        mGzipResponses.incrementAndGet();
+                    }
+
+                    out.write(("HTTP/1.1 "
+                               + status
+                               + (status == 200 ? " OK" : " Not Found")
+                               + "\r\nContent-Type: application/json"
+                               + (gzip ? "\r\nContent-Encoding: gzip" : "")
+                               + "\r\nContent-Length: "
+                               + body.length
+                               + "\r\n\r\n").getBytes("UTF-8"));
+                    out.write(body);
+                    out.flush();
+                }
+            } catch (Exception e) {
+                // The client closed the connection.
+            }
+        }
+    }
+
+    /**
+     * Returns the body of a response as a String.
+     */
+    private static final HttpTransport.ResponseHandler<String> TO_STRING =
+        new HttpTransport.ResponseHandler<String>() {
+            @Override
+            public String handleResponse(InputStream body)
+                throws IOException {
+                ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+                byte[] buffer = new byte[256];
+                for (int count; (count = body.read(buffer)) != -1; )
+                    bytes.write(buffer, 0, count);
+                return bytes.toString("UTF-8");
+            }
+        };
+
+    private StubServer mServer;
+
+    private HttpTransport mTransport;
+
+    @Before
+    public void setUp() throws IOException {
+        mServer = new StubServer();
+        mServer.start();
+        mTransport = new HttpTransport(READ_TIMEOUT,
+                                       READ_TIMEOUT);
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        mServer.mServerSocket.close();
+    }
+
+    /**
+     * Sequential requests to the same host reuse one connection and
+     * get compressed responses.
+     */
+    @Test
+    public void requestsReuseConnection() throws IOException {
+        for (int i = 0; i < 20; ++i)
+            Assert.assertEquals(BODY,
+                                mTransport.get(mServer.url("/acronym?sf=ACK"),
+                                               TO_STRING));
+
+        Assert.assertEquals(1, mServer.mConnections.get());
+        Assert.assertEquals(20, mServer.mGzipResponses.get());
+    }
+
+    /**
+     * An error status is reported via an HttpException and doesn't
+     * prevent the connection from being reused.
+     */
+    @Test
+    public void errorStatusIsReported() throws IOException {
+        try {
+            mTransport.get(mServer.url("/missing"),
+                           TO_STRING);
+            Assert.fail("expected an HttpException");
+        } catch (HttpTransport.HttpException e) {
+            Assert.assertEquals(404, e.getResponseCode());
+        }
+
+        Assert.assertEquals(BODY,
+                            mTransport.get(mServer.url("/acronym"),
+                                           TO_STRING));
+        Assert.assertEquals(1, mServer.mConnections.get());
+    }
+
+    /**
+     * A streaming handler gets the decompressed body, and the part it
+     * doesn't read is drained, so the connection is still reused, even
+     * after an error status.
+     */
+    @Test
+    public void streamedResponsesReuseConnection() throws IOException {
+        final HttpTransport.ResponseHandler<Integer> firstByte =
+            new HttpTransport.ResponseHandler<Integer>() {
+                @Override
+                public Integer handleResponse(InputStream body)
+                    throws IOException {
+                    try (InputStream in = body) {
+                        return in.read();
+                    }
+                }
+            };
+
+        for (int i = 0; i < 20; ++i)
+            Assert.assertEquals(Integer.valueOf('['),
+                                mTransport.getStreaming(mServer.url("/acronym"),
+                                                        firstByte));
+
+        try {
+            mTransport.getStreaming(mServer.url("/missing"),
+                                    firstByte);
+            Assert.fail("expected an HttpException");
+        } catch (HttpTransport.HttpException e) {
+            Assert.assertEquals(404, e.getResponseCode());
+        }
+
+        Assert.assertEquals(BODY,
+                            mTransport.getStreaming(mServer.url("/acronym"),
+                                                    TO_STRING));
+        Assert.assertEquals(1, mServer.mConnections.get());
+        Assert.assertEquals(22, mServer.mGzipResponses.get());
+    }
+
+    /**
+     * A server that doesn't respond causes the request to time out.
+     */
+    @Test
+    public void slowResponsesTimeOut() throws IOException {
+        long start = System.currentTimeMillis();
+        try {
+            mTransport.get(mServer.url("/slow"),
+                           TO_STRING);
+            Assert.fail("expected a SocketTimeoutException");
+        } catch (SocketTimeoutException e) {
+            Assert.assertTrue(System.currentTimeMillis() - start
+                              < READ_TIMEOUT * 3);
+        }
+    }
+
+    /**
+     * A request made by an interrupted thread is abandoned without
+     * connecting or calling the handler, and the interrupt status is
+     * left set.
+     */
+    @Test
+    public void interruptedRequestsAreAbandoned() throws IOException {
+        final AtomicInteger handled = new AtomicInteger();
+        Thread.currentThread().interrupt();
+        try {
+            mTransport.get(mServer.url("/acronym"),
+                           new HttpTransport.ResponseHandler<String>() {
+                               @Override
+                               public String handleResponse(InputStream body) {
+                                   handled.incrementAndGet();
+                                   return null;
+                               }
+                           });
+            Assert.fail("expected an InterruptedIOException");
+        } catch (InterruptedIOException e) {
+            Assert.assertTrue(Thread.interrupted());
+        }
+
+        Assert.assertEquals(0, handled.get());
+        Assert.assertEquals(0, mServer.mConnections.get());
+    }
+}
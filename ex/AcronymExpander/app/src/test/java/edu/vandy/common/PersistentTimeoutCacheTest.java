@@ -0,0 +1,157 @@
+package edu.vandy.common;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Local unit tests for the PersistentTimeoutCache, which check that
+ * entries written by one cache are restored by the next one that
+ * opens the same log.
+ */
+public class PersistentTimeoutCacheTest {
+    /**
+     * Timeout for cache entries in seconds.
+     */
+    private static final int TIMEOUT = 60;
+
+    /**
+     * A PersistentTimeoutCache with String keys and values.
+     */
+    public static class StringCache
+           extends PersistentTimeoutCache<String, String> {
+        @Override
+        protected void writeKey(DataOutputStream out,
+                                String key)
+            throws IOException {
+            out.writeUTF(key);
+        }
+
+        @Override
+        protected String readKey(DataInputStream in)
+            throws IOException {
+            return in.readUTF();
+        }
+
+        @Override
+        protected void writeValue(DataOutputStream out,
+                                  String value)
+            throws IOException {
+            out.writeUTF(value);
+        }
+
+        @Override
+        protected String readValue(DataInputStream in)
+            throws IOException {
+            return in.readUTF();
+        }
+    }
+
+    /**
+     * The log file.
+     */
+    private File mFile;
+
+    @Before
+    public void setUp() throws IOException {
+        mFile = File.createTempFile("timeout", ".log");
+        mFile.delete();
+    }
+
+    @After
+    public void tearDown() {
+        mFile.delete();
+    }
+
+    /**
+     * Return a new cache whose entries have been restored from the
+     * log.
+     */
+    private StringCache open() throws Exception {
+        StringCache cache = new StringCache();
+        cache.incrementRefCount();
+        cache.open(mFile).get(5, TimeUnit.SECONDS);
+        return cache;
+    }
+
+    /**
+     * Unexpired entries survive the cache being closed.
+     */
+    @Test
+    public void entriesAreRestored() throws Exception {
+        StringCache cache = open();
+        cache.put("ACK", "acknowledgement", TIMEOUT);
+        cache.put("DNA", "deoxyribonucleic acid", TIMEOUT);
+        cache.decrementRefCount();
+
+        cache = open();
+        Assert.assertEquals("acknowledgement", cache.get("ACK"));
+        Assert.assertEquals("deoxyribonucleic acid", cache.get("DNA"));
+        cache.decrementRefCount();
+    }
+
+    /**
+     * An entry put before the log is replayed isn't overwritten by an
+     * older one, and restoring entries isn't counted as misses.
+     */
+    @Test
+    public void newerEntriesAreKept() throws Exception {
+        StringCache cache = open();
+        cache.put("ACK", "acknowledgement", TIMEOUT);
+        cache.put("DNA", "deoxyribonucleic acid", TIMEOUT);
+        cache.decrementRefCount();
+
+        cache = new StringCache();
+        cache.incrementRefCount();
+        cache.put("ACK", "acknowledged", TIMEOUT);
+        cache.open(mFile).get(5, TimeUnit.SECONDS);
+
+        Assert.assertEquals(0, cache.getStats().getMissCount());
+        Assert.assertEquals("acknowledged", cache.get("ACK"));
+        Assert.assertEquals("deoxyribonucleic acid", cache.get("DNA"));
+        cache.decrementRefCount();
+    }
+
+    /**
+     * Removed and expired entries aren't restored.
+     */
+    @Test
+    public void removedAndExpiredEntriesAreNotRestored() throws Exception {
+        StringCache cache = open();
+        cache.put("ACK", "acknowledgement", TIMEOUT);
+        cache.put("DNA", "deoxyribonucleic acid", TIMEOUT);
+        cache.put("RNA", "ribonucleic acid", 0);
+        cache.remove("DNA", 0);
+        cache.decrementRefCount();
+
+        cache = open();
+        Assert.assertEquals("acknowledgement", cache.get("ACK"));
+        Assert.assertEquals(1, cache.size());
+        cache.decrementRefCount();
+    }
+
+    /**
+     * Replacing an entry many times doesn't grow the log without
+     * bound.
+     */
+    @Test
+    public void logIsCompacted() throws Exception {
+        StringCache cache = open();
+        for (int i = 0; i < 10000; ++i)
+            cache.put("ACK", "acknowledgement " + i, TIMEOUT);
+        cache.decrementRefCount();
+
+        Assert.assertTrue(mFile.length() < 100000);
+
+        cache = open();
+        Assert.assertEquals("acknowledgement 9999", cache.get("ACK"));
+        cache.decrementRefCount();
+    }
+}
@@ -0,0 +1,79 @@
+package edu.vandy.common;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Local unit tests for the RefCounted lifecycle, including deferred
+ * closes.
+ */
+public class RefCountedTest {
+    /**
+     * Linger time in milliseconds.
+     */
+    private static final long LINGER_TIME = 100;
+
+    /**
+     * A RefCounted object that counts how often it's closed.
+     */
+    private static class Counted extends RefCounted {
+        final AtomicInteger mCloses = new AtomicInteger();
+        final long mLingerTime;
+
+        Counted(long lingerTime) {
+            mLingerTime = lingerTime;
+        }
+
+        @Override
+        protected long lingerTime() {
+            return mLingerTime;
+        }
+
+        @Override
+        protected void close() {
+            mCloses.incrementAndGet();
+        }
+    }
+
+    /**
+     * Without a linger time the object is closed as soon as the count
+     * drops to 0 and can't be used again.
+     */
+    @Test
+    public void closesImmediately() {
+        Counted counted = new Counted(RefCounted.NO_LINGER);
+        counted.incrementRefCount();
+        Assert.assertEquals(0, counted.decrementRefCount());
+
+        Assert.assertTrue(counted.isClosed());
+        Assert.assertEquals(1, counted.mCloses.get());
+        Assert.assertFalse(counted.tryIncrementRefCount());
+    }
+
+    /**
+     * An object that's reused within its linger time isn't closed,
+     * and is closed once it has been idle for the linger time.
+     */
+    @Test
+    public void lingersBeforeClosing() throws InterruptedException {
+        Counted counted = new Counted(LINGER_TIME);
+        counted.incrementRefCount();
+        counted.decrementRefCount();
+        Assert.assertFalse(counted.isClosed());
+
+        // Reuse the object within the linger time.
+        Assert.assertTrue(counted.tryIncrementRefCount());
+        Assert.assertEquals(1, counted.getRevivalCount());
+
+        Thread.sleep(LINGER_TIME * 2);
+        Assert.assertFalse(counted.isClosed());
+        Assert.assertEquals(0, counted.mCloses.get());
+
+        counted.decrementRefCount();
+        Thread.sleep(LINGER_TIME * 3);
+        Assert.assertTrue(counted.isClosed());
+        Assert.assertEquals(1, counted.mCloses.get());
+    }
+}
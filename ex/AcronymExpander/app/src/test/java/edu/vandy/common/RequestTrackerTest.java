@@ -0,0 +1,115 @@
+package edu.vandy.common;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Local unit tests for the RequestTracker.
+ */
+public class RequestTrackerTest {
+    /**
+     * A request that blocks until it's released or interrupted.
+     */
+    private static class BlockingRequest
+            extends RequestTracker.Request {
+        final CountDownLatch mStarted = new CountDownLatch(1);
+        final CountDownLatch mRelease = new CountDownLatch(1);
+        final AtomicBoolean mProcessed = new AtomicBoolean();
+        volatile boolean mInterrupted;
+
+        @Override
+        protected void process() {
+            mProcessed.set(true);
+            mStarted.countDown();
+            try {
+                mRelease.await();
+            } catch (InterruptedException e) {
+                mInterrupted = true;
+            }
+        }
+    }
+
+    /**
+     * A request cancelled before it starts is skipped.
+     */
+    @Test
+    public void cancelBeforeStartSkipsRequest() {
+        RequestTracker tracker = new RequestTracker();
+        BlockingRequest request =
+            tracker.track("1",
+                          new BlockingRequest(),
+                          RequestTracker.NO_TIMEOUT);
+
+        Assert.assertTrue(tracker.cancel("1"));
+        Assert.assertFalse(tracker.cancel("1"));
+        request.run();
+
+        Assert.assertFalse(request.mProcessed.get());
+        Assert.assertTrue(request.isCancelled());
+        Assert.assertEquals(1, tracker.getSkippedCount());
+        Assert.assertEquals(0, tracker.size());
+    }
+
+    /**
+     * A request cancelled while it runs is interrupted, and its
+     * thread's interrupt status is cleared afterwards.
+     */
+    @Test
+    public void cancelWhileRunningInterruptsRequest() throws Exception {
+        RequestTracker tracker = new RequestTracker();
+        final BlockingRequest request =
+            tracker.track("1",
+                          new BlockingRequest(),
+                          RequestTracker.NO_TIMEOUT);
+        final AtomicBoolean stillInterrupted = new AtomicBoolean();
+        Thread thread = new Thread() {
+                @Override
+                public void run() {
+                    request.run();
+                    stillInterrupted.set(isInterrupted());
+                }
+            };
+        thread.start();
+
+        Assert.assertTrue(request.mStarted.await(5, TimeUnit.SECONDS));
+        Assert.assertTrue(tracker.cancel("1"));
+        thread.join(5000);
+
+        Assert.assertTrue(request.mInterrupted);
+        Assert.assertFalse(stillInterrupted.get());
+        Assert.assertEquals(1, tracker.getInterruptedCount());
+        Assert.assertEquals(0, tracker.size());
+    }
+
+    /**
+     * A request that outlives its deadline is cancelled, while one
+     * that finishes in time is not.
+     */
+    @Test
+    public void deadlineCancelsRequest() throws Exception {
+        RequestTracker tracker = new RequestTracker();
+        BlockingRequest quick =
+            tracker.track("1",
+                          new BlockingRequest(),
+                          1000);
+        quick.mRelease.countDown();
+        quick.run();
+
+        BlockingRequest slow =
+            tracker.track("2",
+                          new BlockingRequest(),
+                          50);
+        slow.run();
+
+        Assert.assertFalse(quick.isCancelled());
+        Assert.assertTrue(slow.isCancelled());
+        Assert.assertTrue(slow.mInterrupted);
+        Assert.assertEquals(1, tracker.getExpiredCount());
+        Assert.assertEquals(1, tracker.getInterruptedCount());
+        Assert.assertEquals(0, tracker.size());
+    }
+}
@@ -0,0 +1,165 @@
+package edu.vandy.model.aidl;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Local unit tests for the AcronymDataByteParser.
+ */
+public class AcronymDataByteParserTest {
+    /**
+     * A response from the Acronym Service, including the variants
+     * of each long form, which are skipped.
+     */
+    private static final String RESPONSE =
+        "[{\"sf\": \"HMM\", \"lfs\": ["
+        + "{\"lf\": \"heavy meromyosin\", \"freq\": 267, \"since\": 1971,"
+        + " \"vars\": [{\"lf\": \"heavy meromyosin\", \"freq\": 244, \"since\": 1971},"
+        + " {\"lf\": \"Heavy meromyosin\", \"freq\": 12, \"since\": 1975}]},\n"
+        + "\t{\"lf\": \"hidden Markov model\", \"freq\": 229, \"since\": 1990,"
+        + " \"vars\": [{\"lf\": \"hidden Markov models\", \"freq\": 61, \"since\": 1993}]}"
+        + "]}]";
+
+    /**
+     * Return a stream of the UTF-8 bytes of @a json.
+     */
+    private static InputStream stream(String json)
+        throws IOException {
+        return new ByteArrayInputStream(json.getBytes("UTF-8"));
+    }
+
+    /**
+     * Return a stream of the UTF-8 bytes of @a json that returns at
+     * most one byte per read, so every token crosses a refill of the
+     * parser's buffer.
+     */
+    private static InputStream trickle(String json)
+        throws IOException {
+        return new ByteArrayInputStream(json.getBytes("UTF-8")) {
+            @Override
+            public synchronized int read(byte[] bytes,
+                                         int offset,
+                                         int length) {
+                return super.read(bytes,
+                                  offset,
+                                  Math.min(length, 1));
+            }
+        };
+    }
+
+    /**
+     * Return the long forms of the @a expansions.
+     */
+    private static List<String> lfs(List<AcronymExpansion> expansions) {
+        List<String> lfs = new ArrayList<>();
+        for (AcronymExpansion expansion : expansions)
+            lfs.add(expansion.getLf());
+        return lfs;
+    }
+
+    /**
+     * The long forms are parsed and their variants are skipped.
+     */
+    @Test
+    public void parsesLongForms() throws IOException {
+        for (InputStream in : new InputStream[] { stream(RESPONSE),
+                                                  trickle(RESPONSE) }) {
+            List<AcronymExpansion> expansions =
+                new AcronymDataByteParser().parseJsonStream(in);
+
+            Assert.assertEquals(2, expansions.size());
+            Assert.assertEquals("heavy meromyosin",
+                                expansions.get(0).getLf());
+            Assert.assertEquals(267, expansions.get(0).getFreq());
+            Assert.assertEquals(1971, expansions.get(0).getSince());
+            Assert.assertEquals("hidden Markov model",
+                                expansions.get(1).getLf());
+            Assert.assertEquals(229, expansions.get(1).getFreq());
+            Assert.assertEquals(1990, expansions.get(1).getSince());
+        }
+    }
+
+    /**
+     * An acronym without expansions returns null, while one with an
+     * empty list of long forms returns an empty list.
+     */
+    @Test
+    public void unknownAcronyms() throws IOException {
+        AcronymDataByteParser parser = new AcronymDataByteParser();
+        Assert.assertNull(parser.parseJsonStream(stream(" [ ] ")));
+        Assert.assertEquals(0,
+                            parser.parseJsonStream(stream("[{\"sf\": \"XYZ\", \"lfs\": []}]"))
+                            .size());
+    }
+
+    /**
+     * Escape sequences and multi-byte characters are decoded, and
+     * quoted and negative numbers are parsed.
+     */
+    @Test
+    public void decodesStringsAndNumbers() throws IOException {
+        String json =
+            "[{\"lfs\": [{\"lf\": \"caf\\u00e9 \\\"\u00e9\\\" \\ud83d\\ude00\\n\","
+            + " \"freq\": \"-2147483648\", \"since\": 2147483647,"
+            + " \"other\": [null, true, 1.5e3, {\"a\": \"]}\"}]}]}]";
+        for (InputStream in : new InputStream[] { stream(json),
+                                                  trickle(json) }) {
+            AcronymExpansion expansion =
+                new AcronymDataByteParser().parseJsonStream(in).get(0);
+
+            Assert.assertEquals("caf\u00e9 \"\u00e9\" \ud83d\ude00\n",
+                                expansion.getLf());
+            Assert.assertEquals(Integer.MIN_VALUE, expansion.getFreq());
+            Assert.assertEquals(Integer.MAX_VALUE, expansion.getSince());
+        }
+    }
+
+    /**
+     * Full chunks are passed to the ChunkListener as they're parsed.
+     */
+    @Test
+    public void passesFullChunks() throws IOException {
+        StringBuilder json = new StringBuilder("[{\"lfs\": [");
+        for (int i = 0; i < 120; ++i)
+            json.append(i == 0 ? "" : ",")
+                .append("{\"lf\": \"lf")
+                .append(i)
+                .append("\"}");
+        json.append("]}]");
+
+        final List<List<String>> chunks = new ArrayList<>();
+        List<AcronymExpansion> expansions =
+            new AcronymDataByteParser(50,
+                                      chunk -> chunks.add(lfs(chunk)))
+            .parseJsonStream(stream(json.toString()));
+
+        Assert.assertEquals(120, expansions.size());
+        Assert.assertEquals(2, chunks.size());
+        Assert.assertEquals(lfs(expansions.subList(50, 100)),
+                            chunks.get(1));
+    }
+
+    /**
+     * Malformed Json is reported via an IOException.
+     */
+    @Test
+    public void malformedJsonIsReported() {
+        for (String json : new String[] { "{}",
+                                          "[{\"lfs\": [{\"lf\": \"x\"}",
+                                          "[{\"lfs\": [{\"freq\": 1.5}]}]",
+                                          "[{\"lfs\": [{\"freq\": 2147483648}]}]",
+                                          "[{\"lfs\": [{\"lf\": \"x\" \"freq\": 1}]}]" })
+            try {
+                new AcronymDataByteParser().parseJsonStream(stream(json));
+                Assert.fail("expected an IOException for " + json);
+            } catch (IOException e) {
+                // Expected.
+            }
+    }
+}
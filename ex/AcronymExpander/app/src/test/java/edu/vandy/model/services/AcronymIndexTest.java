@@ -0,0 +1,143 @@
+package edu.vandy.model.services;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.Arrays;
+import java.util.List;
+
+import edu.vandy.model.aidl.AcronymExpansion;
+
+/**
+ * Local unit tests for the AcronymIndex.
+ */
+public class AcronymIndexTest {
+    /**
+     * A dump of the Acronym Service's dictionary, whose lines aren't
+     * in any particular order.
+     */
+    private static final String DUMP =
+        "HMM\thidden Markov model\t229\t1990\n"
+        + "HM\thydroxymethyl\t40\t1975\n"
+        + "HMM\theavy meromyosin\t267\t1971\n"
+        + "\n"
+        + "HMG\thigh mobility group\t530\t1978\n"
+        + "HMMs\thidden Markov models\t61\t1993\n"
+        + "HMBA\thexamethylene bisacetamide\t150\t1979\n"
+        + "TNF\ttumor necrosis factor\t10000\t1975\n"
+        + "\u03b1-MSH\talpha-melanocyte stimulating hormone\t800\t1970\n";
+
+    /**
+     * The file holding the index.
+     */
+    private File mFile;
+
+    /**
+     * The index under test.
+     */
+    private AcronymIndex mIndex;
+
+    @Before
+    public void setUp() throws IOException {
+        mFile = File.createTempFile("acronyms", ".idx");
+        AcronymIndex.build(new StringReader(DUMP), mFile);
+        mIndex = AcronymIndex.open(mFile);
+    }
+
+    @After
+    public void tearDown() {
+        mFile.delete();
+    }
+
+    /**
+     * The expansions of a short form are found, most frequent first,
+     * and prefixes that aren't short forms aren't found.
+     */
+    @Test
+    public void lookup() {
+        Assert.assertEquals(7, mIndex.size());
+
+        List<AcronymExpansion> expansions = mIndex.lookup("HMM");
+        Assert.assertEquals(2, expansions.size());
+        Assert.assertEquals("heavy meromyosin", expansions.get(0).getLf());
+        Assert.assertEquals(267, expansions.get(0).getFreq());
+        Assert.assertEquals(1971, expansions.get(0).getSince());
+        Assert.assertEquals("hidden Markov model", expansions.get(1).getLf());
+
+        Assert.assertEquals("alpha-melanocyte stimulating hormone",
+                            mIndex.lookup("\u03b1-MSH").get(0).getLf());
+        Assert.assertNull(mIndex.lookup("H"));
+        Assert.assertNull(mIndex.lookup("HMMM"));
+        Assert.assertNull(mIndex.lookup("XYZ"));
+        Assert.assertNull(mIndex.lookup(""));
+    }
+
+    /**
+     * The short forms that start with a prefix are returned in order
+     * of decreasing total frequency, up to the limit.
+     */
+    @Test
+    public void prefixSearch() {
+        Assert.assertEquals(Arrays.asList("HMG", "HMM", "HMBA", "HMMs", "HM"),
+                            mIndex.prefixSearch("H", 10));
+        Assert.assertEquals(Arrays.asList("HMM", "HMMs"),
+                            mIndex.prefixSearch("HMM", 10));
+        Assert.assertEquals(Arrays.asList("TNF", "\u03b1-MSH"),
+                            mIndex.prefixSearch("", 2));
+        Assert.assertTrue(mIndex.prefixSearch("HX", 10).isEmpty());
+        Assert.assertTrue(mIndex.prefixSearch("HMMsx", 10).isEmpty());
+    }
+
+    /**
+     * No more than MAX_SUGGESTIONS short forms are returned.
+     */
+    @Test
+    public void suggestionsAreBounded() throws IOException {
+        StringBuilder dump = new StringBuilder();
+        for (int i = 0; i < 100; ++i)
+            dump.append("A")
+                .append(i)
+                .append("\tlong form\t")
+                .append(i)
+                .append("\t2000\n");
+        AcronymIndex.build(new StringReader(dump.toString()), mFile);
+        AcronymIndex index = AcronymIndex.open(mFile);
+
+        List<String> suggestions = index.prefixSearch("A", 100);
+        Assert.assertEquals(AcronymIndex.MAX_SUGGESTIONS, suggestions.size());
+        Assert.assertEquals("A99", suggestions.get(0));
+        Assert.assertEquals("A84", suggestions.get(15));
+    }
+
+    /**
+     * Malformed dumps and files that aren't indexes are reported via
+     * an IOException.
+     */
+    @Test
+    public void malformedInputIsReported() throws IOException {
+        for (String dump : new String[] { "HMM\theavy meromyosin\n",
+                                          "HMM\theavy meromyosin\tmany\t1971\n",
+                                          "\tno short form\t1\t1971\n" })
+            try {
+                AcronymIndex.build(new StringReader(dump), mFile);
+                Assert.fail("expected an IOException for " + dump);
+            } catch (IOException e) {
+                // Expected.
+            }
+
+        File file = File.createTempFile("acronyms", ".idx");
+        try {
+            AcronymIndex.open(file);
+            Assert.fail("expected an IOException for an empty file");
+        } catch (IOException e) {
+            // Expected.
+        } finally {
+            file.delete();
+        }
+    }
+}
@@ -0,0 +1,115 @@
+package edu.vandy.common;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the wall-clock time of LOOKUPS acronym lookups made one
+ * after the other, as when every lookup waits its turn on a serial
+ * executor, versus all at once via the Futures helpers on a
+ * BoundedExecutor like the one AcronymModel.expand() uses.  Each
+ * lookup sleeps for @a latencyMillis in place of the two-way AIDL
+ * call, which spends nearly all its time waiting for the Acronym Web
+ * service.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class ConcurrentLookupBenchmark {
+    /**
+     * Number of lookups made by each benchmark.
+     */
+    private static final int LOOKUPS = 20;
+
+    /**
+     * Latency of one lookup.
+     */
+    @Param({ "5", "50" })
+    public int latencyMillis;
+
+    /**
+     * Maximum number of lookups that run at once.
+     */
+    @Param({ "1", "4", "8" })
+    public int threads;
+
+    /**
+     * Runs the lookups.
+     */
+    private BoundedExecutor mExecutor;
+
+    @Setup
+    public void setUp() {
+        mExecutor =
+            new BoundedExecutor("benchmark",
+                                threads,
+                                LOOKUPS,
+                                new ThreadPoolExecutor.AbortPolicy());
+    }
+
+    @TearDown
+    public void tearDown() {
+        mExecutor.shutdownNow();
+    }
+
+    /**
+     * Simulate the lookup of an acronym.
+     */
+    private String lookup(int i) {
+        try {
+            Thread.sleep(latencyMillis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        return "expansion " + i;
+    }
+
+    /**
+     * Start a lookup, as AcronymModel.expand() does.
+     */
+    private CompletableFuture<String> expand(final int i) {
+        return Futures.withTimeout(Futures.supplyAsync(() -> lookup(i),
+                                                       mExecutor),
+                                   30,
+                                   TimeUnit.SECONDS);
+    }
+
+    /**
+     * Wait for each lookup before starting the next one.
+     */
+    @Benchmark
+    public List<String> sequential() {
+        List<String> results = new ArrayList<>(LOOKUPS);
+        for (int i = 0; i < LOOKUPS; ++i)
+            results.add(expand(i).join());
+        return results;
+    }
+
+    /**
+     * Start all the lookups, then wait for them all.
+     */
+    @Benchmark
+    public List<String> concurrent() {
+        List<CompletableFuture<String>> futures = new ArrayList<>(LOOKUPS);
+        for (int i = 0; i < LOOKUPS; ++i)
+            futures.add(expand(i));
+
+        List<String> results = new ArrayList<>(LOOKUPS);
+        for (CompletableFuture<String> future : futures)
+            results.add(future.join());
+        return results;
+    }
+}
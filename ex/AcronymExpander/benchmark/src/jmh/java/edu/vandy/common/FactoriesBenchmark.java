@@ -0,0 +1,143 @@
+package edu.vandy.common;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.util.concurrent.TimeUnit;
+
+import android.os.IBinder;
+
+/**
+ * Measures the cost of creating the objects managed by the
+ * GenericActivity, GenericModel, and GenericSingleton frameworks,
+ * which every MVP app does on startup, and of converting the IBinder
+ * of a Bound Service into its AIDL interface, which every
+ * GenericServiceConnection does each time it (re)connects.  Each is
+ * done the old way, via reflection on every call, and via the
+ * Factories registry, with and without a registered factory.  The
+ * Presenter and AIDL interface are stand-ins, so the results measure
+ * the frameworks rather than the apps' own constructors.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class FactoriesBenchmark {
+    /**
+     * Stands in for a Presenter, which doesn't register a factory.
+     */
+    public static class Presenter {
+        Object mView;
+        Object mModel;
+    }
+
+    /**
+     * Stands in for a Presenter that registers a factory.
+     */
+    public static class RegisteredPresenter
+           extends Presenter {
+    }
+
+    /**
+     * Mimics the code generated by the AIDL compiler.
+     */
+    public interface Aidl {
+        class Stub implements Aidl {
+            public static Aidl asInterface(IBinder binder) {
+                return new Stub();
+            }
+        }
+    }
+
+    /**
+     * Mimics the code generated by the AIDL compiler for an interface
+     * that registers its asInterface() method.
+     */
+    public interface RegisteredAidl {
+        class Stub implements RegisteredAidl {
+            public static RegisteredAidl asInterface(IBinder binder) {
+                return new Stub();
+            }
+        }
+    }
+
+    @Setup
+    public void setUp() {
+        Factories.register(RegisteredPresenter.class,
+                           RegisteredPresenter::new);
+        Factories.registerAsInterface(RegisteredAidl.class,
+                                      RegisteredAidl.Stub::asInterface);
+    }
+
+    /**
+     * Create a Presenter via Class.newInstance(), as
+     * GenericActivity.initialize() used to.
+     */
+    @Benchmark
+    public Presenter classNewInstance()
+        throws InstantiationException, IllegalAccessException {
+        return Presenter.class.newInstance();
+    }
+
+    /**
+     * Create a Presenter via the constructor the registry looked up
+     * once.
+     */
+    @Benchmark
+    public Presenter cachedConstructor()
+        throws InstantiationException, IllegalAccessException {
+        return Factories.newInstance(Presenter.class);
+    }
+
+    /**
+     * Create a Presenter via its registered factory.
+     */
+    @Benchmark
+    public Presenter registeredFactory()
+        throws InstantiationException, IllegalAccessException {
+        return Factories.newInstance(RegisteredPresenter.class);
+    }
+
+    /**
+     * Convert an IBinder by scanning for the Stub and looking up its
+     * asInterface() method, as each GenericServiceConnection used to
+     * when it was created, then invoking it, as it used to on every
+     * connect.
+     */
+    @Benchmark
+    public Aidl stubScan()
+        throws NoSuchMethodException, IllegalAccessException,
+               InvocationTargetException {
+        for (final Class<?> c : Aidl.class.getDeclaredClasses())
+            if (c.getSimpleName().equals("Stub")) {
+                final Method method = c.getMethod("asInterface",
+                                                  IBinder.class);
+                return (Aidl) method.invoke(null,
+                                            new Object[] { null });
+            }
+        return null;
+    }
+
+    /**
+     * Convert an IBinder via the asInterface() method the registry
+     * looked up once.
+     */
+    @Benchmark
+    public Aidl cachedAsInterface() {
+        return Factories.asInterfaceOf(Aidl.class).asInterface(null);
+    }
+
+    /**
+     * Convert an IBinder via its registered asInterface() method.
+     */
+    @Benchmark
+    public RegisteredAidl registeredAsInterface() {
+        return Factories.asInterfaceOf(RegisteredAidl.class).asInterface(null);
+    }
+}
@@ -0,0 +1,102 @@
+package edu.vandy.common;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the latency of looking up an existing singleton from 16
+ * threads at once, as the services do on every cache access, via the
+ * lock-free GenericSingleton versus a copy of the GenericSingleton
+ * that took a global monitor around a HashMap on every call.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Threads(16)
+public class GenericSingletonBenchmark {
+    /**
+     * Stands in for a cache managed by the GenericSingleton.
+     */
+    public static class Cache
+           extends RefCounted {
+        @Override
+        protected void close() {
+        }
+    }
+
+    /**
+     * A copy of GenericSingleton.instance() before it was made
+     * lock-free.
+     */
+    static class LockedSingleton {
+        private static final Object sLock = new Object();
+
+        private static final Map<Class<?>, Object> sMap =
+            new HashMap<>();
+
+        @SuppressWarnings("unchecked")
+        static <T> T instance(Class<T> classOf) {
+            synchronized (sLock) {
+                T t = (T) sMap.get(classOf);
+                if (t == null) {
+                    try {
+                        t = classOf.newInstance();
+                    } catch (Exception e) {
+                        t = null;
+                    }
+                    sMap.put(classOf, t);
+                }
+                return t;
+            }
+        }
+
+        static void remove(Class<?> classOf) {
+            synchronized (sLock) {
+                sMap.remove(classOf);
+            }
+        }
+    }
+
+    /**
+     * Create the singletons, so the benchmarks only measure lookups
+     * of existing instances.
+     */
+    @Setup
+    public void setUp() {
+        GenericSingleton.instance(Cache.class);
+        LockedSingleton.instance(Cache.class);
+    }
+
+    @TearDown
+    public void tearDown() {
+        GenericSingleton.remove(Cache.class);
+        LockedSingleton.remove(Cache.class);
+    }
+
+    /**
+     * Look up the singleton via the lock-free GenericSingleton.
+     */
+    @Benchmark
+    public Cache lockFree() {
+        return GenericSingleton.instance(Cache.class);
+    }
+
+    /**
+     * Look up the singleton via the global monitor.
+     */
+    @Benchmark
+    public Cache locked() {
+        return LockedSingleton.instance(Cache.class);
+    }
+}
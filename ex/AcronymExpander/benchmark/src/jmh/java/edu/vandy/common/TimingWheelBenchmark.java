@@ -0,0 +1,162 @@
+package edu.vandy.common;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the cost of replacing an entry in an
+ * ExecutorServiceTimeoutCache that holds @a liveEntries unexpired
+ * entries, which links the new entry into the hashed timing wheel and
+ * unlinks the old one, versus the ScheduledExecutorService the cache
+ * used before, which schedules a Runnable per put() in a binary heap
+ * and cancels the old one's ScheduledFuture.  Run with the "gc"
+ * profiler to compare the allocation rates as well.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class TimingWheelBenchmark {
+    /**
+     * Timeout of the entries in seconds, which is long enough that
+     * none of them expire while the benchmark runs.
+     */
+    private static final int TIMEOUT = 60 * 60;
+
+    /**
+     * Number of unexpired entries in the cache.
+     */
+    @Param({ "10000", "100000", "1000000" })
+    public int liveEntries;
+
+    /**
+     * Which expiration mechanism is measured.
+     */
+    @Param({ "wheel", "scheduler" })
+    public String expiration;
+
+    /**
+     * The cache whose entries expire via the timing wheel.
+     */
+    private ExecutorServiceTimeoutCache<String, String> mWheelCache;
+
+    /**
+     * The cache whose entries expire via the ScheduledExecutorService.
+     */
+    private ScheduledTimeoutCache<String, String> mScheduledCache;
+
+    /**
+     * The keys of the entries.
+     */
+    private String[] mKeys;
+
+    /**
+     * Position of the next key to replace.
+     */
+    private int mNext;
+
+    /**
+     * A copy of the expiration logic ExecutorServiceTimeoutCache used
+     * before the timing wheel, which schedules a Runnable that
+     * removes each entry when its timeout expires.
+     */
+    static class ScheduledTimeoutCache<K, V> {
+        private final ConcurrentHashMap<K, CacheValues<V>> mResults =
+            new ConcurrentHashMap<>();
+
+        private final ScheduledExecutorService mScheduledExecutorService =
+            Executors.newScheduledThreadPool(1);
+
+        static class CacheValues<V> {
+            final V mValue;
+            ScheduledFuture<?> mFuture;
+
+            CacheValues(V value) {
+                mValue = value;
+            }
+        }
+
+        void put(final K key,
+                 V value,
+                 int timeout) {
+            final CacheValues<V> cacheValues = new CacheValues<>(value);
+            final Runnable cleanupCacheRunnable = new Runnable() {
+                    @Override
+                    public void run() {
+                        mResults.remove(key,
+                                        cacheValues);
+                    }
+                };
+
+            CacheValues<V> prevCacheValues =
+                mResults.put(key,
+                             cacheValues);
+            if (prevCacheValues != null)
+                prevCacheValues.mFuture.cancel(true);
+
+            cacheValues.mFuture =
+                mScheduledExecutorService.schedule(cleanupCacheRunnable,
+                                                   timeout,
+                                                   TimeUnit.SECONDS);
+        }
+
+        void close() {
+            mScheduledExecutorService.shutdownNow();
+        }
+    }
+
+    /**
+     * Fill the cache with @a liveEntries entries.
+     */
+    @Setup
+    public void setUp() {
+        mKeys = new String[liveEntries];
+        for (int i = 0; i < liveEntries; ++i)
+            mKeys[i] = "key" + i;
+
+        if (expiration.equals("wheel")) {
+            mWheelCache = new ExecutorServiceTimeoutCache<>();
+            for (String key : mKeys)
+                mWheelCache.put(key, key, TIMEOUT);
+        } else {
+            mScheduledCache = new ScheduledTimeoutCache<>();
+            for (String key : mKeys)
+                mScheduledCache.put(key, key, TIMEOUT);
+        }
+    }
+
+    @TearDown
+    public void tearDown() {
+        if (mWheelCache != null)
+            mWheelCache.close();
+        if (mScheduledCache != null)
+            mScheduledCache.close();
+    }
+
+    /**
+     * Replace the next entry with a new value.
+     */
+    @Benchmark
+    public void put() {
+        String key = mKeys[mNext];
+        if (++mNext == mKeys.length)
+            mNext = 0;
+
+        if (mWheelCache != null)
+            mWheelCache.put(key, key, TIMEOUT);
+        else
+            mScheduledCache.put(key, key, TIMEOUT);
+    }
+}
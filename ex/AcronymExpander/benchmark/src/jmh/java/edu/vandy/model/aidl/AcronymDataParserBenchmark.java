@@ -0,0 +1,156 @@
+package edu.vandy.model.aidl;
+
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares the AcronymDataByteParser with parsing the same responses
+ * via a JsonReader, as AcronymDataJsonParser did before.  The stub of
+ * android.util.JsonReader in android.jar can't run on the JVM, so
+ * the JsonReader path uses Gson's JsonReader, which Android's is
+ * derived from and which has the same API and costs, i.e., it
+ * decodes the bytes into characters and allocates a String for each
+ * name and value.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class AcronymDataParserBenchmark {
+    /**
+     * Number of long forms in the response, which ranges from a rare
+     * acronym to a very common one.
+     */
+    @Param({ "1", "20", "300" })
+    public int longForms;
+
+    /**
+     * The UTF-8 bytes of the response.
+     */
+    private byte[] mResponse;
+
+    /**
+     * The parser is reused, as a Service thread would.
+     */
+    private final AcronymDataByteParser mByteParser =
+        new AcronymDataByteParser();
+
+    /**
+     * Build a response in the format the Acronym Service returns,
+     * where each long form has a few variants.
+     */
+    @Setup
+    public void setUp() throws IOException {
+        StringBuilder json = new StringBuilder("[{\"sf\": \"HMM\", \"lfs\": [");
+        for (int i = 0; i < longForms; ++i) {
+            json.append(i == 0 ? "" : ", ")
+                .append("{\"lf\": \"hidden Markov model number ")
+                .append(i)
+                .append("\", \"freq\": ")
+                .append(1000 - i)
+                .append(", \"since\": ")
+                .append(1970 + i % 45)
+                .append(", \"vars\": [");
+            for (int j = 0; j < 3; ++j)
+                json.append(j == 0 ? "" : ", ")
+                    .append("{\"lf\": \"Hidden Markov Model number ")
+                    .append(i)
+                    .append(j == 0 ? "" : "s")
+                    .append("\", \"freq\": ")
+                    .append(300 - j)
+                    .append(", \"since\": ")
+                    .append(1980 + j)
+                    .append("}");
+            json.append("]}");
+        }
+        json.append("]}]");
+        mResponse = json.toString().getBytes("UTF-8");
+    }
+
+    /**
+     * Parse the response with the AcronymDataByteParser.
+     */
+    @Benchmark
+    public List<AcronymExpansion> byteParser() throws IOException {
+        return mByteParser.parseJsonStream(new ByteArrayInputStream(mResponse));
+    }
+
+    /**
+     * Parse the response with a JsonReader.
+     */
+    @Benchmark
+    public List<AcronymExpansion> jsonReader() throws IOException {
+        try (JsonReader reader =
+             new JsonReader(new InputStreamReader(new ByteArrayInputStream(mResponse),
+                                                  "UTF-8"))) {
+            reader.beginArray();
+            if (reader.peek() == JsonToken.END_ARRAY)
+                return null;
+
+            List<AcronymExpansion> acronymExpansions = null;
+            reader.beginObject();
+            while (reader.hasNext()) {
+                switch (reader.nextName()) {
+                case AcronymData.lfs_JSON:
+                    acronymExpansions = parseLongForms(reader);
+                    break;
+                default:
+                    reader.skipValue();
+                    break;
+                }
+            }
+            reader.endObject();
+            return acronymExpansions;
+        }
+    }
+
+    /**
+     * Parse the array of long forms the way
+     * AcronymDataJsonParser.parseAcronymLongFormArray() does.
+     */
+    private static List<AcronymExpansion> parseLongForms(JsonReader reader)
+        throws IOException {
+        final List<AcronymExpansion> acronyms = new ArrayList<>();
+        reader.beginArray();
+        while (reader.hasNext()) {
+            final AcronymExpansion acronymExpansion =
+                new AcronymExpansion();
+            reader.beginObject();
+            while (reader.hasNext()) {
+                switch (reader.nextName()) {
+                case AcronymExpansion.lf_JSON:
+                    acronymExpansion.setLf(reader.nextString());
+                    break;
+                case AcronymExpansion.freq_JSON:
+                    acronymExpansion.setFreq(reader.nextInt());
+                    break;
+                case AcronymExpansion.since_JSON:
+                    acronymExpansion.setSince(reader.nextInt());
+                    break;
+                default:
+                    reader.skipValue();
+                    break;
+                }
+            }
+            reader.endObject();
+            acronyms.add(acronymExpansion);
+        }
+        reader.endArray();
+        return acronyms;
+    }
+}
@@ -0,0 +1,155 @@
+package edu.vandy.model.services;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import edu.vandy.model.aidl.AcronymExpansion;
+
+/**
+ * Measures how long it takes to build an AcronymIndex from a dump of
+ * the Acronym Service's dictionary, and the latency of looking up
+ * acronyms and prefixes in it once it's built.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class AcronymIndexBenchmark {
+    /**
+     * Number of short forms in the dump, which ranges from a small
+     * domain-specific dictionary to the size of the whole Acronym
+     * Service.
+     */
+    @Param({ "10000", "300000" })
+    public int shortForms;
+
+    /**
+     * The synthetic dump.
+     */
+    private String mDump;
+
+    /**
+     * The short forms in the dump, in the order they're looked up.
+     */
+    private String[] mShortForms;
+
+    /**
+     * The index the lookups use.
+     */
+    private File mFile;
+    private AcronymIndex mIndex;
+
+    /**
+     * The file written by build().
+     */
+    private File mBuildFile;
+
+    /**
+     * Position of the next short form to look up.
+     */
+    private int mNext;
+
+    /**
+     * Make a dump of random short forms of 2 to 6 letters, each with
+     * 1 to 8 expansions, and build the index the lookups use.
+     */
+    @Setup
+    public void setUp() throws IOException {
+        Random random = new Random(42);
+        Set<String> shortFormSet = new LinkedHashSet<>();
+        while (shortFormSet.size() < shortForms) {
+            StringBuilder shortForm = new StringBuilder();
+            for (int length = 2 + random.nextInt(5); length > 0; --length)
+                shortForm.append((char) ('A' + random.nextInt(26)));
+            shortFormSet.add(shortForm.toString());
+        }
+        mShortForms = shortFormSet.toArray(new String[shortFormSet.size()]);
+
+        StringBuilder dump = new StringBuilder();
+        for (String shortForm : mShortForms)
+            for (int i = 1 + random.nextInt(8); i > 0; --i)
+                dump.append(shortForm)
+                    .append("\tlong form number ")
+                    .append(i)
+                    .append(" of ")
+                    .append(shortForm)
+                    .append('\t')
+                    .append(random.nextInt(1000))
+                    .append('\t')
+                    .append(1970 + random.nextInt(45))
+                    .append('\n');
+        mDump = dump.toString();
+
+        mFile = File.createTempFile("acronyms", ".idx");
+        mBuildFile = File.createTempFile("acronyms", ".idx");
+        AcronymIndex.build(new StringReader(mDump), mFile);
+        mIndex = AcronymIndex.open(mFile);
+    }
+
+    @TearDown
+    public void tearDown() {
+        mFile.delete();
+        mBuildFile.delete();
+    }
+
+    /**
+     * Return the next short form to look up.
+     */
+    private String nextShortForm() {
+        String shortForm = mShortForms[mNext];
+        mNext = (mNext + 1) % mShortForms.length;
+        return shortForm;
+    }
+
+    /**
+     * Build the index from the dump.
+     */
+    @Benchmark
+    @BenchmarkMode(Mode.SingleShotTime)
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    public File build() throws IOException {
+        AcronymIndex.build(new StringReader(mDump), mBuildFile);
+        return mBuildFile;
+    }
+
+    /**
+     * Look up the expansions of a short form.
+     */
+    @Benchmark
+    public List<AcronymExpansion> lookup() {
+        return mIndex.lookup(nextShortForm());
+    }
+
+    /**
+     * Look up a short form that isn't in the index.
+     */
+    @Benchmark
+    public List<AcronymExpansion> lookupMissing() {
+        return mIndex.lookup(nextShortForm() + "0");
+    }
+
+    /**
+     * Suggest completions of a prefix, as when the user has typed the
+     * first couple of letters of an acronym.
+     */
+    @Benchmark
+    public List<String> prefixSearch() {
+        return mIndex.prefixSearch(nextShortForm().substring(0, 2),
+                                   10);
+    }
+}
@@ -0,0 +1,168 @@
+package vandy.mooc.common;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Local unit tests for the MappedFileTimeoutCache that the
+ * AcronymExpanderNR Services share between their processes, including
+ * a test that checks entries written by another JVM process are
+ * visible.
+ */
+public class MappedFileTimeoutCacheTest {
+    /**
+     * Timeout for cache entries in seconds.
+     */
+    private static final int TIMEOUT = 60;
+
+    /**
+     * A MappedFileTimeoutCache with String values.
+     */
+    public static class StringCache
+           extends MappedFileTimeoutCache<String> {
+        public StringCache() {
+            super(64, 4096);
+        }
+
+        @Override
+        protected void writeValue(DataOutputStream out,
+                                  String value)
+            throws IOException {
+            out.writeUTF(value);
+        }
+
+        @Override
+        protected String readValue(DataInputStream in)
+            throws IOException {
+            return in.readUTF();
+        }
+    }
+
+    /**
+     * The file shared by the caches.
+     */
+    private File mFile;
+
+    /**
+     * The cache under test.
+     */
+    private StringCache mCache;
+
+    @Before
+    public void setUp() throws IOException {
+        mFile = File.createTempFile("timeout", ".cache");
+        mCache = new StringCache();
+        mCache.incrementRefCount();
+        mCache.open(mFile);
+    }
+
+    @After
+    public void tearDown() {
+        mCache.decrementRefCount();
+        mFile.delete();
+    }
+
+    /**
+     * Entries can be put, replaced and removed.
+     */
+    @Test
+    public void putGetRemove() {
+        mCache.put("ACK", "acknowledgement", TIMEOUT);
+        Assert.assertEquals("acknowledgement", mCache.get("ACK"));
+
+        mCache.put("ACK", "acknowledge", TIMEOUT);
+        Assert.assertEquals("acknowledge", mCache.get("ACK"));
+        Assert.assertEquals(1, mCache.size());
+
+        mCache.remove("ACK", 0);
+        Assert.assertNull(mCache.get("ACK"));
+        Assert.assertEquals(0, mCache.size());
+    }
+
+    /**
+     * Expired entries are ignored.
+     */
+    @Test
+    public void expiredEntriesAreIgnored() {
+        mCache.put("ACK", "acknowledgement", 0);
+        Assert.assertNull(mCache.get("ACK"));
+    }
+
+    /**
+     * The remaining timeout counts down from the timeout the entry was
+     * put with, and isn't counted as a lookup.
+     */
+    @Test
+    public void remainingTimeout() {
+        Assert.assertEquals(-1, mCache.getRemainingTimeout("ACK"));
+
+        mCache.put("ACK", "acknowledgement", TIMEOUT);
+        int remaining = mCache.getRemainingTimeout("ACK");
+        Assert.assertTrue(remaining > TIMEOUT - 5
+                          && remaining <= TIMEOUT);
+
+        mCache.put("ACK", "acknowledgement", 0);
+        Assert.assertEquals(-1, mCache.getRemainingTimeout("ACK"));
+        Assert.assertEquals(0, mCache.getStats().getHitCount()
+                               + mCache.getStats().getMissCount());
+    }
+
+    /**
+     * Replacing entries many more times than the index or data region
+     * can hold compacts the file rather than losing live entries.
+     */
+    @Test
+    public void replacementsAreCompacted() {
+        mCache.put("DNA", "deoxyribonucleic acid", TIMEOUT);
+        for (int i = 0; i < 1000; ++i)
+            mCache.put("ACK", "acknowledgement " + i, TIMEOUT);
+
+        Assert.assertEquals("acknowledgement 999", mCache.get("ACK"));
+        Assert.assertEquals("deoxyribonucleic acid", mCache.get("DNA"));
+        Assert.assertEquals(2, mCache.size());
+    }
+
+    /**
+     * Entries written by another process are visible in this one.
+     */
+    @Test
+    public void writesAreVisibleAcrossProcesses() throws Exception {
+        Process writer =
+            new ProcessBuilder(new File(System.getProperty("java.home"),
+                                        "bin/java").getPath(),
+                               "-cp",
+                               System.getProperty("java.class.path"),
+                               Writer.class.getName(),
+                               mFile.getPath())
+            .inheritIO()
+            .start();
+
+        Assert.assertTrue(writer.waitFor(30, TimeUnit.SECONDS));
+        Assert.assertEquals(0, writer.exitValue());
+
+        Assert.assertEquals("acknowledgement", mCache.get("ACK"));
+        Assert.assertEquals("deoxyribonucleic acid", mCache.get("DNA"));
+    }
+
+    /**
+     * Entry point of the process that writes to the shared file.
+     */
+    public static class Writer {
+        public static void main(String[] args) throws IOException {
+            StringCache cache = new StringCache();
+            cache.incrementRefCount();
+            cache.open(new File(args[0]));
+            cache.put("ACK", "acknowledgement", TIMEOUT);
+            cache.put("DNA", "deoxyribonucleic acid", TIMEOUT);
+            cache.decrementRefCount();
+        }
+    }
+}
@@ -7,6 +7,7 @@ import vandy.mooc.common.ModelOps;
 import vandy.mooc.common.PresenterOps;
 import vandy.mooc.model.aidl.AcronymExpansion;
 import vandy.mooc.model.aidl.AcronymResults;
+import vandy.mooc.model.aidl.ExpandedAcronym;
 
 /**
  * Defines the interfaces for the Acronym application that are
@@ -33,6 +34,16 @@ public interface MVP {
          */
         void displayResults(List<AcronymExpansion> results,
                             String failureReason);
+
+        /**
+         * Display a chunk of the Acronym Expansions of the lookup
+         * with @a lookupId to the user, starting a new display if @a
+         * first is true, or appending to that lookup's display
+         * otherwise.
+         */
+        void displayPartialResults(long lookupId,
+                                   List<AcronymExpansion> results,
+                                   boolean first);
     }
 
     /**
@@ -47,20 +58,29 @@ public interface MVP {
            extends PresenterOps<MVP.RequiredViewOps> {
         /**
          * Initiate the synchronous acronym lookup when the user
-         * presses the "Lookup Acronym Async" button.
+         * presses the "Lookup Acronym Async" button.  A lookup of
+         * the same acronym that's in progress is superseded, i.e.,
+         * its results are dropped.
          *
-         * @return false if a call is already in progress, else true.
+         * @return false if too many lookups are in progress, else true.
          */
         boolean expandAcronymAsync(String acronym);
 
         /**
          * Initiate the synchronous acronym lookup when the user
          * presses the "Lookup Acronym Sync" button.  It uses an
-         * AsyncTask.
+         * AsyncTask.  A lookup of the same acronym that's in progress
+         * is superseded, i.e., its results are dropped.
          *
-         * @return false if a call is already in progress, else true.
+         * @return false if too many lookups are in progress, else true.
          */
         boolean expandAcronymSync(String acronym);
+
+        /**
+         * Set the maximum number of lookups that can be in progress
+         * at once.
+         */
+        void setMaxLookups(int maxLookups);
     }
 
     /**
@@ -84,6 +104,20 @@ public interface MVP {
      */
     public interface ProvidedModelOps
            extends ModelOps<MVP.RequiredPresenterOps> {
+        /**
+         * Request id returned by the asynchronous methods when the
+         * request couldn't be sent.
+         */
+        long NO_REQUEST = -1;
+
+        /**
+         * Number of milliseconds after which the AcronymServiceAsync
+         * cancels an asynchronous request that hasn't finished, since
+         * the user has likely given up on it by then.  No more
+         * results are sent for the request once it's cancelled.
+         */
+        long REQUEST_TIMEOUT = 30 * 1000;
+
         /**
          * Use a two-way synchronous AIDL call to expand the @a
          * acronym parameter.  Must be called in a background thread
@@ -94,9 +128,42 @@ public interface MVP {
         /**
          * Use a two-way asynchronous AIDL call to expand the @a
          * acronym parameter.  Need not be called in a background
-         * thread since the caller isn't blocked.
+         * thread since the caller isn't blocked.  Returns the id of
+         * the request, which can be passed to cancelRequest(), or
+         * NO_REQUEST.
          */
-        void getAcronymExpansions(String acronym,
+        long getAcronymExpansions(String acronym,
                                   AcronymResults presenter);
+
+        /**
+         * Use a two-way synchronous AIDL call to expand the batch of
+         * @a acronyms parameter.  Must be called in a background
+         * thread (e.g., via AsyncTask).
+         */
+        List<ExpandedAcronym> getExpandedAcronyms(List<String> acronyms);
+
+        /**
+         * Use a one-way asynchronous AIDL call to expand the batch of
+         * @a acronyms parameter.  Need not be called in a background
+         * thread since the caller isn't blocked.  Returns the id of
+         * the request, which can be passed to cancelRequest(), or
+         * NO_REQUEST.
+         */
+        long getExpandedAcronyms(List<String> acronyms,
+                                 AcronymResults presenter);
+
+        /**
+         * Cancel the asynchronous request with @a requestId, whose
+         * results are no longer needed.  Results of the request that
+         * arrive afterwards are dropped.
+         */
+        void cancelRequest(long requestId);
+
+        /**
+         * Set the number of milliseconds the Services stay bound
+         * after they were last used.  They're bound again the next
+         * time they're used.
+         */
+        void setIdleTimeout(long idleTimeout);
     }
 }
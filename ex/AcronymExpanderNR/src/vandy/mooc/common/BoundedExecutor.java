@@ -0,0 +1,165 @@
+package vandy.mooc.common;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.RejectedExecutionHandler;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A ThreadPoolExecutor with a fixed maximum number of threads and a
+ * bounded queue, which keeps a burst of requests from creating an
+ * unbounded number of threads.  A request that arrives when all the
+ * threads are busy and the queue is full is passed to the
+ * RejectedExecutionHandler right away rather than stalling the
+ * caller, so the handler can tell the client to back off.  It also
+ * records how deep its queue gets and how many requests it rejects,
+ * which shows how close it is to being overloaded.
+ */
+public class BoundedExecutor
+       extends ThreadPoolExecutor {
+    /**
+     * Number of seconds an idle thread waits for a request before it
+     * exits.
+     */
+    private static final long KEEP_ALIVE_TIME = 30;
+
+    /**
+     * The maximum number of requests that can wait in the queue.
+     */
+    private final int mQueueCapacity;
+
+    /**
+     * The largest number of requests that have waited in the queue.
+     */
+    private final AtomicInteger mPeakQueueDepth =
+        new AtomicInteger();
+
+    /**
+     * The number of requests that have been rejected because the
+     * executor was overloaded.
+     */
+    private final AtomicLong mRejectedCount =
+        new AtomicLong();
+
+    /**
+     * Constructor initializes the fields.
+     *
+     * @param name          Prefix of the names of the threads
+     * @param maxThreads    Maximum number of threads
+     * @param queueCapacity Maximum number of requests that wait for a
+     *                      thread
+     * @param handler       Handles the requests that are rejected
+     */
+    public BoundedExecutor(final String name,
+                           int maxThreads,
+                           int queueCapacity,
+                           final RejectedExecutionHandler handler) {
+        super(maxThreads,
+              maxThreads,
+              KEEP_ALIVE_TIME,
+              TimeUnit.SECONDS,
+              new ArrayBlockingQueue<Runnable>(queueCapacity),
+              new ThreadFactory() {
+                  private final AtomicInteger mThreadCount =
+                      new AtomicInteger();
+
+                  @Override
+                  public Thread newThread(Runnable runnable) {
+                      return new Thread(runnable,
+                                        name
+                                        + "-"
+                                        + mThreadCount.incrementAndGet());
+                  }
+              });
+        mQueueCapacity = queueCapacity;
+
+        // Don't keep idle threads around when there are no requests.
+        allowCoreThreadTimeOut(true);
+
+        // Count the rejections caused by overload, but not the ones
+        // caused by shutting down.
+        setRejectedExecutionHandler(new RejectedExecutionHandler() {
+                @Override
+                public void rejectedExecution(Runnable runnable,
+                                              ThreadPoolExecutor executor) {
+                    if (!executor.isShutdown())
+                        mRejectedCount.incrementAndGet();
+                    handler.rejectedExecution(runnable,
+                                              executor);
+                }
+            });
+    }
+
+    /**
+     * Run @a command on one of the threads, queue it if they're all
+     * busy, or reject it if the queue is full.
+     */
+    @Override
+    public void execute(Runnable command) {
+        super.execute(command);
+
+        // Record the depth of the queue after adding the command.
+        int depth = getQueue().size();
+        for (int peak;
+             depth > (peak = mPeakQueueDepth.get());
+             )
+            if (mPeakQueueDepth.compareAndSet(peak, depth))
+                break;
+    }
+
+    /**
+     * Return the number of requests waiting for a thread.
+     */
+    public int getQueueDepth() {
+        return getQueue().size();
+    }
+
+    /**
+     * Return the maximum number of requests that can wait for a
+     * thread.
+     */
+    public int getQueueCapacity() {
+        return mQueueCapacity;
+    }
+
+    /**
+     * Return the largest number of requests that have waited for a
+     * thread.
+     */
+    public int getPeakQueueDepth() {
+        return mPeakQueueDepth.get();
+    }
+
+    /**
+     * Return the number of requests rejected because the executor
+     * was overloaded.
+     */
+    public long getRejectedCount() {
+        return mRejectedCount.get();
+    }
+
+    /**
+     * Return a summary of the executor's metrics.
+     */
+    @Override
+    public String toString() {
+        return "BoundedExecutor [activeThreads="
+            + getActiveCount()
+            + ", maxThreads="
+            + getMaximumPoolSize()
+            + ", queueDepth="
+            + getQueueDepth()
+            + ", peakQueueDepth="
+            + getPeakQueueDepth()
+            + ", queueCapacity="
+            + getQueueCapacity()
+            + ", completed="
+            + getCompletedTaskCount()
+            + ", rejected="
+            + getRejectedCount()
+            + "]";
+    }
+}
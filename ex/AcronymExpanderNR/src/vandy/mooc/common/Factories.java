@@ -0,0 +1,250 @@
+package vandy.mooc.common;
+
+import java.lang.reflect.Constructor;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.util.concurrent.ConcurrentHashMap;
+
+import android.os.IBinder;
+
+/**
+ * A registry of the factories used by the GenericActivity,
+ * GenericModel, GenericSingleton, and GenericServiceConnection
+ * frameworks to create the objects they manage.  A class can
+ * register a factory, e.g., a constructor reference, which creates
+ * its objects without any reflection.  Otherwise a factory is made
+ * via reflection the first time the class is used and cached, so the
+ * constructor or asInterface() method is only looked up, and its
+ * access checked, once per class rather than on every creation or
+ * connection.
+ */
+public final class Factories {
+    /**
+     * Creates instances of a class.
+     */
+    public interface Factory<T> {
+        T newInstance();
+    }
+
+    /**
+     * Converts the IBinder of a Bound Service into its AIDL
+     * interface, e.g., via the asInterface() method of the Stub
+     * generated by the AIDL compiler.
+     */
+    public interface AsInterface<AIDLInterface> {
+        AIDLInterface asInterface(IBinder binder);
+    }
+
+    /**
+     * The following are dependent on code generated by the AIDL
+     * compiler, so if that generated code were to change (which is
+     * unlikely) we'd need to update this code.
+     */
+    private static final String STUB = "Stub";
+    private static final String AS_INTERFACE = "asInterface";
+    private static final Class<?>[] AI_PARAMS = {IBinder.class};
+
+    /**
+     * The factories, keyed by the class whose instances they create.
+     */
+    private static final ConcurrentHashMap<Class<?>, Factory<?>> sFactories =
+        new ConcurrentHashMap<>();
+
+    /**
+     * The asInterface() converters, keyed by their AIDL interface.
+     */
+    private static final ConcurrentHashMap<Class<?>, AsInterface<?>> sAsInterfaces =
+        new ConcurrentHashMap<>();
+
+    /**
+     * Ensure this class is only used as a utility.
+     */
+    private Factories() {
+        throw new AssertionError();
+    }
+
+    /**
+     * Register @a factory to create the instances of @a type.
+     */
+    public static <T> void register(Class<T> type,
+                                    Factory<? extends T> factory) {
+        sFactories.put(type,
+                       factory);
+    }
+
+    /**
+     * Register @a asInterface to convert the IBinders of Bound
+     * Services that implement the @a aidl interface.
+     */
+    public static <AIDLInterface> void registerAsInterface(Class<AIDLInterface> aidl,
+                                                           AsInterface<AIDLInterface> asInterface) {
+        sAsInterfaces.put(aidl,
+                          asInterface);
+    }
+
+    /**
+     * Create a new instance of @a type via its registered factory, or
+     * via its no-argument constructor if it hasn't registered one.
+     */
+    public static <T> T newInstance(Class<T> type)
+        throws InstantiationException, IllegalAccessException {
+        @SuppressWarnings("unchecked")
+        Factory<? extends T> factory =
+            (Factory<? extends T>) sFactories.get(type);
+        if (factory == null) {
+            factory = new ConstructorFactory<>(type);
+            sFactories.putIfAbsent(type,
+                                   factory);
+        }
+
+        try {
+            return factory.newInstance();
+        } catch (ReflectionException e) {
+            throw e.getCause();
+        }
+    }
+
+    /**
+     * Return the converter of IBinders to the @a aidl interface, which
+     * is its registered one or the asInterface() method of its Stub.
+     */
+    @SuppressWarnings("unchecked")
+    public static <AIDLInterface> AsInterface<AIDLInterface> asInterfaceOf(Class<AIDLInterface> aidl) {
+        AsInterface<AIDLInterface> asInterface =
+            (AsInterface<AIDLInterface>) sAsInterfaces.get(aidl);
+        if (asInterface == null) {
+            asInterface = new StubAsInterface<>(aidl);
+            sAsInterfaces.putIfAbsent(aidl,
+                                      asInterface);
+        }
+        return asInterface;
+    }
+
+    /**
+     * A Factory that calls the no-argument constructor of a class,
+     * which is looked up once.
+     */
+    private static class ConstructorFactory<T>
+            implements Factory<T> {
+        /**
+         * The no-argument constructor, or null if there isn't one.
+         */
+        private final Constructor<T> mConstructor;
+
+        /**
+         * The class, for error reporting purposes.
+         */
+        private final Class<T> mType;
+
+        /**
+         * Constructor looks up the no-argument constructor of @a
+         * type.
+         */
+        ConstructorFactory(Class<T> type) {
+            Constructor<T> constructor = null;
+            try {
+                constructor = type.getDeclaredConstructor();
+                constructor.setAccessible(true);
+            } catch (NoSuchMethodException | SecurityException e) {
+                // Reported by newInstance().
+            }
+            mConstructor = constructor;
+            mType = type;
+        }
+
+        /**
+         * Create a new instance via the constructor.
+         */
+        @Override
+        public T newInstance() {
+            try {
+                if (mConstructor == null)
+                    throw new InstantiationException("no accessible no-argument constructor in "
+                                                     + mType);
+                return mConstructor.newInstance();
+            } catch (InvocationTargetException e) {
+                // Pass on what the constructor threw.
+                if (e.getCause() instanceof RuntimeException)
+                    throw (RuntimeException) e.getCause();
+                if (e.getCause() instanceof Error)
+                    throw (Error) e.getCause();
+                throw new ReflectionException((InstantiationException)
+                                              new InstantiationException(mType.toString())
+                                              .initCause(e.getCause()));
+            } catch (InstantiationException e) {
+                throw new ReflectionException(e);
+            } catch (IllegalAccessException e) {
+                throw new ReflectionException((InstantiationException)
+                                              new InstantiationException(mType.toString())
+                                              .initCause(e));
+            }
+        }
+    }
+
+    /**
+     * An AsInterface that calls the asInterface() method of the Stub
+     * of an AIDL interface, which is looked up once.
+     */
+    private static class StubAsInterface<AIDLInterface>
+            implements AsInterface<AIDLInterface> {
+        /**
+         * The asInterface(IBinder service) method of the stub.
+         */
+        private final Method mAsInterface;
+
+        /**
+         * Constructor looks up the asInterface() method of the Stub
+         * of @a aidl.
+         */
+        StubAsInterface(Class<AIDLInterface> aidl) {
+            Method method = null;
+            for (final Class<?> c : aidl.getDeclaredClasses()) {
+                if (c.getSimpleName().equals(STUB)) {
+                    try {
+                        method = c.getMethod(AS_INTERFACE,
+                                             AI_PARAMS);
+                        break;
+                    } catch (final NoSuchMethodException e) { // Should not be possible
+                        e.printStackTrace();
+                    }
+                }
+            }
+            mAsInterface = method;
+        }
+
+        /**
+         * Convert @a binder via the asInterface() method.
+         */
+        @SuppressWarnings("unchecked")
+        @Override
+        public AIDLInterface asInterface(IBinder binder) {
+            try {
+                return (AIDLInterface) mAsInterface.invoke(null,
+                                                           binder);
+            } catch (IllegalArgumentException
+                     | IllegalAccessException
+                     | InvocationTargetException e) { // Should not be possible
+                e.printStackTrace();
+                return null;
+            }
+        }
+    }
+
+    /**
+     * Carries the InstantiationException of a ConstructorFactory
+     * through the Factory interface, which doesn't declare it.
+     */
+    private static class ReflectionException
+            extends RuntimeException {
+        private static final long serialVersionUID = 1L;
+
+        ReflectionException(InstantiationException cause) {
+            super(cause);
+        }
+
+        @Override
+        public synchronized InstantiationException getCause() {
+            return (InstantiationException) super.getCause();
+        }
+    }
+}
@@ -1,11 +1,18 @@
 package vandy.mooc.common;
 
-import java.lang.reflect.InvocationTargetException;
-import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
 
 import android.content.ComponentName;
+import android.content.Context;
+import android.content.Intent;
 import android.content.ServiceConnection;
+import android.os.DeadObjectException;
+import android.os.Handler;
 import android.os.IBinder;
+import android.os.Looper;
+import android.os.RemoteException;
 import android.util.Log;
 
 /**
@@ -13,9 +20,19 @@ import android.util.Log;
  *
  * @brief This class provides a generic framework for defining a
  *        ServiceConnection object to an AIDLInterface that resides in
- *        a Bound Service.  It uses Java reflection to factor out
- *        common behavior that is otherwise written in a tedious and
- *        error-prone way for each ServiceConnection object.
+ *        a Bound Service.  It uses the Factories registry, which
+ *        falls back on Java reflection done once per AIDL interface,
+ *        to factor out common behavior that is otherwise written in a
+ *        tedious and error-prone way for each ServiceConnection
+ *        object.
+ *
+ *        Calls made before the Bound Service is connected, or while
+ *        it's reconnecting after its process died, aren't lost:
+ *        callers can wait for the connection via awaitInterface(), or
+ *        pass their calls to execute(), which queues them until the
+ *        connection arrives.  A connection bound via bind() rebinds
+ *        with exponential backoff if the Service doesn't come back
+ *        by itself after it's disconnected.
  *
  *        Thanks to Peter Koves for providing the reflection logic!
  */
@@ -23,29 +40,82 @@ public class GenericServiceConnection<AIDLInterface extends
                                       android.os.IInterface> 
              implements ServiceConnection {
     /**
-     * The following are dependent on code generated by the AIDL
-     * compiler, so if that generated code were to change (which is
-     * unlikely) we'd need to update this code.
+     * Debugging tag used by the Android logger.
+     */
+    private static final String TAG = "GenericServiceConnection";
+
+    /**
+     * Number of milliseconds to wait for a disconnected Service to
+     * come back before rebinding to it, which doubles after each
+     * rebind that doesn't help, up to MAX_RECONNECT_DELAY.
+     */
+    public static final long MIN_RECONNECT_DELAY = 1000;
+    public static final long MAX_RECONNECT_DELAY = 60 * 1000;
+
+    /**
+     * A call on the AIDL interface, which is run once the Service is
+     * connected.
      */
-    private static final String STUB = "Stub";
-    private static final String AS_INTERFACE = "asInterface";
-    private static final Class<?>[] AI_PARAMS = {IBinder.class};
+    public interface Call<AIDLInterface> {
+        void call(AIDLInterface aidl) throws RemoteException;
+    }
 
     /**
      * Reference to the AIDL interface object after the client has
      * finished binding to the Bound Service.
      */
-    private AIDLInterface mInterface;
+    private volatile AIDLInterface mInterface;
 
     /**
-     * The stub class of the AIDL interface.
+     * The Context and Intent passed to bind(), which are used to
+     * rebind.  Guarded by "this", as are the fields below.
      */
-    private final Class<?> mStub;
-    
+    private Context mContext;
+    private Intent mIntent;
+
+    /**
+     * True between a successful bind() and unbind().
+     */
+    private boolean mBound;
+
+    /**
+     * Number of calls to unbind(), which tells callers of
+     * awaitInterface() to stop waiting.
+     */
+    private int mUnbindCount;
+
+    /**
+     * The calls waiting for the Service to connect.
+     */
+    private final List<Call<AIDLInterface>> mPending =
+        new ArrayList<>();
+
+    /**
+     * Current delay before rebinding to a disconnected Service.
+     */
+    private long mReconnectDelay = MIN_RECONNECT_DELAY;
+
+    /**
+     * Runs the reconnects in the UI thread, where the framework calls
+     * the ServiceConnection hook methods.
+     */
+    private final Handler mHandler =
+        new Handler(Looper.getMainLooper());
+
+    /**
+     * Rebinds to the Service if it hasn't come back.
+     */
+    private final Runnable mReconnect = new Runnable() {
+            @Override
+            public void run() {
+                reconnect();
+            }
+        };
+
     /**
-     * The reflective asInterface(IBinder service) method of the stub.
+     * Converts the IBinder of the Service into the AIDL interface.
      */
-    private final Method mAsInterface;
+    private final Factories.AsInterface<AIDLInterface> mAsInterface;
 
     /**
      * Accessor that returns the AIDL interface object.
@@ -61,52 +131,255 @@ public class GenericServiceConnection<AIDLInterface extends
      * the generic parameter.
      */
     public GenericServiceConnection(final Class<AIDLInterface> aidl) {
-        Class<?> stub = null;
-        Method method = null;
-        for (final Class<?> c : aidl.getDeclaredClasses()) {
-            if (c.getSimpleName().equals(STUB)) {
-                try {
-                    stub = c;
-                    method = stub.getMethod(AS_INTERFACE,
-                                            AI_PARAMS);
+        this(Factories.asInterfaceOf(aidl));
+    }
+
+    /**
+     * Create a Generic ServiceConnection that uses @a asInterface,
+     * e.g., the asInterface() method of the AIDL interface's Stub, to
+     * convert the IBinder of the Service into the AIDL interface.
+     */
+    public GenericServiceConnection(final Factories.AsInterface<AIDLInterface> asInterface) {
+        mAsInterface = asInterface;
+    }
+
+    /**
+     * Bind to the Service identified by @a intent via @a context, if
+     * the connection isn't bound already.  A connection that's bound
+     * this way is rebound if the Service doesn't come back after
+     * it's disconnected.
+     *
+     * @return true if the connection is bound.
+     */
+    public synchronized boolean bind(Context context,
+                                     Intent intent) {
+        mContext = context;
+        mIntent = intent;
+        if (!mBound)
+            mBound = context.bindService(intent,
+                                         this,
+                                         Context.BIND_AUTO_CREATE);
+        return mBound;
+    }
+
+    /**
+     * Return true if the connection is bound via bind(), though the
+     * Service may not be connected yet.
+     */
+    public synchronized boolean isBound() {
+        return mBound;
+    }
+
+    /**
+     * Unbind from the Service if the connection was bound via
+     * bind().  Calls still waiting for the Service to connect are
+     * dropped, and callers of awaitInterface() stop waiting.
+     */
+    public synchronized void unbind() {
+        mHandler.removeCallbacks(mReconnect);
+        if (!mPending.isEmpty()) {
+            Log.d(TAG,
+                  "dropping "
+                  + mPending.size()
+                  + " calls to "
+                  + mIntent);
+            mPending.clear();
+        }
+        if (mBound) {
+            mContext.unbindService(this);
+            mBound = false;
+            // The framework doesn't call onServiceDisconnected()
+            // after unbindService(), so forget the interface here.
+            mInterface = null;
+            mReconnectDelay = MIN_RECONNECT_DELAY;
+        }
+        ++mUnbindCount;
+        notifyAll();
+    }
+
+    /**
+     * Return the AIDL interface, waiting up to @a timeout
+     * milliseconds for the Service to connect if it isn't connected.
+     * Must not be called in the UI thread, which is where the
+     * Service connects.
+     *
+     * @return The AIDL interface, or null if the Service didn't
+     *         connect in time, the connection was unbound, or the
+     *         caller was interrupted.
+     */
+    public synchronized AIDLInterface awaitInterface(long timeout) {
+        final long deadline =
+            System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeout);
+        final int unbindCount = mUnbindCount;
+        try {
+            while (mInterface == null
+                   && unbindCount == mUnbindCount) {
+                final long remaining = deadline - System.nanoTime();
+                if (remaining <= 0)
                     break;
-                } catch (final NoSuchMethodException e) { // Should not be possible
-                    e.printStackTrace();
-                }
+                TimeUnit.NANOSECONDS.timedWait(this,
+                                               remaining);
             }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return null;
         }
-        mStub = stub;
-        mAsInterface = method;
+        return mInterface;
+    }
+
+    /**
+     * Run @a call on the AIDL interface.  The call runs in the
+     * caller's thread if the Service is connected, otherwise it's
+     * queued and runs in the UI thread once the Service connects, so
+     * it should be a one-way call.  A call that fails because the
+     * Service died is queued again, since it never got there.
+     */
+    public void execute(Call<AIDLInterface> call) {
+        final AIDLInterface aidl;
+        synchronized (this) {
+            aidl = mInterface;
+            if (aidl == null) {
+                mPending.add(call);
+                return;
+            }
+        }
+        run(call,
+            aidl);
+    }
+
+    /**
+     * Report that a call on @a aidl failed because the Service died,
+     * so later calls wait for it to be reconnected rather than using
+     * the dead interface until onServiceDisconnected() arrives.
+     */
+    public synchronized void invalidate(AIDLInterface aidl) {
+        if (aidl != null
+            && aidl == mInterface) {
+            Log.d(TAG,
+                  "lost the connection to "
+                  + mIntent);
+            mInterface = null;
+            scheduleReconnect();
+        }
+    }
+
+    /**
+     * Return true if there are calls waiting for the Service to
+     * connect.
+     */
+    protected synchronized boolean hasPendingCalls() {
+        return !mPending.isEmpty();
     }
 
     /**
      * Hook method called back by the Android Service framework after
-     * connection is established to a Bound Service.
+     * connection is established to a Bound Service.  It runs the
+     * calls that were waiting for the connection.
      */
-    @SuppressWarnings("unchecked")
     @Override
     public void onServiceConnected(ComponentName name,
                                    IBinder service) {
-        Log.d("GenericServiceConnection", "Connected to ComponentName " + name);
-        try {
-            mInterface = (AIDLInterface)mAsInterface.invoke(mStub,
-                                                            new Object[]{service});
-        } catch (IllegalArgumentException e) { // Should not be possible
-            e.printStackTrace();
-        } catch (IllegalAccessException e) { // Should not be possible
-            e.printStackTrace();
-        } catch (InvocationTargetException e) { // Should not be possible
-            e.printStackTrace();
+        Log.d(TAG, "Connected to ComponentName " + name);
+        final AIDLInterface aidl = mAsInterface.asInterface(service);
+
+        final List<Call<AIDLInterface>> pending;
+        synchronized (this) {
+            mInterface = aidl;
+            mHandler.removeCallbacks(mReconnect);
+            mReconnectDelay = MIN_RECONNECT_DELAY;
+
+            // Wake up callers of awaitInterface().
+            notifyAll();
+
+            if (aidl == null || mPending.isEmpty())
+                return;
+            pending = new ArrayList<>(mPending);
+            mPending.clear();
         }
+
+        for (Call<AIDLInterface> call : pending)
+            run(call,
+                aidl);
     }
 
     /**
      * Called if the Bound Service crashes and is no longer
-     * available. The ServiceConnection will remain bound, but the
-     * Service will not respond to any requests.
+     * available. The ServiceConnection will remain bound, and the
+     * framework restarts the Service, but if it doesn't come back in
+     * time the connection is rebound.  Calls made in the meantime
+     * are queued.
      */
     @Override
     public void onServiceDisconnected(ComponentName name) {
-        mInterface = null;
+        Log.d(TAG, "Disconnected from ComponentName " + name);
+        synchronized (this) {
+            mInterface = null;
+            scheduleReconnect();
+        }
+    }
+
+    /**
+     * Schedule a rebind of a connection that was bound via bind(),
+     * in case the Service doesn't come back by itself.  Must be
+     * called with "this" locked.
+     */
+    private void scheduleReconnect() {
+        if (mBound) {
+            mHandler.removeCallbacks(mReconnect);
+            mHandler.postDelayed(mReconnect,
+                                 mReconnectDelay);
+        }
+    }
+
+    /**
+     * Rebind to the Service if it's still not connected, and back
+     * off before trying again.
+     */
+    private synchronized void reconnect() {
+        if (!mBound || mInterface != null)
+            return;
+
+        Log.d(TAG,
+              "rebinding to "
+              + mIntent
+              + " after "
+              + mReconnectDelay
+              + " ms");
+        mContext.unbindService(this);
+        mBound = mContext.bindService(mIntent,
+                                      this,
+                                      Context.BIND_AUTO_CREATE);
+        mReconnectDelay = Math.min(mReconnectDelay * 2,
+                                   MAX_RECONNECT_DELAY);
+        if (mBound)
+            scheduleReconnect();
+        else {
+            // The Service can't be bound anymore, so the waiting
+            // calls would never run.
+            Log.d(TAG,
+                  "unable to rebind to "
+                  + mIntent);
+            unbind();
+        }
+    }
+
+    /**
+     * Run @a call on @a aidl, logging a failure rather than passing
+     * it back to the thread that happens to run the call.
+     */
+    private void run(Call<AIDLInterface> call,
+                     AIDLInterface aidl) {
+        try {
+            call.call(aidl);
+        } catch (DeadObjectException e) {
+            // The call never reached the Service, so run it once the
+            // Service is reconnected.
+            invalidate(aidl);
+            execute(call);
+        } catch (RemoteException e) {
+            Log.e(TAG,
+                  "RemoteException:"
+                  + e.getMessage());
+        }
     }
 }
@@ -0,0 +1,726 @@
+package vandy.mooc.common;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Timeout cache whose entries are stored in a memory-mapped file, so
+ * all processes that map the same file see each other's entries
+ * without any Binder round trips.  The file contains a fixed-size
+ * open-addressing index followed by an append-only data region that
+ * holds the serialized keys and values.  Each index slot records the
+ * absolute time at which its entry expires, so expired entries are
+ * simply ignored and no thread is needed to remove them.  When the
+ * index or the data region fills up, the live entries are compacted.
+ *
+ * Accesses are serialized within a process by the object's monitor
+ * and across processes by a lock on the file.  Only one instance per
+ * file should exist in each process, e.g., by creating it via the
+ * GenericSingleton.  Subclasses implement the writeValue() and
+ * readValue() hook methods to serialize their values.
+ */
+public abstract class MappedFileTimeoutCache<V>
+       extends RefCounted
+       implements TimeoutCache<String, V> {
+    /**
+     * Default number of slots in the index.
+     */
+    protected static final int DEFAULT_SLOTS = 4096;
+
+    /**
+     * Default size in bytes of the data region.
+     */
+    protected static final int DEFAULT_DATA_CAPACITY = 4 * 1024 * 1024;
+
+    /**
+     * Identifies a file that has been formatted by this class.
+     */
+    private static final int MAGIC = 0x54434D46;
+
+    /**
+     * Version of the file layout.
+     */
+    private static final int VERSION = 1;
+
+    /**
+     * Layout of the file header.
+     */
+    private static final int MAGIC_OFFSET = 0;
+    private static final int VERSION_OFFSET = 4;
+    private static final int SLOTS_OFFSET = 8;
+    private static final int CAPACITY_OFFSET = 12;
+    private static final int DATA_END_OFFSET = 16;
+    private static final int USED_SLOTS_OFFSET = 20;
+    private static final int HEADER_SIZE = 32;
+
+    /**
+     * Layout of an index slot.
+     */
+    private static final int STATE_OFFSET = 0;
+    private static final int HASH_OFFSET = 4;
+    private static final int EXPIRATION_OFFSET = 8;
+    private static final int RECORD_OFFSET = 16;
+    private static final int RECORD_LENGTH_OFFSET = 20;
+    private static final int SLOT_SIZE = 24;
+
+    /**
+     * States of an index slot.
+     */
+    private static final int EMPTY = 0;
+    private static final int FULL = 1;
+    private static final int REMOVED = 2;
+
+    /**
+     * Encoding used for the keys.
+     */
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    /**
+     * Number of slots in the index, which is a power of two.
+     */
+    private final int mSlots;
+
+    /**
+     * Size in bytes of the data region.
+     */
+    private final int mDataCapacity;
+
+    /**
+     * Offset of the data region in the file.
+     */
+    private final int mDataStart;
+
+    /**
+     * The file that's mapped into memory.
+     */
+    private File mFile;
+
+    /**
+     * Channel used to lock the file.
+     */
+    private FileChannel mChannel;
+
+    /**
+     * The memory-mapped contents of the file.
+     */
+    private MappedByteBuffer mBuffer;
+
+    /**
+     * Loads that are currently in progress in this process, which
+     * getOrLoad() uses to ensure only one load runs per key at a time.
+     */
+    private final ConcurrentHashMap<String, FutureTask<V>> mLoads =
+        new ConcurrentHashMap<>();
+
+    /**
+     * Accumulates the statistics of this process's accesses to the
+     * cache.  The sizes of values are their serialized sizes in
+     * bytes.
+     */
+    private final StatsCounter mStats = new StatsCounter();
+
+    /**
+     * Constructor that uses the default index and data sizes.
+     */
+    public MappedFileTimeoutCache() {
+        this(DEFAULT_SLOTS,
+             DEFAULT_DATA_CAPACITY);
+    }
+
+    /**
+     * Constructor that allows subclasses to size the file.  All
+     * processes sharing a file must use the same sizes.
+     *
+     * @param slots         The number of slots in the index, which
+     *                      is rounded up to a power of two
+     * @param dataCapacity  The size in bytes of the data region
+     */
+    protected MappedFileTimeoutCache(int slots,
+                                     int dataCapacity) {
+        int size = 1;
+        while (size < slots)
+            size <<= 1;
+
+        mSlots = size;
+        mDataCapacity = dataCapacity;
+        mDataStart = HEADER_SIZE + mSlots * SLOT_SIZE;
+    }
+
+    /**
+     * Map the designated @a file into memory, formatting it if it
+     * doesn't already contain a compatible cache.  Calls after the
+     * first one are ignored.
+     */
+    public synchronized void open(File file)
+        throws IOException {
+        if (mBuffer != null)
+            return;
+
+        mFile = file;
+        mChannel = new RandomAccessFile(file, "rw").getChannel();
+        mBuffer = mChannel.map(FileChannel.MapMode.READ_WRITE,
+                               0,
+                               mDataStart + mDataCapacity);
+
+        FileLock lock = lock(false);
+        try {
+            // Only format the file if no other process has done so
+            // with the same layout.
+            if (mBuffer.getInt(MAGIC_OFFSET) != MAGIC
+                || mBuffer.getInt(VERSION_OFFSET) != VERSION
+                || mBuffer.getInt(SLOTS_OFFSET) != mSlots
+                || mBuffer.getInt(CAPACITY_OFFSET) != mDataCapacity) {
+                clear();
+                mBuffer.putInt(VERSION_OFFSET, VERSION);
+                mBuffer.putInt(SLOTS_OFFSET, mSlots);
+                mBuffer.putInt(CAPACITY_OFFSET, mDataCapacity);
+                mBuffer.putInt(MAGIC_OFFSET, MAGIC);
+            }
+        } finally {
+            lock.release();
+        }
+    }
+
+    /**
+     * Gets the @a value from the cache at the designated @a key.
+     *
+     * @param key     The key for the cache entry
+     * @return value  The value associated with the key, which may be
+     *                null if there's no unexpired key in the cache
+     */
+    @Override
+    public synchronized V get(String key) {
+        if (mBuffer == null)
+            return null;
+
+        byte[] keyBytes = key.getBytes(UTF_8);
+        try {
+            FileLock lock = lock(true);
+            try {
+                int slot = find(keyBytes,
+                                hash(keyBytes));
+                if (slot == -1
+                    || isExpired(slot)) {
+                    mStats.recordMiss();
+                    return null;
+                }
+                mStats.recordHit();
+
+                // Skip over the key to the serialized value.
+                int offset = mDataStart
+                    + mBuffer.getInt(slotOffset(slot) + RECORD_OFFSET);
+                int length =
+                    mBuffer.getInt(slotOffset(slot) + RECORD_LENGTH_OFFSET);
+                int keyLength = mBuffer.getInt(offset);
+
+                byte[] valueBytes =
+                    new byte[length - 4 - keyLength];
+                read(offset + 4 + keyLength,
+                     valueBytes);
+
+                return readValue(new DataInputStream
+                                 (new ByteArrayInputStream(valueBytes)));
+            } finally {
+                lock.release();
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+            return null;
+        }
+    }
+
+    /**
+     * Return the number of whole seconds until the entry at the
+     * designated @a key expires, which doesn't count as a lookup.
+     *
+     * @param key        The key for the cache entry
+     * @return timeout   The remaining timeout period in seconds, or
+     *                   -1 if there's no unexpired key in the cache
+     */
+    public synchronized int getRemainingTimeout(String key) {
+        if (mBuffer == null)
+            return -1;
+
+        byte[] keyBytes = key.getBytes(UTF_8);
+        try {
+            FileLock lock = lock(true);
+            try {
+                int slot = find(keyBytes,
+                                hash(keyBytes));
+                if (slot == -1
+                    || isExpired(slot))
+                    return -1;
+
+                long remaining =
+                    mBuffer.getLong(slotOffset(slot) + EXPIRATION_OFFSET)
+                    - System.currentTimeMillis();
+                return (int) TimeUnit.MILLISECONDS.toSeconds(remaining);
+            } finally {
+                lock.release();
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+            return -1;
+        }
+    }
+
+    /**
+     * Put the @a value into the cache at the designated @a key with a
+     * certain timeout after which the entry will expire.
+     *
+     * @param key        The key for the cache entry
+     * @param value      The value of the cache entry
+     * @param timeout    The timeout period in seconds
+     */
+    @Override
+    public void put(String key,
+                    V value,
+                    int timeout) {
+        try {
+            // Serialize the record before taking any locks.
+            byte[] keyBytes = key.getBytes(UTF_8);
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            DataOutputStream out = new DataOutputStream(bytes);
+            out.writeInt(keyBytes.length);
+            out.write(keyBytes);
+            writeValue(out, value);
+            out.flush();
+
+            long expiration = System.currentTimeMillis()
+                + TimeUnit.SECONDS.toMillis(timeout);
+
+            synchronized (this) {
+                if (mBuffer == null)
+                    return;
+
+                FileLock lock = lock(false);
+                try {
+                    insert(keyBytes,
+                           hash(keyBytes),
+                           expiration,
+                           bytes.toByteArray());
+                } finally {
+                    lock.release();
+                }
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * Gets the @a value from the cache at the designated @a key,
+     * using the @a loader to obtain and cache it if it's not present.
+     * Concurrent callers in this process for the same key attach to
+     * the one in-flight load rather than each running the loader.
+     *
+     * @param key        The key for the cache entry
+     * @param loader     Obtains the value if it's not in the cache
+     * @param timeout    The timeout period in seconds
+     * @return value     The value associated with the key, which may
+     *                   be null if the loader returned null
+     */
+    @Override
+    public V getOrLoad(final String key,
+                       final Loader<String, V> loader,
+                       final int timeout) {
+        V value = get(key);
+        if (value != null)
+            return value;
+
+        FutureTask<V> load =
+            new FutureTask<>(new Callable<V>() {
+                    @Override
+                    public V call() {
+                        V value = get(key);
+                        if (value == null) {
+                            long startTime = System.nanoTime();
+                            try {
+                                value = loader.load(key);
+                            } finally {
+                                mStats.recordLoad(System.nanoTime()
+                                                  - startTime);
+                            }
+                            if (value != null)
+                                put(key, value, timeout);
+                        }
+                        return value;
+                    }
+                });
+
+        FutureTask<V> inFlight = mLoads.putIfAbsent(key, load);
+        if (inFlight == null) {
+            inFlight = load;
+            try {
+                load.run();
+            } finally {
+                mLoads.remove(key, load);
+            }
+        }
+
+        try {
+            return inFlight.get();
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof RuntimeException)
+                throw (RuntimeException) cause;
+            else if (cause instanceof Error)
+                throw (Error) cause;
+            else
+                throw new RuntimeException(cause);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return null;
+        }
+    }
+
+    /**
+     * Removes the value associated with the designated @a key.
+     *
+     * @param key     The key for the cache entry
+     * @param expirationTime (ignored)
+     */
+    @Override
+    public synchronized void remove(String key,
+                                    long expirationTime) {
+        if (mBuffer == null)
+            return;
+
+        byte[] keyBytes = key.getBytes(UTF_8);
+        try {
+            FileLock lock = lock(false);
+            try {
+                int slot = find(keyBytes,
+                                hash(keyBytes));
+                if (slot != -1)
+                    mBuffer.putInt(slotOffset(slot) + STATE_OFFSET,
+                                   REMOVED);
+            } finally {
+                lock.release();
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * Return the current number of unexpired entries in the cache.
+     *
+     * @return size
+     */
+    @Override
+    public synchronized int size() {
+        if (mBuffer == null)
+            return 0;
+
+        try {
+            FileLock lock = lock(true);
+            try {
+                int size = 0;
+                for (int slot = 0; slot < mSlots; ++slot)
+                    if (mBuffer.getInt(slotOffset(slot) + STATE_OFFSET) == FULL
+                        && !isExpired(slot))
+                        ++size;
+                return size;
+            } finally {
+                lock.release();
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+            return 0;
+        }
+    }
+
+    /**
+     * Return a snapshot of the statistics of this process's accesses
+     * to the cache.
+     *
+     * @return stats
+     */
+    @Override
+    public CacheStats getStats() {
+        return mStats.snapshot();
+    }
+
+    /**
+     * Close the file.  The entries remain in the file, so they're
+     * still visible to other processes and to the next open().
+     */
+    @Override
+    protected synchronized void close() {
+        try {
+            if (mChannel != null)
+                mChannel.close();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+        mChannel = null;
+        mBuffer = null;
+    }
+
+    /**
+     * Hook method that serializes @a value to @a out.
+     */
+    protected abstract void writeValue(DataOutputStream out,
+                                       V value)
+        throws IOException;
+
+    /**
+     * Hook method that deserializes a value written by writeValue()
+     * from @a in.
+     */
+    protected abstract V readValue(DataInputStream in)
+        throws IOException;
+
+    /**
+     * Lock the whole file, reopening the channel if it was closed,
+     * e.g., because a thread using it was interrupted.  Must be called
+     * with the object's monitor held.
+     */
+    private FileLock lock(boolean shared)
+        throws IOException {
+        try {
+            return mChannel.lock(0, Long.MAX_VALUE, shared);
+        } catch (ClosedChannelException e) {
+            // The mapping is still valid, so only the channel needs
+            // to be reopened.
+            mChannel = new RandomAccessFile(mFile, "rw").getChannel();
+            return mChannel.lock(0, Long.MAX_VALUE, shared);
+        }
+    }
+
+    /**
+     * Add a record for @a keyBytes to the index and data region,
+     * replacing any existing record for the key.  Must be called with
+     * the file locked exclusively.
+     */
+    private void insert(byte[] keyBytes,
+                        int hash,
+                        long expiration,
+                        byte[] record) {
+        // Drop any existing record for the key.
+        int existing = find(keyBytes, hash);
+        if (existing != -1) {
+            mBuffer.putInt(slotOffset(existing) + STATE_OFFSET,
+                           REMOVED);
+            if (!isExpired(existing))
+                mStats.recordOverwrite();
+        }
+        mStats.recordValueSize(record.length);
+
+        if (!hasRoom(record.length)) {
+            compact();
+            if (!hasRoom(record.length)) {
+                // There's still no room, so either start over or
+                // give up if the record can never fit.
+                if (record.length > mDataCapacity)
+                    return;
+                mStats.recordEvictions(mBuffer.getInt(USED_SLOTS_OFFSET));
+                clear();
+            }
+        }
+
+        int slot = freeSlot(hash);
+        int dataEnd = mBuffer.getInt(DATA_END_OFFSET);
+        write(mDataStart + dataEnd,
+              record);
+
+        int offset = slotOffset(slot);
+        if (mBuffer.getInt(offset + STATE_OFFSET) == EMPTY)
+            mBuffer.putInt(USED_SLOTS_OFFSET,
+                           mBuffer.getInt(USED_SLOTS_OFFSET) + 1);
+        mBuffer.putInt(offset + HASH_OFFSET, hash);
+        mBuffer.putLong(offset + EXPIRATION_OFFSET, expiration);
+        mBuffer.putInt(offset + RECORD_OFFSET, dataEnd);
+        mBuffer.putInt(offset + RECORD_LENGTH_OFFSET, record.length);
+        mBuffer.putInt(offset + STATE_OFFSET, FULL);
+
+        mBuffer.putInt(DATA_END_OFFSET,
+                       dataEnd + record.length);
+    }
+
+    /**
+     * Return true if there's room for a record of @a length bytes
+     * without compacting.  The index is kept at most 3/4 full so
+     * probe sequences stay short.
+     */
+    private boolean hasRoom(int length) {
+        return mBuffer.getInt(USED_SLOTS_OFFSET) < mSlots / 4 * 3
+            && mBuffer.getInt(DATA_END_OFFSET) + length <= mDataCapacity;
+    }
+
+    /**
+     * Rewrite the index and data region so they only contain the
+     * unexpired entries.  Must be called with the file locked
+     * exclusively.
+     */
+    private void compact() {
+        List<long[]> slots = new ArrayList<>();
+        List<byte[]> records = new ArrayList<>();
+
+        // Copy the live records out of the file.
+        for (int slot = 0; slot < mSlots; ++slot) {
+            int offset = slotOffset(slot);
+            if (mBuffer.getInt(offset + STATE_OFFSET) != FULL)
+                continue;
+            else if (isExpired(slot))
+                mStats.recordExpiration();
+            else {
+                byte[] record =
+                    new byte[mBuffer.getInt(offset + RECORD_LENGTH_OFFSET)];
+                read(mDataStart + mBuffer.getInt(offset + RECORD_OFFSET),
+                     record);
+                records.add(record);
+                slots.add(new long[] {
+                        mBuffer.getInt(offset + HASH_OFFSET),
+                        mBuffer.getLong(offset + EXPIRATION_OFFSET)
+                    });
+            }
+        }
+
+        // Write them back contiguously.
+        clear();
+        int dataEnd = 0;
+        for (int i = 0; i < records.size(); ++i) {
+            byte[] record = records.get(i);
+            int hash = (int) slots.get(i)[0];
+            int offset = slotOffset(freeSlot(hash));
+
+            write(mDataStart + dataEnd, record);
+            mBuffer.putInt(offset + HASH_OFFSET, hash);
+            mBuffer.putLong(offset + EXPIRATION_OFFSET, slots.get(i)[1]);
+            mBuffer.putInt(offset + RECORD_OFFSET, dataEnd);
+            mBuffer.putInt(offset + RECORD_LENGTH_OFFSET, record.length);
+            mBuffer.putInt(offset + STATE_OFFSET, FULL);
+            dataEnd += record.length;
+        }
+        mBuffer.putInt(DATA_END_OFFSET, dataEnd);
+        mBuffer.putInt(USED_SLOTS_OFFSET, records.size());
+    }
+
+    /**
+     * Remove all the entries.  Must be called with the file locked
+     * exclusively.
+     */
+    private void clear() {
+        for (int slot = 0; slot < mSlots; ++slot)
+            mBuffer.putInt(slotOffset(slot) + STATE_OFFSET,
+                           EMPTY);
+        mBuffer.putInt(DATA_END_OFFSET, 0);
+        mBuffer.putInt(USED_SLOTS_OFFSET, 0);
+    }
+
+    /**
+     * Return the slot holding the record for @a keyBytes, or -1 if
+     * there's no such record.
+     */
+    private int find(byte[] keyBytes,
+                     int hash) {
+        int mask = mSlots - 1;
+        for (int i = 0, slot = hash & mask;
+             i < mSlots;
+             ++i, slot = (slot + 1) & mask) {
+            int offset = slotOffset(slot);
+            int state = mBuffer.getInt(offset + STATE_OFFSET);
+
+            if (state == EMPTY)
+                // The end of the probe sequence.
+                return -1;
+            else if (state == FULL
+                     && mBuffer.getInt(offset + HASH_OFFSET) == hash
+                     && keyEquals(mBuffer.getInt(offset + RECORD_OFFSET),
+                                  keyBytes))
+                return slot;
+        }
+        return -1;
+    }
+
+    /**
+     * Return the first slot in the probe sequence of @a hash that
+     * isn't in use, reusing a removed slot if there is one.
+     */
+    private int freeSlot(int hash) {
+        int mask = mSlots - 1;
+        int slot = hash & mask;
+        while (mBuffer.getInt(slotOffset(slot) + STATE_OFFSET) == FULL)
+            slot = (slot + 1) & mask;
+        return slot;
+    }
+
+    /**
+     * Return true if the key of the record at @a recordOffset in the
+     * data region is equal to @a keyBytes.
+     */
+    private boolean keyEquals(int recordOffset,
+                              byte[] keyBytes) {
+        int offset = mDataStart + recordOffset;
+        if (mBuffer.getInt(offset) != keyBytes.length)
+            return false;
+
+        byte[] stored = new byte[keyBytes.length];
+        read(offset + 4, stored);
+        return Arrays.equals(stored, keyBytes);
+    }
+
+    /**
+     * Return true if the entry in @a slot has expired.
+     */
+    private boolean isExpired(int slot) {
+        return mBuffer.getLong(slotOffset(slot) + EXPIRATION_OFFSET)
+            <= System.currentTimeMillis();
+    }
+
+    /**
+     * Return the offset in the file of @a slot.
+     */
+    private int slotOffset(int slot) {
+        return HEADER_SIZE + slot * SLOT_SIZE;
+    }
+
+    /**
+     * Copy bytes starting at @a offset in the file into @a bytes.
+     */
+    private void read(int offset,
+                      byte[] bytes) {
+        ByteBuffer buffer = mBuffer.duplicate();
+        buffer.position(offset);
+        buffer.get(bytes);
+    }
+
+    /**
+     * Copy @a bytes into the file starting at @a offset.
+     */
+    private void write(int offset,
+                       byte[] bytes) {
+        ByteBuffer buffer = mBuffer.duplicate();
+        buffer.position(offset);
+        buffer.put(bytes);
+    }
+
+    /**
+     * Return a well-distributed hash of @a keyBytes.
+     */
+    private static int hash(byte[] keyBytes) {
+        int h = Arrays.hashCode(keyBytes);
+        return h ^ (h >>> 16);
+    }
+}
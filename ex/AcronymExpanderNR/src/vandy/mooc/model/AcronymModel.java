@@ -1,17 +1,25 @@
 package vandy.mooc.model;
 
+import java.io.IOException;
 import java.lang.ref.WeakReference;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 
 import vandy.mooc.MVP;
-import vandy.mooc.common.GenericServiceConnection;
+import vandy.mooc.common.LazyServiceConnection;
 import vandy.mooc.model.aidl.AcronymCall;
 import vandy.mooc.model.aidl.AcronymExpansion;
+import vandy.mooc.model.aidl.AcronymExpansionBatch;
+import vandy.mooc.model.aidl.AcronymExpansionBuffer;
 import vandy.mooc.model.aidl.AcronymRequest;
 import vandy.mooc.model.aidl.AcronymResults;
+import vandy.mooc.model.aidl.ExpandedAcronym;
 import vandy.mooc.model.services.AcronymServiceAsync;
 import vandy.mooc.model.services.AcronymServiceSync;
-import android.content.Context;
+import android.os.DeadObjectException;
 import android.os.RemoteException;
 import android.util.Log;
 
@@ -37,16 +45,48 @@ public class AcronymModel
     private WeakReference<MVP.RequiredPresenterOps> mAcronymPresenter;
 
     /**
-     * This GenericServiceConnection is used to receive results after
-     * binding to the AcronymServiceSync Service using bindService().
+     * This LazyServiceConnection is used to receive results after
+     * binding to the AcronymServiceSync Service using bindService(),
+     * which happens the first time a synchronous call is made.
      */
-    private GenericServiceConnection<AcronymCall> mServiceConnectionSync;
+    private LazyServiceConnection<AcronymCall> mServiceConnectionSync;
 
     /**
-     * This GenericServiceConnection is used to receive results after
-     * binding to the AcronymServiceAsync Service using bindService().
+     * This LazyServiceConnection is used to receive results after
+     * binding to the AcronymServiceAsync Service using bindService(),
+     * which happens the first time an asynchronous call is made.
      */
-    private GenericServiceConnection<AcronymRequest> mServiceConnectionAsync;
+    private LazyServiceConnection<AcronymRequest> mServiceConnectionAsync;
+
+    /**
+     * Number of milliseconds a synchronous call waits for the
+     * AcronymServiceSync to connect.
+     */
+    private static final long CONNECT_TIMEOUT = 10 * 1000;
+
+    /**
+     * Number of times a synchronous call is made if the
+     * AcronymServiceSync dies before answering it.  Lookups can be
+     * repeated safely, so the call is made again once the Service is
+     * reconnected rather than failing.
+     */
+    private static final int SYNC_CALL_ATTEMPTS = 2;
+
+    /**
+     * Generates the ids of the asynchronous requests.
+     */
+    private final AtomicLong mNextRequestId =
+        new AtomicLong();
+
+    /**
+     * The asynchronous requests that are outstanding, keyed by their
+     * ids, which can be cancelled.  A request is removed when its
+     * last results arrive, when it's cancelled, or once its
+     * REQUEST_TIMEOUT has passed, since the AcronymServiceAsync
+     * cancels it then.
+     */
+    private final Map<Long, AsyncResultsImpl> mRequests =
+        new ConcurrentHashMap<Long, AsyncResultsImpl>();
 
     /**
      * Hook method called when a new instance of AcronymModel is
@@ -62,14 +102,21 @@ public class AcronymModel
         mAcronymPresenter =
             new WeakReference<>(presenter);
 
-        // Initialize the GenericServiceConnection objects.
+        // Initialize the LazyServiceConnection objects, which bind
+        // via the Application context so the bindings survive
+        // runtime configuration changes.  Each Service runs in its
+        // own process, which isn't started until it's first used.
         mServiceConnectionSync = 
-            new GenericServiceConnection<AcronymCall>(AcronymCall.class);
+            new LazyServiceConnection<AcronymCall>
+                (AcronymCall.class,
+                 presenter.getApplicationContext(),
+                 AcronymServiceSync.makeIntent(presenter.getActivityContext()));
         mServiceConnectionAsync =
-            new GenericServiceConnection<AcronymRequest>(AcronymRequest.class);
-            
-        // Bind to the sync and async Services.
-        bindServices();
+            new LazyServiceConnection<AcronymRequest>
+                (AcronymRequest.class,
+                 presenter.getApplicationContext(),
+                 AcronymServiceAsync.makeIntent(presenter.getActivityContext()));
+        setIdleTimeout(LazyServiceConnection.DEFAULT_IDLE_TIMEOUT);
     }
 
     /**
@@ -83,41 +130,30 @@ public class AcronymModel
         if (isChangingConfigurations)
             Log.d(TAG,
                   "just a configuration change - unbindService() not called");
-        else
+        else {
+            // Cancel the outstanding requests, whose results are no
+            // longer wanted.
+            for (long requestId : mRequests.keySet())
+                cancelRequest(requestId);
+
             // Unbind from the Services only if onDestroy() is not
             // triggered by a runtime configuration change.
             unbindServices();
+        }
     }
 
     /**
-     * Initiate the protocol for binding the Services.
+     * Set the number of milliseconds the connections to the Services
+     * stay bound after they were last used.  It's no less than
+     * REQUEST_TIMEOUT, so the AcronymServiceAsync isn't unbound while
+     * it's working on a request.
      */
-    private void bindServices() {
-        Log.d(TAG,
-              "calling bindService()");
-
-        // Launch the Acronym Bound Services if they aren't already
-        // running via a call to bindService(), which binds this
-        // activity to the AcronymService* if they aren't already
-        // bound.
-        if (mServiceConnectionSync.getInterface() == null) 
-            mAcronymPresenter.get()
-                             .getApplicationContext()
-                             .bindService
-                (AcronymServiceSync.makeIntent
-                     (mAcronymPresenter.get()
-                                       .getActivityContext()),
-                 mServiceConnectionSync,
-                 Context.BIND_AUTO_CREATE);
-
-        if (mServiceConnectionAsync.getInterface() == null) 
-            mAcronymPresenter.get()
-                             .getApplicationContext()
-                             .bindService
-                (AcronymServiceAsync.makeIntent
-                     (mAcronymPresenter.get().getActivityContext()),
-                 mServiceConnectionAsync,
-                 Context.BIND_AUTO_CREATE);
+    @Override
+    public void setIdleTimeout(long idleTimeout) {
+        idleTimeout = Math.max(idleTimeout,
+                               REQUEST_TIMEOUT);
+        mServiceConnectionSync.setIdleTimeout(idleTimeout);
+        mServiceConnectionAsync.setIdleTimeout(idleTimeout);
     }
 
     /**
@@ -127,19 +163,9 @@ public class AcronymModel
         Log.d(TAG,
               "calling unbindService()");
 
-        // Unbind the Async Service if it is connected.
-        if (mServiceConnectionAsync.getInterface() != null)
-            mAcronymPresenter.get()
-                .getApplicationContext()
-                .unbindService
-                (mServiceConnectionAsync);
-
-        // Unbind the Sync Service if it is connected.
-        if (mServiceConnectionSync.getInterface() != null)
-            mAcronymPresenter.get()
-                .getApplicationContext()
-                .unbindService
-                (mServiceConnectionSync);
+        // Unbind the Services if they're bound.
+        mServiceConnectionAsync.unbind();
+        mServiceConnectionSync.unbind();
     }
 
     /**
@@ -149,18 +175,38 @@ public class AcronymModel
      */
     @Override
     public List<AcronymExpansion> getAcronymExpansions(String acronym) {
-        try {
+        for (int attempt = 1;
+             attempt <= SYNC_CALL_ATTEMPTS;
+             ++attempt) {
+            // Bind to the AcronymServiceSync if needed, and wait for
+            // it to be connected.
             final AcronymCall acronymCall = 
-                mServiceConnectionSync.getInterface();
+                mServiceConnectionSync.acquire(CONNECT_TIMEOUT);
+            if (acronymCall == null) {
+                Log.d(TAG, "unable to connect to AcronymServiceSync");
+                break;
+            }
 
-            if (acronymCall != null) 
+            try {
                 // Invoke a two-way AIDL call, which blocks the
-                // caller.
-                return acronymCall.expandAcronym(acronym);
-            else 
-                Log.d(TAG, "mAcronymCall was null.");
-        } catch (RemoteException e) {
-            e.printStackTrace();
+                // caller.  The expansions are returned encoded, and
+                // in shared memory if there are many of them, so
+                // they're decoded as they're accessed.
+                final AcronymExpansionBuffer buffer =
+                    acronymCall.expandAcronymBuffer(acronym);
+                return buffer == null
+                    ? null
+                    : buffer.getExpansions();
+            } catch (DeadObjectException e) {
+                // Make the call again once the Service is back.
+                mServiceConnectionSync.invalidate(acronymCall);
+                e.printStackTrace();
+            } catch (RemoteException | IOException e) {
+                e.printStackTrace();
+                break;
+            } finally {
+                mServiceConnectionSync.release();
+            }
         }
         return null;
     }
@@ -169,30 +215,200 @@ public class AcronymModel
      * Use a two-way asynchronous AIDL call to expand the @a acronym
      * parameter.  Need not be called in a background thread since the
      * caller isn't blocked.
+     *
+     * @return The id of the request, or NO_REQUEST
      */
-    public void getAcronymExpansions(String acronym,
+    @Override
+    public long getAcronymExpansions(final String acronym,
                                      AcronymResults results) {
+        // Track the request, so it can be cancelled.
+        final AsyncResultsImpl callback =
+            trackRequest(results);
+
+        // Invoke a one-way AIDL call that doesn't block the caller.
+        // Results are returned via the sendPartialResultBatch() or
+        // sendError() methods of the AsyncResultsImpl callback
+        // object, which runs in a Thread from the Thread pool managed
+        // by the Binder framework.
+        return sendRequest(callback,
+                           new LazyServiceConnection.Call<AcronymRequest>() {
+                               @Override
+                               public void call(AcronymRequest acronymRequest)
+                                   throws RemoteException {
+                                   acronymRequest.expandAcronymBatch(callback.mRequestId,
+                                                                     REQUEST_TIMEOUT,
+                                                                     acronym,
+                                                                     callback);
+                               }
+                           });
+    }
+
+    /**
+     * Use a two-way synchronous AIDL call to expand the batch of @a
+     * acronyms in a single transaction.  Must be called in a
+     * background thread (e.g., via AsyncTask).
+     */
+    @Override
+    public List<ExpandedAcronym> getExpandedAcronyms(List<String> acronyms) {
+        for (int attempt = 1;
+             attempt <= SYNC_CALL_ATTEMPTS;
+             ++attempt) {
+            // Bind to the AcronymServiceSync if needed, and wait for
+            // it to be connected.
+            final AcronymCall acronymCall = 
+                mServiceConnectionSync.acquire(CONNECT_TIMEOUT);
+            if (acronymCall == null) {
+                Log.d(TAG, "unable to connect to AcronymServiceSync");
+                break;
+            }
+
+            try {
+                // Invoke a two-way AIDL call, which blocks the
+                // caller.
+                return acronymCall.expandAcronyms(acronyms);
+            } catch (DeadObjectException e) {
+                // Make the call again once the Service is back.
+                mServiceConnectionSync.invalidate(acronymCall);
+                e.printStackTrace();
+            } catch (RemoteException
+                     | IllegalStateException e) {
+                // The call failed, or the Service abandoned the
+                // batch.
+                e.printStackTrace();
+                break;
+            } finally {
+                mServiceConnectionSync.release();
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Use a one-way asynchronous AIDL call to expand the batch of @a
+     * acronyms.  Need not be called in a background thread since the
+     * caller isn't blocked.
+     *
+     * @return The id of the request, or NO_REQUEST
+     */
+    @Override
+    public long getExpandedAcronyms(final List<String> acronyms,
+                                    AcronymResults results) {
+        // Track the request, so it can be cancelled.
+        final AsyncResultsImpl callback =
+            trackRequest(results);
+
+        // Invoke a one-way AIDL call that doesn't block the caller.
+        // Results are returned in chunks via the
+        // sendExpandedAcronyms() method of the AsyncResultsImpl
+        // callback object.
+        return sendRequest(callback,
+                           new LazyServiceConnection.Call<AcronymRequest>() {
+                               @Override
+                               public void call(AcronymRequest acronymRequest)
+                                   throws RemoteException {
+                                   acronymRequest.expandAcronyms(callback.mRequestId,
+                                                                 REQUEST_TIMEOUT,
+                                                                 acronyms,
+                                                                 callback);
+                               }
+                           });
+    }
+
+    /**
+     * Make the one-way AIDL call @a request, whose results are
+     * passed to @a callback, once the AcronymServiceAsync is
+     * connected, binding to it first if needed.  The request isn't
+     * sent if it's cancelled before then, and its callback is sent
+     * an error if it can't be sent.
+     *
+     * @return The id of the request, or NO_REQUEST
+     */
+    private long sendRequest(final AsyncResultsImpl callback,
+                             final LazyServiceConnection.Call<AcronymRequest> request) {
+        final boolean bound =
+            mServiceConnectionAsync.bindAndExecute
+                (new LazyServiceConnection.Call<AcronymRequest>() {
+                    @Override
+                    public void call(AcronymRequest acronymRequest)
+                        throws RemoteException {
+                        if (callback.mCancelled)
+                            return;
+                        try {
+                            request.call(acronymRequest);
+                        } catch (DeadObjectException e) {
+                            // Let the connection send the request
+                            // again once the Service is reconnected.
+                            throw e;
+                        } catch (RemoteException e) {
+                            Log.e(TAG,
+                                  "RemoteException:" 
+                                  + e.getMessage());
+                            callback.sendError("unable to send the request");
+                        }
+                    }
+                });
+        if (bound)
+            return callback.mRequestId;
+
+        // The request wasn't sent, so it isn't outstanding.
+        Log.d(TAG,
+              "unable to bind to AcronymServiceAsync");
+        mRequests.remove(callback.mRequestId);
+        return NO_REQUEST;
+    }
+
+    /**
+     * Return the callback object of a new asynchronous request, which
+     * passes its results to @a results, after adding it to the
+     * outstanding requests.
+     */
+    private AsyncResultsImpl trackRequest(AcronymResults results) {
+        // Forget the requests the AcronymServiceAsync has cancelled
+        // since their REQUEST_TIMEOUT passed, e.g., batches, which
+        // have no last chunk of results.
+        final long now = System.nanoTime();
+        for (AsyncResultsImpl request : mRequests.values())
+            if (now - request.mDeadline >= 0)
+                mRequests.remove(request.mRequestId);
+
+        final AsyncResultsImpl callback =
+            new AsyncResultsImpl(mNextRequestId.incrementAndGet(),
+                                 now + TimeUnit.MILLISECONDS.toNanos(REQUEST_TIMEOUT),
+                                 results,
+                                 mRequests);
+        mRequests.put(callback.mRequestId,
+                      callback);
+        return callback;
+    }
+
+    /**
+     * Use a one-way asynchronous AIDL call to cancel the request with
+     * @a requestId, which stops the AcronymServiceAsync from doing
+     * work whose results are no longer needed.  Results of the
+     * request that are already on their way are dropped.
+     */
+    @Override
+    public void cancelRequest(long requestId) {
+        // Drop the results of the request.
+        final AsyncResultsImpl request =
+            mRequests.remove(requestId);
+        if (request != null)
+            request.mCancelled = true;
+
         // Get a reference to the AcronymRequest interface.
         final AcronymRequest acronymRequest = 
             mServiceConnectionAsync.getInterface();
 
-        if (acronymRequest != null) {
+        if (acronymRequest != null
+            && requestId != NO_REQUEST) {
             try {
-                // Invoke a one-way AIDL call that doesn't block the
-                // caller.  Results are returned via the sendResults()
-                // or sendError() methods of the AsyncResultsImpl
-                // callback object, which runs in a Thread from the
-                // Thread pool managed by the Binder framework.
-                acronymRequest.expandAcronym(acronym,
-                                             new AsyncResultsImpl(results));
+                acronymRequest.cancel(requestId);
             } catch (RemoteException e) {
                 Log.e(TAG,
                       "RemoteException:" 
                       + e.getMessage());
             }
-        } else 
-            Log.d(TAG,
-                  "acronymRequest was null.");
+        }
     }
 
     /**
@@ -200,20 +416,65 @@ public class AcronymModel
      * will be passed to the Acronym Web service using the
      * AcronymRequest.expandAcronym() method.  Instances of this class
      * play the role of Invoker in the Broker Pattern since it
-     * dispatches the upcall to sendResults().
+     * dispatches the upcall to sendResults().  There's one instance
+     * per request, which drops the results once the request is
+     * cancelled and stops tracking the request once its last results
+     * arrive.
      */
     private static class AsyncResultsImpl
             extends AcronymResults.Stub {
+        /**
+         * The id of the request.
+         */
+        final long mRequestId;
+
+        /**
+         * The System.nanoTime() after which the AcronymServiceAsync
+         * cancels the request.
+         */
+        final long mDeadline;
+
+        /**
+         * True once the request has been cancelled.
+         */
+        volatile boolean mCancelled;
+
         /**
          * A WeakReference to the AcronymResults object.
          */
         private WeakReference<AcronymResults> mAcronymResults;
 
         /**
-         * Constructor initializes the field.
+         * The outstanding requests, which include this one until it's
+         * finished.
+         */
+        private final Map<Long, AsyncResultsImpl> mRequests;
+
+        /**
+         * Constructor initializes the fields.
          */
-        public AsyncResultsImpl(AcronymResults acronymResults) {
+        public AsyncResultsImpl(long requestId,
+                                long deadline,
+                                AcronymResults acronymResults,
+                                Map<Long, AsyncResultsImpl> requests) {
+            mRequestId = requestId;
+            mDeadline = deadline;
             mAcronymResults = new WeakReference<>(acronymResults);
+            mRequests = requests;
+        }
+
+        /**
+         * Return the AcronymResults object the results are passed
+         * to, or null if they're dropped because the request was
+         * cancelled or nobody is waiting for them anymore.  If
+         * @a last is true the request is finished.
+         */
+        private AcronymResults getAcronymResults(boolean last) {
+            if (last)
+                mRequests.remove(mRequestId);
+            return mCancelled
+                ? null
+                : mAcronymResults.get();
         }
 
         /**
@@ -223,7 +484,58 @@ public class AcronymModel
         @Override
         public void sendResults(final List<AcronymExpansion> acronymExpansions)
             throws RemoteException {
-            mAcronymResults.get().sendResults(acronymExpansions);
+            final AcronymResults acronymResults =
+                getAcronymResults(true);
+            if (acronymResults != null)
+                acronymResults.sendResults(acronymExpansions);
+        }
+
+        /**
+         * This method is invoked by AcronymServiceAsync to trigger
+         * returning a chunk of the results back to
+         * AcronymExpansionActivity.
+         */
+        @Override
+        public void sendPartialResults(final List<AcronymExpansion> acronymExpansions,
+                                       boolean last)
+            throws RemoteException {
+            final AcronymResults acronymResults =
+                getAcronymResults(last);
+            if (acronymResults != null)
+                acronymResults.sendPartialResults(acronymExpansions,
+                                                  last);
+        }
+
+        /**
+         * This method is invoked by AcronymServiceAsync to trigger
+         * returning a chunk of the results in columnar form back to
+         * AcronymExpansionActivity.
+         */
+        @Override
+        public void sendPartialResultBatch(final AcronymExpansionBatch acronymExpansions,
+                                           boolean last)
+            throws RemoteException {
+            final AcronymResults acronymResults =
+                getAcronymResults(last);
+            if (acronymResults != null)
+                acronymResults.sendPartialResultBatch(acronymExpansions,
+                                                      last);
+        }
+
+        /**
+         * This method is invoked by AcronymServiceAsync to trigger
+         * returning a chunk of the results of a batch back to
+         * AcronymExpansionActivity.  Since there's no way to tell
+         * which chunk is the last one, the request is tracked until
+         * its REQUEST_TIMEOUT passes.
+         */
+        @Override
+        public void sendExpandedAcronyms(final List<ExpandedAcronym> expandedAcronyms)
+            throws RemoteException {
+            final AcronymResults acronymResults =
+                getAcronymResults(false);
+            if (acronymResults != null)
+                acronymResults.sendExpandedAcronyms(expandedAcronyms);
         }
 
         /**
@@ -233,7 +545,10 @@ public class AcronymModel
         @Override
         public void sendError(final String reason)
             throws RemoteException {
-            mAcronymResults.get().sendError(reason);
+            final AcronymResults acronymResults =
+                getAcronymResults(true);
+            if (acronymResults != null)
+                acronymResults.sendError(reason);
         }
     }
 }
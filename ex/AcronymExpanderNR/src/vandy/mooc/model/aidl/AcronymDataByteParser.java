@@ -0,0 +1,623 @@
+package vandy.mooc.model.aidl;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Parses the Json acronym data returned from the Acronym Services API
+ * directly from its UTF-8 bytes and returns a List of
+ * AcronymExpansion objects that contain this data.  Unlike a parser
+ * built on android.util.JsonReader it doesn't decode the stream into
+ * characters, it recognizes field names by comparing their bytes
+ * rather than by allocating a String for each one, and it parses
+ * numbers directly from their digits.  The only objects it allocates
+ * per parse are the List, the AcronymExpansion objects and their lf
+ * Strings, and since it only depends on java.io it also runs on the
+ * plain JVM, e.g., in unit tests and benchmarks.
+ *
+ * Like AcronymDataJsonParser it can pass the AcronymExpansion objects
+ * to a ChunkListener in fixed-size chunks as they're parsed.  A
+ * parser can be reused for many streams, but not by concurrent
+ * threads.
+ */
+public class AcronymDataByteParser {
+    /**
+     * Character set of the Json data.
+     */
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    /**
+     * The field names that are recognized, as UTF-8 bytes.
+     */
+    private static final byte[] LFS = AcronymData.lfs_JSON.getBytes(UTF_8);
+    private static final byte[] LF = AcronymExpansion.lf_JSON.getBytes(UTF_8);
+    private static final byte[] FREQ = AcronymExpansion.freq_JSON.getBytes(UTF_8);
+    private static final byte[] SINCE = AcronymExpansion.since_JSON.getBytes(UTF_8);
+
+    /**
+     * Size of the buffer the stream is read into.
+     */
+    private static final int BUFFER_SIZE = 8192;
+
+    /**
+     * Number of AcronymExpansion objects in each chunk.
+     */
+    private final int mChunkSize;
+
+    /**
+     * Receives the chunks, or null if the results aren't chunked.
+     */
+    private final AcronymDataJsonParser.ChunkListener mChunkListener;
+
+    /**
+     * Holds the bytes read from the stream.
+     */
+    private final byte[] mBuffer = new byte[BUFFER_SIZE];
+
+    /**
+     * Position of the next byte in mBuffer, and the end of the bytes
+     * read into it.
+     */
+    private int mPos;
+    private int mLimit;
+
+    /**
+     * The stream being parsed.
+     */
+    private InputStream mIn;
+
+    /**
+     * Holds the unescaped bytes of the last string that was read,
+     * which grows to fit the longest string.
+     */
+    private byte[] mString = new byte[64];
+
+    /**
+     * Number of bytes in mString.
+     */
+    private int mStringLength;
+
+    /**
+     * Constructor for a parser that just returns the results.
+     */
+    public AcronymDataByteParser() {
+        this(0,
+             null);
+    }
+
+    /**
+     * Constructor for a parser that also passes each full chunk of
+     * @a chunkSize AcronymExpansion objects to the @a chunkListener
+     * as soon as it's parsed.  As with AcronymDataJsonParser, the
+     * last chunk, which may be partial, isn't passed to the
+     * @a chunkListener.
+     */
+    public AcronymDataByteParser(int chunkSize,
+                                 AcronymDataJsonParser.ChunkListener chunkListener) {
+        mChunkSize = chunkSize;
+        mChunkListener = chunkListener;
+    }
+
+    /**
+     * Parse the @a inputStream and convert it into a List of
+     * AcronymExpansion objects.  Returns null if the acronym wasn't
+     * expanded.  The @a inputStream isn't closed.
+     */
+    public List<AcronymExpansion> parseJsonStream(InputStream inputStream)
+        throws IOException {
+        mIn = inputStream;
+        mPos = 0;
+        mLimit = 0;
+        try {
+            return parseAcronymWebServiceResults();
+        } finally {
+            mIn = null;
+        }
+    }
+
+    /**
+     * Parse the array returned by the Acronym Service, which holds
+     * one element per acronym.
+     */
+    private List<AcronymExpansion> parseAcronymWebServiceResults()
+        throws IOException {
+        expect('[');
+
+        // If the acronym wasn't expanded return null.
+        if (nextNonWhitespace() == ']')
+            return null;
+        pushBack();
+
+        final List<AcronymExpansion> acronymExpansions =
+            parseAcronymData();
+
+        // Skip any other elements.
+        while (nextSeparator(']'))
+            skipValue();
+        return acronymExpansions;
+    }
+
+    /**
+     * Parse the object for an acronym and return its long forms, or
+     * null if it has none.
+     */
+    private List<AcronymExpansion> parseAcronymData()
+        throws IOException {
+        List<AcronymExpansion> acronymExpansions = null;
+        expect('{');
+        if (nextNonWhitespace() == '}')
+            return null;
+        pushBack();
+
+        do {
+            readName();
+            if (nameEquals(LFS)) {
+                if (nextNonWhitespace() == '[') {
+                    pushBack();
+                    acronymExpansions = parseAcronymLongFormArray();
+                } else {
+                    pushBack();
+                    skipValue();
+                }
+            } else
+                // The sf field and the unknown fields are skipped.
+                skipValue();
+        } while (nextSeparator('}'));
+
+        return acronymExpansions;
+    }
+
+    /**
+     * Parse the array of long forms of an acronym.
+     */
+    private List<AcronymExpansion> parseAcronymLongFormArray()
+        throws IOException {
+        expect('[');
+
+        final List<AcronymExpansion> acronyms =
+            new ArrayList<AcronymExpansion>();
+        if (nextNonWhitespace() == ']')
+            return acronyms;
+        pushBack();
+
+        do {
+            acronyms.add(parseAcronymExpansion());
+
+            // Pass along each full chunk as soon as it's parsed.
+            if (mChunkListener != null
+                && acronyms.size() % mChunkSize == 0)
+                mChunkListener.onChunk
+                    (new ArrayList<AcronymExpansion>
+                     (acronyms.subList(acronyms.size() - mChunkSize,
+                                       acronyms.size())));
+        } while (nextSeparator(']'));
+
+        return acronyms;
+    }
+
+    /**
+     * Parse a long form and return it as an AcronymExpansion object.
+     * Its variants ("vars") and other unknown fields are skipped.
+     */
+    private AcronymExpansion parseAcronymExpansion()
+        throws IOException {
+        final AcronymExpansion acronymExpansion =
+            new AcronymExpansion();
+        expect('{');
+        if (nextNonWhitespace() == '}')
+            return acronymExpansion;
+        pushBack();
+
+        do {
+            readName();
+            if (nameEquals(LF)) {
+                expect('"');
+                readString();
+                acronymExpansion.setLf(new String(mString,
+                                                  0,
+                                                  mStringLength,
+                                                  UTF_8));
+            } else if (nameEquals(FREQ))
+                acronymExpansion.setFreq(nextInt());
+            else if (nameEquals(SINCE))
+                acronymExpansion.setSince(nextInt());
+            else
+                skipValue();
+        } while (nextSeparator('}'));
+
+        return acronymExpansion;
+    }
+
+    /**
+     * Read the name of a field and the colon following it.  The name
+     * is left in mString.
+     */
+    private void readName()
+        throws IOException {
+        expect('"');
+        readString();
+        expect(':');
+    }
+
+    /**
+     * Return true if the name in mString is @a name.
+     */
+    private boolean nameEquals(byte[] name) {
+        if (mStringLength != name.length)
+            return false;
+        for (int i = 0; i < mStringLength; ++i)
+            if (mString[i] != name[i])
+                return false;
+        return true;
+    }
+
+    /**
+     * Parse an int, which may be quoted, directly from its digits.
+     */
+    private int nextInt()
+        throws IOException {
+        int c = nextNonWhitespace();
+        final boolean quoted = c == '"';
+        if (quoted)
+            c = nextByte();
+
+        final boolean negative = c == '-';
+        if (negative)
+            c = nextByte();
+        if (c < '0' || c > '9')
+            throw syntaxError("Expected an int");
+
+        // Accumulate the value as a negative number, which can hold
+        // Integer.MIN_VALUE.
+        int value = 0;
+        for (; c >= '0' && c <= '9'; c = read()) {
+            if (value < (Integer.MIN_VALUE + (c - '0')) / 10)
+                throw syntaxError("Int overflow");
+            value = value * 10 - (c - '0');
+        }
+
+        if (c == '.' || c == 'e' || c == 'E')
+            throw syntaxError("Expected an int");
+        if (quoted) {
+            if (c != '"')
+                throw syntaxError("Unterminated string");
+        } else if (c != -1)
+            pushBack();
+
+        if (negative)
+            return value;
+        else if (value == Integer.MIN_VALUE)
+            throw syntaxError("Int overflow");
+        else
+            return -value;
+    }
+
+    /**
+     * Read the rest of a string, whose opening quote has been read,
+     * into mString, replacing its escape sequences by the UTF-8
+     * bytes they stand for.
+     */
+    private void readString()
+        throws IOException {
+        mStringLength = 0;
+        for (;;) {
+            // Copy the bytes up to the next quote or escape in bulk.
+            int start = mPos;
+            while (mPos < mLimit
+                   && mBuffer[mPos] != '"'
+                   && mBuffer[mPos] != '\\')
+                ++mPos;
+            append(mBuffer,
+                   start,
+                   mPos - start);
+
+            int c = read();
+            if (c == '"')
+                return;
+            else if (c == '\\')
+                readEscape();
+            else if (c == -1)
+                throw syntaxError("Unterminated string");
+            else
+                // The buffer was exhausted, so this byte belongs to
+                // the string.
+                appendByte(c);
+        }
+    }
+
+    /**
+     * Read an escape sequence, whose backslash has been read, and
+     * append the UTF-8 bytes it stands for to mString.
+     */
+    private void readEscape()
+        throws IOException {
+        int c = nextByte();
+        switch (c) {
+        case 'b':
+            appendByte('\b');
+            break;
+        case 'f':
+            appendByte('\f');
+            break;
+        case 'n':
+            appendByte('\n');
+            break;
+        case 'r':
+            appendByte('\r');
+            break;
+        case 't':
+            appendByte('\t');
+            break;
+        case 'u':
+            int codeUnit = readHex();
+            // A character outside the BMP is escaped as a surrogate
+            // pair, whose first half has already been appended on
+            // its own, so replace it by the whole character.
+            if (Character.isLowSurrogate((char) codeUnit)
+                && endsWithHighSurrogate()) {
+                mStringLength -= 3;
+                appendCodePoint(Character.toCodePoint
+                                ((char) (0xD000
+                                         | (mString[mStringLength + 1] & 0x3F) << 6
+                                         | mString[mStringLength + 2] & 0x3F),
+                                 (char) codeUnit));
+            } else
+                appendCodePoint(codeUnit);
+            break;
+        default:
+            // Covers '"', '\\' and '/', which stand for themselves.
+            appendByte(c);
+            break;
+        }
+    }
+
+    /**
+     * Read the 4 hex digits of a \\u escape sequence.
+     */
+    private int readHex()
+        throws IOException {
+        int value = 0;
+        for (int i = 0; i < 4; ++i) {
+            int digit = Character.digit(nextByte(),
+                                        16);
+            if (digit < 0)
+                throw syntaxError("Invalid escape sequence");
+            value = value * 16 + digit;
+        }
+        return value;
+    }
+
+    /**
+     * Return true if mString ends with the 3 bytes appendCodePoint()
+     * appends for a high surrogate.
+     */
+    private boolean endsWithHighSurrogate() {
+        return mStringLength >= 3
+            && (mString[mStringLength - 3] & 0xFF) == 0xED
+            && (mString[mStringLength - 2] & 0xF0) == 0xA0;
+    }
+
+    /**
+     * Append the UTF-8 bytes of @a codePoint to mString.
+     */
+    private void appendCodePoint(int codePoint) {
+        if (codePoint < 0x80)
+            appendByte(codePoint);
+        else if (codePoint < 0x800) {
+            appendByte(0xC0 | codePoint >> 6);
+            appendByte(0x80 | codePoint & 0x3F);
+        } else if (codePoint < 0x10000) {
+            appendByte(0xE0 | codePoint >> 12);
+            appendByte(0x80 | codePoint >> 6 & 0x3F);
+            appendByte(0x80 | codePoint & 0x3F);
+        } else {
+            appendByte(0xF0 | codePoint >> 18);
+            appendByte(0x80 | codePoint >> 12 & 0x3F);
+            appendByte(0x80 | codePoint >> 6 & 0x3F);
+            appendByte(0x80 | codePoint & 0x3F);
+        }
+    }
+
+    /**
+     * Append @a length bytes of @a bytes starting at @a offset to
+     * mString.
+     */
+    private void append(byte[] bytes,
+                        int offset,
+                        int length) {
+        ensureCapacity(mStringLength + length);
+        System.arraycopy(bytes,
+                         offset,
+                         mString,
+                         mStringLength,
+                         length);
+        mStringLength += length;
+    }
+
+    /**
+     * Append the byte @a b to mString.
+     */
+    private void appendByte(int b) {
+        ensureCapacity(mStringLength + 1);
+        mString[mStringLength++] = (byte) b;
+    }
+
+    /**
+     * Grow mString so it can hold @a capacity bytes.
+     */
+    private void ensureCapacity(int capacity) {
+        if (capacity > mString.length) {
+            byte[] string = new byte[Math.max(capacity,
+                                              mString.length * 2)];
+            System.arraycopy(mString,
+                             0,
+                             string,
+                             0,
+                             mStringLength);
+            mString = string;
+        }
+    }
+
+    /**
+     * Skip the next value, including any objects and arrays nested in
+     * it.
+     */
+    private void skipValue()
+        throws IOException {
+        int c = nextNonWhitespace();
+        if (c == '"')
+            skipString();
+        else if (c == '{' || c == '[') {
+            for (int depth = 1; depth > 0; ) {
+                if (mPos == mLimit)
+                    fill();
+                byte b = mBuffer[mPos++];
+                if (b == '"')
+                    skipString();
+                else if (b == '{' || b == '[')
+                    ++depth;
+                else if (b == '}' || b == ']')
+                    --depth;
+            }
+        } else {
+            // Skip a number or a literal, i.e., true, false or null.
+            while (c != ','
+                   && c != '}'
+                   && c != ']'
+                   && !isWhitespace(c)) {
+                c = read();
+                if (c == -1)
+                    return;
+            }
+            pushBack();
+        }
+    }
+
+    /**
+     * Skip the rest of a string, whose opening quote has been read.
+     */
+    private void skipString()
+        throws IOException {
+        for (;;) {
+            if (mPos == mLimit)
+                fill();
+            byte b = mBuffer[mPos++];
+            if (b == '"')
+                return;
+            else if (b == '\\')
+                // The escaped byte can't end the string.
+                nextByte();
+        }
+    }
+
+    /**
+     * Read the separator after an element of an array or a field of
+     * an object.
+     *
+     * @return True if another element follows, or false if @a close
+     * ends the array or object
+     */
+    private boolean nextSeparator(int close)
+        throws IOException {
+        int c = nextNonWhitespace();
+        if (c == ',')
+            return true;
+        else if (c == close)
+            return false;
+        else
+            throw syntaxError("Expected ',' or '"
+                              + (char) close
+                              + "'");
+    }
+
+    /**
+     * Read the next byte that isn't whitespace and check that it's
+     * @a expected.
+     */
+    private void expect(int expected)
+        throws IOException {
+        if (nextNonWhitespace() != expected)
+            throw syntaxError("Expected '"
+                              + (char) expected
+                              + "'");
+    }
+
+    /**
+     * Return the next byte that isn't whitespace.
+     */
+    private int nextNonWhitespace()
+        throws IOException {
+        int c;
+        do
+            c = nextByte();
+        while (isWhitespace(c));
+        return c;
+    }
+
+    /**
+     * Return true if @a c is Json whitespace.
+     */
+    private static boolean isWhitespace(int c) {
+        return c == ' '
+            || c == '\n'
+            || c == '\r'
+            || c == '\t';
+    }
+
+    /**
+     * Return the next byte, throwing EOFException at the end of the
+     * stream.
+     */
+    private int nextByte()
+        throws IOException {
+        int c = read();
+        if (c == -1)
+            throw new EOFException("End of input");
+        return c;
+    }
+
+    /**
+     * Return the next byte, or -1 at the end of the stream.
+     */
+    private int read()
+        throws IOException {
+        if (mPos == mLimit) {
+            mPos = 0;
+            mLimit = Math.max(mIn.read(mBuffer),
+                              0);
+            if (mLimit == 0)
+                return -1;
+        }
+        return mBuffer[mPos++] & 0xFF;
+    }
+
+    /**
+     * Refill the buffer once all of it has been read, throwing
+     * EOFException at the end of the stream.
+     */
+    private void fill()
+        throws IOException {
+        nextByte();
+        pushBack();
+    }
+
+    /**
+     * Push back the byte that was just read, which is always still in
+     * the buffer.
+     */
+    private void pushBack() {
+        --mPos;
+    }
+
+    /**
+     * Return an IOException for malformed Json.
+     */
+    private IOException syntaxError(String message) {
+        return new IOException(message
+                               + " in acronym data");
+    }
+}
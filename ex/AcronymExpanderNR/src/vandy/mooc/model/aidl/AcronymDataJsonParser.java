@@ -12,6 +12,12 @@ import android.util.JsonToken;
 /**
  * Parses the Json acronym data returned from the Acronym Services API
  * and returns a List of JsonAcronym objects that contain this data.
+ * It can also pass the AcronymExpansion objects to a ChunkListener in
+ * fixed-size chunks as they're parsed, so a caller can start using
+ * the results of a long list before all of it has been parsed.
+ * Streams are parsed by an AcronymDataByteParser, which is much
+ * cheaper than a JsonReader, while the methods that take a JsonReader
+ * remain for callers that already have one.
  */
 public class AcronymDataJsonParser {
     /**
@@ -20,6 +26,57 @@ public class AcronymDataJsonParser {
     private final String TAG =
         this.getClass().getCanonicalName();
 
+    /**
+     * Define a hook interface used to pass the AcronymExpansion
+     * objects to a caller in chunks as they're parsed.
+     */
+    public interface ChunkListener {
+        /**
+         * Handle the next @a chunk of AcronymExpansion objects.
+         */
+        void onChunk(List<AcronymExpansion> chunk);
+    }
+
+    /**
+     * Number of AcronymExpansion objects in each chunk.
+     */
+    private final int mChunkSize;
+
+    /**
+     * Receives the chunks, or null if the results aren't chunked.
+     */
+    private final ChunkListener mChunkListener;
+
+    /**
+     * Constructor for a parser that just returns the results.
+     */
+    public AcronymDataJsonParser() {
+        this(0,
+             null);
+    }
+
+    /**
+     * Constructor for a parser that also passes each full chunk of
+     * @a chunkSize AcronymExpansion objects to the @a chunkListener
+     * as soon as it's parsed.  The last chunk, which may be partial,
+     * isn't passed to the @a chunkListener, since only the caller
+     * knows when the results are complete, e.g., that the response
+     * parsed successfully.
+     */
+    public AcronymDataJsonParser(int chunkSize,
+                                 ChunkListener chunkListener) {
+        mChunkSize = chunkSize;
+        mChunkListener = chunkListener;
+    }
+
+    /**
+     * Return true if this parser passes chunks of the results to a
+     * ChunkListener as they're parsed.
+     */
+    public boolean isChunked() {
+        return mChunkListener != null;
+    }
+
     /**
      * Parse the @a inputStream and convert it into a List of AcronymData
      * objects.
@@ -27,6 +84,23 @@ public class AcronymDataJsonParser {
     public List<AcronymExpansion> parseJsonStream(InputStream inputStream)
         throws IOException {
 
+        // Parse the UTF-8 bytes of the inputStream directly, rather
+        // than decoding them for a JsonReader.
+        try (InputStream in = inputStream) {
+            // Handle the array returned from the Acronym Service.
+            return new AcronymDataByteParser(mChunkSize,
+                                             mChunkListener).parseJsonStream(in);
+        }
+    }
+
+    /**
+     * Parse the @a inputStream with a JsonReader and convert it into a
+     * List of AcronymData objects.  It's kept as a reference for
+     * parseJsonStream(), e.g., for benchmarks.
+     */
+    public List<AcronymExpansion> parseJsonStreamWithJsonReader(InputStream inputStream)
+        throws IOException {
+
         // Create a JsonReader for the inputStream.
         try (JsonReader reader =
              new JsonReader(new InputStreamReader(inputStream,
@@ -102,8 +176,17 @@ public class AcronymDataJsonParser {
         final List<AcronymExpansion> acronyms =
             new ArrayList<AcronymExpansion>();
 
-        while (reader.hasNext()) 
+        while (reader.hasNext()) {
             acronyms.add(parseAcronymExpansion(reader));
+
+            // Pass along each full chunk as soon as it's parsed.
+            if (mChunkListener != null
+                && acronyms.size() % mChunkSize == 0)
+                mChunkListener.onChunk
+                    (new ArrayList<AcronymExpansion>
+                     (acronyms.subList(acronyms.size() - mChunkSize,
+                                       acronyms.size())));
+        }
             
         reader.endArray();
         return acronyms;
@@ -0,0 +1,111 @@
+package vandy.mooc.model.aidl;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import android.os.Parcel;
+import android.os.Parcelable;
+
+/**
+ * This POJO class pairs an acronym with its List of AcronymExpansion
+ * objects.  It's used to return the results of a batch of acronyms
+ * from the Acronym Services, so each result is keyed by the acronym
+ * it belongs to.  An acronym without expansions has an empty List.
+ */
+public class ExpandedAcronym
+       implements Parcelable {
+    /**
+     * The acronym (short form) that was expanded.
+     */
+    private String sf;
+
+    /**
+     * The expansions of the acronym, which is empty if the Acronym
+     * Service has none.
+     */
+    private List<AcronymExpansion> expansions;
+
+    /**
+     * Constructor that initialises an ExpandedAcronym object from its
+     * parameters.
+     */
+    public ExpandedAcronym(String sf,
+                           List<AcronymExpansion> expansions) {
+        this.sf = sf;
+        this.expansions = expansions;
+    }
+
+    /**
+     * Private constructor provided for the CREATOR interface, which
+     * is used to de-marshal an ExpandedAcronym from the Parcel of
+     * data.
+     */
+    private ExpandedAcronym(Parcel in) {
+        sf = in.readString();
+        expansions = in.createTypedArrayList(AcronymExpansion.CREATOR);
+        if (expansions == null)
+            expansions = new ArrayList<AcronymExpansion>();
+    }
+
+    /*
+     * Getters to access ExpandedAcronym.
+     */
+
+    public String getSf() {
+        return sf;
+    }
+
+    public List<AcronymExpansion> getExpansions() {
+        return expansions;
+    }
+
+    /**
+     * The toString() custom implementation.
+     */
+    @Override
+    public String toString() {
+        return "ExpandedAcronym [sf="
+            + sf
+            + ", expansions="
+            + expansions
+            + "]";
+    }
+
+    /*
+     * Parcelable related methods.
+     */
+
+    /**
+     * A bitmask indicating the set of special object types marshaled
+     * by the Parcelable.
+     */
+    @Override
+    public int describeContents() {
+        return 0;
+    }
+
+    /**
+     * Marshal this ExpandedAcronym to the target Parcel.
+     */
+    @Override
+    public void writeToParcel(Parcel dest,
+                              int flags) {
+        dest.writeString(sf);
+        dest.writeTypedList(expansions);
+    }
+
+    /**
+     * public Parcelable.Creator for ExpandedAcronym, which generates
+     * instances of ExpandedAcronym from a Parcel.
+     */
+    public static final Parcelable.Creator<ExpandedAcronym> CREATOR =
+        new Parcelable.Creator<ExpandedAcronym>() {
+        public ExpandedAcronym createFromParcel(Parcel in) {
+            return new ExpandedAcronym(in);
+        }
+
+        public ExpandedAcronym[] newArray(int size) {
+            return new ExpandedAcronym[size];
+        }
+    };
+}
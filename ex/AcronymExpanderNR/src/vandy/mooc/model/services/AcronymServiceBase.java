@@ -1,19 +1,41 @@
 package vandy.mooc.model.services;
 
-import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStream;
-import java.net.HttpURLConnection;
+import java.io.InputStreamReader;
+import java.io.Reader;
 import java.net.URL;
 import java.net.URLEncoder;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 
 import vandy.mooc.common.ExecutorServiceTimeoutCache;
+import vandy.mooc.common.DecayingBloomFilter;
 import vandy.mooc.common.GenericSingleton;
+import vandy.mooc.common.HttpTransport;
 import vandy.mooc.common.LifecycleLoggingService;
+import vandy.mooc.common.MappedFileTimeoutCache;
+import vandy.mooc.common.TimeoutCache;
 import vandy.mooc.model.aidl.AcronymDataJsonParser;
 import vandy.mooc.model.aidl.AcronymExpansion;
+import vandy.mooc.model.aidl.ExpandedAcronym;
+import android.os.RemoteException;
 import android.util.Log;
 
 /**
@@ -37,6 +59,45 @@ public class AcronymServiceBase
      */
     private int DEFAULT_CACHE_TIMEOUT = 10;
 
+    /**
+     * Maximum number of AcronymExpansion objects held by the
+     * AcronymCache.  Once this limit is reached the least popular
+     * acronyms are evicted, which prevents a burst of distinct
+     * acronyms from growing the cache without bound.
+     */
+    private static final long MAX_CACHE_WEIGHT = 10000;
+
+    /**
+     * Percentage of DEFAULT_CACHE_TIMEOUT after which cached
+     * expansions are refreshed in the background, so callers asking
+     * for popular acronyms don't wait for the web service when their
+     * entries expire.
+     */
+    private static final int REFRESH_AHEAD_PERCENT = 80;
+
+    /**
+     * Number of milliseconds the AcronymCache lingers after the last
+     * Service using it is destroyed.  If a Service is created again
+     * within this time, e.g., because a client rebinds after a
+     * configuration change, the cache and its entries are reused
+     * rather than rebuilt.
+     */
+    private static final long CACHE_LINGER_TIME = 30 * 1000;
+
+    /**
+     * Number of seconds after which an acronym that the Acronym
+     * Service had no expansions for may be queried again.  Until then
+     * lookups of the acronym, e.g., a repeated typo, are answered
+     * without a round trip to the Acronym Service.
+     */
+    private static final int NEGATIVE_CACHE_TIMEOUT = 60;
+
+    /**
+     * Number of unknown acronyms expected per NEGATIVE_CACHE_TIMEOUT,
+     * which determines the size of the UnknownAcronyms filter.
+     */
+    private static final int MAX_UNKNOWN_ACRONYMS = 1000;
+
     /**
      * Define a class that will cache the AcronymData since it doesn't
      * change rapidly.  This class is passed to the
@@ -44,7 +105,209 @@ public class AcronymServiceBase
      * instance of the AcronymCache.
      */
     public static class AcronymCache 
-           extends ExecutorServiceTimeoutCache<String, List<AcronymExpansion>> {}
+           extends ExecutorServiceTimeoutCache<String, List<AcronymExpansion>> {
+        /**
+         * Constructor bounds the cache by the total number of
+         * AcronymExpansion objects it holds.
+         */
+        public AcronymCache() {
+            super(MAX_CACHE_WEIGHT);
+        }
+
+        /**
+         * The weight of an entry is its number of AcronymExpansion
+         * objects.
+         */
+        @Override
+        protected int weigh(String acronym,
+                            List<AcronymExpansion> expansions) {
+            return expansions.size();
+        }
+
+        /**
+         * Refresh entries ahead of their expiration.
+         */
+        @Override
+        protected int refreshAheadPercent() {
+            return REFRESH_AHEAD_PERCENT;
+        }
+
+        /**
+         * Linger after the last Service using the cache is destroyed.
+         */
+        @Override
+        protected long lingerTime() {
+            return CACHE_LINGER_TIME;
+        }
+
+        /**
+         * Loaded expansions come from the SharedAcronymCache, so only
+         * keep them for as long as the SharedAcronymCache does, rather
+         * than for another full @a timeout.
+         */
+        @Override
+        protected int loadedTimeout(String acronym,
+                                    List<AcronymExpansion> expansions,
+                                    int timeout) {
+            int remaining =
+                GenericSingleton.instance(SharedAcronymCache.class)
+                                .getRemainingTimeout(acronym);
+            return remaining == -1
+                ? timeout
+                : Math.min(remaining,
+                           timeout);
+        }
+    }
+
+    /**
+     * Name of the file in the cache directory that holds the
+     * SharedAcronymCache.
+     */
+    private static final String SHARED_CACHE_FILE = "acronyms.cache";
+
+    /**
+     * Name of the file in the files directory that holds an offline
+     * dump of the Acronym Service's dictionary, in the format read by
+     * AcronymIndex.build(), e.g., after it's been downloaded.
+     */
+    private static final String DICTIONARY_DUMP_FILE = "acronyms.tsv";
+
+    /**
+     * Name of the file in the files directory that holds the
+     * AcronymIndex built from the DICTIONARY_DUMP_FILE.
+     */
+    private static final String INDEX_FILE = "acronyms.idx";
+
+    /**
+     * Number of milliseconds to wait for a connection to the Acronym
+     * Service and for each read of its response.
+     */
+    private static final int CONNECT_TIMEOUT = 10 * 1000;
+    private static final int READ_TIMEOUT = 15 * 1000;
+
+    /**
+     * Sends the queries to the Acronym Service.  It's shared by all
+     * the threads in the process, so their queries reuse the same
+     * persistent connections rather than opening a new connection
+     * per acronym.
+     */
+    private static final HttpTransport sHttpTransport =
+        new HttpTransport(CONNECT_TIMEOUT,
+                          READ_TIMEOUT);
+
+    /**
+     * Maximum number of acronyms in a batch that are looked up in the
+     * Acronym Service concurrently, which bounds the number of
+     * threads and connections a large batch can tie up.
+     */
+    private static final int MAX_PARALLEL_LOOKUPS = 4;
+
+    /**
+     * Chunk size passed to getAcronymExpansions() to return all the
+     * results of a batch in a single chunk.
+     */
+    protected static final int SINGLE_CHUNK = Integer.MAX_VALUE;
+
+    /**
+     * Orders AcronymExpansion objects by decreasing frequency.
+     */
+    private static final Comparator<AcronymExpansion> BY_DECREASING_FREQ =
+        new Comparator<AcronymExpansion>() {
+            @Override
+            public int compare(AcronymExpansion a,
+                               AcronymExpansion b) {
+                return Integer.compare(b.getFreq(),
+                                       a.getFreq());
+            }
+        };
+
+    /**
+     * Looks up the acronyms in a batch that aren't in the
+     * AcronymCache.
+     */
+    private ThreadPoolExecutor mLookupExecutor;
+
+    /**
+     * The offline index of the Acronym Service's dictionary, which is
+     * consulted before querying the Acronym Service, or null until
+     * it's opened or if there isn't one.
+     */
+    private volatile AcronymIndex mIndex;
+
+    /**
+     * Define a hook interface used by getAcronymExpansions() to
+     * return the results of a batch of acronyms in chunks.
+     */
+    protected interface ChunkHandler {
+        /**
+         * Handle a chunk of @a results.
+         */
+        void handleChunk(List<ExpandedAcronym> results)
+            throws RemoteException;
+    }
+
+    /**
+     * Define a class that caches AcronymData in a memory-mapped file.
+     * AcronymServiceSync and AcronymServiceAsync run in different
+     * processes, so each process has its own AcronymCache, but both
+     * map the same SharedAcronymCache file and thus see the results
+     * obtained by the other process.
+     */
+    public static class SharedAcronymCache
+           extends MappedFileTimeoutCache<List<AcronymExpansion>> {
+        /**
+         * Serialize the @a expansions to @a out.
+         */
+        @Override
+        protected void writeValue(DataOutputStream out,
+                                  List<AcronymExpansion> expansions)
+            throws IOException {
+            out.writeInt(expansions.size());
+            for (AcronymExpansion expansion : expansions) {
+                out.writeUTF(expansion.getLf());
+                out.writeInt(expansion.getFreq());
+                out.writeInt(expansion.getSince());
+            }
+        }
+
+        /**
+         * Deserialize the expansions written by writeValue() from @a
+         * in.
+         */
+        @Override
+        protected List<AcronymExpansion> readValue(DataInputStream in)
+            throws IOException {
+            int size = in.readInt();
+            List<AcronymExpansion> expansions =
+                new ArrayList<AcronymExpansion>(size);
+            for (int i = 0; i < size; ++i)
+                expansions.add(new AcronymExpansion(in.readUTF(),
+                                                    in.readInt(),
+                                                    in.readInt()));
+            return expansions;
+        }
+    }
+
+    /**
+     * Define a class that remembers the acronyms the Acronym Service
+     * recently had no expansions for.  This class is passed to the
+     * GenericSingleton.instance() method to retrieve the one and only
+     * instance of the UnknownAcronyms.  Since it's a Bloom filter it
+     * can occasionally report a known acronym as unknown, which only
+     * lasts until the acronym is forgotten.
+     */
+    public static class UnknownAcronyms
+           extends DecayingBloomFilter<String> {
+        /**
+         * Constructor sizes the filter and sets the time after which
+         * acronyms are forgotten.
+         */
+        public UnknownAcronyms() {
+            super(MAX_UNKNOWN_ACRONYMS,
+                  NEGATIVE_CACHE_TIMEOUT,
+                  TimeUnit.SECONDS);
+        }
+    }
 
     /**
      * Hook method called when the Service is created.
@@ -54,7 +317,77 @@ public class AcronymServiceBase
         super.onCreate();
         // Increment the reference count for the AcronymCache
         // singleton, which is shared by both Services.
-        GenericSingleton.instance(AcronymCache.class).incrementRefCount();
+        GenericSingleton.acquire(AcronymCache.class);
+
+        // Increment the reference count for the SharedAcronymCache
+        // singleton and map the file it shares with the Service
+        // running in the other process.
+        SharedAcronymCache sharedCache =
+            GenericSingleton.acquire(SharedAcronymCache.class);
+        try {
+            sharedCache.open(new File(getCacheDir(),
+                                      SHARED_CACHE_FILE));
+        } catch (IOException e) {
+            // The SharedAcronymCache simply stays empty.
+            Log.e(TAG,
+                  "unable to open the shared cache "
+                  + e);
+        }
+
+        // Create the executor that looks up the uncached acronyms in
+        // a batch, whose threads time out when there are no batches.
+        mLookupExecutor =
+            new ThreadPoolExecutor(MAX_PARALLEL_LOOKUPS,
+                                   MAX_PARALLEL_LOOKUPS,
+                                   30,
+                                   TimeUnit.SECONDS,
+                                   new LinkedBlockingQueue<Runnable>());
+        mLookupExecutor.allowCoreThreadTimeOut(true);
+
+        // Open the AcronymIndex in the background, since it may have
+        // to be built first.
+        mLookupExecutor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    openIndex();
+                }
+            });
+    }
+
+    /**
+     * Open the AcronymIndex, first building it if the
+     * DICTIONARY_DUMP_FILE is newer than the INDEX_FILE, i.e., if a
+     * dump has been stored since the index was last built.
+     */
+    private void openIndex() {
+        File dump = new File(getFilesDir(),
+                             DICTIONARY_DUMP_FILE);
+        File indexFile = new File(getFilesDir(),
+                                  INDEX_FILE);
+        try {
+            // lastModified() returns 0 for a file that doesn't exist.
+            if (dump.lastModified() > indexFile.lastModified()) {
+                Log.d(TAG,
+                      "Building the acronym index from "
+                      + dump);
+                try (Reader in =
+                     new InputStreamReader(new FileInputStream(dump),
+                                           "UTF-8")) {
+                    AcronymIndex.build(in,
+                                       indexFile);
+                }
+            }
+
+            if (indexFile.exists()) {
+                mIndex = AcronymIndex.open(indexFile);
+                Log.d(TAG,
+                      "Opened the acronym index of "
+                      + mIndex.size()
+                      + " acronyms");
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
     }
 
     /**
@@ -64,12 +397,21 @@ public class AcronymServiceBase
     @Override
     public void onDestroy() {
         super.onDestroy();
+        // Stop looking up acronyms and cancel the lookups that haven't
+        // started, which wakes up the batches waiting for them.
+        for (Runnable lookup : mLookupExecutor.shutdownNow())
+            if (lookup instanceof Future)
+                ((Future<?>) lookup).cancel(false);
+
         // Decrement the reference count for the AcronymCache
         // singleton, which shuts it down when the count drops to 0.
-        // When this happens, the GenericSingleton needs to remove the
-        // AcronymCache.class entry in its map.
-        if (GenericSingleton.instance(AcronymCache.class).decrementRefCount() == 0)
-            GenericSingleton.remove(AcronymCache.class);
+        // When this happens, the GenericSingleton atomically removes
+        // the AcronymCache.class entry in its map.
+        GenericSingleton.release(AcronymCache.class);
+
+        // Likewise, unmap the SharedAcronymCache when the count drops
+        // to 0.  Its entries remain in the file for other processes.
+        GenericSingleton.release(SharedAcronymCache.class);
     }
 
     /**
@@ -77,49 +419,321 @@ public class AcronymServiceBase
      * a List of AcronymData corresponding to the @a acronym if it's
      * been more than 10 seconds since the last query to the Acronym
      * Service.  Otherwise, simply return the cached results.
+     * Concurrent calls for the same @a acronym share a single query
+     * to the Acronym Service.  The results are sorted by decreasing
+     * frequency.
      */
     protected List<AcronymExpansion> getAcronymExpansions(String acronym) {
+        return getAcronymExpansions(acronym,
+                                    0,
+                                    null);
+    }
+
+    /**
+     * Return the expansions of @a acronym like
+     * getAcronymExpansions(String), but if this call queries the
+     * Acronym Service, each full chunk of @a chunkSize expansions is
+     * also passed to the @a chunkListener as soon as it's parsed.
+     * The chunks passed to the @a chunkListener are in the order the
+     * expansions are parsed, so unlike the returned List they may not
+     * be sorted by frequency, i.e., the returned List contains the
+     * expansions in the chunks, but not necessarily as a prefix.
+     * Results that are cached, or that are obtained by a query
+     * another caller started, are simply returned.
+     */
+    protected List<AcronymExpansion> getAcronymExpansions
+        (String acronym,
+         final int chunkSize,
+         final AcronymDataJsonParser.ChunkListener chunkListener) {
         Log.d(TAG,
               "Looking up results in the cache for "
               + acronym);
 
-        // Try to get the results from the AcronymCache.
+        // Try to get the results from the AcronymCache.  If they
+        // weren't already in the cache or were "stale" then obtain
+        // them from the Acronym Service and store them into the cache
+        // for up to DEFAULT_CACHE_TIMEOUT seconds.  Only one query
+        // runs per acronym, so other callers asking for the same
+        // acronym wait for its results.
+        // Only a query run by the calling thread passes chunks to
+        // the chunkListener, rather than one that refreshes the entry
+        // in the background.
+        final Thread caller = Thread.currentThread();
+        return GenericSingleton.instance(AcronymCache.class).getOrLoad
+            (acronym,
+             new TimeoutCache.Loader<String, List<AcronymExpansion>>() {
+                 @Override
+                 public List<AcronymExpansion> load(String acronym) {
+                     return getResultsFromSharedCache
+                         (acronym,
+                          chunkListener != null
+                          && Thread.currentThread() == caller
+                          ? new AcronymDataJsonParser(chunkSize,
+                                                      chunkListener)
+                          : new AcronymDataJsonParser());
+                 }
+             },
+             DEFAULT_CACHE_TIMEOUT);
+    }
+
+    /**
+     * Return the @a k most frequent expansions of @a acronym that have
+     * been used since @a minSince, or null if it has no expansions.
+     * Since the cached expansions are sorted by decreasing frequency,
+     * this only scans them until @a k are found.
+     */
+    protected List<AcronymExpansion> getTopExpansions(String acronym,
+                                                      int k,
+                                                      int minSince) {
+        List<AcronymExpansion> expansions =
+            getAcronymExpansions(acronym);
+        if (expansions == null)
+            return null;
+
+        int size = Math.min(Math.max(k, 0),
+                            expansions.size());
+        List<AcronymExpansion> top = new ArrayList<AcronymExpansion>(size);
+        for (AcronymExpansion expansion : expansions) {
+            if (top.size() == size)
+                break;
+            if (expansion.getSince() >= minSince)
+                top.add(expansion);
+        }
+        return top;
+    }
+
+    /**
+     * Return up to @a limit expansions of @a acronym starting at
+     * @a offset in order of decreasing frequency, or null if it has
+     * no expansions.  The page is a slice of the cached List, which
+     * is empty if @a offset is past its end.
+     */
+    protected List<AcronymExpansion> getExpansionPage(String acronym,
+                                                      int offset,
+                                                      int limit) {
+        List<AcronymExpansion> expansions =
+            getAcronymExpansions(acronym);
+        if (expansions == null)
+            return null;
+
+        int start = Math.min(Math.max(offset, 0),
+                             expansions.size());
+        int end = (int) Math.min((long) start + Math.max(limit, 0),
+                                 expansions.size());
+        return expansions.subList(start, end);
+    }
+
+    /**
+     * Expand a batch of @a acronyms and pass the results to the @a
+     * handler in chunks of up to @a chunkSize ExpandedAcronym
+     * objects.  The acronyms that are in the AcronymCache are expanded
+     * right away, while the others are looked up in the Acronym
+     * Service concurrently, up to MAX_PARALLEL_LOOKUPS at a time.
+     * Unless @a chunkSize is SINGLE_CHUNK the results that are ready
+     * are passed to the @a handler rather than holding them back
+     * while waiting for slower lookups.  Each distinct acronym appears
+     * in exactly one chunk.  If the calling thread is interrupted,
+     * e.g., because the batch was cancelled, the batch is abandoned,
+     * its unfinished lookups are cancelled too, and a
+     * CancellationException is thrown with the interrupt status left
+     * set, so the caller can't mistake the chunks passed so far for
+     * the whole batch.
+     */
+    protected void getAcronymExpansions(List<String> acronyms,
+                                        int chunkSize,
+                                        ChunkHandler handler)
+        throws RemoteException {
+        AcronymCache cache =
+            GenericSingleton.instance(AcronymCache.class);
+        CompletionService<ExpandedAcronym> lookups =
+            new ExecutorCompletionService<ExpandedAcronym>(mLookupExecutor);
+        List<String> cachedAcronyms = new ArrayList<String>();
+        List<Future<ExpandedAcronym>> pending =
+            new ArrayList<Future<ExpandedAcronym>>();
+        int pendingLookups = 0;
+
+        // Check the cache for all the acronyms first and start
+        // looking up the ones that aren't cached in the background.
+        for (final String acronym : new LinkedHashSet<String>(acronyms))
+            if (cache.containsKey(acronym))
+                cachedAcronyms.add(acronym);
+            else {
+                pending.add(lookups.submit(new Callable<ExpandedAcronym>() {
+                        @Override
+                        public ExpandedAcronym call() {
+                            return expandAcronym(acronym);
+                        }
+                    }));
+                ++pendingLookups;
+            }
+
+        // Expand the cached acronyms while the lookups run.
+        List<ExpandedAcronym> chunk = new ArrayList<ExpandedAcronym>();
+        for (String acronym : cachedAcronyms) {
+            chunk.add(expandAcronym(acronym));
+            if (chunk.size() >= chunkSize) {
+                handler.handleChunk(chunk);
+                chunk = new ArrayList<ExpandedAcronym>();
+            }
+        }
+
+        for (;;) {
+            // Pass along a full chunk, or the last one.
+            if (!chunk.isEmpty()
+                && (chunk.size() >= chunkSize
+                    || pendingLookups == 0)) {
+                handler.handleChunk(chunk);
+                chunk = new ArrayList<ExpandedAcronym>();
+            }
+
+            if (pendingLookups == 0)
+                return;
+
+            try {
+                Future<ExpandedAcronym> lookup = lookups.poll();
+                if (lookup == null) {
+                    // Pass along the results that are ready rather
+                    // than holding them back while waiting for the
+                    // next lookup.
+                    if (!chunk.isEmpty()
+                        && chunkSize != SINGLE_CHUNK) {
+                        handler.handleChunk(chunk);
+                        chunk = new ArrayList<ExpandedAcronym>();
+                    }
+                    lookup = lookups.take();
+                }
+                chunk.add(lookup.get());
+                --pendingLookups;
+            } catch (InterruptedException
+                     | CancellationException e) {
+                // The batch was cancelled or the Service is being
+                // destroyed, so stop the lookups nobody is waiting
+                // for.
+                Log.d(TAG,
+                      "Abandoning "
+                      + pendingLookups
+                      + " lookup(s)");
+                for (Future<ExpandedAcronym> lookup : pending)
+                    lookup.cancel(true);
+
+                // Restore the interrupt status and tell the caller the
+                // batch wasn't finished.
+                if (e instanceof InterruptedException)
+                    Thread.currentThread().interrupt();
+                throw new CancellationException("batch of "
+                                                + acronyms.size()
+                                                + " acronym(s) was abandoned");
+            } catch (ExecutionException e) {
+                // expandAcronym() doesn't throw, so this can't happen.
+                throw new IllegalStateException(e.getCause());
+            }
+        }
+    }
+
+    /**
+     * Return the ExpandedAcronym for @a acronym, whose expansions are
+     * empty if the @a acronym has none or the lookup failed.
+     */
+    private ExpandedAcronym expandAcronym(String acronym) {
+        List<AcronymExpansion> expansions = null;
+        try {
+            expansions = getAcronymExpansions(acronym);
+        } catch (RuntimeException e) {
+            e.printStackTrace();
+        }
+
+        return new ExpandedAcronym(acronym,
+                                   expansions != null
+                                   ? expansions
+                                   : new ArrayList<AcronymExpansion>());
+    }
+
+    /**
+     * Try to get the results from the SharedAcronymCache, which
+     * contains the results obtained by the Services in both processes.
+     * If they aren't there then query the Acronym Service and store
+     * the results into the SharedAcronymCache for up to
+     * DEFAULT_CACHE_TIMEOUT seconds.  The AcronymCache only keeps
+     * these results for the remainder of that time, so results are
+     * never returned for longer.  The results of a query are parsed
+     * by the @a parser.
+     */
+    private List<AcronymExpansion> getResultsFromSharedCache
+        (String acronym,
+         AcronymDataJsonParser parser) {
+        SharedAcronymCache sharedCache =
+            GenericSingleton.instance(SharedAcronymCache.class);
+
         List<AcronymExpansion> results =
-            GenericSingleton.instance(AcronymCache.class).get(acronym);
+            sharedCache.get(acronym);
 
-        if (results != null) {
-            Log.d(TAG,
-                  "Getting results from the cache for "
-                  + acronym);
-           
-            // Return the results from the cache.
-            return results;
-        } else {
+        if (results != null)
             Log.d(TAG,
-                  "Getting results from the Acronym Service for "
+                  "Getting results from the shared cache for "
                   + acronym);
-
-            // The results weren't already in the cache or were
-            // "stale", so obtain them from the Acronym Service.
-            results = getResultsFromAcronymService(acronym);
-
+        else {
+            results = getResultsFromAcronymService(acronym,
+                                                   parser);
             if (results != null)
-                // Store the results into the cache for up to
-                // DEFAULT_CACHE_TIMEOUT seconds based on the location
-                // and return the results.
-                GenericSingleton.instance(AcronymCache.class).put
-                    (acronym,
-                     results,
-                     DEFAULT_CACHE_TIMEOUT);
-            return results;
+                sharedCache.put(acronym,
+                                results,
+                                DEFAULT_CACHE_TIMEOUT);
         }
+        return results;
+    }
+
+    /**
+     * Return up to @a limit acronyms that start with @a prefix from
+     * the AcronymIndex, most frequent first, or an empty List if
+     * there's no index.
+     */
+    protected List<String> prefixSearch(String prefix,
+                                        int limit) {
+        AcronymIndex index = mIndex;
+        return index != null
+            ? index.prefixSearch(prefix,
+                                 limit)
+            : new ArrayList<String>();
     }
 
     /**
      * Actually query the Acronym Service web service to get the
-     * current AcronymData.
+     * current AcronymData, which is parsed by the @a parser.  The
+     * AcronymIndex is consulted first, so acronyms it contains are
+     * expanded without any network traffic.
      */
-    private List<AcronymExpansion> getResultsFromAcronymService(String acronym) {
+    private List<AcronymExpansion> getResultsFromAcronymService
+        (String acronym,
+         final AcronymDataJsonParser parser) {
+        AcronymIndex index = mIndex;
+        if (index != null) {
+            List<AcronymExpansion> expansions =
+                index.lookup(acronym);
+            if (expansions != null) {
+                Log.d(TAG,
+                      "Found "
+                      + acronym
+                      + " in the acronym index");
+                return expansions;
+            }
+        }
+
+        UnknownAcronyms unknownAcronyms =
+            GenericSingleton.instance(UnknownAcronyms.class);
+
+        // Don't query the Acronym Service for an acronym it recently
+        // had no expansions for.
+        if (unknownAcronyms.mightContain(acronym)) {
+            Log.d(TAG,
+                  "Skipping the Acronym Service for unknown acronym "
+                  + acronym);
+            return null;
+        }
+
+        Log.d(TAG,
+              "Getting results from the Acronym Service for "
+              + acronym);
+
         // Create a List that will return the List of AcronymExpansion objects obtained
         // from the Acronym Service web service.
         List<AcronymExpansion> returnList = 
@@ -131,25 +745,31 @@ public class AcronymServiceBase
             final URL url = new URL(sAcronym_Service_URL
                                     + URLEncoder.encode(acronym,
                                                         "UTF-8"));
-            // Opens a connection to the Acronym Service.
-            HttpURLConnection urlConnection =
-                (HttpURLConnection) url.openConnection();
-
-            // Sends the GET request and returns a stream containing
-            // the Json results.
-            try (InputStream in =
-                 new BufferedInputStream(urlConnection.getInputStream())) {
-                    // Create the parser.
-                 final AcronymDataJsonParser parser =
-                     new AcronymDataJsonParser();
-            
-                // Parse the Json results and create AcronymData
-                // objects.
-                returnList = parser.parseJsonStream(in);
-            } finally {
-                urlConnection.disconnect();
-            }
+
+            // Send the GET request over a pooled connection and parse
+            // the Json results to create AcronymData objects.  A
+            // chunked parse reads the response as it arrives, so its
+            // chunks reach the client while the rest is downloaded.
+            HttpTransport.ResponseHandler<List<AcronymExpansion>> handler =
+                new HttpTransport.ResponseHandler<List<AcronymExpansion>>() {
+                    @Override
+                    public List<AcronymExpansion> handleResponse(InputStream in)
+                        throws IOException {
+                        return parser.parseJsonStream(in);
+                    }
+                };
+            returnList = parser.isChunked()
+                ? sHttpTransport.getStreaming(url,
+                                              handler)
+                : sHttpTransport.get(url,
+                                     handler);
         } catch (IOException e) {
+            // If the request was cancelled don't cache anything or
+            // remember the acronym as unknown.
+            if (Thread.currentThread().isInterrupted())
+                throw new CancellationException("lookup of "
+                                                + acronym
+                                                + " was cancelled");
             e.printStackTrace();
             return null;
         }
@@ -157,9 +777,22 @@ public class AcronymServiceBase
         // See if we parsed any valid data.
         if (returnList != null 
             && returnList.size() > 0) {
+            // Sort the expansions once before they're cached, so the
+            // most frequent ones and pages of them are simply slices
+            // of the cached List.  The Acronym Service usually returns
+            // them in this order already, in which case the sort
+            // takes linear time.
+            Collections.sort(returnList,
+                             BY_DECREASING_FREQ);
+
             // Return the List of AcronymData.
             return returnList;
-        } else 
+        } else {
+            // Remember that the Acronym Service has no expansions for
+            // this acronym.  Failures to reach it aren't remembered
+            // since they're handled above.
+            unknownAcronyms.put(acronym);
             return null;
+        }
     }
 }
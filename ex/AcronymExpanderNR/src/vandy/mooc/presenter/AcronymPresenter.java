@@ -1,17 +1,25 @@
 package vandy.mooc.presenter;
 
 import java.lang.ref.WeakReference;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 
 import vandy.mooc.MVP;
 import vandy.mooc.common.GenericAsyncTask;
 import vandy.mooc.common.GenericAsyncTaskOps;
 import vandy.mooc.model.AcronymModel;
 import vandy.mooc.model.aidl.AcronymExpansion;
+import vandy.mooc.model.aidl.AcronymExpansionBatch;
 import vandy.mooc.model.aidl.AcronymResults;
+import vandy.mooc.model.aidl.ExpandedAcronym;
 import android.content.Context;
 import android.content.res.Configuration;
+import android.os.AsyncTask;
+import android.os.Handler;
 import android.os.IBinder;
+import android.os.Looper;
 import android.os.RemoteException;
 import android.util.Log;
 
@@ -20,17 +28,16 @@ import android.util.Log;
  * (MVP) pattern by acting upon the Model and the View, i.e., it
  * retrieves data from the Model (e.g., AcronymModel) and formats it
  * for display in the View (e.g., DisplayExpansionActivity).  It
- * implements GenericAsyncTaskOps so its doInBackground() method runs
- * in a background task.  It implements MVP.ProvidedPresenterOps and
- * MVP.RequiredModelOps to decouple the MVP layers.  It implements
- * AcronymResults so it can be the target of asynchronous callback
- * methods from the Model layer.
+ * implements MVP.ProvidedPresenterOps and MVP.RequiredModelOps to
+ * decouple the MVP layers.  Several lookups can be in progress at
+ * once, each of which is tracked by a Lookup object that runs it in
+ * a background task or is the target of its asynchronous callback
+ * methods from the Model layer, so the results are matched to their
+ * lookups whatever order they arrive in.
  */
 public class AcronymPresenter
-    implements GenericAsyncTaskOps<String, Void, List<AcronymExpansion>>,
-               MVP.ProvidedPresenterOps,
-               MVP.RequiredPresenterOps,
-               AcronymResults {
+    implements MVP.ProvidedPresenterOps,
+               MVP.RequiredPresenterOps {
     /**
      * Debugging tag used by the Android logger.
      */
@@ -47,25 +54,48 @@ public class AcronymPresenter
      */
     private AcronymModel mAcronymModel;
     
-       /**
-     * The GenericAsyncTask used to expand an acronym in a background
-     * thread via the Acronym web service.
+    /**
+     * Default maximum number of lookups that can be in progress at
+     * once.
+     */
+    public static final int MAX_LOOKUPS = 4;
+
+    /**
+     * The lookups in progress, keyed by their ids, in the order they
+     * were started.  The results of a lookup that's no longer in the
+     * map, e.g., because it was superseded, are dropped.  The map is
+     * also the lock that serializes the callbacks of the lookups,
+     * which run in Binder and background threads.
+     */
+    private final Map<Long, Lookup> mLookups =
+        new LinkedHashMap<Long, Lookup>();
+
+    /**
+     * Maximum number of lookups that can be in progress at once.
+     */
+    private int mMaxLookups = MAX_LOOKUPS;
+
+    /**
+     * Generates the ids of the lookups.
      */
-    private GenericAsyncTask<String, 
-        Void,
-        List<AcronymExpansion>,
-        AcronymPresenter> mAsyncTask;
+    private long mNextLookupId;
 
     /**
-     * Keeps track of whether a call is already in progress and
-     * ignores subsequent calls until the first call is done.
+     * The lookup whose chunks of results are being displayed, i.e.,
+     * after its first chunk and before its last one, or null.  The
+     * chunks of other lookups are held back until they're all there,
+     * so they aren't appended to the wrong display.  A display that's
+     * started on top of this lookup's display, e.g., for a synchronous
+     * lookup, drops this lookup's later chunks, since they're tagged
+     * with its id.
      */
-    private boolean mCallInProgress;
+    private Lookup mStreamingLookup;
 
     /**
-     * Store Acronym for error reporting purposes.
+     * Runs the deadlines of the asynchronous lookups in the UI thread.
      */
-    private String mAcronym;
+    private final Handler mUiHandler =
+        new Handler(Looper.getMainLooper());
 
     /**
      * Constructor initializes the fields.
@@ -100,100 +130,368 @@ public class AcronymPresenter
      */
     @Override
     public void onDestroy(boolean isChangingConfigurations) {
+        // Cancel the lookups in progress unless the View is simply
+        // being recreated.
+        if (!isChangingConfigurations)
+            synchronized (mLookups) {
+                for (Lookup lookup : mLookups.values())
+                    lookup.cancel();
+                mLookups.clear();
+            }
+
         // Destroy the model.
         mAcronymModel.onDestroy(isChangingConfigurations);
     }
 
+    /**
+     * Set the maximum number of lookups that can be in progress at
+     * once, which is MAX_LOOKUPS by default.
+     */
+    public void setMaxLookups(int maxLookups) {
+        synchronized (mLookups) {
+            mMaxLookups = maxLookups;
+        }
+    }
+
     /**
      * Initiate the synchronous acronym lookup when the user presses
      * the "Lookup Acronym Sync" button.  It uses an AsyncTask to
      * avoid blocking the UI thread.
      *
-     * @return false if a call is already in progress, else true.
+     * @return false if too many lookups are in progress, else true.
      */
     public boolean expandAcronymSync(String acronym) {
-        if (mCallInProgress)
+        final Lookup lookup = startLookup(acronym);
+        if (lookup == null)
             return false;
-        else {
-            // Don't allow concurrent calls to get the weather.
-            mCallInProgress = true;
-            
-            // Store this for error reporting purposes.
-            mAcronym = acronym;
-
-            // Execute the AsyncTask to expand the acronym without
-            // blocking the caller.
-            mAsyncTask = new GenericAsyncTask<>(this);
-            mAsyncTask.execute(mAcronym);
-            return true;
-        }
-    }
 
-    /**
-     * Retrieve the expanded acronym results via a synchronous two-way
-     * method call, which runs in a background thread to avoid
-     * blocking the UI thread.
-     */
-    @Override
-    public List<AcronymExpansion> doInBackground(String... acronyms) {
-        // Get the acronym expansions synchronously.
-        return mAcronymModel.getAcronymExpansions(acronyms[0]);
-    }
-
-    /**
-     * Display the results in the UI Thread.
-     */
-    @Override
-    public void onPostExecute(List<AcronymExpansion> acronymExpansions) {
-        displayResults(acronymExpansions,
-                       "no expansions for "
-                       + mAcronym
-                       + " found");
+        // Execute the AsyncTask to expand the acronym without
+        // blocking the caller.  The tasks run in a thread pool,
+        // rather than one after the other, so lookups of other
+        // acronyms don't wait for this one.
+        lookup.mAsyncTask =
+            new GenericAsyncTask<String,
+                                 Void,
+                                 List<AcronymExpansion>,
+                                 Lookup>(lookup);
+        lookup.mAsyncTask.executeOnExecutor(AsyncTask.THREAD_POOL_EXECUTOR,
+                                            acronym);
+        return true;
     }
 
     /**
      * Initiate the synchronous acronym lookup when the user presses
      * the "Lookup Acronym Async" button.
      *
-     * @return false if a call is already in progress, else true.
+     * @return false if too many lookups are in progress, else true.
      */
     public boolean expandAcronymAsync(String acronym) {
-        if (mCallInProgress)
+        final Lookup lookup = startLookup(acronym);
+        if (lookup == null)
             return false;
-        else {
-            // Don't allow concurrent calls to get the weather.
-            mCallInProgress = true;
-
-            // Store this for error reporting purposes.
-            mAcronym = acronym;
 
-            // Get the acronym expansions asynchronously.  The results
-            // are returned via the sendResults() and sendError() hook
-            // methods below.
-            mAcronymModel.getAcronymExpansions(acronym,
-                                               this);
-            return true;
+        // Get the acronym expansions asynchronously.  The results
+        // are returned via the sendPartialResultBatch() and
+        // sendError() hook methods of the lookup.
+        synchronized (mLookups) {
+            lookup.mRequestId =
+                mAcronymModel.getAcronymExpansions(acronym,
+                                                   lookup);
+            if (lookup.mRequestId == MVP.ProvidedModelOps.NO_REQUEST)
+                lookup.finish(null,
+                              "unable to expand "
+                              + acronym);
+            else
+                // Stop waiting for results once the request's
+                // deadline passes, since the AcronymServiceAsync sends
+                // nothing more after cancelling it, nor if its process
+                // dies.
+                mUiHandler.postDelayed(new Runnable() {
+                        @Override
+                        public void run() {
+                            lookup.expire();
+                        }
+                    },
+                    MVP.ProvidedModelOps.REQUEST_TIMEOUT);
         }
+        return true;
     }
 
     /**
-     * This hook method is called back by the Model layer and returns
-     * AcronymExpansion results back to the View layer.
+     * Start tracking a lookup of @a acronym, which supersedes a
+     * lookup of the same acronym that's in progress.
+     *
+     * @return The new Lookup, or null if too many lookups are in
+     *         progress.
      */
-    public void sendResults(final List<AcronymExpansion> acronymExpansions)
-        throws RemoteException {
-        displayResults(acronymExpansions,
-                       (String) null);
+    private Lookup startLookup(String acronym) {
+        synchronized (mLookups) {
+            // Drop the results of an earlier lookup of the acronym,
+            // since they're no longer wanted.
+            for (Lookup lookup : new ArrayList<Lookup>(mLookups.values()))
+                if (lookup.mAcronym.equals(acronym)) {
+                    Log.d(TAG,
+                          "superseding lookup "
+                          + lookup.mId
+                          + " of "
+                          + acronym);
+                    mLookups.remove(lookup.mId);
+                    lookup.cancel();
+                }
+
+            if (mLookups.size() >= mMaxLookups)
+                return null;
+
+            final Lookup lookup = new Lookup(++mNextLookupId,
+                                             acronym);
+            mLookups.put(lookup.mId,
+                         lookup);
+            return lookup;
+        }
     }
 
     /**
-     * This hook method is called back by the Model layer and returns
-     * error results back to the View layer.
+     * A lookup of an acronym that's in progress.  It runs a
+     * synchronous lookup in a GenericAsyncTask and receives the
+     * results of an asynchronous lookup from the Model layer, which
+     * are only displayed while the lookup is still tracked in
+     * mLookups.
      */
-    public void sendError(final String reason)
-        throws RemoteException {
-        displayResults(null,
-                       reason);
+    private class Lookup
+            implements GenericAsyncTaskOps<String,
+                                           Void,
+                                           List<AcronymExpansion>>,
+                       AcronymResults {
+        /**
+         * The id of the lookup.
+         */
+        final long mId;
+
+        /**
+         * The acronym being expanded, which is also used for error
+         * reporting purposes.
+         */
+        final String mAcronym;
+
+        /**
+         * The GenericAsyncTask used to synchronously expand the
+         * acronym in a background thread, or null for an
+         * asynchronous lookup.
+         */
+        GenericAsyncTask<String,
+                         Void,
+                         List<AcronymExpansion>,
+                         Lookup> mAsyncTask;
+
+        /**
+         * The id of the request of an asynchronous lookup in the
+         * Model layer.
+         */
+        long mRequestId = MVP.ProvidedModelOps.NO_REQUEST;
+
+        /**
+         * The chunks of results that are held back while another
+         * lookup's results are being displayed, or null.
+         */
+        List<AcronymExpansion> mHeldBack;
+
+        /**
+         * Constructor initializes the fields.
+         */
+        Lookup(long id,
+               String acronym) {
+            mId = id;
+            mAcronym = acronym;
+        }
+
+        /**
+         * Return true if the lookup is still in progress, i.e., its
+         * results are wanted.  Must be called with mLookups locked.
+         */
+        boolean isCurrent() {
+            return mLookups.get(mId) == this;
+        }
+
+        /**
+         * Stop the lookup, whose results are no longer wanted.  Must
+         * be called with mLookups locked.
+         */
+        void cancel() {
+            if (mStreamingLookup == this)
+                mStreamingLookup = null;
+            if (mAsyncTask != null)
+                mAsyncTask.cancel(false);
+            mAcronymModel.cancelRequest(mRequestId);
+        }
+
+        /**
+         * Stop tracking the lookup and display its @a results, or
+         * the @a failureReason if there aren't any.  Must be called
+         * with mLookups locked.
+         */
+        void finish(List<AcronymExpansion> results,
+                    String failureReason) {
+            mLookups.remove(mId);
+            if (mStreamingLookup == this)
+                mStreamingLookup = null;
+            displayResults(results,
+                           failureReason);
+        }
+
+        /**
+         * Give up on an asynchronous lookup whose results haven't all
+         * arrived by its deadline, which frees its slot in mLookups
+         * and lets the chunks of other lookups be displayed.  Does
+         * nothing if the lookup has finished already.
+         */
+        void expire() {
+            synchronized (mLookups) {
+                if (!isCurrent())
+                    return;
+                cancel();
+                finish(null,
+                       "expanding "
+                       + mAcronym
+                       + " timed out");
+            }
+        }
+
+        /**
+         * Retrieve the expanded acronym results via a synchronous
+         * two-way method call, which runs in a background thread to
+         * avoid blocking the UI thread.
+         */
+        @Override
+        public List<AcronymExpansion> doInBackground(String... acronyms) {
+            // Get the acronym expansions synchronously.
+            return mAcronymModel.getAcronymExpansions(acronyms[0]);
+        }
+
+        /**
+         * Display the results in the UI Thread.
+         */
+        @Override
+        public void onPostExecute(List<AcronymExpansion> acronymExpansions) {
+            synchronized (mLookups) {
+                if (isCurrent())
+                    finish(acronymExpansions,
+                           "no expansions for "
+                           + mAcronym
+                           + " found");
+            }
+        }
+
+        /**
+         * This hook method is called back by the Model layer and
+         * returns AcronymExpansion results back to the View layer.
+         */
+        public void sendResults(final List<AcronymExpansion> acronymExpansions)
+            throws RemoteException {
+            synchronized (mLookups) {
+                if (isCurrent())
+                    finish(acronymExpansions,
+                           null);
+            }
+        }
+
+        /**
+         * This hook method is called back by the Model layer and
+         * returns a chunk of AcronymExpansion results back to the
+         * View layer.  If no other lookup's results are being
+         * displayed the first chunk starts a new display and the
+         * others are appended to it, otherwise the chunks are
+         * displayed together after the last one arrives.
+         */
+        public void sendPartialResults(final List<AcronymExpansion> acronymExpansions,
+                                       boolean last)
+            throws RemoteException {
+            synchronized (mLookups) {
+                // Drop the results nobody wants.
+                if (!isCurrent())
+                    return;
+
+                if (mHeldBack == null
+                    && (mStreamingLookup == null
+                        || mStreamingLookup == this)) {
+                    boolean first = mStreamingLookup != this;
+                    mStreamingLookup = last ? null : this;
+
+                    // Display the chunk.
+                    displayPartialResults(mId,
+                                          acronymExpansions,
+                                          first);
+
+                    // The lookup is done after the last chunk.
+                    if (last)
+                        mLookups.remove(mId);
+                } else {
+                    // Hold the chunk back until the others arrive.
+                    if (mHeldBack == null)
+                        mHeldBack = new ArrayList<AcronymExpansion>();
+                    mHeldBack.addAll(acronymExpansions);
+                    if (last)
+                        finish(mHeldBack,
+                               "no expansions for "
+                               + mAcronym
+                               + " found");
+                }
+            }
+        }
+
+        /**
+         * This hook method is called back by the Model layer and
+         * returns a chunk of AcronymExpansion results in columnar
+         * form, which is displayed the same way as a chunk passed to
+         * sendPartialResults().
+         */
+        public void sendPartialResultBatch(final AcronymExpansionBatch acronymExpansions,
+                                           boolean last)
+            throws RemoteException {
+            sendPartialResults(acronymExpansions.toList(),
+                               last);
+        }
+
+        /**
+         * This hook method is called back by the Model layer and
+         * returns a chunk of the results of a batch of acronyms back
+         * to the View layer, which displays the expansions of all the
+         * acronyms in the chunk.
+         */
+        public void sendExpandedAcronyms(final List<ExpandedAcronym> expandedAcronyms)
+            throws RemoteException {
+            final List<AcronymExpansion> acronymExpansions =
+                new ArrayList<AcronymExpansion>();
+            for (ExpandedAcronym expandedAcronym : expandedAcronyms)
+                acronymExpansions.addAll(expandedAcronym.getExpansions());
+
+            synchronized (mLookups) {
+                if (isCurrent())
+                    finish(acronymExpansions,
+                           null);
+            }
+        }
+
+        /**
+         * This hook method is called back by the Model layer and
+         * returns error results back to the View layer.
+         */
+        public void sendError(final String reason)
+            throws RemoteException {
+            synchronized (mLookups) {
+                if (isCurrent())
+                    finish(null,
+                           reason);
+            }
+        }
+
+        /**
+         * A no-op needed to make the compiler happy since we
+         * implement the AcronymResult interface.
+         */
+        @Override
+        public IBinder asBinder() {
+            return null;
+        }
     }
 
     /**
@@ -205,9 +503,18 @@ public class AcronymPresenter
         // Display the results.
         mAcronymView.get().displayResults(results,
                                           failureReason);
+    }
 
-        // Call is no longer in progress.
-        mCallInProgress = false;
+    /**
+     * Call back to the View layer to display a chunk of the results.
+     */
+    @Override
+    public void displayPartialResults(long lookupId,
+                                      List<AcronymExpansion> results,
+                                      boolean first) {
+        mAcronymView.get().displayPartialResults(lookupId,
+                                                 results,
+                                                 first);
     }
 
     /**
@@ -225,13 +532,4 @@ public class AcronymPresenter
     public Context getApplicationContext() {
         return mAcronymView.get().getApplicationContext();
     }
-
-    /**
-     * A no-op needed to make the compiler happy since we implement
-     * the AcronymResult interface.
-     */
-    @Override
-    public IBinder asBinder() {
-        return null;
-    }
 }
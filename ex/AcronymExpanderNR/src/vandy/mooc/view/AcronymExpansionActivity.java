@@ -110,7 +110,7 @@ public class AcronymExpansionActivity
             if (mAcronymPresenter.expandAcronymSync(acronym) == false)
                 // Show error message to user.
                 Utils.showToast(this,
-                                "Call already in progress");
+                                "Too many lookups in progress");
 
             // Return focus to edit box and select all text in it
             // after query.
@@ -143,7 +143,7 @@ public class AcronymExpansionActivity
             if (mAcronymPresenter.expandAcronymAsync(acronym) == false)
                 // Show error message to user.
                 Utils.showToast(this,
-                                "Call already in progress");
+                                "Too many lookups in progress");
 
             // Return focus to edit box and select all text in it
             // after query.
@@ -162,6 +162,19 @@ public class AcronymExpansionActivity
     @Override
     public void displayResults(List<AcronymExpansion> results,
                                String errorMessage) {
+        displayResults(results,
+                       errorMessage,
+                       DisplayExpansionActivity.NO_LOOKUP);
+    }
+
+    /**
+     * Start a new Activity that displays the Acronym Expansions, to
+     * which later chunks of the results of the lookup with @a
+     * lookupId are appended.
+     */
+    private void displayResults(List<AcronymExpansion> results,
+                                String errorMessage,
+                                long lookupId) {
         if (results == null)
             Utils.showToast(this,
                             errorMessage);
@@ -173,7 +186,8 @@ public class AcronymExpansionActivity
             // Create an intent that will start an Activity to display
             // the Acronym Expansions to the user.
             final Intent intent =
-                DisplayExpansionActivity.makeIntent(results);
+                DisplayExpansionActivity.makeIntent(results,
+                                                    lookupId);
 
             // Verify that the intent will resolve to an Activity.
             if (intent.resolveActivity(getPackageManager()) != null)
@@ -187,6 +201,27 @@ public class AcronymExpansionActivity
         }
     }
 
+    /**
+     * Display a chunk of the Acronym Expansions of the lookup with @a
+     * lookupId.  The first chunk starts the DisplayExpansionActivity
+     * and the others are appended to it.
+     */
+    @Override
+    public void displayPartialResults(long lookupId,
+                                      List<AcronymExpansion> results,
+                                      boolean first) {
+        if (first)
+            displayResults(results,
+                           null,
+                           lookupId);
+        else if (!results.isEmpty())
+            // Deliver the chunk to the DisplayExpansionActivity
+            // started by the first chunk, which drops it if another
+            // display has been started on top of it since.
+            startActivity(DisplayExpansionActivity.makeAppendIntent(results,
+                                                                    lookupId));
+    }
+
     /**
      * Return the Activity context.
      */
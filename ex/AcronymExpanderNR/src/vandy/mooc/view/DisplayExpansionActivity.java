@@ -30,6 +30,26 @@ public class DisplayExpansionActivity
      */
     public static final String KEY_ACRONYM_DATA = "acronym";
 
+    /**
+     * Key for the id of the lookup whose results are displayed.
+     */
+    public static final String KEY_LOOKUP_ID = "lookupId";
+
+    /**
+     * Key that marks an intent made by makeAppendIntent().
+     */
+    public static final String KEY_APPEND = "append";
+
+    /**
+     * Lookup id of results that aren't appended to.
+     */
+    public static final long NO_LOOKUP = 0;
+
+    /**
+     * The id of the lookup whose results are displayed.
+     */
+    private long mLookupId;
+
     /**
      * The ListView that will display the results to the user.
      */
@@ -49,12 +69,45 @@ public class DisplayExpansionActivity
      *            acronym entered by user.
      */
     public static Intent makeIntent(List<AcronymExpansion> results) {
+        return makeIntent(results,
+                          NO_LOOKUP);
+    }
+
+    /**
+     * Factory method that makes the implicit intent that displays the
+     * @a results of the lookup with @a lookupId, to which the later
+     * chunks of its results are appended.
+     */
+    public static Intent makeIntent(List<AcronymExpansion> results,
+                                    long lookupId) {
         // Create an Intent with a custom action to display Acronym
         // Expansions.
         return new Intent(ACTION_DISPLAY_ACRONYM_EXPANSIONS)
+            .putExtra(KEY_LOOKUP_ID,
+                      lookupId)
             .putParcelableArrayListExtra
                 (KEY_ACRONYM_DATA,
-                 (ArrayList<AcronymExpansion>) results);
+                 results instanceof ArrayList
+                 ? (ArrayList<AcronymExpansion>) results
+                 // Copy other Lists, e.g., the ones decoded from an
+                 // AcronymExpansionBuffer.
+                 : new ArrayList<AcronymExpansion>(results));
+    }
+
+    /**
+     * Factory method that makes an intent that appends the @a
+     * results to the DisplayExpansionActivity that's already
+     * displaying the earlier results of the lookup with @a lookupId,
+     * rather than starting a new one.  The results are dropped if
+     * that display isn't on top anymore.
+     */
+    public static Intent makeAppendIntent(List<AcronymExpansion> results,
+                                          long lookupId) {
+        return makeIntent(results,
+                          lookupId)
+            .putExtra(KEY_APPEND,
+                      true)
+            .addFlags(Intent.FLAG_ACTIVITY_SINGLE_TOP);
     }
 
     /**
@@ -70,6 +123,18 @@ public class DisplayExpansionActivity
         // Call to the superclass.
         super.onCreate(savedInstanceState);
 
+        // An intent made by makeAppendIntent() only starts a new
+        // Activity if the user has left the display its results
+        // belong to, so don't display them on their own.
+        if (getIntent().getBooleanExtra(KEY_APPEND,
+                                        false)) {
+            finish();
+            return;
+        }
+
+        mLookupId = getIntent().getLongExtra(KEY_LOOKUP_ID,
+                                             NO_LOOKUP);
+
         // Initialize the default layout.
         setContentView(R.layout.display_expansion_activity);
 
@@ -86,6 +151,29 @@ public class DisplayExpansionActivity
         mAdapter.notifyDataSetChanged();
     }
 
+    /**
+     * Hook method called when an intent made by makeAppendIntent()
+     * is delivered to this Activity, which appends the next chunk of
+     * results to the ones already displayed.
+     */
+    @Override
+    protected void onNewIntent(Intent intent) {
+        super.onNewIntent(intent);
+
+        // Drop the chunks of a lookup other than the one whose
+        // results are displayed.
+        if (mLookupId == NO_LOOKUP
+            || intent.getLongExtra(KEY_LOOKUP_ID,
+                                   NO_LOOKUP) != mLookupId)
+            return;
+
+        // Add the chunk to the Adapter, which notifies the ListView
+        // once for the whole chunk.
+        final List<AcronymExpansion> chunk =
+            intent.getParcelableArrayListExtra(KEY_ACRONYM_DATA);
+        mAdapter.addAll(chunk);
+    }
+
     /**
      * Initialize all the View fields.
      */